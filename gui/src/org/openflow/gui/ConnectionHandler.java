@@ -2,6 +2,15 @@ package org.openflow.gui;
 
 import java.io.DataInput;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.openflow.gui.drawables.Flow;
 import org.openflow.gui.drawables.Host;
@@ -10,14 +19,21 @@ import org.openflow.gui.drawables.Node;
 import org.openflow.gui.drawables.NodeWithPorts;
 import org.openflow.gui.drawables.OpenFlowSwitch;
 import org.openflow.gui.net.BackendConnection;
+import org.openflow.gui.net.ConnectionSelector;
 import org.openflow.gui.net.MessageProcessor;
+import org.openflow.gui.net.WireCapture;
 import org.openflow.gui.net.protocol.FlowsAdd;
 import org.openflow.gui.net.protocol.FlowsDel;
+import org.openflow.gui.net.protocol.FlowsListView;
+import org.openflow.gui.net.protocol.LinkSpecsListView;
+import org.openflow.gui.net.protocol.LinkType;
 import org.openflow.gui.net.protocol.LinksAdd;
 import org.openflow.gui.net.protocol.LinksDel;
 import org.openflow.gui.net.protocol.NodeType;
 import org.openflow.gui.net.protocol.OFGMessage;
 import org.openflow.gui.net.protocol.OFGMessageType;
+import org.openflow.gui.net.protocol.PollStart;
+import org.openflow.gui.net.protocol.PollStop;
 import org.openflow.gui.net.protocol.Request;
 import org.openflow.gui.net.protocol.RequestLinks;
 import org.openflow.gui.net.protocol.RequestType;
@@ -25,14 +41,24 @@ import org.openflow.gui.net.protocol.StatsHeader;
 import org.openflow.gui.net.protocol.SwitchDescriptionRequest;
 import org.openflow.gui.net.protocol.NodesAdd;
 import org.openflow.gui.net.protocol.NodesDel;
+import org.openflow.gui.net.protocol.NodesListView;
 import org.openflow.gui.net.protocol.auth.AuthReply;
 import org.openflow.gui.net.protocol.auth.AuthRequest;
 import org.openflow.gui.net.protocol.auth.AuthStatus;
+import org.openflow.gui.stats.LinkStats;
+import org.openflow.gui.stats.PollOwnership;
+import org.openflow.gui.stats.PollScheduler;
 import org.openflow.protocol.AggregateStatsReply;
 import org.openflow.protocol.AggregateStatsRequest;
+import org.openflow.protocol.FlowStatsReply;
+import org.openflow.protocol.FlowStatsRequest;
 import org.openflow.protocol.Match;
+import org.openflow.protocol.PortStatsReply;
+import org.openflow.protocol.PortStatsRequest;
+import org.openflow.protocol.StatsType;
 import org.openflow.protocol.SwitchDescriptionStats;
 import org.openflow.util.FlowHop;
+import org.openflow.util.LongInterner;
 import org.openflow.util.string.DPIDUtil;
 import org.pzgui.DialogHelper;
 import org.pzgui.PZClosing;
@@ -65,9 +91,65 @@ public class ConnectionHandler implements MessageProcessor<OFGMessage>,
     /** whether to subscribe to link updates */
     private boolean subscribeToLinkChanges;
     
+    /** runs the tasks which clean up after a connection is lost or regained */
+    private static final Timer resyncTimer = new Timer("ConnectionHandler resync", true);
+    
+    /** 
+     * removes the topology learned over the connection if it stays down for 
+     * too long (null unless the connection is down and the task is pending)
+     */
+    private TimerTask pendingRemoval = null;
+    
+    /** IDs of nodes announced since we reconnected, or null if not resyncing */
+    private volatile Set<Long> resyncNodes = null;
+    
+    /** links announced since we reconnected, or null if not resyncing */
+    private volatile Set<Link> resyncLinks = null;
+    
+    /** boxes datapath IDs read from stats replies so they can key the per-switch maps below */
+    private final LongInterner ids = new LongInterner();
+    
+    /** 
+     * the port stats poll of each switch whose links' utilization we track 
+     * (see Options.USE_PORT_STATS), keyed by datapath ID
+     */
+    private final ConcurrentHashMap<Long, PollStart> portStatsPolls = new ConcurrentHashMap<Long, PollStart>();
+    
+    /** 
+     * the number of flows entering the network at each switch whose FLOW stats
+     * we track (see Options.AUTO_TRACK_STATS_FOR_NEW_FLOW), keyed by datapath ID
+     */
+    private final ConcurrentHashMap<Long, AtomicInteger> flowsByIngress = new ConcurrentHashMap<Long, AtomicInteger>();
+    
+    /** total rate (in bps) of the flows entering at each switch in flowsByIngress */
+    private final ConcurrentHashMap<Long, Double> flowRateByIngress = new ConcurrentHashMap<Long, Double>();
+    
+    /** 
+     * total rate of the flows in the parts of a FLOW stats reply received so 
+     * far from each switch which has more parts to send
+     */
+    private final ConcurrentHashMap<Long, Double> pendingFlowRates = new ConcurrentHashMap<Long, Double>();
+    
+    /** the FLOW stats poll of each switch in flowsByIngress when the backend polls for us */
+    private final ConcurrentHashMap<Long, PollStart> flowStatsPolls = new ConcurrentHashMap<Long, PollStart>();
+    
+    /** 
+     * schedules our stats requests when Options.USE_POLL_SCHEDULER is set 
+     * (null otherwise, in which case the backend polls for us)
+     */
+    private final PollScheduler pollScheduler;
+    
+    /** 
+     * pauses polling for links nobody can see when Options.USE_VIEWPORT_POLLING
+     * is set (null otherwise)
+     */
+    private final ViewportTracker viewport;
+    
     /**
      * Create a connection bound to the server at the specified address and port
-     * which will be used to populate the specified topology.
+     * which will be used to populate the specified topology.  It uses one of 
+     * the shared selectors if Options.USE_NON_BLOCKING_IO is set, and blocking
+     * I/O otherwise.
      * 
      * @param topo               the topology this connection will interact with
      * @param ip                 the IP where the server lives
@@ -77,10 +159,56 @@ public class ConnectionHandler implements MessageProcessor<OFGMessage>,
      */
     public ConnectionHandler(Topology topo, String ip, int port, 
                              boolean subscribeSwitches, boolean subscribeLinks) {
+        this(topo, ip, port, subscribeSwitches, subscribeLinks,
+             Options.USE_NON_BLOCKING_IO ? ConnectionSelector.getShared() : null);
+    }
+    
+    /**
+     * Create a connection bound to the server at the specified address and port
+     * which will be used to populate the specified topology.
+     * 
+     * @param topo               the topology this connection will interact with
+     * @param ip                 the IP where the server lives
+     * @param port               the port the server listens on
+     * @param subscribeSwitches  whether to subscribe to switch changes
+     * @param subscribeLinks     whether to subscribe to link changes
+     * @param selector           if non-null, the selector which will drive the 
+     *                           connection with non-blocking I/O (many 
+     *                           connections may share one selector)
+     */
+    public ConnectionHandler(Topology topo, String ip, int port, 
+                             boolean subscribeSwitches, boolean subscribeLinks,
+                             ConnectionSelector selector) {
         topology = topo;
-        connection = new BackendConnection<OFGMessage>(this, ip, port);
+        connection = new BackendConnection<OFGMessage>(this, ip, port, selector);
+        if(Options.USE_PIPELINED_RECEIVE && selector == null)
+            connection.setPipelined(true);
+        connection.setOfferProtocolV2(Options.USE_PROTOCOL_V2);
+        connection.setHeartbeat(Options.HEARTBEAT_INTERVAL_MSEC, Options.HEARTBEAT_MAX_MISSES);
+        if(Options.WIRE_CAPTURE_PATH != null) {
+            String path = Options.WIRE_CAPTURE_PATH + "-" + ip + "-" + port;
+            try {
+                connection.setCapture(new WireCapture(path));
+            }
+            catch(IOException e) {
+                System.err.println("Unable to capture to " + path + ": " + e.getMessage());
+            }
+        }
         subscribeToSwitchChanges = subscribeSwitches;
         subscribeToLinkChanges = subscribeLinks;
+        pollScheduler = Options.USE_POLL_SCHEDULER
+                        ? new PollScheduler(connection, Options.POLL_BUDGET_MSGS_PER_SEC)
+                        : null;
+        if(Options.USE_VIEWPORT_POLLING) {
+            viewport = new ViewportTracker(topology, new ViewportTracker.VisibilityListener() {
+                public void visibilityChanged(Link l, boolean visible) {
+                    handleLinkVisibilityChanged(l, visible);
+                }
+            });
+            viewport.start();
+        }
+        else
+            viewport = null;
     }
     
     public BackendConnection<OFGMessage> getConnection() {
@@ -99,22 +227,39 @@ public class ConnectionHandler implements MessageProcessor<OFGMessage>,
         throw new Error("using old connectionStateChange() method");
     }
     
-    /** Called when the backend has been disconnected or reconnected */
+    /** 
+     * Called when the backend has been disconnected or reconnected.  The 
+     * topology learned over the connection is kept for a while after it goes 
+     * down (Options.RECONNECT_GRACE_MSEC); the connection itself restores our 
+     * subscriptions and polls, so if it comes back in time we only need to 
+     * resynchronize the topology.
+     */
     public void connectionStateChange(boolean connected) {
-        if(!connection.isConnected()) {
-            topology.removeAll(connection);
+        flushTopologyChanges();
+        
+        // hand the links and switches we poll to other connections while we 
+        // are down, and take back those nobody else can poll when we return
+        pollOwnership.setConnected(this, connected);
+        
+        // use the state we were told about: if messages are pipelined, then the 
+        // connection may have changed state again since
+        if(!connected) {
+            scheduleTopologyRemoval();
         }
         else {
+            if(cancelTopologyRemoval())
+                startResync();
+            
             // ask the backend for a list of switches and links
             try {
                 if(isSubscribeToSwitchChanges()) {
                     connection.sendMessage(new Request(OFGMessageType.NODES_REQUEST, RequestType.ONETIME));
-                    connection.sendMessage(new Request(OFGMessageType.NODES_REQUEST, RequestType.SUBSCRIBE));
+                    subscribe(new Request(OFGMessageType.NODES_REQUEST, RequestType.SUBSCRIBE));
                 }
                 
                 if(subscribeToLinkChanges) {
                     connection.sendMessage(new RequestLinks(RequestType.ONETIME));
-                    connection.sendMessage(new RequestLinks(RequestType.SUBSCRIBE));
+                    subscribe(new RequestLinks(RequestType.SUBSCRIBE));
                 }
             }
             catch(IOException e) {
@@ -123,13 +268,108 @@ public class ConnectionHandler implements MessageProcessor<OFGMessage>,
         }
     }
     
+    /** sends r unless the connection already has (and will restore) the subscription */
+    private void subscribe(Request r) throws IOException {
+        if(!connection.isSubscribed(r))
+            connection.sendMessage(r);
+    }
+    
+    /** 
+     * Schedules the removal of everything learned over the connection in case 
+     * it does not come back within Options.RECONNECT_GRACE_MSEC.
+     */
+    private synchronized void scheduleTopologyRemoval() {
+        if(shutting_down) {
+            topology.removeAll(connection);
+            stopAllStats();
+            return;
+        }
+        
+        if(pendingRemoval != null)
+            return;
+        
+        resyncNodes = null;
+        resyncLinks = null;
+        pendingRemoval = new TimerTask() {
+            public void run() {
+                synchronized(ConnectionHandler.this) {
+                    if(pendingRemoval != this)
+                        return;
+                    pendingRemoval = null;
+                }
+                topology.removeAll(connection);
+                stopAllStats();
+            }
+        };
+        resyncTimer.schedule(pendingRemoval, Options.RECONNECT_GRACE_MSEC);
+    }
+    
+    /** 
+     * Cancels a pending topology removal.  Returns true if there was one (i.e.,
+     * we still have the topology from before the connection went down).
+     */
+    private synchronized boolean cancelTopologyRemoval() {
+        if(pendingRemoval == null)
+            return false;
+        
+        pendingRemoval.cancel();
+        pendingRemoval = null;
+        return true;
+    }
+    
+    /** 
+     * Starts tracking which nodes and links the backend re-announces.  Those 
+     * it has not re-announced after Options.RESYNC_WINDOW_MSEC are removed.
+     */
+    private void startResync() {
+        final Set<Long> nodes = java.util.Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        final Set<Link> links = java.util.Collections.newSetFromMap(new ConcurrentHashMap<Link, Boolean>());
+        resyncNodes = nodes;
+        resyncLinks = links;
+        resyncTimer.schedule(new TimerTask() {
+            public void run() {
+                if(resyncNodes != nodes)
+                    return; // the connection went down again
+                
+                resyncNodes = null;
+                resyncLinks = null;
+                finishResync(nodes, links);
+            }
+        }, Options.RESYNC_WINDOW_MSEC);
+    }
+    
+    /** removes the nodes and links which were not re-announced during a resync */
+    private void finishResync(Set<Long> nodes, Set<Link> links) {
+        int numLinksRemoved = 0, numNodesRemoved = 0;
+        for(Link l : topology.getLinks()) {
+            if(links.contains(l))
+                continue;
+            
+            NodeWithPorts dst = l.getDestination();
+            NodeWithPorts src = l.getSource();
+            releaseLinkStats(l);
+            if(topology.disconnectLink(connection, dst.getID(), l.getMyPort(dst), src.getID(), l.getMyPort(src)) == 0)
+                numLinksRemoved += 1;
+        }
+        
+        for(Long id : topology.getNodeIDs()) {
+            if(!nodes.contains(id) && removeNode(id) >= 1)
+                numNodesRemoved += 1;
+        }
+        
+        System.out.println("Resync complete: removed " + numNodesRemoved + " stale nodes and " + numLinksRemoved + " stale links");
+    }
+    
     /** 
      * Constructs the object representing the received message.  The message is 
      * known to be of length len and len - 4 bytes representing the rest of the 
      * message should be extracted from buf.
      */
     public OFGMessage decode(int len, DataInput in) throws IOException {
-        return OFGMessageType.decode(len, in);
+        if(Options.USE_FLYWEIGHT_DECODING)
+            return OFGMessageType.decodeFlyweight(len, in);
+        else
+            return OFGMessageType.decode(len, in);
     }
 
     /** Handles messages received from the backend */
@@ -137,6 +377,14 @@ public class ConnectionHandler implements MessageProcessor<OFGMessage>,
         if(BackendConnection.PRINT_MESSAGES)
             System.out.println("recv: " + msg.toString());
         
+        // node and link changes are applied a tick later; anything else may 
+        // depend on them, so bring the topology up to date first
+        if(Options.TOPOLOGY_COALESCE_MSEC > 0) {
+            if(coalesceTopologyChange(msg))
+                return;
+            flushTopologyChanges();
+        }
+        
         switch(msg.type) {
         case AUTH_REQUEST:
             processAuthRequest((AuthRequest)msg);
@@ -155,7 +403,10 @@ public class ConnectionHandler implements MessageProcessor<OFGMessage>,
 	    break;
             
         case NODES_ADD:
-            processNodesAdd((NodesAdd)msg);
+            if(msg instanceof NodesListView)
+                processNodesAdd((NodesListView)msg);
+            else
+                processNodesAdd((NodesAdd)msg);
             break;
             
         case NODES_DELETE:
@@ -163,7 +414,10 @@ public class ConnectionHandler implements MessageProcessor<OFGMessage>,
             break;
             
         case LINKS_ADD:
-            processLinksAdd((LinksAdd)msg);
+            if(msg instanceof LinkSpecsListView)
+                processLinksAdd((LinkSpecsListView)msg);
+            else
+                processLinksAdd((LinksAdd)msg);
             break;
             
         case LINKS_DELETE:
@@ -171,7 +425,10 @@ public class ConnectionHandler implements MessageProcessor<OFGMessage>,
             break;
             
         case FLOWS_ADD:
-            processFlowsAdd((FlowsAdd)msg);
+            if(msg instanceof FlowsListView)
+                processFlowsAdd((FlowsListView)msg);
+            else
+                processFlowsAdd((FlowsAdd)msg);
             break;
             
         case FLOWS_DELETE:
@@ -242,10 +499,13 @@ public class ConnectionHandler implements MessageProcessor<OFGMessage>,
     }
     
     /** 
-     * Handles the echo reply by simply printing a message to stdout.
+     * Handles the echo reply by passing it on to the connection's heartbeat 
+     * (see BackendConnection.setHeartbeat()).  Replies to anything other 
+     * than a heartbeat are printed to stdout.
      */
     protected void processEchoReply(int xid) {
-        System.out.println("received echo reply (xid=" + xid + ")");
+        if(!getConnection().echoReplyReceived(xid))
+            System.out.println("received echo reply (xid=" + xid + ")");
     }
     
     /**
@@ -295,14 +555,36 @@ public class ConnectionHandler implements MessageProcessor<OFGMessage>,
             processDrawableNodeAdd(processNodeAdd(msgNode));
     }
     
+    /** add new nodes to the topology (the nodes are read straight from the message buffer) */
+    private void processNodesAdd(NodesListView msg) {
+        for(int i=0; i<msg.getNumNodes(); i++)
+            processDrawableNodeAdd(processNodeAdd(msg.getNode(i)));
+    }
+    
     /** add new node to the topology */
     protected void processDrawableNodeAdd(Node n) {
-        if(n instanceof NodeWithPorts) {
-            int ret = topology.addNode(connection, (NodeWithPorts)n);
+        if(n instanceof NodeWithPorts)
+            handleNodeAdded((NodeWithPorts)n, topology.addNode(connection, (NodeWithPorts)n));
+    }
+    
+    /** 
+     * Follows up on a node which was just added to the topology.
+     * 
+     * @param n    the node
+     * @param ret  the value returned by Topology.addNode()
+     */
+    private void handleNodeAdded(NodeWithPorts n, int ret) {
+        Set<Long> resyncing = resyncNodes;
+        if(resyncing != null) {
+            resyncing.add(n.getID());
             
-            if(ret>=0 && n instanceof OpenFlowSwitch)
-                handleNewSwitch((OpenFlowSwitch)n, ret!=0 /* if locally new, only request links */);
+            // we already know this switch: just refresh its links
+            if(ret < 0 && n instanceof OpenFlowSwitch)
+                handleNewSwitch((OpenFlowSwitch)n, true);
         }
+        
+        if(ret>=0 && n instanceof OpenFlowSwitch)
+            handleNewSwitch((OpenFlowSwitch)n, ret!=0 /* if locally new, only request links */);
     }
     
     /** 
@@ -322,53 +604,672 @@ public class ConnectionHandler implements MessageProcessor<OFGMessage>,
     /** remove nodes from the topology */
     private void processNodesDel(NodesDel msg) {
         for(org.openflow.gui.net.protocol.Node n : msg.nodes)
-            if(topology.removeNode(connection, n.id) < 0)
+            if(removeNode(n.id) < 0)
                 System.err.println("Ignoring switch delete message for non-existant switch: " + DPIDUtil.toString(n.id));
     }
     
     private void processLinksAdd(LinksAdd msg) {
-        for(org.openflow.gui.net.protocol.LinkSpec x : msg.links) {
-            NodeWithPorts dst = topology.getNode(x.dstNode.id);
-            if(dst == null) {
-                logNodeMissing("LinkAdd", "dst", x.dstNode.id);
-                continue;
-            }
-            
-            NodeWithPorts src = topology.getNode(x.srcNode.id);
-            if(src == null) {
-                logNodeMissing("LinkAdd", "src", x.srcNode.id);
-                continue;
-            }
-            
-                Link l = topology.addLink(x.linkType, dst, x.dstPort, src, x.srcPort);
-                if(l == null)
-                    continue;
-                l.setMaximumDataRate(x.capacity_bps);
+        for(org.openflow.gui.net.protocol.LinkSpec x : msg.links)
+            processLinkAdd(x.linkType, x.dstNode.id, x.dstPort, x.srcNode.id, x.srcPort, x.capacity_bps);
+    }
+    
+    /** add new links to the topology (the links are read straight from the message buffer) */
+    private void processLinksAdd(LinkSpecsListView msg) {
+        for(int i=0; i<msg.getNumLinks(); i++)
+            processLinkAdd(msg.getLinkType(i), 
+                           msg.getDstID(i), msg.getDstPort(i), 
+                           msg.getSrcID(i), msg.getSrcPort(i),
+                           msg.getCapacity(i));
+    }
+    
+    /** add a new link to the topology and start tracking its utilization */
+    private void processLinkAdd(LinkType linkType, long dstID, short dstPort, long srcID, short srcPort, long capacity_bps) {
+        NodeWithPorts dst = topology.getNode(dstID);
+        if(dst == null) {
+            logNodeMissing("LinkAdd", "dst", dstID);
+            return;
+        }
+        
+        NodeWithPorts src = topology.getNode(srcID);
+        if(src == null) {
+            logNodeMissing("LinkAdd", "src", srcID);
+            return;
+        }
+        
+        Link l = topology.addLink(linkType, dst, dstPort, src, srcPort);
+        if(l != null)
+            handleLinkAdded(l, capacity_bps);
+    }
+    
+    /** sets the capacity of a link which was just added and starts tracking its utilization */
+    private void handleLinkAdded(Link l, long capacity_bps) {
+        l.setMaximumDataRate(capacity_bps);
+        
+        Set<Link> resyncing = resyncLinks;
+        if(resyncing != null)
+            resyncing.add(l);
+        
+        if(!Options.AUTO_TRACK_STATS_FOR_NEW_LINK)
+            return;
+        
+        // keep what was collected if another connection (or this one, before
+        // a reconnect) already tracks the link
+        if(l.getStats(Match.MATCH_ALL) == null)
+            l.trackStats(Match.MATCH_ALL);
+        
+        // keep ourselves updated on the link's utilization
+        if(Options.USE_PORT_STATS) {
+            trackPortStats(l.getSource());
+            trackPortStats(l.getDestination());
+        }
+        else
+            trackLinkStats(l, Match.MATCH_ALL);
+    }
+    
+    // -------------------- Stats Ownership ------------------- //
+    
+    /**
+     * decides which connection polls each link or switch reported by more
+     * than one backend (shared by all connections, like links and nodes)
+     */
+    private static final PollOwnership pollOwnership = new PollOwnership();
+    
+    /** Returns the registry which decides which connection polls each link or switch. */
+    public static PollOwnership getPollOwnership() {
+        return pollOwnership;
+    }
+    
+    /** returns the key under which the PORT stats of a switch are polled */
+    private static List<Object> portStatsKey(long dpid) {
+        return Arrays.asList(new Object[]{StatsType.PORT, dpid});
+    }
+    
+    /**
+     * returns the key under which the FLOW stats of a switch are polled (flows
+     * belong to a topology, so each topology polls its ingress switches)
+     */
+    private List<Object> flowStatsKey(long dpid) {
+        return Arrays.asList(new Object[]{StatsType.FLOW, dpid, topology});
+    }
+    
+    /** returns the key under which the AGGREGATE stats of m over l are polled */
+    private static List<Object> linkStatsKey(Link l, Match m) {
+        return Arrays.asList(new Object[]{l, m});
+    }
+    
+    /**
+     * Claims the AGGREGATE stats of m over l for this connection; they are
+     * polled over it while it owns them (see PollOwnership).
+     */
+    private void trackLinkStats(final Link l, final Match m) {
+        pollOwnership.claim(linkStatsKey(l, m), this, new PollOwnership.Poller() {
+            public void start() {
+                if(pollScheduler != null) {
+                    pollScheduler.add(new LinkPollTarget(l, m));
+                    return;
+                }
                 
-                if(!Options.AUTO_TRACK_STATS_FOR_NEW_LINK)
-                    continue;
+                // hidden links are resumed once they become visible
+                if(viewport != null && !viewport.isVisible(l))
+                    return;
                 
-                // tell the backend to keep us updated on the link's utilization
                 try {
-                    l.trackStats(Options.STATS_REFRESH_RATE_MSEC, Match.MATCH_ALL, getConnection());
+                    l.resumeStats(Options.STATS_REFRESH_RATE_MSEC, m, getConnection());
                 }
                 catch (IOException e) {
-                    System.err.println("Warning: unable to setup link utilization polling for switch " + 
-                            DPIDUtil.toString(x.dstNode.id) + " port " + l.getMyPort(dst));
+                    NodeWithPorts dst = l.getDestination();
+                    System.err.println("Warning: unable to setup link utilization polling for switch " +
+                            DPIDUtil.toString(dst.getID()) + " port " + l.getMyPort(dst));
                 }
+            }
+            
+            public void stop() {
+                if(pollScheduler != null) {
+                    pollScheduler.remove(linkStatsKey(l, m));
+                    return;
+                }
+                
+                try {
+                    l.pauseStats(m, getConnection());
+                }
+                catch(IOException e) {
+                    // ignore: polls end with the connection
+                }
+            }
+        });
+    }
+    
+    /** gives up this connection's claim on the utilization stats of l */
+    private void releaseLinkStats(Link l) {
+        if(!Options.USE_PORT_STATS)
+            pollOwnership.release(linkStatsKey(l, Match.MATCH_ALL), this);
+    }
+    
+    /** gives up this connection's claim on the utilization stats of the specified link, if it is known */
+    private void releaseLinkStats(long dstID, short dstPort, long srcID, short srcPort) {
+        if(Options.USE_PORT_STATS)
+            return;
+        
+        NodeWithPorts dst = topology.getNode(dstID);
+        NodeWithPorts src = topology.getNode(srcID);
+        Link l = (dst == null || src == null) ? null : dst.getLinkTo(dstPort, src, srcPort);
+        if(l != null)
+            releaseLinkStats(l);
+    }
+    
+    /**
+     * Claims the counters of all of n's ports for this connection (unless n is
+     * not a switch); they are polled over it while it owns them.  One reply
+     * per poll updates every link attached to the switch.
+     */
+    private void trackPortStats(NodeWithPorts n) {
+        if(!(n instanceof OpenFlowSwitch))
+            return;
+        
+        final OpenFlowSwitch sw = (OpenFlowSwitch)n;
+        pollOwnership.claim(portStatsKey(sw.getID()), this, new PollOwnership.Poller() {
+            public void start() {
+                if(viewport == null || pollScheduler != null || viewport.isVisible(sw))
+                    startPortStats(sw);
+            }
+            
+            public void stop() {
+                stopPortStatsPoll(sw.getID());
+            }
+        });
+    }
+    
+    /** starts polling the counters of all of sw's ports (unless they are already being polled) */
+    private void startPortStats(OpenFlowSwitch sw) {
+        if(pollScheduler != null) {
+            pollScheduler.add(new SwitchPollTarget(sw));
+            return;
+        }
+        
+        if(portStatsPolls.containsKey(sw.getID()))
+            return;
+        
+        short pollInterval = (short)((Options.STATS_REFRESH_RATE_MSEC + 99) / 100);
+        PollStart poll = new PollStart(pollInterval, new PortStatsRequest(sw.getID()));
+        if(portStatsPolls.putIfAbsent(sw.getID(), poll) != null)
+            return;
+        
+        try {
+            getConnection().sendMessage(poll);
+        }
+        catch(IOException e) {
+            portStatsPolls.remove(sw.getID());
+            System.err.println("Warning: unable to setup port stats polling for switch " + DPIDUtil.toString(sw.getID()));
+        }
+    }
+    
+    /**
+     * gives up this connection's claim on the counters of the ports of the
+     * switch with the specified ID (another connection may take them over)
+     */
+    private void stopPortStats(long dpid) {
+        pollOwnership.release(portStatsKey(dpid), this);
+    }
+    
+    /** stops polling the counters of the ports of the switch with the specified ID */
+    private void stopPortStatsPoll(long dpid) {
+        if(pollScheduler != null)
+            pollScheduler.remove(portStatsKey(dpid));
+        
+        PollStart poll = portStatsPolls.remove(dpid);
+        if(poll == null)
+            return;
+        
+        try {
+            getConnection().sendMessage(new PollStop(poll.msg.xid));
+        }
+        catch(IOException e) {
+            // ignore: the poll ends with the connection
         }
     }
     
+    /**
+     * Notes that f enters the network at its ingress switch and claims that
+     * switch's FLOW stats if f is the first such flow.
+     */
+    private void trackFlowStats(Flow f) {
+        final OpenFlowSwitch sw = f.getIngressSwitch();
+        if(!Options.AUTO_TRACK_STATS_FOR_NEW_FLOW || sw == null)
+            return;
+        
+        AtomicInteger n = flowsByIngress.get(sw.getID());
+        if(n == null) {
+            AtomicInteger prev = flowsByIngress.putIfAbsent(sw.getID(), n = new AtomicInteger());
+            if(prev != null)
+                n = prev;
+        }
+        if(n.incrementAndGet() > 1)
+            return;
+        
+        pollOwnership.claim(flowStatsKey(sw.getID()), this, new PollOwnership.Poller() {
+            public void start() {
+                startFlowStats(sw);
+            }
+            
+            public void stop() {
+                stopFlowStatsPoll(sw.getID());
+            }
+        });
+    }
+    
+    /** starts polling the FLOW stats of sw (unless they are already being polled) */
+    private void startFlowStats(OpenFlowSwitch sw) {
+        if(pollScheduler != null) {
+            pollScheduler.add(new SwitchFlowsPollTarget(sw));
+            return;
+        }
+        
+        short pollInterval = (short)((Options.STATS_REFRESH_RATE_MSEC + 99) / 100);
+        PollStart poll = new PollStart(pollInterval, new FlowStatsRequest(sw.getID()));
+        if(flowStatsPolls.putIfAbsent(sw.getID(), poll) != null)
+            return;
+        
+        try {
+            getConnection().sendMessage(poll);
+        }
+        catch(IOException e) {
+            flowStatsPolls.remove(sw.getID());
+            System.err.println("Warning: unable to setup flow stats polling for switch " + DPIDUtil.toString(sw.getID()));
+        }
+    }
+    
+    /**
+     * Notes that f no longer enters the network at its ingress switch and
+     * stops tracking that switch's FLOW stats if no other flow does.
+     */
+    private void untrackFlowStats(Flow f) {
+        OpenFlowSwitch sw = f.getIngressSwitch();
+        if(sw == null)
+            return;
+        
+        AtomicInteger n = flowsByIngress.get(sw.getID());
+        if(n != null && n.decrementAndGet() <= 0)
+            stopFlowStats(sw.getID());
+    }
+    
+    /**
+     * stops tracking the FLOW stats of the switch with the specified ID and
+     * gives up this connection's claim on them
+     */
+    private void stopFlowStats(long dpid) {
+        flowsByIngress.remove(dpid);
+        flowRateByIngress.remove(dpid);
+        pendingFlowRates.remove(dpid);
+        pollOwnership.release(flowStatsKey(dpid), this);
+    }
+    
+    /** stops polling the FLOW stats of the switch with the specified ID */
+    private void stopFlowStatsPoll(long dpid) {
+        if(pollScheduler != null)
+            pollScheduler.remove(flowStatsKey(dpid));
+        
+        PollStart poll = flowStatsPolls.remove(dpid);
+        if(poll == null)
+            return;
+        
+        try {
+            getConnection().sendMessage(new PollStop(poll.msg.xid));
+        }
+        catch(IOException e) {
+            // ignore: the poll ends with the connection
+        }
+    }
+    
+    /** stops every poll of this connection and gives up all of its claims */
+    private void stopAllStats() {
+        for(Long dpid : flowsByIngress.keySet())
+            stopFlowStats(dpid);
+        pollOwnership.releaseAll(this);
+    }
+    
+    /**
+     * Returns the scheduler of this connection's stats requests, or null if
+     * the backend polls for us (see Options.USE_POLL_SCHEDULER).
+     */
+    public PollScheduler getPollScheduler() {
+        return pollScheduler;
+    }
+    
+    /**
+     * Sets the most stats requests to send per second over this connection
+     * (0 means unlimited).  Has no effect unless Options.USE_POLL_SCHEDULER.
+     */
+    public void setPollBudget(double msgsPerSec) {
+        if(pollScheduler != null)
+            pollScheduler.setBudget(msgsPerSec);
+    }
+    
+    /**
+     * pauses or resumes polling for the stats of a link which just left or
+     * entered every window (if this connection is the one polling them)
+     */
+    private void handleLinkVisibilityChanged(Link l, boolean visible) {
+        if(l.getStats(Match.MATCH_ALL) == null)
+            return;
+        
+        // scheduled targets check visibility themselves; only hurry them up
+        if(pollScheduler != null) {
+            if(visible) {
+                pollScheduler.expedite(linkStatsKey(l, Match.MATCH_ALL));
+                pollScheduler.expedite(portStatsKey(l.getSource().getID()));
+                pollScheduler.expedite(portStatsKey(l.getDestination().getID()));
+            }
+            return;
+        }
+        
+        // one poll covers each switch, so it runs while any of its links is visible
+        if(Options.USE_PORT_STATS) {
+            NodeWithPorts[] ends = new NodeWithPorts[]{l.getSource(), l.getDestination()};
+            for(NodeWithPorts n : ends) {
+                if(!(n instanceof OpenFlowSwitch) || !pollOwnership.isOwner(portStatsKey(n.getID()), this))
+                    continue;
+                
+                if(visible)
+                    startPortStats((OpenFlowSwitch)n);
+                else if(!viewport.isVisible(n))
+                    stopPortStatsPoll(n.getID());
+            }
+            return;
+        }
+        
+        if(!pollOwnership.isOwner(linkStatsKey(l, Match.MATCH_ALL), this))
+            return;
+        
+        try {
+            if(visible)
+                l.resumeStats(Options.STATS_REFRESH_RATE_MSEC, Match.MATCH_ALL, getConnection());
+            else
+                l.pauseStats(Match.MATCH_ALL, getConnection());
+        }
+        catch(IOException e) {
+            // ignore: polls end with the connection
+        }
+    }
+    
+    /** polls the counters of all of a switch's ports with one PORT stats request */
+    private class SwitchPollTarget extends PollScheduler.Target {
+        private final OpenFlowSwitch sw;
+        
+        SwitchPollTarget(OpenFlowSwitch sw) {
+            this.sw = sw;
+        }
+        
+        public Object getKey() {
+            return portStatsKey(sw.getID());
+        }
+        
+        public boolean isValid() {
+            return topology.getNode(sw.getID()) == sw;
+        }
+        
+        public boolean isSelected() {
+            if(sw.isSelected() || sw.isHovered())
+                return true;
+            
+            for(Link l : sw.getLinks())
+                if(l.isSelected() || l.isHovered())
+                    return true;
+            return false;
+        }
+        
+        public boolean isVisible() {
+            return viewport == null || viewport.isVisible(sw);
+        }
+        
+        /** returns the total rate of the switch's tracked links */
+        public double getRate() {
+            double total = -1;
+            for(Link l : sw.getLinks()) {
+                double rate = l.getCurrentDataRate();
+                if(rate >= 0)
+                    total = Math.max(total, 0) + rate;
+            }
+            return total;
+        }
+        
+        public void poll(BackendConnection conn) throws IOException {
+            conn.sendMessage(new PortStatsRequest(sw.getID()));
+        }
+    }
+    
+    /** polls the FLOW stats of a switch at which flows enter the network */
+    private class SwitchFlowsPollTarget extends PollScheduler.Target {
+        private final OpenFlowSwitch sw;
+        private final List<Object> key;
+        
+        SwitchFlowsPollTarget(OpenFlowSwitch sw) {
+            this.sw = sw;
+            key = flowStatsKey(sw.getID());
+        }
+        
+        public Object getKey() {
+            return key;
+        }
+        
+        public boolean isValid() {
+            return topology.getNode(sw.getID()) == sw && flowsByIngress.containsKey(sw.getID());
+        }
+        
+        public boolean isSelected() {
+            return sw.isSelected() || sw.isHovered();
+        }
+        
+        public boolean isVisible() {
+            return viewport == null || viewport.isVisible(sw);
+        }
+        
+        /** returns the total rate of the flows entering at the switch */
+        public double getRate() {
+            Double rate = flowRateByIngress.get(sw.getID());
+            return (rate == null) ? -1 : rate;
+        }
+        
+        public void poll(BackendConnection conn) throws IOException {
+            conn.sendMessage(new FlowStatsRequest(sw.getID()));
+        }
+    }
+    
+    /** polls the AGGREGATE stats of one Match over one link */
+    private class LinkPollTarget extends PollScheduler.Target {
+        private final Link l;
+        private final Match m;
+        private final List<Object> key;
+        
+        LinkPollTarget(Link l, Match m) {
+            this.l = l;
+            this.m = m;
+            key = linkStatsKey(l, m);
+        }
+        
+        public Object getKey() {
+            return key;
+        }
+        
+        public boolean isValid() {
+            return l.getStats(m) != null;
+        }
+        
+        public boolean isSelected() {
+            return l.isSelected() || l.isHovered();
+        }
+        
+        public boolean isVisible() {
+            return viewport == null || viewport.isVisible(l);
+        }
+        
+        public double getRate() {
+            LinkStats ls = l.getStats(m);
+            return (ls == null) ? -1 : ls.getCurrentAverageDataRate();
+        }
+        
+        public void poll(BackendConnection conn) throws IOException {
+            l.requestStats(m, conn);
+        }
+    }
+    
+    /** 
+     * Removes this connection's reference to a node from the topology (and 
+     * gives up its claims on the stats of the node and its links).  Returns
+     * what Topology.removeNode() returns.
+     */
+    private int removeNode(long id) {
+        NodeWithPorts n = topology.getNode(id);
+        if(n != null)
+            for(Link l : n.getLinks())
+                releaseLinkStats(l);
+        
+        int ret = topology.removeNode(connection, id);
+        if(ret >= 0) {
+            stopPortStats(id);
+            stopFlowStats(id);
+        }
+        return ret;
+    }
+    
     private void processLinksDel(LinksDel msg) {
         for(org.openflow.gui.net.protocol.Link x : msg.links) {
+            releaseLinkStats(x.dstNode.id, x.dstPort, x.srcNode.id, x.srcPort);
             int ret = topology.disconnectLink(connection, x.dstNode.id, x.dstPort, x.srcNode.id, x.srcPort);
-            switch(ret) {
-            case  0: /* success */ break;
-            case -1: logLinkMissing("delete", "src node", x.dstNode.id, x.dstPort, x.srcNode.id, x.srcPort); break;
-            case -2: logLinkMissing("delete", "dst node", x.dstNode.id, x.dstPort, x.srcNode.id, x.srcPort); break;
-            case -3: logLinkMissing("delete", "link",     x.dstNode.id, x.dstPort, x.srcNode.id, x.srcPort); break;
+            logLinkDelResult(ret, x.dstNode.id, x.dstPort, x.srcNode.id, x.srcPort);
+        }
+    }
+    
+    /** logs a failure to remove a link (ret is the value returned by Topology.disconnectLink()) */
+    private void logLinkDelResult(int ret, long dstID, short dstPort, long srcID, short srcPort) {
+        switch(ret) {
+        case  0: /* success */ break;
+        case -1: logLinkMissing("delete", "src node", dstID, dstPort, srcID, srcPort); break;
+        case -2: logLinkMissing("delete", "dst node", dstID, dstPort, srcID, srcPort); break;
+        case -3: logLinkMissing("delete", "link",     dstID, dstPort, srcID, srcPort); break;
+        }
+    }
+    
+    // ------------- Topology Change Coalescing ------------- //
+    
+    /** node and link changes which have not been applied to the topology yet */
+    private final TopologyCoalescer pendingChanges = new TopologyCoalescer();
+    
+    /** whether a flush of pendingChanges has been scheduled */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    
+    /** serializes flushes of pendingChanges */
+    private final Object flushLock = new Object();
+    
+    /** 
+     * Records the node or link changes in msg to be applied at the end of the 
+     * current tick.  Returns false if msg is not a node or link change.
+     */
+    private boolean coalesceTopologyChange(OFGMessage msg) {
+        switch(msg.type) {
+        case NODES_ADD:
+            if(msg instanceof NodesListView) {
+                NodesListView v = (NodesListView)msg;
+                for(int i=0; i<v.getNumNodes(); i++)
+                    pendingChanges.addNode(v.getNode(i));
+            }
+            else {
+                for(org.openflow.gui.net.protocol.Node n : ((NodesAdd)msg).nodes)
+                    pendingChanges.addNode(n);
+            }
+            break;
+            
+        case NODES_DELETE:
+            for(org.openflow.gui.net.protocol.Node n : ((NodesDel)msg).nodes)
+                pendingChanges.removeNode(n.id);
+            break;
+            
+        case LINKS_ADD:
+            if(msg instanceof LinkSpecsListView) {
+                LinkSpecsListView v = (LinkSpecsListView)msg;
+                for(int i=0; i<v.getNumLinks(); i++)
+                    pendingChanges.addLink(new LinkEndpoints(v.getLinkType(i),
+                                                             v.getDstID(i), v.getDstPort(i),
+                                                             v.getSrcID(i), v.getSrcPort(i),
+                                                             v.getCapacity(i)));
+            }
+            else {
+                for(org.openflow.gui.net.protocol.LinkSpec x : ((LinksAdd)msg).links)
+                    pendingChanges.addLink(new LinkEndpoints(x.linkType, x.dstNode.id, x.dstPort, 
+                                                             x.srcNode.id, x.srcPort, x.capacity_bps));
             }
+            break;
+            
+        case LINKS_DELETE:
+            for(org.openflow.gui.net.protocol.Link x : ((LinksDel)msg).links)
+                pendingChanges.removeLink(new LinkEndpoints(x.linkType, x.dstNode.id, x.dstPort, 
+                                                            x.srcNode.id, x.srcPort, 0));
+            break;
+            
+        default:
+            return false;
+        }
+        
+        if(flushScheduled.compareAndSet(false, true)) {
+            resyncTimer.schedule(new TimerTask() {
+                public void run() {
+                    flushTopologyChanges();
+                }
+            }, Options.TOPOLOGY_COALESCE_MSEC);
         }
+        return true;
+    }
+    
+    /** 
+     * Applies the net effect of the pending node and link changes to the 
+     * topology: new nodes, then removed links, then new links, and finally 
+     * removed nodes.
+     */
+    public void flushTopologyChanges() {
+        synchronized(flushLock) {
+            flushScheduled.set(false);
+            if(pendingChanges.isEmpty())
+                return;
+            
+            TopologyCoalescer.Changes c = pendingChanges.drain(topology);
+            
+            ArrayList<NodeWithPorts> newNodes = new ArrayList<NodeWithPorts>(c.nodesAdded.size());
+            for(org.openflow.gui.net.protocol.Node n : c.nodesAdded) {
+                Node d = processNodeAdd(n);
+                if(d instanceof NodeWithPorts)
+                    newNodes.add((NodeWithPorts)d);
+            }
+            int[] nodeRets = topology.addNodes(connection, newNodes);
+            for(int i=0; i<nodeRets.length; i++)
+                handleNodeAdded(newNodes.get(i), nodeRets[i]);
+            
+            for(LinkEndpoints e : c.linksRemoved)
+                releaseLinkStats(e.dstID, e.dstPort, e.srcID, e.srcPort);
+            int[] linkRets = topology.removeLinks(connection, c.linksRemoved);
+            for(int i=0; i<linkRets.length; i++) {
+                LinkEndpoints e = c.linksRemoved.get(i);
+                logLinkDelResult(linkRets[i], e.dstID, e.dstPort, e.srcID, e.srcPort);
+            }
+            
+            Link[] links = topology.addLinks(c.linksAdded);
+            for(int i=0; i<links.length; i++) {
+                LinkEndpoints e = c.linksAdded.get(i);
+                if(links[i] != null)
+                    handleLinkAdded(links[i], e.capacity_bps);
+                else if(!topology.hasNode(e.dstID))
+                    logNodeMissing("LinkAdd", "dst", e.dstID);
+                else if(!topology.hasNode(e.srcID))
+                    logNodeMissing("LinkAdd", "src", e.srcID);
+            }
+            
+            for(Long id : c.nodesRemoved)
+                if(removeNode(id) < 0)
+                    System.err.println("Ignoring switch delete message for non-existant switch: " + DPIDUtil.toString(id));
+        }
+    }
+    
+    /** Returns the node and link changes which are waiting to be applied to the topology. */
+    public TopologyCoalescer getPendingChanges() {
+        return pendingChanges;
     }
     
     private void processFlowsAdd(FlowsAdd msg) {
@@ -401,12 +1302,55 @@ public class ConnectionHandler implements MessageProcessor<OFGMessage>,
             
             Flow flow = new Flow(x.type, x.id, hops);
             topology.addFlow(flow);
+            trackFlowStats(flow);
+        }
+    }
+    
+    /** add new flows to the topology (the flows are read straight from the message buffer) */
+    private void processFlowsAdd(FlowsListView msg) {
+        FlowsListView.FlowCursor x = msg.cursor();
+        while(x.next()) {
+            NodeWithPorts src = topology.getNode(x.getSrcID());
+            if(src == null) {
+                logNodeMissing("FlowAdd", "src", x.getSrcID());
+                continue;
+            }
+            
+            NodeWithPorts dst = topology.getNode(x.getDstID());
+            if(dst == null) {
+                logNodeMissing("FlowAdd", "dst", x.getDstID());
+                continue;
+            }
+            
+            int pathLen = x.getPathLength();
+            FlowHop[] hops = new FlowHop[pathLen + 2];
+            hops[0] = new FlowHop((short)-1, src, x.getSrcPort());
+            hops[hops.length-1] = new FlowHop(x.getDstPort(), dst, (short)-1);
+            
+            int i = 1;
+            for(int h=0; h<pathLen; h++) {
+                NodeWithPorts hop = topology.getNode(x.getHopID(h));
+                if(hop == null) {
+                    logNodeMissing("FlowAdd", "hop" + i, x.getHopID(h));
+                    continue;
+                }
+                hops[i++] = new FlowHop(x.getHopInport(h), hop, x.getHopOutport(h));
+            }
+            
+            Flow flow = new Flow(x.getType(), x.getID(), hops);
+            topology.addFlow(flow);
+            trackFlowStats(flow);
         }
     }
     
     private void processFlowsDel(FlowsDel msg) {
-        for(org.openflow.gui.net.protocol.Flow x : msg.flows)
+        for(org.openflow.gui.net.protocol.Flow x : msg.flows) {
+            Flow[] flows = topology.getFlow(x.id);
+            if(flows != null)
+                for(Flow f : flows)
+                    untrackFlowStats(f);
             topology.removeFlowByID(x.id);
+        }
     }
     
     private void processStatReply(StatsHeader msg) {
@@ -418,6 +1362,14 @@ public class ConnectionHandler implements MessageProcessor<OFGMessage>,
         case AGGREGATE:
             processStatReplyAggregate((AggregateStatsReply)msg);
             break;
+            
+        case PORT:
+            processStatReplyPort((PortStatsReply)msg);
+            break;
+            
+        case FLOW:
+            processStatReplyFlow((FlowStatsReply)msg);
+            break;
         
         default:
             System.err.println("Unhandled stats type received: " + msg.statsType.toString());
@@ -451,6 +1403,77 @@ public class ConnectionHandler implements MessageProcessor<OFGMessage>,
         l.updateStats(req.match, reply);
     }
 
+    /** 
+     * updates the rates of the flows entering at the switch which sent reply
+     * (stats entries are matched to flows by cookie)
+     */
+    private void processStatReplyFlow(FlowStatsReply reply) {
+        // forget a one-time request once its last reply has arrived
+        OFGMessage msg = reply.hasMore()
+                         ? getConnection().getAssociatedStatefulRequest(reply.xid)
+                         : getConnection().popAssociatedStatefulRequest(reply.xid);
+        if(msg != null && !(msg instanceof FlowStatsRequest)) {
+            System.err.println("Warning: matching stateful request for " +
+                    "FlowStatsReply is not a FlowStatsRequest (got " + msg + ")");
+            return;
+        }
+        
+        Long dpid = ids.intern(reply.dpid);
+        Double partial = pendingFlowRates.remove(dpid);
+        double total = (partial == null) ? 0 : partial;
+        
+        long when = reply.timeCreated();
+        for(int i=0; i<reply.getNumFlows(); i++) {
+            // flows are only known by their 32-bit IDs
+            long cookie = reply.getCookie(i);
+            if((cookie >>> 32) != 0)
+                continue;
+            
+            Flow[] flows = topology.getFlow((int)cookie);
+            if(flows == null)
+                continue;
+            
+            for(Flow f : flows) {
+                OpenFlowSwitch sw = f.getIngressSwitch();
+                if(sw != null && sw.getID() == reply.dpid) {
+                    f.updateStats(reply.getPacketCount(i), reply.getByteCount(i), when);
+                    total += f.getBitsPerSec();
+                }
+            }
+        }
+        
+        if(reply.hasMore())
+            pendingFlowRates.put(dpid, total);
+        else if(flowsByIngress.containsKey(dpid))
+            flowRateByIngress.put(dpid, total);
+    }
+    
+    /** fans the counters of each port in reply out to the link attached to it */
+    private void processStatReplyPort(PortStatsReply reply) {
+        // forget a one-time request (polled requests are kept)
+        OFGMessage msg = getConnection().popAssociatedStatefulRequest(reply.xid);
+        if(msg != null && !(msg instanceof PortStatsRequest)) {
+            System.err.println("Warning: matching stateful request for " +
+                    "PortStatsReply is not a PortStatsRequest (got " + msg + ")");
+            return;
+        }
+        
+        NodeWithPorts n = topology.getNode(reply.dpid);
+        if(n == null) {
+            System.err.println("Warning: received port stats reply for unknown switch " + DPIDUtil.toString(reply.dpid));
+            return;
+        }
+        
+        // a port may have several links (e.g., one in each direction); ports 
+        // without a link are not of interest
+        if(n.getNumLinks() == 0)
+            return;
+        
+        for(PortStatsReply.Port p : reply.ports)
+            for(Link l : n.getLinksFrom(p.port_no))
+                l.updateStats(reply, p);
+    }
+    
     private void processStatReplyDesc(SwitchDescriptionStats msg) {
         NodeWithPorts n = topology.getNode(msg.dpid);
         if(n != null) {
@@ -481,6 +1504,10 @@ public class ConnectionHandler implements MessageProcessor<OFGMessage>,
 
     public void shutdown() {
         shutting_down = true;
+        if(pollScheduler != null)
+            pollScheduler.shutdown();
+        if(viewport != null)
+            viewport.stop();
         connection.shutdown();
     }
 
@@ -504,7 +1531,7 @@ public class ConnectionHandler implements MessageProcessor<OFGMessage>,
 
     /** Returns whether the connection is subscribed to link changes */
     public boolean isSubscribeToLinkChanges() {
-        return subscribeToSwitchChanges;
+        return subscribeToLinkChanges;
     }
     
     /** 
@@ -525,10 +1552,18 @@ public class ConnectionHandler implements MessageProcessor<OFGMessage>,
      */
     public void pzClosing(PZManager manager) {
         try {
+            if(pollScheduler != null)
+                pollScheduler.shutdown();
+            if(viewport != null)
+                viewport.stop();
             connection.sendMessage(new OFGMessage(OFGMessageType.DISCONNECT, 0));
             connection.shutdown();
         } catch (IOException e) {
             System.err.println("Unable to send DISCONNECT message: " + e.getMessage());
         }
+        
+        WireCapture wc = connection.getCapture();
+        if(wc != null)
+            wc.close();
     }
 }
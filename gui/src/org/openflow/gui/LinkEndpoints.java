@@ -0,0 +1,59 @@
+package org.openflow.gui;
+
+import org.openflow.gui.net.protocol.LinkType;
+import org.openflow.util.Hashing;
+
+/**
+ * Identifies a link by the IDs and ports of its endpoints, along with the
+ * attributes it should have when it is added to a Topology.  Two instances
+ * are equal if they have the same endpoints (the link type and capacity are
+ * not considered since a Topology only keeps one link between a pair of
+ * ports).
+ */
+public final class LinkEndpoints {
+    /** type of the link */
+    public final LinkType linkType;
+
+    /** ID of the destination node */
+    public final long dstID;
+
+    /** port the link is connected to on the destination node */
+    public final short dstPort;
+
+    /** ID of the source node */
+    public final long srcID;
+
+    /** port the link is connected to on the source node */
+    public final short srcPort;
+
+    /** capacity of the link in bits per second */
+    public final long capacity_bps;
+
+    public LinkEndpoints(LinkType linkType, long dstID, short dstPort, long srcID, short srcPort, long capacity_bps) {
+        this.linkType = linkType;
+        this.dstID = dstID;
+        this.dstPort = dstPort;
+        this.srcID = srcID;
+        this.srcPort = srcPort;
+        this.capacity_bps = capacity_bps;
+    }
+
+    public int hashCode() {
+        long h = Hashing.combine(dstID, dstPort);
+        h = Hashing.combine(h, srcID);
+        h = Hashing.combine(h, srcPort);
+        return Hashing.mix(h);
+    }
+
+    public boolean equals(Object o) {
+        if(!(o instanceof LinkEndpoints))
+            return false;
+
+        LinkEndpoints e = (LinkEndpoints)o;
+        return dstID==e.dstID && dstPort==e.dstPort && srcID==e.srcID && srcPort==e.srcPort;
+    }
+
+    public String toString() {
+        return "LinkEndpoints{" + srcID + "/" + srcPort + " --> " + dstID + "/" + dstPort + "}";
+    }
+}
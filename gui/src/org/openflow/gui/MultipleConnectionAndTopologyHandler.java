@@ -7,7 +7,9 @@ import org.pzgui.PZManager;
 /**
  * This class tracks the connection(s) to the backend(s) and their associated 
  * topology(ies).  It may be helpful when populating more than one topology or 
- * receiving topology information from multiple connections.
+ * receiving topology information from multiple connections.  With 
+ * Options.USE_NON_BLOCKING_IO set, the connections share a small pool of
+ * selector threads for their I/O rather than each taking a thread of its own.
  * 
  * @author David Underhill
  */
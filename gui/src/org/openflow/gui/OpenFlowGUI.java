@@ -20,10 +20,13 @@ public final class OpenFlowGUI {
     
     /** 
      * Run a simple version of the GUI by starting a single connection which 
-     * will populate a single topology drawn by a PZLayoutManager.
+     * will populate a single topology drawn by a PZLayoutManager.  The server 
+     * may be given as a comma-separated list of IP[:PORT] replicas to fail 
+     * over between (in order of preference).
      */
     public static void main(String args[]) {
-        Pair<String, Short> serverPort = getServer(args);
+        String[] replicas = (args.length > 0) ? args[0].split(",") : new String[0];
+        Pair<String, Short> serverPort = getServer((replicas.length > 0) ? new String[]{replicas[0]} : args);
         String server = serverPort.a;
         short port = serverPort.b;
         
@@ -38,6 +41,10 @@ public final class OpenFlowGUI {
         
         // create a manager to handle the connection itself
         ConnectionHandler cm = makeDefaultConnection(gm, server, port, true, true);
+        for(int i=1; i<replicas.length; i++) {
+            Pair<String, Short> replica = parseServerIdentifier(replicas[i]);
+            cm.getConnection().addReplica(replica.a, replica.b);
+        }
         
         // start our managers
         gm.start();
@@ -20,9 +20,122 @@ public final class Options {
     /** whether to automatically request that link stats be periodically sent for all new links */
     public static final boolean AUTO_TRACK_STATS_FOR_NEW_LINK = true;
     
+    /** 
+     * whether to automatically poll the FLOW stats of the ingress switch of 
+     * each new flow (flows are matched to stats entries by cookie, which must 
+     * be the flow's ID)
+     */
+    public static final boolean AUTO_TRACK_STATS_FOR_NEW_FLOW = false;
+    
+    /** 
+     * how long to keep the topology learned over a connection after it goes 
+     * down; if the connection comes back within this time, the topology is 
+     * resynchronized rather than rebuilt from scratch
+     */
+    public static final int RECONNECT_GRACE_MSEC = 30 * 1000;
+    
+    /** 
+     * how long to wait after reconnecting for the backend to re-announce nodes 
+     * and links before removing those which it did not re-announce
+     */
+    public static final int RESYNC_WINDOW_MSEC = 5 * 1000;
+    
+    /** 
+     * whether bulk NODES_ADD, LINKS_ADD, and FLOWS_ADD messages should be read
+     * straight from the receive buffer instead of being decoded into objects
+     */
+    public static final boolean USE_FLYWEIGHT_DECODING = true;
+    
+    /** 
+     * whether connections share a small pool of selector threads and use 
+     * non-blocking I/O (see net.ConnectionSelector) instead of each blocking a
+     * thread of its own to read; this is how ConnectionHandlers which are not
+     * given a selector (e.g., those made by OpenFlowGUI) are driven
+     */
+    public static final boolean USE_NON_BLOCKING_IO = false;
+    
+    /** 
+     * whether blocking connections should decode and process received messages 
+     * on separate threads from the one reading the socket
+     */
+    public static final boolean USE_PIPELINED_RECEIVE = false;
+    
+    /** 
+     * whether to offer protocol version 2 (32-bit lengths, fragmentation and 
+     * compressed snapshots) to the backend; backends which do not answer the 
+     * offer are talked to with version 1
+     */
+    public static final boolean USE_PROTOCOL_V2 = false;
+    
+    /** 
+     * if non-null, frames received by each connection are recorded to 
+     * memory-mapped segment files named after this path, the backend's 
+     * address, and its port (see WireCapture and ReplayDriver)
+     */
+    public static final String WIRE_CAPTURE_PATH = null;
+    
+    /** how often to send a heartbeat (ECHO_REQUEST) to the backend (0 disables heartbeats) */
+    public static final int HEARTBEAT_INTERVAL_MSEC = 0;
+    
+    /** number of unanswered heartbeats after which the backend is considered dead and we reconnect */
+    public static final int HEARTBEAT_MAX_MISSES = 3;
+    
+    /** 
+     * how long to collect node and link additions and removals before 
+     * applying their net effect to the topology (0 applies each immediately)
+     */
+    public static final int TOPOLOGY_COALESCE_MSEC = 50;
+    
     /** how often to refresh basic port statistics */
     public static final int STATS_REFRESH_RATE_MSEC = 2000;
     
+    /** 
+     * whether link utilization is polled with one PORT stats request per 
+     * switch (whose reply covers all of its ports) instead of one AGGREGATE 
+     * stats request per link
+     */
+    public static final boolean USE_PORT_STATS = false;
+    
+    /**
+     * whether stats are requested on an adaptive, staggered schedule by the
+     * GUI (see stats.PollScheduler) instead of polled by the backend every
+     * STATS_REFRESH_RATE_MSEC
+     */
+    public static final boolean USE_POLL_SCHEDULER = false;
+    
+    /** shortest interval between polls of one link or switch (used for selected ones) */
+    public static final int POLL_INTERVAL_MIN_MSEC = 500;
+    
+    /** longest interval between polls of an idle or stable link or switch */
+    public static final int POLL_INTERVAL_MAX_MSEC = 10000;
+    
+    /**
+     * default for the most stats requests sent per second over each
+     * connection (see ConnectionHandler.setPollBudget(); 0 means unlimited)
+     */
+    public static final double POLL_BUDGET_MSGS_PER_SEC = 200;
+    
+    /** 
+     * whether polling is paused for links which are not visible in any 
+     * window (see ViewportTracker)
+     */
+    public static final boolean USE_VIEWPORT_POLLING = false;
+    
+    /** how often to check which links are visible */
+    public static final int VIEWPORT_CHECK_INTERVAL_MSEC = 250;
+    
+    /** 
+     * how far (as a fraction of its size) beyond each window a visible link 
+     * must move before it is considered hidden
+     */
+    public static final float VIEWPORT_MARGIN = 0.25f;
+    
+    /** how long a link must stay visible before its polling is resumed */
+    public static final int VIEWPORT_SHOW_DELAY_MSEC = 500;
+    
+    /** how long a link must stay hidden before its polling is paused */
+    public static final int VIEWPORT_HIDE_DELAY_MSEC = 3000;
+    
     /**
      * Whether links between nodes should be represented using one undirected
      * or two directed links.
@@ -0,0 +1,59 @@
+package org.openflow.gui;
+
+import java.io.IOException;
+
+import org.openflow.gui.net.WireReplay;
+import org.pzgui.PZManager;
+
+/**
+ * Replays a wire capture (see WireCapture) through a ConnectionHandler, its
+ * Topology, and a PZManager which is never shown, and reports how long it
+ * took.  This reproduces the load a real backend put on the GUI without the
+ * backend, so the cost of handling it can be compared across builds.
+ */
+public final class ReplayDriver {
+    private ReplayDriver() { /* this class may not be instantiated */ }
+
+    /**
+     * Replays a capture into a fresh ConnectionHandler and Topology.
+     *
+     * @param capturePath  the path the capture's segment numbers are appended to
+     * @param speed        how much faster than real time to replay (0 or less
+     *                     replays as fast as possible)
+     *
+     * @return the handler the capture was replayed into
+     */
+    public static ConnectionHandler replay(String capturePath, double speed, PZManager manager) throws IOException {
+        // the connection is never started: frames come from the capture instead
+        ConnectionHandler ch = new ConnectionHandler(new Topology(manager), "replay", 0, false, false);
+
+        WireReplay.Result r = new WireReplay(capturePath).replay(ch, speed);
+        long start = System.nanoTime();
+        ch.flushTopologyChanges();
+        long flush_ns = System.nanoTime() - start;
+
+        System.out.println("Replayed " + r + "; final flush took " + flush_ns / 1000000 + "ms");
+        return ch;
+    }
+
+    /**
+     * Replays a capture and prints how long it took.
+     *
+     * Usage: ReplayDriver CAPTURE_PATH [SPEED] [REPETITIONS]
+     */
+    public static void main(String args[]) throws IOException {
+        if(args.length < 1) {
+            System.err.println("usage: ReplayDriver CAPTURE_PATH [SPEED (0 = max)] [REPETITIONS]");
+            System.exit(1);
+        }
+
+        double speed = (args.length > 1) ? Double.parseDouble(args[1]) : 0;
+        int reps = (args.length > 2) ? Integer.parseInt(args[2]) : 1;
+        for(int i=0; i<reps; i++) {
+            ConnectionHandler ch = replay(args[0], speed, new PZManager());
+            System.out.println("  topology: " + ch.getTopology().getNodeIDs().size() + " nodes, " +
+                               ch.getTopology().getLinks().size() + " links");
+        }
+        System.exit(0);
+    }
+}
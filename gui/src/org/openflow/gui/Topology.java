@@ -1,9 +1,10 @@
 package org.openflow.gui;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.openflow.gui.drawables.Flow;
 import org.openflow.gui.drawables.Link;
@@ -12,6 +13,8 @@ import org.openflow.gui.drawables.Link.LinkExistsException;
 import org.openflow.gui.net.BackendConnection;
 import org.openflow.gui.net.protocol.LinkType;
 import org.openflow.gui.net.protocol.OFGMessage;
+import org.openflow.util.ConcurrentIntMap;
+import org.openflow.util.ConcurrentLongMap;
 import org.openflow.util.FlowHop;
 import org.openflow.util.Pair;
 import org.openflow.util.RefTrack;
@@ -26,9 +29,8 @@ import org.pzgui.PZManager;
 public class Topology {
     /** Construct a new, empty Topology. */
     public Topology(final PZManager manager) {
-        nodesMap = new ConcurrentHashMap<Long, NodeRefTrack>();
+        nodesMap = new ConcurrentLongMap<NodeRefTrack>();
         linksMap = new ConcurrentHashMap<Link, Boolean>();
-        nodesList = new CopyOnWriteArrayList<Long>();
         virtualNodes = new ConcurrentHashMap<Long, VirtualSwitchSpecification>();
         this.manager = manager;
     }
@@ -49,39 +51,48 @@ public class Topology {
     /** 
      * A global list of nodes in all topologies.  The keys are datapath IDs.
      * The values are DrawableRefTrack objects which is simply a node 
-     * and the list of connections which supply information about it.
+     * and the list of connections which supply information about it.  Each
+     * entry is only replaced once it has been released (see addRef()), so 
+     * nodes are added and removed without a global lock.
      */
-    private static final ConcurrentHashMap<Long, NodeRefTrack> globalNodes;
-    static { globalNodes = new ConcurrentHashMap<Long, NodeRefTrack>(); }
-    
-    /** 
-     * A lock to prevent a race condition between remove old NodeRefTrack and
-     * adding new ones.  
-     */
-    private static final Object globalNodesWriterLock = new Object();
+    private static final ConcurrentLongMap<NodeRefTrack> globalNodes;
+    static { globalNodes = new ConcurrentLongMap<NodeRefTrack>(); }
     
     /**
      * A global list of all links in all topologies as keys (values of this map
-     * are reference counts) 
+     * are reference counts).  A link's count is only read or changed while 
+     * holding the lock Link.getLock() returns for its endpoints.
      */
     private static final ConcurrentHashMap<Link, Integer> globalLinks;
     static { globalLinks = new ConcurrentHashMap<Link, Integer>(); }
     
-    /** 
-     * A lock to prevent a race condition between remove old NodeRefTrack and
-     * adding new ones.  
+    /**
+     * Adds a reference from owner to the entry for id in index, or puts mine
+     * there if it has no entry.  An entry which was released (its last 
+     * reference was removed) is dropped and replaced by mine.
+     * 
+     * @return  the entry owner now refers to (mine if it was put in index)
      */
-    private static final Object globalLinksWriterLock = new Object();
-    
+    private static NodeRefTrack addRef(ConcurrentLongMap<NodeRefTrack> index, long id,
+                                       NodeRefTrack mine, BackendConnection<OFGMessage> owner) {
+        while(true) {
+            NodeRefTrack r = index.putIfAbsent(id, mine);
+            if(r == null)
+                return mine;
+            
+            if(r.addRef(owner))
+                return r;
+            
+            // released: its remover is dropping it, but need not have yet
+            index.remove(id, r);
+        }
+    }
     
     
     // ---------------- Node Tracking --------------- //
     
-    /** nodes in this topology */
-    private final ConcurrentHashMap<Long, NodeRefTrack> nodesMap;
-    
-    /** IDs of nodes in this topology */
-    private final CopyOnWriteArrayList<Long> nodesList;
+    /** nodes in this topology, keyed by datapath ID */
+    private final ConcurrentLongMap<NodeRefTrack> nodesMap;
     
     /**
      * Adds a node to this topology.
@@ -93,40 +104,90 @@ public class Topology {
      *           1 if the node was added (locally new, but not globally new)
      */
     public int addNode(BackendConnection<OFGMessage> owner, NodeWithPorts n) {
-        int ret = -1;
-        Long id = n.getID();
+        ArrayList<NodeRefTrack> globallyNew = new ArrayList<NodeRefTrack>(1);
+        int ret = addNodeRef(owner, n, globallyNew);
+        if(ret == 0) {
+            addNodeToManager(n);
+            removeReleasedFromManager(globallyNew);
+        }
+        
+        return ret;
+    }
+    
+    /**
+     * Adds many nodes to this topology at once.  This is equivalent to calling
+     * addNode() on each, except that all globally new nodes are handed to the
+     * manager in one batch.
+     * 
+     * @param owner  the connection which supplies information about the nodes
+     * @param nodes  the nodes to add
+     * @return  the addNode() return value for each node (in the same order)
+     */
+    public int[] addNodes(BackendConnection<OFGMessage> owner, List<NodeWithPorts> nodes) {
+        int[] ret = new int[nodes.size()];
+        ArrayList<NodeRefTrack> globallyNew = new ArrayList<NodeRefTrack>();
+        for(int i=0; i<ret.length; i++)
+            ret[i] = addNodeRef(owner, nodes.get(i), globallyNew);
+        
+        ArrayList<NodeWithPorts> toAdd = new ArrayList<NodeWithPorts>(globallyNew.size());
+        for(NodeRefTrack r : globallyNew)
+            toAdd.add(r.obj);
+        addNodesToManager(toAdd);
+        removeReleasedFromManager(globallyNew);
+        
+        return ret;
+    }
+    
+    /**
+     * Adds a reference from owner to n (or to the known node with n's ID) in
+     * this topology and in the global list of nodes.  If the node is globally
+     * new, its global entry is appended to globallyNew.
+     * 
+     * @return  see addNode()
+     */
+    private int addNodeRef(BackendConnection<OFGMessage> owner, NodeWithPorts n, List<NodeRefTrack> globallyNew) {
+        long id = n.getID();
         NodeRefTrack localR = nodesMap.get(id);
-        if(localR == null) {
-            synchronized(globalNodesWriterLock) {
-                NodeRefTrack r = globalNodes.get(id);
-                if(r == null) {
-                    globalNodes.put(id, new NodeRefTrack(n, owner));
-                    addNodeToManager(n);
-                    ret = 0; // globally new
-                }
-                else {
-                    r.addRef(owner);
-                    n = r.obj; // use the existing node
-                    ret = 1; // locally new but not globally new
-                }
-            }
-            
-            nodesMap.put(id, new NodeRefTrack(n, owner));
-            nodesList.add(id);
+        if(localR != null && localR.addRef(owner))
+            return -1; // already in this topology
+        
+        int ret;
+        NodeRefTrack mine = new NodeRefTrack(n, owner);
+        NodeRefTrack r = addRef(globalNodes, id, mine, owner);
+        if(r == mine) {
+            globallyNew.add(r);
+            ret = 0; // globally new
+        }
+        else {
+            n = r.obj; // use the existing node
+            ret = 1; // locally new but not globally new
         }
-        else
-            localR.addRef(owner);
+        
+        mine = new NodeRefTrack(n, owner);
+        if(addRef(nodesMap, id, mine, owner) != mine && ret == 1)
+            ret = -1; // another thread just added it to this topology
         
         return ret;
     }
     
+    /**
+     * Takes the nodes of globally new entries which have since been released
+     * back out of the manager (whoever released them may have tried to remove
+     * them before they were added).
+     */
+    private void removeReleasedFromManager(List<NodeRefTrack> globallyNew) {
+        for(NodeRefTrack r : globallyNew)
+            if(r.isReleased())
+                removeNodeFromManager(r.obj);
+    }
+    
     /**
      * Gets the node with the specified ID, if any such node exists in this
      * topology.
      * 
      * @return the NodeWithPorts with the requested ID, or null if no such node exists
      */
-    public NodeWithPorts getNode(Long id) {
+    public NodeWithPorts getNode(long id) {
         NodeRefTrack r = nodesMap.get(id);
         return r==null ? null : r.obj;
     }
@@ -139,7 +200,7 @@ public class Topology {
     /**
      * Gets whether this topology has a node with the specified ID.
      */
-    public boolean hasNode(Long id) {
+    public boolean hasNode(long id) {
         return getNode(id) != null;
     }
     
@@ -149,7 +210,7 @@ public class Topology {
      * 
      * @return the NodeWithPorts with the requested ID, or null if no such node exists
      */
-    public static NodeWithPorts globalGetNode(Long id) {
+    public static NodeWithPorts globalGetNode(long id) {
         NodeRefTrack r = globalNodes.get(id);
         return r==null ? null : r.obj;
     }
@@ -176,11 +237,11 @@ public class Topology {
                            l.getSource().getID(),      l.getMyPort(l.getSource()));
         
         // next remove nodes
-        for(Long d : nodesList)
+        for(long d : nodesMap.keys())
             removeNode(owner, d);
         
         // finally remove flows
-        for(int id : flowsMap.keySet())
+        for(int id : flowsMap.keys())
             removeFlowByID(id);
     }
     
@@ -196,7 +257,7 @@ public class Topology {
      *          1 if it has been removed from this topology (but still exists globally)
      *          2 if it has been removed from all topologies
      */
-    public int removeNode(BackendConnection<OFGMessage> owner, Long id) {
+    public int removeNode(BackendConnection<OFGMessage> owner, long id) {
         // determine whether this is the last reference and remove it safely if so
         NodeRefTrack localR = nodesMap.get(id);
         if(localR == null)
@@ -205,33 +266,28 @@ public class Topology {
         // remove it from this topology
         int ret = 0; // remains in local topologies (others refer to it)
         if(localR.removeRef(owner)) {
-            nodesList.remove(id);
-            nodesMap.remove(id);
+            nodesMap.remove(id, localR);
             ret = 1; // no referants remain in the local topology
         }
         
         // remove the reference from the global topology list too
-        synchronized(globalNodesWriterLock) {
-            NodeRefTrack r = globalNodes.get(id);
-            if(r.removeRef(owner)) {
-                globalNodes.remove(id);
-                removeNodeFromManager(localR.obj);
-                
-                // disconnect all links associated with the switch too
-                for(Link l : r.obj.getLinks()) {
-                    try {
-                        l.disconnect(owner);
-                    } 
-                    catch(IOException e) {
-                        // ignore: connection down => polling messages cleared on the backend already
-                    }
-                }
-                
-                return 2; // removed from all topologies
+        NodeRefTrack r = globalNodes.get(id);
+        if(r == null || !r.removeRef(owner))
+            return ret;
+        
+        globalNodes.remove(id, r);
+        removeNodeFromManager(r.obj);
+        
+        // disconnect all links associated with the switch too
+        for(Link l : r.obj.getLinks()) {
+            synchronized(Link.getLock(l.getSource(), l.getDestination())) {
+                globalLinks.remove(l);
+                l.detach();
             }
-            else
-                return ret;
+            disconnectUnreferencedLink(owner, l);
         }
+        
+        return 2; // removed from all topologies
     }
     
     
@@ -241,6 +297,35 @@ public class Topology {
     private final ConcurrentHashMap<Link, Boolean> linksMap;
     
     public Link addLink(LinkType linkType, NodeWithPorts dst, short dstPort, NodeWithPorts src, short srcPort) {
+        return addLinkRef(linkType, dst, dstPort, src, srcPort);
+    }
+    
+    /**
+     * Adds many links to this topology at once.  This is equivalent to calling
+     * addLink() on each.
+     * 
+     * @param links  the links to add
+     * @return  the link for each element of links (in the same order), or null 
+     *          if either endpoint is not in this topology or is an 
+     *          unvirtualized port on a virtualized switch
+     */
+    public Link[] addLinks(List<LinkEndpoints> links) {
+        Link[] ret = new Link[links.size()];
+        for(int i=0; i<ret.length; i++) {
+            LinkEndpoints e = links.get(i);
+            NodeWithPorts dst = getNode(e.dstID);
+            NodeWithPorts src = getNode(e.srcID);
+            if(dst != null && src != null)
+                ret[i] = addLinkRef(e.linkType, dst, e.dstPort, src, e.srcPort);
+        }
+        return ret;
+    }
+    
+    /** 
+     * adds a link to this topology (creating it unless another topology 
+     * already has it) while holding the lock for its endpoints
+     */
+    private Link addLinkRef(LinkType linkType, NodeWithPorts dst, short dstPort, NodeWithPorts src, short srcPort) {
         VirtualSwitchSpecification vDst = virtualNodes.get(dst.getID());
         if(vDst != null) {
             dst = vDst.getVirtualSwitchByPort(dstPort);
@@ -255,29 +340,31 @@ public class Topology {
                 return null; /* ignore unvirtualized ports on a display virtualized switch */
         }
         
-        Link l;
-        try {
-            l = new Link(linkType, dst, dstPort, src, srcPort);
-            
-            // no exception, so the link must be new: add it to the global list
-            synchronized(globalLinksWriterLock) {
+        synchronized(Link.getLock(src, dst)) {
+            Link l;
+            try {
+                l = new Link(linkType, dst, dstPort, src, srcPort);
+                
+                // no exception, so the link must be new: add it to the global list
                 globalLinks.put(l, 1);
             }
-        }
-        catch(LinkExistsException e) {
-            l = e.getPreExistingLink();
-            
-            // increment the reference count (one more ref to this link)
-            int count = globalLinks.get(l);
-            synchronized(globalLinksWriterLock) {
-                globalLinks.put(l, count + 1);
+            catch(LinkExistsException e) {
+                l = e.getPreExistingLink();
+                
+                // nothing to do if this topology already has the link
+                if(linksMap.containsKey(l))
+                    return l;
+                
+                // increment the reference count (one more ref to this link)
+                Integer count = globalLinks.get(l);
+                globalLinks.put(l, (count == null) ? 1 : count + 1);
             }
+            
+            // track that the link is in this local topology
+            linksMap.put(l, Boolean.TRUE);
+            
+            return l;
         }
-        
-        // track that the link is in this local topology
-        linksMap.put(l, Boolean.TRUE);
-        
-        return l;
     }
     
     /** 
@@ -290,6 +377,47 @@ public class Topology {
      */
     public int disconnectLink(BackendConnection<OFGMessage> conn,
                               long dstDPID, short dstPort, long srcDPID, short srcPort) {
+        ArrayList<Link> unreferenced = new ArrayList<Link>(1);
+        int ret = removeLinkRef(dstDPID, dstPort, srcDPID, srcPort, unreferenced);
+        
+        for(Link l : unreferenced)
+            disconnectUnreferencedLink(conn, l);
+        
+        return ret;
+    }
+    
+    /**
+     * Removes many links from this topology at once.  This is equivalent to 
+     * calling disconnectLink() on each.
+     * 
+     * @param conn   the connection which supplied the links
+     * @param links  the links to remove
+     * @return  the disconnectLink() return value for each link (in the same 
+     *          order)
+     */
+    public int[] removeLinks(BackendConnection<OFGMessage> conn, List<LinkEndpoints> links) {
+        int[] ret = new int[links.size()];
+        ArrayList<Link> unreferenced = new ArrayList<Link>();
+        for(int i=0; i<ret.length; i++) {
+            LinkEndpoints e = links.get(i);
+            ret[i] = removeLinkRef(e.dstID, e.dstPort, e.srcID, e.srcPort, unreferenced);
+        }
+        
+        for(Link l : unreferenced)
+            disconnectUnreferencedLink(conn, l);
+        
+        return ret;
+    }
+    
+    /** 
+     * Removes a link from this topology while holding the lock for its 
+     * endpoints.  If no topology refers to the link anymore, then it is 
+     * detached from its endpoints and added to unreferenced so the caller can
+     * disconnect it.
+     * 
+     * @return see disconnectLink()
+     */
+    private int removeLinkRef(long dstDPID, short dstPort, long srcDPID, short srcPort, List<Link> unreferenced) {
         NodeWithPorts srcNode = getNode(srcDPID);
         if(srcNode == null)
             return -1; // missing src node
@@ -298,31 +426,47 @@ public class Topology {
         if(dstNode == null)
             return -2; // missing dst node
         
-        Link existingLink = dstNode.getLinkTo(dstPort, srcNode, srcPort);
-        if(existingLink != null) {
-            int count = globalLinks.get(existingLink);
-            count -= 1;  // subtract the link being removed from the count 
-            synchronized(globalLinksWriterLock) {
-                if(count == 0)
-                    globalLinks.remove(existingLink);
-                else
-                    globalLinks.put(existingLink, count);
-            }
-            
-            linksMap.remove(existingLink);
+        synchronized(Link.getLock(srcNode, dstNode)) {
+            Link existingLink = dstNode.getLinkTo(dstPort, srcNode, srcPort);
+            if(existingLink == null || linksMap.remove(existingLink) == null)
+                return -3; // not in this topology
             
-            try {
-                if(count == 0)
-                    existingLink.disconnect(conn);
-            } 
-            catch(IOException e) {
-                // ignore: connection down => polling messages cleared on the backend already
+            Integer count = globalLinks.get(existingLink);
+            if(count == null || count <= 1) {
+                // detach it now so the link may be re-created right away
+                globalLinks.remove(existingLink);
+                existingLink.detach();
+                unreferenced.add(existingLink);
             }
+            else
+                globalLinks.put(existingLink, count - 1);  // one less ref to this link
             
             return 0;
         }
-        else
-            return -3;
+    }
+    
+    /** disconnects a link which is no longer in any topology */
+    private static void disconnectUnreferencedLink(BackendConnection<OFGMessage> conn, Link l) {
+        try {
+            l.disconnect(conn);
+        } 
+        catch(IOException e) {
+            // ignore: connection down => polling messages cleared on the backend already
+        }
+    }
+    
+    /**
+     * Gets whether this topology has a link between the specified ports.
+     */
+    public boolean hasLink(long dstDPID, short dstPort, long srcDPID, short srcPort) {
+        NodeWithPorts srcNode = getNode(srcDPID);
+        NodeWithPorts dstNode = getNode(dstDPID);
+        return srcNode != null && dstNode != null && dstNode.getLinkTo(dstPort, srcNode, srcPort) != null;
+    }
+    
+    /** Gets the set of links currently in the topology */
+    public Set<Link> getLinks() {
+        return linksMap.keySet();
     }
     
     /**
@@ -338,6 +482,11 @@ public class Topology {
     /** the manager which is responsible for drawing nodes in this topology */
     private final PZManager manager;
     
+    /** Returns the manager which is responsible for drawing this topology. */
+    public PZManager getManager() {
+        return manager;
+    }
+    
     /** Tells the manager to draw a noed (or its virtualized switches if it is virtualized). */
     private void addNodeToManager(NodeWithPorts s) {
         VirtualSwitchSpecification v = virtualNodes.get(s.getID());
@@ -350,6 +499,24 @@ public class Topology {
         }
     }
     
+    /** Tells the manager to draw many nodes (or their virtualized switches) at once. */
+    private void addNodesToManager(List<NodeWithPorts> nodes) {
+        if(nodes.isEmpty())
+            return;
+        
+        ArrayList<NodeWithPorts> toDraw = new ArrayList<NodeWithPorts>(nodes.size());
+        for(NodeWithPorts s : nodes) {
+            VirtualSwitchSpecification v = virtualNodes.get(s.getID());
+            if(v == null)
+                toDraw.add(s);
+            else {
+                for(int i=0; i<v.getNumVirtualSwitches(); i++)
+                    toDraw.add(v.getVirtualSwitch(i).v);
+            }
+        }
+        manager.addDrawables(toDraw);
+    }
+    
     /** Tells the manager to stop drawing a node (or its virtualized switches if it is virtualized). */
     private void removeNodeFromManager(NodeWithPorts s) {
         VirtualSwitchSpecification v = virtualNodes.get(s.getID());
@@ -390,7 +557,7 @@ public class Topology {
 
     
     /** flows in the topology */
-    private final ConcurrentHashMap<Integer, Flow[]> flowsMap = new ConcurrentHashMap<Integer, Flow[]>();
+    private final ConcurrentIntMap<Flow[]> flowsMap = new ConcurrentIntMap<Flow[]>();
     
     /** add a flow to the topology */
     public void addFlow(Flow newFlow) {
@@ -422,7 +589,7 @@ public class Topology {
      * 
      * @return the Flows with the requested ID, or null if no such flows exist
      */
-    public Flow[] getFlow(Integer id) {
+    public Flow[] getFlow(int id) {
         return flowsMap.get(id);
     }
     
@@ -434,7 +601,7 @@ public class Topology {
     /**
      * Gets whether this topology has a flow with the specified ID.
      */
-    public boolean hasFlow(Integer id) {
+    public boolean hasFlow(int id) {
         return getFlow(id) != null;
     }
 
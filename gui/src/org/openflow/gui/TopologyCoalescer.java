@@ -0,0 +1,155 @@
+package org.openflow.gui;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openflow.gui.net.protocol.Node;
+
+/**
+ * Collects node and link additions and removals for a short period (a "tick")
+ * and folds them into the net set of changes to make to a Topology.  Only the
+ * last change to each node or link counts, and a node or link which is added
+ * and then removed again within one tick (before it ever made it into the
+ * topology) is dropped altogether.  Flapping links therefore do not disturb
+ * the renderer or the layout at all.
+ *
+ * Changes may be recorded from any thread.
+ */
+public class TopologyCoalescer {
+    /** the pending change to one node or link */
+    private static final class Pending<T> {
+        /** what to add, or null if the most recent change was a removal */
+        T add;
+
+        /** whether the first change this tick was an addition */
+        final boolean addedFirst;
+
+        Pending(T add) {
+            this.add = add;
+            addedFirst = (add != null);
+        }
+    }
+
+    /** The net changes for one tick. */
+    public static final class Changes {
+        /** nodes to add (in the order they were first announced) */
+        public final List<Node> nodesAdded = new ArrayList<Node>();
+
+        /** IDs of nodes to remove */
+        public final List<Long> nodesRemoved = new ArrayList<Long>();
+
+        /** links to add */
+        public final List<LinkEndpoints> linksAdded = new ArrayList<LinkEndpoints>();
+
+        /** links to remove */
+        public final List<LinkEndpoints> linksRemoved = new ArrayList<LinkEndpoints>();
+
+        /** Returns the number of changes. */
+        public int size() {
+            return nodesAdded.size() + nodesRemoved.size() + linksAdded.size() + linksRemoved.size();
+        }
+    }
+
+    /** pending node changes keyed by node ID */
+    private LinkedHashMap<Long, Pending<Node>> nodes = new LinkedHashMap<Long, Pending<Node>>();
+
+    /** pending link changes keyed by the link's endpoints */
+    private LinkedHashMap<LinkEndpoints, Pending<LinkEndpoints>> links = new LinkedHashMap<LinkEndpoints, Pending<LinkEndpoints>>();
+
+    /** number of changes recorded */
+    private long numRecorded = 0;
+
+    /** number of changes handed out by drain() */
+    private long numDrained = 0;
+
+    /** records that n was announced */
+    public synchronized void addNode(Node n) {
+        record(nodes, n.id, n);
+    }
+
+    /** records that the node with the specified ID was removed */
+    public synchronized void removeNode(long id) {
+        record(nodes, id, null);
+    }
+
+    /** records that the link e was announced */
+    public synchronized void addLink(LinkEndpoints e) {
+        record(links, e, e);
+    }
+
+    /** records that the link with e's endpoints was removed */
+    public synchronized void removeLink(LinkEndpoints e) {
+        record(links, e, null);
+    }
+
+    /** records a change to key: an addition of add, or a removal if add is null */
+    private <K, T> void record(Map<K, Pending<T>> pending, K key, T add) {
+        numRecorded += 1;
+        Pending<T> p = pending.get(key);
+        if(p == null)
+            pending.put(key, new Pending<T>(add));
+        else
+            p.add = add;
+    }
+
+    /** Returns true if no changes are pending. */
+    public synchronized boolean isEmpty() {
+        return nodes.isEmpty() && links.isEmpty();
+    }
+
+    /**
+     * Removes and returns the net pending changes.  A node or link which was
+     * added and then removed is only reported as removed if topo already has
+     * it (i.e., the addition was a duplicate); otherwise it is dropped.
+     *
+     * @param topo  the topology the changes will be applied to
+     */
+    public Changes drain(Topology topo) {
+        LinkedHashMap<Long, Pending<Node>> myNodes;
+        LinkedHashMap<LinkEndpoints, Pending<LinkEndpoints>> myLinks;
+        synchronized(this) {
+            myNodes = nodes;
+            myLinks = links;
+            nodes = new LinkedHashMap<Long, Pending<Node>>();
+            links = new LinkedHashMap<LinkEndpoints, Pending<LinkEndpoints>>();
+        }
+
+        Changes c = new Changes();
+        for(Map.Entry<Long, Pending<Node>> e : myNodes.entrySet()) {
+            Pending<Node> p = e.getValue();
+            if(p.add != null)
+                c.nodesAdded.add(p.add);
+            else if(!p.addedFirst || topo.hasNode(e.getKey()))
+                c.nodesRemoved.add(e.getKey());
+        }
+
+        for(Map.Entry<LinkEndpoints, Pending<LinkEndpoints>> e : myLinks.entrySet()) {
+            Pending<LinkEndpoints> p = e.getValue();
+            LinkEndpoints l = e.getKey();
+            if(p.add != null)
+                c.linksAdded.add(p.add);
+            else if(!p.addedFirst || topo.hasLink(l.dstID, l.dstPort, l.srcID, l.srcPort))
+                c.linksRemoved.add(l);
+        }
+
+        synchronized(this) {
+            numDrained += c.size();
+        }
+        return c;
+    }
+
+    /** Returns the number of changes which have been recorded. */
+    public synchronized long getNumRecorded() {
+        return numRecorded;
+    }
+
+    /**
+     * Returns the number of recorded changes which were folded away (i.e.,
+     * which were superseded or cancelled out within their tick).
+     */
+    public synchronized long getNumCoalesced() {
+        return numRecorded - numDrained - nodes.size() - links.size();
+    }
+}
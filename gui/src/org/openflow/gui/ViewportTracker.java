@@ -0,0 +1,159 @@
+package org.openflow.gui;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openflow.gui.drawables.Link;
+import org.openflow.gui.drawables.NodeWithPorts;
+
+/**
+ * Tracks which links of a topology are visible in at least one window so
+ * that their stats are only polled while someone can see them.  The windows'
+ * pan and zoom are checked every Options.VIEWPORT_CHECK_INTERVAL_MSEC.
+ *
+ * Changes are damped so that panning and zooming do not turn into a flood of
+ * requests: a visible link only becomes hidden once it is more than
+ * Options.VIEWPORT_MARGIN beyond every window and has stayed there for
+ * Options.VIEWPORT_HIDE_DELAY_MSEC, and a hidden link only becomes visible
+ * once it has stayed in a window for Options.VIEWPORT_SHOW_DELAY_MSEC.
+ *
+ * Links are visible until the tracker decides otherwise, and everything is
+ * visible while there are no windows.
+ */
+public class ViewportTracker {
+    /** Is told when a link becomes visible or hidden. */
+    public interface VisibilityListener {
+        /** Called (from the tracker's thread) after l became visible or hidden. */
+        public void visibilityChanged(Link l, boolean visible);
+    }
+
+    /** what we know about whether one link is visible */
+    private static final class LinkVisibility {
+        /** whether the link is considered visible */
+        boolean visible = true;
+
+        /** when the link started looking like it should change state (0 if it does not) */
+        long changingSince_ms = 0;
+    }
+
+    /** shared by all trackers to check visibility */
+    private static final Timer timer = new Timer("ViewportTracker", true);
+
+    /** the topology whose links are tracked */
+    private final Topology topology;
+
+    /** told when a link becomes visible or hidden */
+    private final VisibilityListener listener;
+
+    /** what we know about each link which has been checked */
+    private final ConcurrentHashMap<Link, LinkVisibility> links = new ConcurrentHashMap<Link, LinkVisibility>();
+
+    /** checks visibility periodically, or null if stopped */
+    private TimerTask task = null;
+
+    /**
+     * Creates a tracker for the links in topo.  It does nothing until it is
+     * started.
+     *
+     * @param topo      the topology whose links are tracked
+     * @param listener  told when a link becomes visible or hidden
+     */
+    public ViewportTracker(Topology topo, VisibilityListener listener) {
+        this.topology = topo;
+        this.listener = listener;
+    }
+
+    /** Starts checking which links are visible. */
+    public synchronized void start() {
+        if(task != null)
+            return;
+
+        task = new TimerTask() {
+            public void run() {
+                check();
+            }
+        };
+        timer.schedule(task, Options.VIEWPORT_CHECK_INTERVAL_MSEC, Options.VIEWPORT_CHECK_INTERVAL_MSEC);
+    }
+
+    /** Stops checking which links are visible. */
+    public synchronized void stop() {
+        if(task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    /** Returns true unless l has been hidden from every window for a while. */
+    public boolean isVisible(Link l) {
+        LinkVisibility v = links.get(l);
+        return v == null || v.visible;
+    }
+
+    /** Returns true if any of n's links is visible. */
+    public boolean isVisible(NodeWithPorts n) {
+        for(Link l : n.getLinks())
+            if(isVisible(l))
+                return true;
+        return false;
+    }
+
+    /** updates the visibility of every link based on the windows' current pan and zoom */
+    void check() {
+        ArrayList<Rectangle> areas = topology.getManager().getVisibleAreas();
+        ArrayList<Rectangle> margins = new ArrayList<Rectangle>(areas.size());
+        for(Rectangle r : areas) {
+            Rectangle m = new Rectangle(r);
+            m.grow((int)(r.width * Options.VIEWPORT_MARGIN), (int)(r.height * Options.VIEWPORT_MARGIN));
+            margins.add(m);
+        }
+
+        long now = System.currentTimeMillis();
+        for(Link l : topology.getLinks()) {
+            LinkVisibility v = links.get(l);
+            if(v == null) {
+                v = new LinkVisibility();
+                links.put(l, v);
+            }
+
+            // a visible link must leave the margins to be hidden, while a
+            // hidden one must enter a window to be shown again
+            boolean shouldBeVisible = areas.isEmpty() || intersects(v.visible ? margins : areas, l);
+            if(shouldBeVisible == v.visible) {
+                v.changingSince_ms = 0;
+                continue;
+            }
+
+            if(v.changingSince_ms == 0)
+                v.changingSince_ms = now;
+
+            int delay = shouldBeVisible ? Options.VIEWPORT_SHOW_DELAY_MSEC : Options.VIEWPORT_HIDE_DELAY_MSEC;
+            if(now - v.changingSince_ms >= delay) {
+                v.visible = shouldBeVisible;
+                v.changingSince_ms = 0;
+                listener.visibilityChanged(l, shouldBeVisible);
+            }
+        }
+
+        // forget links which are no longer in the topology
+        Iterator<Map.Entry<Link, LinkVisibility>> itr = links.entrySet().iterator();
+        while(itr.hasNext())
+            if(!topology.hasLink(itr.next().getKey()))
+                itr.remove();
+    }
+
+    /** returns true if l crosses any of the areas */
+    private static boolean intersects(ArrayList<Rectangle> areas, Link l) {
+        NodeWithPorts src = l.getSource();
+        NodeWithPorts dst = l.getDestination();
+        for(Rectangle r : areas)
+            if(r.intersectsLine(src.getX(), src.getY(), dst.getX(), dst.getY()))
+                return true;
+        return false;
+    }
+}
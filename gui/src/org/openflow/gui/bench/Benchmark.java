@@ -0,0 +1,35 @@
+package org.openflow.gui.bench;
+
+import java.io.IOException;
+
+/**
+ * A piece of code whose throughput and allocation rate are measured by a
+ * BenchmarkRunner.  Anything which should not be measured (building inputs,
+ * allocating buffers) belongs in setUp() or the constructor; op() should do
+ * exactly one operation and nothing else.
+ */
+public abstract class Benchmark {
+    /** name the benchmark is reported (and selected) by */
+    private final String name;
+
+    protected Benchmark(String name) {
+        this.name = name;
+    }
+
+    /** Returns the name the benchmark is reported (and selected) by. */
+    public String getName() {
+        return name;
+    }
+
+    /** Called once before the benchmark is warmed up. */
+    public void setUp() throws IOException {
+        /* nothing to prepare by default */
+    }
+
+    /**
+     * Performs one operation.  The return value should depend on the result of
+     * the operation (a length, a field, a hash code) so the JIT cannot discard
+     * the work; the runner folds it into a sink it prints at the end.
+     */
+    public abstract long op() throws IOException;
+}
@@ -0,0 +1,197 @@
+package org.openflow.gui.bench;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Measures the throughput and allocation rate of Benchmarks.  Each benchmark
+ * is warmed up for a few iterations (so the JIT has compiled it) and then
+ * measured for a few more; every iteration runs the operation in batches for
+ * a fixed amount of time.  Allocation is read from the HotSpot ThreadMXBean
+ * which counts the bytes each thread has allocated; it is reported as -1 on
+ * JVMs which do not support that.
+ */
+public class BenchmarkRunner {
+    /** how many operations are run between clock reads */
+    public static final int BATCH_SIZE = 64;
+
+    /** the outcome of measuring one benchmark */
+    public static final class Result {
+        /** the benchmark measured */
+        public final String name;
+
+        /** mean throughput over the measured iterations */
+        public final double opsPerSecond;
+
+        /** standard deviation of the throughput over the measured iterations */
+        public final double opsPerSecondStdDev;
+
+        /** bytes allocated per operation, or -1 if unknown */
+        public final double bytesPerOp;
+
+        Result(String name, double opsPerSecond, double opsPerSecondStdDev, double bytesPerOp) {
+            this.name = name;
+            this.opsPerSecond = opsPerSecond;
+            this.opsPerSecondStdDev = opsPerSecondStdDev;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        /** Returns the allocation rate in MB/s, or -1 if unknown. */
+        public double getAllocationRate() {
+            if(bytesPerOp < 0)
+                return -1;
+            else
+                return bytesPerOp * opsPerSecond / (1024 * 1024);
+        }
+
+        public String toString() {
+            return String.format("%-40s %14.0f +- %-10.0f %12.1f %10.1f",
+                                 name, opsPerSecond, opsPerSecondStdDev, bytesPerOp, getAllocationRate());
+        }
+    }
+
+    /** number of iterations run (and discarded) before measuring */
+    private int warmupIterations = 5;
+
+    /** number of iterations measured */
+    private int measureIterations = 5;
+
+    /** how long each iteration lasts */
+    private int iteration_ms = 500;
+
+    /** results so far */
+    private final List<Result> results = new ArrayList<Result>();
+
+    /** folds in each operation's return value so the work cannot be eliminated */
+    private long sink = 0;
+
+    /** reads per-thread allocation counts, or null if the JVM cannot */
+    private final com.sun.management.ThreadMXBean allocationBean;
+
+    public BenchmarkRunner() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean ab = null;
+        try {
+            if(bean instanceof com.sun.management.ThreadMXBean) {
+                ab = (com.sun.management.ThreadMXBean)bean;
+                if(ab.isThreadAllocatedMemorySupported())
+                    ab.setThreadAllocatedMemoryEnabled(true);
+                else
+                    ab = null;
+            }
+        }
+        catch(UnsupportedOperationException e) {
+            ab = null;
+        }
+        allocationBean = ab;
+    }
+
+    /** Sets the number of iterations run (and discarded) before measuring. */
+    public void setWarmupIterations(int n) {
+        warmupIterations = n;
+    }
+
+    /** Sets the number of iterations measured. */
+    public void setMeasureIterations(int n) {
+        measureIterations = Math.max(1, n);
+    }
+
+    /** Sets how long each iteration lasts. */
+    public void setIterationTime(int ms) {
+        iteration_ms = Math.max(1, ms);
+    }
+
+    /** returns the bytes the current thread has allocated so far, or -1 if unknown */
+    private long allocatedBytes() {
+        if(allocationBean == null)
+            return -1;
+        else
+            return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * runs b in batches for one iteration
+     *
+     * @param stats  filled with the number of operations, the elapsed time, and
+     *               the bytes allocated
+     */
+    private void iterate(Benchmark b, long[] stats) throws IOException {
+        long ops = 0, s = 0;
+        long deadline_ns = iteration_ms * 1000L * 1000L;
+        long alloc = allocatedBytes();
+        long start = System.nanoTime(), elapsed;
+        do {
+            for(int i=0; i<BATCH_SIZE; i++)
+                s += b.op();
+            ops += BATCH_SIZE;
+            elapsed = System.nanoTime() - start;
+        }
+        while(elapsed < deadline_ns);
+
+        long allocEnd = allocatedBytes();
+        sink += s;
+        stats[0] = ops;
+        stats[1] = elapsed;
+        stats[2] = (alloc < 0) ? -1 : allocEnd - alloc;
+    }
+
+    /** Warms up and measures b, prints its result, and returns it. */
+    public Result run(Benchmark b) throws IOException {
+        b.setUp();
+        long[] stats = new long[3];
+        for(int i=0; i<warmupIterations; i++)
+            iterate(b, stats);
+
+        double[] rates = new double[measureIterations];
+        long totalOps = 0, totalBytes = 0;
+        for(int i=0; i<measureIterations; i++) {
+            iterate(b, stats);
+            rates[i] = stats[0] * 1e9 / stats[1];
+            totalOps += stats[0];
+            totalBytes = (stats[2] < 0 || totalBytes < 0) ? -1 : totalBytes + stats[2];
+        }
+
+        double mean = 0;
+        for(double r : rates)
+            mean += r;
+        mean /= rates.length;
+
+        double var = 0;
+        for(double r : rates)
+            var += (r - mean) * (r - mean);
+        double stddev = Math.sqrt(var / rates.length);
+
+        double bytesPerOp = (totalBytes < 0) ? -1 : (double)totalBytes / totalOps;
+        Result r = new Result(b.getName(), mean, stddev, bytesPerOp);
+        results.add(r);
+        System.out.println(r);
+        return r;
+    }
+
+    /**
+     * Runs each benchmark whose name matches filter (all of them if filter is
+     * null) and returns their results.
+     */
+    public List<Result> runAll(List<Benchmark> benchmarks, String filter) throws IOException {
+        Pattern p = (filter == null) ? null : Pattern.compile(filter);
+        System.out.println(String.format("%-40s %28s %12s %10s", "Benchmark", "ops/s", "B/op", "MB/s"));
+        List<Result> ret = new ArrayList<Result>();
+        for(Benchmark b : benchmarks)
+            if(p == null || p.matcher(b.getName()).find())
+                ret.add(run(b));
+
+        if(allocationBean == null)
+            System.out.println("(allocation is not measured by this JVM)");
+        System.out.println("(sink " + sink + ")");
+        return ret;
+    }
+
+    /** Returns the results of every benchmark run so far. */
+    public List<Result> getResults() {
+        return results;
+    }
+}
@@ -0,0 +1,411 @@
+package org.openflow.gui.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Random;
+
+import org.openflow.gui.net.ByteBufferDataInput;
+import org.openflow.gui.net.ByteBufferDataOutput;
+import org.openflow.gui.net.Message;
+import org.openflow.gui.net.SocketConnection;
+import org.openflow.gui.net.protocol.Flow;
+import org.openflow.gui.net.protocol.FlowsAdd;
+import org.openflow.gui.net.protocol.FlowsDel;
+import org.openflow.gui.net.protocol.Hello;
+import org.openflow.gui.net.protocol.Link;
+import org.openflow.gui.net.protocol.LinkSpec;
+import org.openflow.gui.net.protocol.LinksAdd;
+import org.openflow.gui.net.protocol.LinksDel;
+import org.openflow.gui.net.protocol.Node;
+import org.openflow.gui.net.protocol.NodesAdd;
+import org.openflow.gui.net.protocol.NodesDel;
+import org.openflow.gui.net.protocol.OFGMessage;
+import org.openflow.gui.net.protocol.OFGMessageType;
+import org.openflow.gui.standin.SyntheticTopology;
+import org.openflow.protocol.AggregateStatsReply;
+import org.openflow.protocol.FlowStatsReply;
+import org.openflow.protocol.FlowWildcards;
+import org.openflow.protocol.Match;
+import org.openflow.protocol.PortStatsReply;
+import org.openflow.protocol.StatsFlag;
+import org.openflow.protocol.StatsType;
+import org.openflow.protocol.SwitchDescriptionStats;
+
+/**
+ * Benchmarks the OFG protocol's decode and encode paths: every message type
+ * the GUI receives, node/link/flow lists at the sizes a large network
+ * produces, Match, stats replies, and the string helpers they are built on.
+ * Messages are decoded from a ByteBufferDataInput positioned just past the
+ * length field, exactly as BackendConnection hands them to the decoders.
+ *
+ * Usage: CodecBenchmarks [-warmup N] [-iterations N] [-time MS] [REGEX]
+ * (only benchmarks whose names contain a match for REGEX are run).
+ */
+public final class CodecBenchmarks {
+    private CodecBenchmarks() { /* this class may not be instantiated */ }
+
+    /** number of elements in the small lists each message type is decoded with */
+    public static final int SMALL_LIST_SIZE = 64;
+
+    /** number of flows in the large flow lists */
+    public static final int LARGE_FLOW_LIST_SIZE = 4096;
+
+    /** k of the fat-tree whose links make up the large link lists */
+    public static final int LARGE_FAT_TREE_K = 16;
+
+    // ------------- Helpers ------------- //
+
+    /** returns the bytes m is sent as (in protocol version 1 framing) */
+    private static byte[] encode(Message m) throws IOException {
+        ByteBufferDataOutput out = new ByteBufferDataOutput(1024);
+        m.write(out);
+        ByteBuffer buf = out.getBuffer();
+        return Arrays.copyOf(buf.array(), buf.position());
+    }
+
+    /** returns an OFG message with the specified type and a hand-built body */
+    private static byte[] encodeRaw(OFGMessageType t, byte[] body) throws IOException {
+        ByteBufferDataOutput out = new ByteBufferDataOutput(OFGMessage.SIZEOF + body.length);
+        out.writeShort(OFGMessage.SIZEOF + body.length);
+        out.writeByte(t.getTypeID());
+        out.writeInt(0);
+        out.write(body);
+        ByteBuffer buf = out.getBuffer();
+        return Arrays.copyOf(buf.array(), buf.position());
+    }
+
+    /**
+     * Decodes from a fixed encoding.  Each operation rewinds the same buffer
+     * so only the decoder itself is measured.
+     */
+    private static abstract class DecodeBenchmark extends Benchmark {
+        /** the encoding being decoded */
+        protected final ByteBuffer buf;
+
+        /** reads buf */
+        protected final ByteBufferDataInput in;
+
+        /** where decoding starts in buf */
+        private final int start;
+
+        DecodeBenchmark(String name, byte[] encoded, int start) {
+            super(name);
+            buf = ByteBuffer.wrap(encoded);
+            in = new ByteBufferDataInput(buf);
+            this.start = start;
+        }
+
+        public final long op() throws IOException {
+            buf.position(start);
+            return decode();
+        }
+
+        /** decodes from in and returns something which depends on the result */
+        protected abstract long decode() throws IOException;
+    }
+
+    /** decodes an OFG message with OFGMessageType.decode (or decodeFlyweight) */
+    private static final class MessageDecodeBenchmark extends DecodeBenchmark {
+        /** length of the message (which may not fit in its 2-byte length field) */
+        private final int len;
+
+        /** whether to decode lists as views */
+        private final boolean flyweight;
+
+        MessageDecodeBenchmark(String name, OFGMessage m, boolean flyweight) throws IOException {
+            this(name, encode(m), m.length(), flyweight);
+        }
+
+        MessageDecodeBenchmark(String name, byte[] encoded, int len, boolean flyweight) {
+            super(name, encoded, 2);
+            this.len = len;
+            this.flyweight = flyweight;
+        }
+
+        protected long decode() throws IOException {
+            OFGMessage m;
+            if(flyweight)
+                m = OFGMessageType.decodeFlyweight(len, in);
+            else
+                m = OFGMessageType.decode(len, in);
+            return m.xid + m.type.ordinal();
+        }
+    }
+
+    /** decodes a stats reply with StatsType.decode */
+    private static final class StatsDecodeBenchmark extends DecodeBenchmark {
+        /** length of the message */
+        private final int len;
+
+        StatsDecodeBenchmark(String name, OFGMessage m) throws IOException {
+            super(name, encode(m), OFGMessage.SIZEOF);
+            len = m.length();
+        }
+
+        protected long decode() throws IOException {
+            return StatsType.decode(len, OFGMessageType.STAT_REPLY, 0, in).dpid;
+        }
+    }
+
+    /** writes a message into the same (reused) buffer over and over */
+    private static final class EncodeBenchmark extends Benchmark {
+        /** the message to write */
+        private final Message m;
+
+        /** where m is written */
+        private final ByteBufferDataOutput out = new ByteBufferDataOutput(1024);
+
+        EncodeBenchmark(String name, Message m) {
+            super(name);
+            this.m = m;
+        }
+
+        public long op() throws IOException {
+            out.getBuffer().clear();
+            m.write(out);
+            return out.getBuffer().position();
+        }
+    }
+
+    /**
+     * Reads a string through a plain DataInputStream (rather than the
+     * ByteBufferDataInput fast path) so both of SocketConnection's string
+     * decoders are measured.
+     */
+    private static abstract class StreamDecodeBenchmark extends Benchmark {
+        /** the encoding being decoded (rewound by each operation) */
+        private final ByteArrayInputStream bytes;
+
+        /** reads bytes */
+        protected final DataInputStream in;
+
+        StreamDecodeBenchmark(String name, byte[] encoded) {
+            super(name);
+            bytes = new ByteArrayInputStream(encoded);
+            in = new DataInputStream(bytes);
+        }
+
+        public final long op() throws IOException {
+            bytes.reset();
+            return decode();
+        }
+
+        /** decodes from in and returns something which depends on the result */
+        protected abstract long decode() throws IOException;
+    }
+
+    // ------------- Inputs ------------- //
+
+    /** returns a match with every field set (and nothing wildcarded) */
+    private static Match sampleMatch() {
+        Match m = new Match();
+        m.wildcards = new FlowWildcards(0);
+        m.in_port = 3;
+        for(int i=0; i<6; i++) {
+            m.dl_src[i] = (byte)(0x10 + i);
+            m.dl_dst[i] = (byte)(0x20 + i);
+        }
+        m.dl_vlan = 100;
+        m.dl_type = 0x0800;
+        m.nw_proto = 6;
+        m.nw_src = 0x0A000001;
+        m.nw_dst = 0x0A000002;
+        m.tp_src = 12345;
+        m.tp_dst = 80;
+        return m;
+    }
+
+    /** returns a description like the ones real switches send */
+    private static SwitchDescriptionStats sampleDescription() {
+        return new SwitchDescriptionStats(0x0000002320A5F1C4L, "Nicira Networks, Inc.",
+                                          "Reference Userspace Switch", "0.8.9~1+build1",
+                                          "None", "NetFPGA 4-port switch at port 7");
+    }
+
+    /** returns a port stats reply like a leaf switch with numPorts ports sends */
+    private static PortStatsReply samplePortStats(int numPorts) {
+        PortStatsReply.Port[] ports = new PortStatsReply.Port[numPorts];
+        for(int i=0; i<numPorts; i++) {
+            PortStatsReply.Port p = new PortStatsReply.Port((short)(i + 1));
+            p.rx_packets = p.tx_packets = 1000000L * i;
+            p.rx_bytes = p.tx_bytes = 800000000L * i;
+            ports[i] = p;
+        }
+        return new PortStatsReply(0x0000002320A5F1C4L, ports);
+    }
+
+    /** returns a flow stats reply with numFlows flows (as many as fit in one message) */
+    private static FlowStatsReply sampleFlowStats(int numFlows) {
+        long[] cookies = new long[numFlows], packets = new long[numFlows], bytes = new long[numFlows];
+        for(int i=0; i<numFlows; i++) {
+            cookies[i] = i + 1;
+            packets[i] = 1000L * i;
+            bytes[i] = 800000L * i;
+        }
+        return new FlowStatsReply(0x0000002320A5F1C4L, StatsFlag.NONE, cookies, packets, bytes);
+    }
+
+    /** returns a string padded with zeros to length bytes (and zero terminated) */
+    private static byte[] paddedString(String s, int length) throws IOException {
+        ByteBufferDataOutput out = new ByteBufferDataOutput(length);
+        SocketConnection.writeString(out, s, length);
+        return Arrays.copyOf(out.getBuffer().array(), length);
+    }
+
+    /** returns the first n elements of a (cyclically repeated if it is too short) */
+    private static <T> T[] take(T[] a, int n) {
+        T[] ret = Arrays.copyOf(a, n);
+        for(int i=a.length; i<n; i++)
+            ret[i] = a[i % a.length];
+        return ret;
+    }
+
+    /** Returns every codec benchmark. */
+    public static List<Benchmark> all() throws IOException {
+        List<Benchmark> ret = new ArrayList<Benchmark>();
+
+        SyntheticTopology topo = SyntheticTopology.fatTree(LARGE_FAT_TREE_K);
+        List<Node> nodeList = topo.getNodes();
+        Node[] nodes = nodeList.toArray(new Node[nodeList.size()]);
+        LinkSpec[] linkSpecs = topo.getLinks().toArray(new LinkSpec[topo.getLinks().size()]);
+        Link[] links = new Link[linkSpecs.length];
+        for(int i=0; i<links.length; i++) {
+            LinkSpec l = linkSpecs[i];
+            links[i] = new Link(l.linkType, l.srcNode, l.srcPort, l.dstNode, l.dstPort);
+        }
+        List<Flow> flowList = topo.randomFlows(LARGE_FLOW_LIST_SIZE, new Random(1));
+        Flow[] flows = flowList.toArray(new Flow[flowList.size()]);
+
+        // every message type the GUI receives, with small bodies
+        EnumMap<OFGMessageType, byte[]> samples = new EnumMap<OFGMessageType, byte[]>(OFGMessageType.class);
+        samples.put(OFGMessageType.ECHO_REQUEST, encode(new OFGMessage(OFGMessageType.ECHO_REQUEST, 1)));
+        samples.put(OFGMessageType.ECHO_REPLY, encode(new OFGMessage(OFGMessageType.ECHO_REPLY, 1)));
+        samples.put(OFGMessageType.HELLO, encode(new Hello(1, (byte)2, Hello.CAP_FRAGMENTATION | Hello.CAP_DEFLATE)));
+        samples.put(OFGMessageType.AUTH_REQUEST, encodeRaw(OFGMessageType.AUTH_REQUEST, new byte[20]));
+        byte[] status = "authenticated as admin".getBytes();
+        byte[] statusBody = new byte[1 + status.length];
+        statusBody[0] = 1;
+        System.arraycopy(status, 0, statusBody, 1, status.length);
+        samples.put(OFGMessageType.AUTH_STATUS, encodeRaw(OFGMessageType.AUTH_STATUS, statusBody));
+        samples.put(OFGMessageType.NODES_ADD, encode(new NodesAdd(1, take(nodes, SMALL_LIST_SIZE))));
+        samples.put(OFGMessageType.NODES_DELETE, encode(new NodesDel(take(nodes, SMALL_LIST_SIZE))));
+        samples.put(OFGMessageType.LINKS_ADD, encode(new LinksAdd(1, take(linkSpecs, SMALL_LIST_SIZE))));
+        samples.put(OFGMessageType.LINKS_DELETE, encode(new LinksDel(take(links, SMALL_LIST_SIZE))));
+        samples.put(OFGMessageType.FLOWS_ADD, encode(new FlowsAdd(1, take(flows, SMALL_LIST_SIZE))));
+        samples.put(OFGMessageType.FLOWS_DELETE, encode(new FlowsDel(take(flows, SMALL_LIST_SIZE))));
+        AggregateStatsReply agg = new AggregateStatsReply(7);
+        agg.packet_count = 123456789;
+        agg.byte_count = 98765432100L;
+        agg.flow_count = 42;
+        samples.put(OFGMessageType.STAT_REPLY, encode(agg));
+        for(OFGMessageType t : OFGMessageType.values()) {
+            byte[] b = samples.get(t);
+            if(b != null)
+                ret.add(new MessageDecodeBenchmark("decode." + t, b, b.length, false));
+        }
+
+        // lists at the sizes a large network produces
+        NodesAdd largeNodes = new NodesAdd(1, nodes);
+        LinksAdd largeLinks = new LinksAdd(1, linkSpecs);
+        FlowsAdd largeFlows = new FlowsAdd(1, flows);
+        ret.add(new MessageDecodeBenchmark("decode.NodesList." + nodes.length, largeNodes, false));
+        ret.add(new MessageDecodeBenchmark("decode.NodesList." + nodes.length + ".view", largeNodes, true));
+        ret.add(new MessageDecodeBenchmark("decode.LinkSpecsList." + linkSpecs.length, largeLinks, false));
+        ret.add(new MessageDecodeBenchmark("decode.LinkSpecsList." + linkSpecs.length + ".view", largeLinks, true));
+        ret.add(new MessageDecodeBenchmark("decode.FlowsList." + flows.length, largeFlows, false));
+        ret.add(new MessageDecodeBenchmark("decode.FlowsList." + flows.length + ".view", largeFlows, true));
+        ret.add(new EncodeBenchmark("encode.LinkSpecsList." + linkSpecs.length, largeLinks));
+        ret.add(new EncodeBenchmark("encode.FlowsList." + flows.length, largeFlows));
+
+        // Match
+        final Match match = sampleMatch();
+        ByteBufferDataOutput matchOut = new ByteBufferDataOutput(Match.SIZEOF);
+        match.write(matchOut);
+        ret.add(new DecodeBenchmark("decode.Match", matchOut.getBuffer().array(), 0) {
+            protected long decode() throws IOException {
+                return new Match(in).nw_src;
+            }
+        });
+        ret.add(new EncodeBenchmark("encode.Match", new Message<Object>() {
+            public Object getType() {
+                return null;
+            }
+
+            public void write(java.io.DataOutput out) throws IOException {
+                match.write(out);
+            }
+        }));
+
+        // stats replies
+        ret.add(new StatsDecodeBenchmark("decode.stats.AggregateStatsReply", agg));
+        ret.add(new StatsDecodeBenchmark("decode.stats.SwitchDescriptionStats", sampleDescription()));
+        ret.add(new StatsDecodeBenchmark("decode.stats.PortStatsReply(48)", samplePortStats(48)));
+        ret.add(new StatsDecodeBenchmark("decode.stats.FlowStatsReply(372)", sampleFlowStats(372)));
+
+        // strings, through both the ByteBuffer fast path and a plain stream
+        final int strLen = SwitchDescriptionStats.MAX_DSEC_STR_LEN;
+        byte[] str = paddedString("Reference Userspace Switch", strLen);
+        ret.add(new DecodeBenchmark("decode.readString.buffer", str, 0) {
+            protected long decode() throws IOException {
+                return SocketConnection.readString(in, strLen).length();
+            }
+        });
+        ret.add(new StreamDecodeBenchmark("decode.readString.stream", str) {
+            protected long decode() throws IOException {
+                return SocketConnection.readString(in, strLen).length();
+            }
+        });
+        ret.add(new DecodeBenchmark("decode.readNullTerminatedString.buffer", str, 0) {
+            protected long decode() throws IOException {
+                return SocketConnection.readNullTerminatedString(in).length();
+            }
+        });
+        ret.add(new StreamDecodeBenchmark("decode.readNullTerminatedString.stream", str) {
+            protected long decode() throws IOException {
+                return SocketConnection.readNullTerminatedString(in).length();
+            }
+        });
+
+        return ret;
+    }
+
+    /** prints how to run the benchmarks and exits */
+    private static void usage() {
+        System.err.println("usage: CodecBenchmarks [-warmup N] [-iterations N] [-time MS] [REGEX]");
+        System.exit(1);
+    }
+
+    public static void main(String args[]) throws IOException {
+        BenchmarkRunner runner = new BenchmarkRunner();
+        String filter = null;
+        try {
+            for(int i=0; i<args.length; i++) {
+                String a = args[i];
+                if(a.equals("-warmup"))
+                    runner.setWarmupIterations(Integer.parseInt(args[++i]));
+                else if(a.equals("-iterations"))
+                    runner.setMeasureIterations(Integer.parseInt(args[++i]));
+                else if(a.equals("-time"))
+                    runner.setIterationTime(Integer.parseInt(args[++i]));
+                else if(a.startsWith("-") || filter != null)
+                    usage();
+                else
+                    filter = a;
+            }
+        }
+        catch(ArrayIndexOutOfBoundsException e) {
+            usage();
+        }
+        catch(NumberFormatException e) {
+            usage();
+        }
+
+        runner.runAll(all(), filter);
+    }
+}
@@ -0,0 +1,322 @@
+package org.openflow.gui.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.openflow.gui.Topology;
+import org.openflow.gui.drawables.Flow;
+import org.openflow.gui.drawables.Link;
+import org.openflow.gui.drawables.NodeWithPorts;
+import org.openflow.gui.drawables.OpenFlowSwitch;
+import org.openflow.gui.net.protocol.FlowType;
+import org.openflow.gui.net.protocol.LinkType;
+import org.openflow.util.ConcurrentLongMap;
+import org.openflow.util.FlowHop;
+import org.pzgui.PZManager;
+
+/**
+ * Benchmarks the Topology's node and flow indexes, and a node's link indexes,
+ * at the sizes a very large network produces, next to baselines which index
+ * the same keys the way they used to be (ConcurrentHashMaps keyed by boxed
+ * IDs, and CopyOnWriteArrayLists of node IDs or links which were scanned).
+ *
+ * Usage: TopologyBenchmarks [-warmup N] [-iterations N] [-time MS] [REGEX]
+ * (only benchmarks whose names contain a match for REGEX are run).
+ */
+public final class TopologyBenchmarks {
+    private TopologyBenchmarks() { /* this class may not be instantiated */ }
+
+    /** number of nodes (and flows) in the topology */
+    public static final int NUM_NODES = 100 * 1000;
+
+    /** datapath IDs share a vendor prefix and differ only in their low bits */
+    private static final long DPID_BASE = 0x0026E20000000000L;
+
+    /** returns the IDs of the nodes in a random order */
+    private static long[] shuffledIDs(Random r) {
+        long[] ids = new long[NUM_NODES];
+        for(int i=0; i<ids.length; i++)
+            ids[i] = DPID_BASE + i;
+        for(int i=ids.length-1; i>0; i--) {
+            int j = r.nextInt(i + 1);
+            long t = ids[i];
+            ids[i] = ids[j];
+            ids[j] = t;
+        }
+        return ids;
+    }
+
+    /** number of links attached to the hub switch */
+    public static final int HUB_LINKS = 4000;
+
+    /** returns a switch with HUB_LINKS links, port i of which leads to a switch of its own */
+    private static NodeWithPorts newHub() {
+        NodeWithPorts hub = new OpenFlowSwitch(DPID_BASE - 2);
+        try {
+            for(int i=1; i<=HUB_LINKS; i++)
+                new Link(LinkType.WIRE, new OpenFlowSwitch(DPID_BASE + i), (short)1, hub, (short)i);
+        }
+        catch(Link.LinkExistsException e) {
+            throw new Error(e);
+        }
+        return hub;
+    }
+
+    /** the topology the benchmarks use (populated by the first one set up) */
+    private static final Topology topo = new Topology(new PZManager());
+
+    /** adds NUM_NODES nodes, and a one-hop flow through each, to topo unless it already has them */
+    private static synchronized void populate() {
+        if(topo.getNodeIDs().size() >= NUM_NODES)
+            return;
+
+        long[] ids = shuffledIDs(new Random(1));
+        ArrayList<NodeWithPorts> nodes = new ArrayList<NodeWithPorts>(ids.length);
+        for(long id : ids)
+            nodes.add(new OpenFlowSwitch(id));
+        topo.addNodes(null, nodes);
+        for(NodeWithPorts n : nodes)
+            topo.addFlow(new Flow(FlowType.UNKNOWN, (int)n.getID(), new FlowHop[]{new FlowHop((short)1, n, (short)2)}));
+    }
+
+    /** a benchmark which looks up each of NUM_NODES keys in turn */
+    private static abstract class LookupBenchmark extends Benchmark {
+        protected final long[] ids = shuffledIDs(new Random(1));
+        private int next = 0;
+
+        LookupBenchmark(String name) {
+            super(name);
+        }
+
+        public long op() {
+            long id = ids[next];
+            next = (next + 1 == ids.length) ? 0 : next + 1;
+            return lookup(id);
+        }
+
+        /** looks up the object with the specified ID and returns something which depends on it */
+        protected abstract long lookup(long id);
+    }
+
+    /** Returns all benchmarks. */
+    public static List<Benchmark> all() {
+        List<Benchmark> ret = new ArrayList<Benchmark>();
+
+        ret.add(new LookupBenchmark("topology.getNode." + NUM_NODES) {
+            public void setUp() {
+                populate();
+            }
+
+            protected long lookup(long id) {
+                return topo.getNode(id).getX();
+            }
+        });
+        ret.add(new LookupBenchmark("nodeIndex.get." + NUM_NODES) {
+            private final ConcurrentLongMap<NodeWithPorts> map = new ConcurrentLongMap<NodeWithPorts>();
+
+            public void setUp() {
+                for(long id : ids)
+                    map.put(id, new OpenFlowSwitch(id));
+            }
+
+            protected long lookup(long id) {
+                return map.get(id).getX();
+            }
+        });
+        ret.add(new LookupBenchmark("baseline.nodeIndex.get." + NUM_NODES) {
+            private final ConcurrentHashMap<Long, NodeWithPorts> map = new ConcurrentHashMap<Long, NodeWithPorts>();
+
+            public void setUp() {
+                for(long id : ids)
+                    map.put(id, new OpenFlowSwitch(id));
+            }
+
+            protected long lookup(long id) {
+                return map.get(id).getX();
+            }
+        });
+
+        ret.add(new LookupBenchmark("topology.getFlow." + NUM_NODES) {
+            public void setUp() {
+                populate();
+            }
+
+            protected long lookup(long id) {
+                return topo.getFlow((int)id).length;
+            }
+        });
+        ret.add(new LookupBenchmark("baseline.topology.getFlow." + NUM_NODES) {
+            private final ConcurrentHashMap<Integer, Flow[]> map = new ConcurrentHashMap<Integer, Flow[]>();
+
+            public void setUp() {
+                populate();
+                for(long id : ids)
+                    map.put((int)id, topo.getFlow((int)id));
+            }
+
+            protected long lookup(long id) {
+                return map.get((int)id).length;
+            }
+        });
+
+        // adding and removing one node from the index of a topology which has 
+        // NUM_NODES (the manager's list of drawables is left out)
+        ret.add(new Benchmark("nodeIndex.addRemove." + NUM_NODES) {
+            private final ConcurrentLongMap<NodeWithPorts> map = new ConcurrentLongMap<NodeWithPorts>();
+            private final NodeWithPorts n = new OpenFlowSwitch(DPID_BASE - 1);
+
+            public void setUp() {
+                for(long id : shuffledIDs(new Random(1)))
+                    map.put(id, new OpenFlowSwitch(id));
+            }
+
+            public long op() {
+                map.put(n.getID(), n);
+                return map.remove(n.getID()).getX();
+            }
+        });
+        ret.add(new Benchmark("baseline.nodeIndex.addRemove." + NUM_NODES) {
+            private final ConcurrentHashMap<Long, NodeWithPorts> map = new ConcurrentHashMap<Long, NodeWithPorts>();
+            private final CopyOnWriteArrayList<Long> list = new CopyOnWriteArrayList<Long>();
+            private final NodeWithPorts n = new OpenFlowSwitch(DPID_BASE - 1);
+
+            public void setUp() {
+                long[] ids = shuffledIDs(new Random(1));
+                ArrayList<Long> boxed = new ArrayList<Long>(ids.length);
+                for(long id : ids) {
+                    map.put(id, new OpenFlowSwitch(id));
+                    boxed.add(id);
+                }
+                list.addAll(boxed);
+            }
+
+            public long op() {
+                Long id = n.getID();
+                map.put(id, n);
+                list.add(id);
+                list.remove(id);
+                return map.remove(id).getX();
+            }
+        });
+
+        ret.add(new Benchmark("node.getLinkFrom." + HUB_LINKS) {
+            private NodeWithPorts hub;
+            private short next = 1;
+
+            public void setUp() {
+                hub = newHub();
+            }
+
+            public long op() {
+                next = (short)((next == HUB_LINKS) ? 1 : next + 1);
+                return hub.getLinkFrom(next).getDestination().getID();
+            }
+        });
+        ret.add(new Benchmark("baseline.node.getLinkFrom." + HUB_LINKS) {
+            private final CopyOnWriteArrayList<Link> links = new CopyOnWriteArrayList<Link>();
+            private NodeWithPorts hub;
+            private short next = 1;
+
+            public void setUp() {
+                hub = newHub();
+                links.addAll(hub.getLinks());
+            }
+
+            public long op() {
+                next = (short)((next == HUB_LINKS) ? 1 : next + 1);
+                for(Link l : links)
+                    if(l.getMyPort(hub) == next)
+                        return l.getDestination().getID();
+                return 0;
+            }
+        });
+
+        // attaching and detaching one more link to the hub (new links first 
+        // check that they do not already exist)
+        ret.add(new Benchmark("node.addRemoveLink." + HUB_LINKS) {
+            private final NodeWithPorts leaf = new OpenFlowSwitch(DPID_BASE - 3);
+            private NodeWithPorts hub;
+
+            public void setUp() {
+                hub = newHub();
+            }
+
+            public long op() {
+                try {
+                    Link l = new Link(LinkType.WIRE, leaf, (short)1, hub, (short)(HUB_LINKS + 1));
+                    l.disconnect(null);
+                    return hub.getNumLinks();
+                }
+                catch(Exception e) {
+                    throw new Error(e);
+                }
+            }
+        });
+        ret.add(new Benchmark("baseline.node.addRemoveLink." + HUB_LINKS) {
+            private final CopyOnWriteArrayList<Link> links = new CopyOnWriteArrayList<Link>();
+            private final NodeWithPorts leaf = new OpenFlowSwitch(DPID_BASE - 3);
+            private NodeWithPorts hub;
+            private Link extra;
+
+            public void setUp() {
+                hub = newHub();
+                links.addAll(hub.getLinks());
+                try {
+                    extra = new Link(LinkType.WIRE, leaf, (short)1, hub, (short)(HUB_LINKS + 1));
+                }
+                catch(Link.LinkExistsException e) {
+                    throw new Error(e);
+                }
+            }
+
+            public long op() {
+                for(Link l : links)
+                    if(l.getOther(hub) == leaf && l.getMyPort(hub) == HUB_LINKS + 1)
+                        throw new Error("link exists");
+                links.add(extra);
+                links.remove(extra);
+                return links.size();
+            }
+        });
+
+        return ret;
+    }
+
+    /** prints how to run the benchmarks and exits */
+    private static void usage() {
+        System.err.println("usage: TopologyBenchmarks [-warmup N] [-iterations N] [-time MS] [REGEX]");
+        System.exit(1);
+    }
+
+    public static void main(String args[]) throws IOException {
+        BenchmarkRunner runner = new BenchmarkRunner();
+        String filter = null;
+        try {
+            for(int i=0; i<args.length; i++) {
+                String a = args[i];
+                if(a.equals("-warmup"))
+                    runner.setWarmupIterations(Integer.parseInt(args[++i]));
+                else if(a.equals("-iterations"))
+                    runner.setMeasureIterations(Integer.parseInt(args[++i]));
+                else if(a.equals("-time"))
+                    runner.setIterationTime(Integer.parseInt(args[++i]));
+                else if(a.startsWith("-") || filter != null)
+                    usage();
+                else
+                    filter = a;
+            }
+        }
+        catch(ArrayIndexOutOfBoundsException e) {
+            usage();
+        }
+        catch(NumberFormatException e) {
+            usage();
+        }
+
+        runner.runAll(all(), filter);
+    }
+}
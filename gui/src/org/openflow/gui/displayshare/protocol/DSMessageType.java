@@ -29,13 +29,16 @@ public enum DSMessageType {
         return typeID;
     }
 
+    /** constants indexed by type ID */
+    private static final DSMessageType[] BY_TYPE_ID = new DSMessageType[256];
+    static {
+        for(DSMessageType t : values())
+            BY_TYPE_ID[t.typeID & 0xFF] = t;
+    }
+
     /** Returns the OFGMessageType constant associated with typeID, if any */
     public static DSMessageType typeValToMessageType(byte typeID) {
-        for(DSMessageType t : DSMessageType.values())
-            if(t.getTypeID() == typeID)
-                return t;
-
-        return null;
+        return BY_TYPE_ID[typeID & 0xFF];
     }
     
     /** 
@@ -8,6 +8,8 @@ import java.util.LinkedList;
 import java.util.Vector;
 
 import org.openflow.gui.net.protocol.FlowType;
+import org.openflow.gui.stats.PortStatsRates;
+import org.openflow.protocol.Match;
 import org.openflow.util.FlowHop;
 import org.openflow.util.Pair;
 import org.pzgui.AbstractDrawable;
@@ -64,6 +66,17 @@ public class Flow extends AbstractDrawable {
     
     /** whether a flow contains a particular segment */
     
+    /** 
+     * Gets the first switch on this flow's path (whose counters are used to 
+     * compute the flow's rates), or null if it does not cross a switch.
+     */
+    public OpenFlowSwitch getIngressSwitch() {
+        for(FlowHop h : path)
+            if(h.node instanceof OpenFlowSwitch)
+                return (OpenFlowSwitch)h.node;
+        return null;
+    }
+    
     /** whether to draw a given segment */
     private boolean shouldDrawSegment(FlowHop from, FlowHop to) {
         for(Pair<FlowHop, FlowHop> p : segmentsToIgnore)
@@ -97,6 +110,56 @@ public class Flow extends AbstractDrawable {
     }
     
     
+    // -------------------- Stats ------------------- //
+    
+    /** the flow's counters and rates, or null if none have been received */
+    private volatile PortStatsRates stats = null;
+    
+    /** the flow's rate relative to the capacity of its first link (-1 if unknown) */
+    private volatile float usage = -1;
+    
+    /** Gets the flow's counters and rates, or null if none have been received. */
+    public PortStatsRates getStats() {
+        return stats;
+    }
+    
+    /** Gets the flow's rate in packets per second (0 if unknown). */
+    public double getPacketsPerSec() {
+        PortStatsRates s = stats;
+        return (s == null) ? 0 : s.getPacketsPerSec();
+    }
+    
+    /** Gets the flow's rate in bits per second (0 if unknown). */
+    public double getBitsPerSec() {
+        PortStatsRates s = stats;
+        return (s == null) ? 0 : s.getBitsPerSec();
+    }
+    
+    /** 
+     * Updates the flow's counters (e.g., from a FLOW stats reply from its 
+     * ingress switch) and recolors and resizes it based on its new rate.
+     */
+    public void updateStats(long packetCount, long byteCount, long when) {
+        // counters which went backwards belong to a reinstalled flow
+        PortStatsRates s = stats;
+        if(s == null || packetCount < s.getPacketCount() || byteCount < s.getByteCount()) {
+            // the first counters are only a baseline for the rates
+            s = new PortStatsRates(Match.MATCH_ALL, 0.0);
+            s.update(packetCount, byteCount, 1, when);
+            s.setWeightOfNew(1.0);
+            stats = s;
+            return;
+        }
+        
+        s.update(packetCount, byteCount, 1, when);
+        
+        Link first = (path.length > 1) ? path[0].node.getLinkTo(path[1].node) : null;
+        double capacity = (first != null) ? first.getMaximumDataRate() : Link.DEFAULT_MAX_DATA_RATE_BPS;
+        usage = (float)Math.min(1.0, s.getBitsPerSec() / capacity);
+        paintConn = Link.getUsageColor(usage);
+    }
+    
+    
     // ------------------- Drawing ------------------ //
     
     /** whether flows should be animated */
@@ -105,6 +168,9 @@ public class Flow extends AbstractDrawable {
     /** radius of circles which make up the flow */
     public static final int POINT_SIZE = 20;
     
+    /** radius of circles which make up an idle flow whose rate is known */
+    public static final int MIN_POINT_SIZE = 8;
+    
     /** gap between points */
     private static final int GAP_BETWEEN_POINTS = POINT_SIZE;
     
@@ -312,9 +378,16 @@ public class Flow extends AbstractDrawable {
         gfx.drawOval((int)x, (int)y, size, size);
     }
     
-    /** Gets the width of the line within which segments of the flow are drawn */
+    /** 
+     * Gets the width of the line within which segments of the flow are drawn 
+     * (busier flows are drawn thicker once their rate is known).
+     */
     public int getPointSize() {
-        return POINT_SIZE;
+        float u = usage;
+        if(u < 0)
+            return POINT_SIZE;
+        else
+            return MIN_POINT_SIZE + Math.round((POINT_SIZE - MIN_POINT_SIZE) * u);
     }
     
     /** Gets the paint for this flow */
@@ -27,9 +27,12 @@ import org.openflow.gui.net.protocol.LinkType;
 import org.openflow.gui.net.protocol.PollStart;
 import org.openflow.gui.net.protocol.PollStop;
 import org.openflow.gui.stats.LinkStats;
+import org.openflow.gui.stats.PortStatsRates;
 import org.openflow.protocol.AggregateStatsReply;
 import org.openflow.protocol.AggregateStatsRequest;
 import org.openflow.protocol.Match;
+import org.openflow.protocol.PortStatsReply;
+import org.openflow.util.Hashing;
 import org.pzgui.Constants;
 import org.pzgui.AbstractDrawable;
 import org.pzgui.StringDrawer;
@@ -70,11 +73,31 @@ public class Link extends AbstractDrawable implements Edge<NodeWithPorts> {
         }
     }
     
+    /** number of locks which serialize the creation of links (a power of two) */
+    private static final int NUM_LOCKS = 256;
+    
     /** 
-     * Used to ensure new links are created sequentially to ensure link exists
-     * exceptions can be properly generated.
+     * Used to ensure links between the same pair of nodes are created 
+     * sequentially to ensure link exists exceptions can be properly generated.
+     * Links between other pairs of nodes will likely use a different lock, so
+     * they can be created in parallel.
+     */
+    private static final Object[] LOCKS = new Object[NUM_LOCKS];
+    static {
+        for(int i=0; i<NUM_LOCKS; i++)
+            LOCKS[i] = new Object();
+    }
+    
+    /**
+     * Returns the lock which serializes the creation of links between a and b
+     * (in either direction).  Holding it also keeps any other thread from 
+     * creating such a link.
      */
-    private static final Object ONE_AT_A_TIME = new Object();
+    public static Object getLock(NodeWithPorts a, NodeWithPorts b) {
+        long lo = Math.min(a.getID(), b.getID());
+        long hi = Math.max(a.getID(), b.getID());
+        return LOCKS[Hashing.mix(Hashing.combine(lo, hi)) & (NUM_LOCKS - 1)];
+    }
     
     /**
      * Constructs a new link between src and dst.
@@ -88,7 +111,7 @@ public class Link extends AbstractDrawable implements Edge<NodeWithPorts> {
      * @throws LinkExistsException  thrown if the link already exists
      */
     public Link(LinkType linkType, NodeWithPorts dst, short dstPort, NodeWithPorts src, short srcPort) throws LinkExistsException {
-        synchronized(ONE_AT_A_TIME) {
+        synchronized(getLock(src, dst)) {
             // do not re-create existing links
             Link preExisting = src.getDirectedLinkTo(srcPort, dst, dstPort, true);
             if(preExisting != null)
@@ -123,8 +146,11 @@ public class Link extends AbstractDrawable implements Edge<NodeWithPorts> {
     /** the port to which this link connects on the destination node */
     protected short dstPort;
     
+    /** capacity of a link whose capacity has not been set */
+    public static final double DEFAULT_MAX_DATA_RATE_BPS = 1 * 1000 * 1000 * 1000;
+    
     /** maximum capacity of the link */
-    private double maxDataRate_bps = 1 * 1000 * 1000 * 1000; 
+    private double maxDataRate_bps = DEFAULT_MAX_DATA_RATE_BPS;
     
     /** whether the link is off because it "failed" */
     private boolean failed = false;
@@ -135,12 +161,19 @@ public class Link extends AbstractDrawable implements Edge<NodeWithPorts> {
      * by this method.   
      */
     public void disconnect(BackendConnection conn) throws IOException {
-        src.getLinks().remove(this);
-        dst.getLinks().remove(this);
-        
+        detach();
         stopTrackingAllStats(conn);
     }
     
+    /** 
+     * Detaches this link from its attached ports (but leaves its statistics 
+     * alone).  Once detached, a new link may be created between the ports.
+     */
+    public void detach() {
+        src.removeLink(this);
+        dst.removeLink(this);
+    }
+    
     /** get the souce of this link */
     public NodeWithPorts getSource() {
         return src;
@@ -691,9 +724,13 @@ public class Link extends AbstractDrawable implements Edge<NodeWithPorts> {
         public final LinkStats stats;
         
         public LinkStatsInfo(int xid, boolean isPolling, Match m) {
+            this(xid, isPolling, new LinkStats(m));
+        }
+        
+        public LinkStatsInfo(int xid, boolean isPolling, LinkStats stats) {
             this.xid = xid;
             this.isPolling = isPolling;
-            this.stats = new LinkStats(m);
+            this.stats = stats;
         }
     }
     
@@ -726,9 +763,7 @@ public class Link extends AbstractDrawable implements Edge<NodeWithPorts> {
      * @throws IOException       thrown if the connection fails
      */
     public void trackStats(int pollInterval_msec, Match m, BackendConnection conn) throws IOException {
-        short pollInterval = (short)(( pollInterval_msec % 100 == 0)
-                                     ? pollInterval_msec / 100
-                                     : pollInterval_msec / 100 + 1);
+        short pollInterval = toPollInterval(pollInterval_msec);
         
         // build and send the message to get the stats
         AggregateStatsRequest req = new AggregateStatsRequest(src.getID(), srcPort, m);
@@ -741,6 +776,71 @@ public class Link extends AbstractDrawable implements Edge<NodeWithPorts> {
         trackStats(m, req.xid, isPolling);
     }
     
+    /** converts an interval to the units of PollStart (rounding up) */
+    private static short toPollInterval(int pollInterval_msec) {
+        return (short)(( pollInterval_msec % 100 == 0)
+                       ? pollInterval_msec / 100
+                       : pollInterval_msec / 100 + 1);
+    }
+    
+    /**
+     * Tells the backend to stop polling the stats for m but keeps what has 
+     * been collected so far (see resumeStats()).
+     * 
+     * @param m     the match to pause
+     * @param conn  the connection over which to tell the backend to stop polling
+     * @return  false if m was not being polled
+     * @throws IOException  thrown if the connection fails
+     */
+    public boolean pauseStats(Match m, BackendConnection conn) throws IOException {
+        LinkStatsInfo lsi = stats.get(m);
+        if(lsi == null || !lsi.isPolling)
+            return false;
+        
+        stats.put(m, new LinkStatsInfo(0, false, lsi.stats));
+        conn.sendMessage(new PollStop(lsi.xid));
+        return true;
+    }
+    
+    /**
+     * Tells the backend to resume polling the stats for a Match which is 
+     * tracked but not being polled (e.g., one paused by pauseStats()).  
+     * The stats collected so far are kept.
+     * 
+     * @param pollInterval_msec  how often to refresh the stats
+     * @param m                  the match to resume
+     * @param conn               connection to talk to the backend over
+     * @return  false if m is not tracked or is already being polled
+     * @throws IOException  thrown if the connection fails
+     */
+    public boolean resumeStats(int pollInterval_msec, Match m, BackendConnection conn) throws IOException {
+        LinkStatsInfo lsi = stats.get(m);
+        if(lsi == null || lsi.isPolling)
+            return false;
+        
+        AggregateStatsRequest req = new AggregateStatsRequest(src.getID(), srcPort, m);
+        conn.sendMessage(new PollStart(toPollInterval(pollInterval_msec), req));
+        stats.put(m, new LinkStatsInfo(req.xid, true, lsi.stats));
+        return true;
+    }
+    
+    /**
+     * Requests the latest stats for a Match which is already being tracked
+     * (once, without resetting what has been collected so far).
+     *
+     * @param m     what statistics to get
+     * @param conn  connection to talk to the backend over
+     * @return  false if m is not being tracked (nothing is requested)
+     * @throws IOException  thrown if the connection fails
+     */
+    public boolean requestStats(Match m, BackendConnection conn) throws IOException {
+        if(!stats.containsKey(m))
+            return false;
+
+        conn.sendMessage(new AggregateStatsRequest(src.getID(), srcPort, m));
+        return true;
+    }
+
     /**
      * Tells the link to setup stats for specified Match but do not acquire them automatically.
      * @param m  the match to setup stats for
@@ -808,6 +908,40 @@ public class Link extends AbstractDrawable implements Edge<NodeWithPorts> {
         }
     }
     
+    /** 
+     * Updates the (unfiltered) utilization stats of this link with the 
+     * counters of one of its ports, taken from a port stats reply.  The 
+     * traffic transmitted on the port is the traffic sent over this link by 
+     * the switch which reported it.  If the source of the link is not a 
+     * switch (so nobody reports on its side), the traffic the destination 
+     * received on the port is used as the traffic from the source.  Nothing 
+     * happens unless stats for Match.MATCH_ALL are being tracked.
+     * 
+     * @param reply  the reply the counters came from
+     * @param p      the counters of the port this link is attached to
+     */
+    public void updateStats(PortStatsReply reply, PortStatsReply.Port p) {
+        LinkStatsInfo lsi = stats.get(Match.MATCH_ALL);
+        if(lsi == null)
+            return;
+        
+        PortStatsRates s = lsi.stats.statsSrc;
+        if(reply.dpid == src.getID())
+            s.update(p.tx_packets, p.tx_bytes, s.getFlowCount(), reply.timeCreated);
+        else if(reply.dpid == dst.getID()) {
+            if(!(src instanceof OpenFlowSwitch))
+                s.update(p.rx_packets, p.rx_bytes, s.getFlowCount(), reply.timeCreated);
+            
+            s = lsi.stats.statsDst;
+            if(s != null)
+                s.update(p.tx_packets, p.tx_bytes, s.getFlowCount(), reply.timeCreated);
+        }
+        else
+            return;
+        
+        setColorBasedOnCurrentUtilization();
+    }
+    
     /** 
      * Returns the current bandwidth being sent through the link in ps or a 
      * value <0 if those stats are not currently being tracked. 
@@ -931,14 +1065,11 @@ public class Link extends AbstractDrawable implements Edge<NodeWithPorts> {
     }
     
     public int hashCode() {
-        int hash = 7;
-        
-        hash += dst.hashCode();
-        hash += 31 * dstPort;
-        hash += 31 * src.hashCode();
-        hash += 31 * srcPort;
-        
-        return hash;
+        // mixed so that links between IDs which differ in a few bits spread out
+        long h = Hashing.combine(dst.getID(), dstPort);
+        h = Hashing.combine(h, src.getID());
+        h = Hashing.combine(h, srcPort);
+        return Hashing.mix(h);
     }
     
     public boolean equals(Object o) {
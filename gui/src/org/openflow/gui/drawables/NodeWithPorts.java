@@ -1,12 +1,17 @@
 package org.openflow.gui.drawables;
 
 import java.awt.Graphics2D;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 
 import org.openflow.gui.Options;
 import org.openflow.gui.net.protocol.NodeType;
+import org.openflow.util.ConcurrentIntMap;
+import org.openflow.util.ConcurrentLongMap;
 import org.openflow.util.LongPair;
 import org.pzgui.icon.Icon;
 
@@ -15,13 +20,37 @@ import org.pzgui.icon.Icon;
  * @author David Underhill
  */
 public abstract class NodeWithPorts extends Node {
+    /** links attached to no node */
+    private static final Link[] NO_LINKS = new Link[0];
+    
+    /** the number of links a node has before its links are indexed (smaller nodes are just scanned) */
+    private static final int MIN_LINKS_TO_INDEX = 8;
+    
+    /**
+     * These are the links attached to this node, in the order they were 
+     * attached.  Mutations are O(1) and are serialized by this set's lock;
+     * readers never lock the set, but instead traverse linksSnapshot or look
+     * links up in the indexes below.
+     */
+    private final LinkedHashSet<Link> links = new LinkedHashSet<Link>();
+    
+    /** a copy of links for traversals, or null if links changed since it was made */
+    private volatile Link[] linksSnapshot = NO_LINKS;
+    
+    /** the number of links attached to this node */
+    private volatile int numLinks = 0;
+    
     /**
-     * These are the links attached to this node.  The CopyOnWriteArrayList 
-     * makes accesses and traversals very quick and thread-safe at the expense
-     * of making mutations expensive.  Mutations should be rare, so this should
-     * be a very efficient data structure for our needs.
+     * Links keyed by this node's port (as an unsigned short), in the order 
+     * they were attached; null until this node has MIN_LINKS_TO_INDEX links.
      */
-    private final CopyOnWriteArrayList<Link> links = new CopyOnWriteArrayList<Link>();
+    private volatile ConcurrentIntMap<Link[]> linksByPort = null;
+    
+    /**
+     * Links keyed by the ID of the node at their other end, in the order they
+     * were attached; null until this node has MIN_LINKS_TO_INDEX links.
+     */
+    private volatile ConcurrentLongMap<Link[]> linksByNeighbor = null;
     
     public NodeWithPorts(NodeType type, String name, int x, int y, Icon icon) {
         super(name, x, y, icon);
@@ -30,7 +59,7 @@ public abstract class NodeWithPorts extends Node {
     
     public void unsetDrawn() {
         super.unsetDrawn();
-        for(Link l : links)
+        for(Link l : getLinkArray())
             l.unsetDrawn();
         
     }
@@ -47,7 +76,7 @@ public abstract class NodeWithPorts extends Node {
         Integer count;
         
         // draw the port's links
-        for(Link link : links) {
+        for(Link link : getLinkArray()) {
             LongPair lp = new LongPair(link.getSource().getID(),
                                        link.getDestination().getID());
             
@@ -67,61 +96,212 @@ public abstract class NodeWithPorts extends Node {
      * @param l  the link to add
      */
     void addLink(Link l) {
-        links.add(l);
+        synchronized(links) {
+            if(!links.add(l))
+                return;
+            
+            linksSnapshot = null;
+            numLinks = links.size();
+            if(linksByPort != null)
+                index(linksByPort, linksByNeighbor, l);
+            else if(numLinks >= MIN_LINKS_TO_INDEX) {
+                // fill the indexes before publishing them to readers
+                ConcurrentIntMap<Link[]> byPort = new ConcurrentIntMap<Link[]>(numLinks);
+                ConcurrentLongMap<Link[]> byNeighbor = new ConcurrentLongMap<Link[]>(numLinks);
+                for(Link o : links)
+                    index(byPort, byNeighbor, o);
+                linksByPort = byPort;
+                linksByNeighbor = byNeighbor;
+            }
+        }
+    }
+    
+    /**
+     * Removes the link from this node
+     * @param l  the link to remove
+     */
+    void removeLink(Link l) {
+        synchronized(links) {
+            if(!links.remove(l))
+                return;
+            
+            linksSnapshot = null;
+            numLinks = links.size();
+            if(linksByPort != null) {
+                unindex(linksByPort, l.getMyPort(this) & 0xFFFF, l);
+                unindex(linksByNeighbor, l.getOther(this).getID(), l);
+            }
+        }
+    }
+    
+    /** adds l to the specified indexes; the caller holds the lock on links */
+    private void index(ConcurrentIntMap<Link[]> byPort, ConcurrentLongMap<Link[]> byNeighbor, Link l) {
+        int port = l.getMyPort(this) & 0xFFFF;
+        byPort.put(port, append(byPort.get(port), l));
+        
+        long neighbor = l.getOther(this).getID();
+        byNeighbor.put(neighbor, append(byNeighbor.get(neighbor), l));
+    }
+    
+    /** removes l from the entry for key in index; the caller holds the lock on links */
+    private static void unindex(ConcurrentIntMap<Link[]> index, int key, Link l) {
+        Link[] a = without(index.get(key), l);
+        if(a == null)
+            index.remove(key);
+        else
+            index.put(key, a);
+    }
+    
+    /** removes l from the entry for key in index; the caller holds the lock on links */
+    private static void unindex(ConcurrentLongMap<Link[]> index, long key, Link l) {
+        Link[] a = without(index.get(key), l);
+        if(a == null)
+            index.remove(key);
+        else
+            index.put(key, a);
+    }
+    
+    /** returns a copy of a (which may be null) with l appended */
+    private static Link[] append(Link[] a, Link l) {
+        if(a == null)
+            return new Link[]{l};
+        
+        Link[] ret = Arrays.copyOf(a, a.length + 1);
+        ret[a.length] = l;
+        return ret;
+    }
+    
+    /** returns a copy of a without l, or null if that leaves it empty */
+    private static Link[] without(Link[] a, Link l) {
+        if(a == null || (a.length == 1 && a[0] == l))
+            return null;
+        
+        Link[] ret = new Link[a.length - 1];
+        int n = 0;
+        for(Link o : a) {
+            if(o == l)
+                continue;
+            if(n == ret.length)
+                return a; // l was not in a
+            ret[n++] = o;
+        }
+        return ret;
+    }
+    
+    /** returns the links on this node, in the order they were attached (do not modify it) */
+    private Link[] getLinkArray() {
+        Link[] ret = linksSnapshot;
+        if(ret != null)
+            return ret;
+        
+        synchronized(links) {
+            ret = linksSnapshot;
+            if(ret == null) {
+                ret = links.toArray(new Link[links.size()]);
+                linksSnapshot = ret;
+            }
+            return ret;
+        }
+    }
+    
+    /** 
+     * returns the links which may be attached to this node at myPort (the 
+     * caller must still check each one), or null if there are none
+     */
+    private Link[] getCandidatesOnPort(short myPort) {
+        ConcurrentIntMap<Link[]> index = linksByPort;
+        return (index == null) ? getLinkArray() : index.get(myPort & 0xFFFF);
+    }
+    
+    /** 
+     * returns the links which may lead to a node with the specified ID (the 
+     * caller must still check each one), or null if there are none
+     */
+    private Link[] getCandidatesTo(long id) {
+        ConcurrentLongMap<Link[]> index = linksByNeighbor;
+        return (index == null) ? getLinkArray() : index.get(id);
     }
     
     /** Returns whether the specified port is currently connected to a link. */
     public boolean isPortUsed(short portNum) {
-        // we could use a concurrent hash map to track which ports are used 
-        // rather than doing a linear search each time, but the number of ports
-        // and times this method is called is likely small enough to not benefit
-        // from a ConcurrentHashMap caching the results
-        for(Link l : links)
-            if(l.getMyPort(this) == portNum)
-                return true;
-        
-        return false;
+        return getLinkFrom(portNum) != null;
     }
     
-    /** returns a list of all the links on this node */
+    /** returns a read-only list of all the links on this node */
     public Collection<Link> getEdges() {
-        return links;
+        return getLinks();
     }
     
-    /** returns a list of all the links on this node */
+    /** 
+     * returns a read-only list of all the links on this node (a snapshot 
+     * which does not change as links are added or removed)
+     */
     public Collection<Link> getLinks() {
-        return links;
+        List<Link> ret = Arrays.asList(getLinkArray());
+        return Collections.unmodifiableList(ret);
     }
     
     /** Returns the number of links connected to this node. */
     public int getNumLinks() {
-        return links.size();
+        return numLinks;
     }
 
     /** Gets the link from this node on outPort */
     public Link getLinkFrom(short outPort) {
-        for(Link l : links)
-            if(l.getMyPort(this) == outPort)
-                return l;
+        Link[] candidates = getCandidatesOnPort(outPort);
+        if(candidates != null)
+            for(Link l : candidates)
+                if(l.getMyPort(this) == outPort)
+                    return l;
         
         return null;
     }
     
+    /** Gets the links from this node on outPort (a read-only snapshot) */
+    public Collection<Link> getLinksFrom(short outPort) {
+        Link[] candidates = getCandidatesOnPort(outPort);
+        if(candidates == null)
+            return Collections.emptyList();
+        
+        int n = 0;
+        for(Link l : candidates)
+            if(l.getMyPort(this) == outPort)
+                n += 1;
+        
+        if(n == 0)
+            return Collections.emptyList();
+        
+        // candidates from the port index are all on outPort already
+        Link[] ret = candidates;
+        if(n < candidates.length) {
+            ret = new Link[n];
+            n = 0;
+            for(Link l : candidates)
+                if(l.getMyPort(this) == outPort)
+                    ret[n++] = l;
+        }
+        return Collections.unmodifiableList(Arrays.asList(ret));
+    }
+    
     /** Returns a link from this node to the requested node if such a link exists */
     public Link getLinkTo(NodeWithPorts n) {
-        for(Link l : links)
-            if(l.getOther(this) == n)
-                return l;
+        Link[] candidates = getCandidatesTo(n.getID());
+        if(candidates != null)
+            for(Link l : candidates)
+                if(l.getOther(this) == n)
+                    return l;
             
         return null;
     }
 
     /** Returns a link from this node to the requested node if such a link exists */
     public Link getLinkTo(short myPort, NodeWithPorts n, short nPort) {
-        for(Link l : links)
-            if(l.getOther(this) == n)
-                if(l.getMyPort(this)==myPort && l.getMyPort(n)==nPort)
-                    return l;
+        Link[] candidates = getCandidatesTo(n.getID());
+        if(candidates != null)
+            for(Link l : candidates)
+                if(l.getOther(this) == n)
+                    if(l.getMyPort(this)==myPort && l.getMyPort(n)==nPort)
+                        return l;
             
         return null;
     }
@@ -131,21 +311,25 @@ public abstract class NodeWithPorts extends Node {
         if(!Options.USE_DIRECTED_LINKS)
             return getLinkTo(myPort, n, nPort);
         
-        for(Link l : links)
-            if((nIsDestination && l.getDestination()==n) || (!nIsDestination && l.getSource()==n))
-                if(l.getMyPort(this)==myPort && l.getMyPort(n)==nPort)
-                    return l;
+        Link[] candidates = getCandidatesTo(n.getID());
+        if(candidates != null)
+            for(Link l : candidates)
+                if((nIsDestination && l.getDestination()==n) || (!nIsDestination && l.getSource()==n))
+                    if(l.getMyPort(this)==myPort && l.getMyPort(n)==nPort)
+                        return l;
             
         return null;
     }
     
     /** Gets a link to a neighboring OpenFlowNode with the specified datapath ID. */
     public Link getLinkTo(long dpid) {
-        for(Link l : links) {
-            NodeWithPorts o = l.getOther(this);
-            if(o!=null && o.getID()==dpid)
-                return l;
-        }
+        Link[] candidates = getCandidatesTo(dpid);
+        if(candidates != null)
+            for(Link l : candidates) {
+                NodeWithPorts o = l.getOther(this);
+                if(o!=null && o.getID()==dpid)
+                    return l;
+            }
         
         return null;
     }
@@ -160,13 +160,17 @@ public class OpenFlowSwitch extends NodeWithPorts {
         return descUpdateTime;
     }
     
-    /** Update info about the switch's description */
+    /** 
+     * Update info about the switch's description.  The manufacturer, hardware, 
+     * and software descriptions are the canonical instances interned by 
+     * SwitchDescriptionStats, so identical switches share them.
+     */
     public void setSwitchDescription(SwitchDescriptionStats stats) {
-        manufacturer = stats.manufacturer;
-        hw_desc = stats.hw_desc;
-        sw_desc = stats.sw_desc;
-        serial_num = stats.serial_num;
-        desc = stats.desc;
+        manufacturer = stats.getManufacturer();
+        hw_desc = stats.getHWDescription();
+        sw_desc = stats.getSWDescription();
+        serial_num = stats.getSerialNumber();
+        desc = stats.getDescription();
         descUpdateTime = System.currentTimeMillis();
     }
     
@@ -1,13 +1,39 @@
 package org.openflow.gui.net;
 
+import org.openflow.gui.net.protocol.Hello;
+import org.openflow.gui.net.protocol.OFGCodecRegistry;
 import org.openflow.gui.net.protocol.OFGMessage;
 import org.openflow.gui.net.protocol.OFGMessageType;
 import org.openflow.gui.net.protocol.PollStart;
+import org.openflow.gui.net.protocol.PollStop;
+import org.openflow.gui.net.protocol.Request;
+import org.openflow.gui.net.protocol.RequestType;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.Iterator;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 
 /**
@@ -21,24 +47,113 @@ public class BackendConnection<MSG_TYPE extends Message> extends Thread {
     /** how much time to remember a request before expiring it */
     private static final long REQUEST_LIFETIME_MSEC = 2000;
     
+    /** how often expired requests are scrubbed (the precision of REQUEST_LIFETIME_MSEC) */
+    private static final int REQUEST_EXPIRY_TICK_MSEC = 100;
+    
+    /** number of slots in the wheel which expires requests (see TimingWheel) */
+    private static final int REQUEST_EXPIRY_SLOTS = 64;
+    
     /** maximum time to wait between tries to get connected */
     public static final int RETRY_WAIT_MSEC_MAX = 2 * 60 * 1000; // two minutes
     
+    /** 
+     * maximum number of messages to hold on to while disconnected (they are 
+     * sent once the connection is re-established)
+     */
+    public static final int REPLAY_BUFFER_SIZE = 1000;
+    
+    /** initial time to wait between tries to get connected */
+    private static final int RETRY_WAIT_MSEC_MIN = 250;
+    
+    /** whether to receive messages into a direct buffer */
+    public static final boolean USE_DIRECT_RECV_BUFFER = false;
+    
+    /** highest protocol version this end speaks */
+    public static final byte PROTOCOL_VERSION = 2;
+    
+    /** capabilities this end offers when negotiating version 2 */
+    public static final int LOCAL_CAPABILITIES = Hello.CAP_FRAGMENTATION | Hello.CAP_DEFLATE;
+    
+    /** how long to wait for the backend's Hello before falling back to version 1 */
+    public static final int HELLO_TIMEOUT_MSEC = 2000;
+    
+    /** how long each attempt to connect to a replica may take */
+    public static final int CONNECT_TIMEOUT_MSEC = 500;
+    
+    /** how long to give earlier replicas to answer before also trying the next one */
+    public static final int CONNECT_STAGGER_MSEC = 150;
+    
+    /** 
+     * how long messages sent by threads other than the one processing received
+     * messages may wait to be batched with others (blocking mode only)
+     */
+    public static final int OUTBOUND_FLUSH_DELAY_MSEC = 2;
+    
+    /** 
+     * runs handshake timeouts, heartbeats and request expiry for connections 
+     * in blocking mode (nothing run on it may write to a socket, since one 
+     * stalled peer would then hold up every connection's heartbeats)
+     */
+    private static Timer timer = null;
+    
     /**
-     * Statistics about this connection.
+     * Statistics about this connection.  Message counters and histograms are 
+     * lock-free (each is an atomic add) since they are updated for every 
+     * message by the receiving and sending threads; only the rare connection 
+     * state changes take the lock.  The stats are published as an MBean (see 
+     * registerMBean()).
      */
-    public class NetStats {
-        /** number of updates received from server */
-        private long numUpdatesReceived = 0;
+    public class NetStats implements NetStatsMBean {
+        /** number of possible message type IDs */
+        private static final int NUM_TYPES = 256;
+        
+        /** number of messages received of each type (indexed by type ID) */
+        private final AtomicLongArray messagesIn = new AtomicLongArray(NUM_TYPES);
+        
+        /** number of bytes received in messages of each type */
+        private final AtomicLongArray bytesIn = new AtomicLongArray(NUM_TYPES);
+        
+        /** number of messages sent of each type */
+        private final AtomicLongArray messagesOut = new AtomicLongArray(NUM_TYPES);
+        
+        /** number of bytes sent in messages of each type */
+        private final AtomicLongArray bytesOut = new AtomicLongArray(NUM_TYPES);
 
         /** time the last update was received */
-        private long lastUpdateTime_ms;
+        private volatile long lastUpdateTime_ms;
 
         /** time we (dis)connected to server */
-        private long timeConnected_ms;
+        private volatile long timeConnected_ms;
 
         /** whether we are connected or disconnected */
-        private boolean connected;
+        private volatile boolean connected;
+        
+        /** when an established connection was last lost, or 0 if it has been restored since */
+        private long timeLost_ms = 0;
+        
+        /** number of times a lost connection has been re-established */
+        private volatile long numReconnects = 0;
+        
+        /** how long the most recent reconnect took */
+        private volatile long lastTimeToReconnect_ms = 0;
+        
+        /** how long the slowest reconnect took */
+        private volatile long maxTimeToReconnect_ms = 0;
+        
+        /** how long all reconnects took */
+        private volatile long totalTimeToReconnect_ms = 0;
+        
+        /** number of times the connection was declared dead for missing heartbeats */
+        private final AtomicLong numHeartbeatFailures = new AtomicLong(0);
+        
+        /** round-trip times of heartbeats */
+        private final LatencyHistogram rtt = new LatencyHistogram();
+        
+        /** how long messages took to decode */
+        private final LatencyHistogram decodeTime = new LatencyHistogram();
+        
+        /** how long messages took to apply (process) */
+        private final LatencyHistogram applyTime = new LatencyHistogram();
 
         public NetStats() {
             lastUpdateTime_ms = System.currentTimeMillis();
@@ -48,24 +163,39 @@ public class BackendConnection<MSG_TYPE extends Message> extends Thread {
         /**
          * Returns the number of updates received from server.
          */
-        public synchronized long getNumUpdatesdReceived() {
-            return numUpdatesReceived;
+        public long getNumUpdatesdReceived() {
+            return getNumMessagesReceived();
         }
 
         /**
          * Notes that a new update has been received and updates the corresponding 
          * statistics.
+         * 
+         * @param typeID  the type of the message received
+         * @param len     the length of the message
          */
-        public synchronized void updateReceived() {
-            numUpdatesReceived += 1;
+        public void updateReceived(byte typeID, int len) {
+            messagesIn.incrementAndGet(typeID & 0xFF);
+            bytesIn.addAndGet(typeID & 0xFF, len);
             lastUpdateTime_ms = System.currentTimeMillis();
         }
+        
+        /**
+         * Notes that a message has been sent.
+         * 
+         * @param typeID  the type of the message sent
+         * @param len     the length of the message
+         */
+        public void messageSent(byte typeID, int len) {
+            messagesOut.incrementAndGet(typeID & 0xFF);
+            bytesOut.addAndGet(typeID & 0xFF, len);
+        }
 
         /**
          * Gets the number of milliseconds which have passed since the last update 
          * was received.
          */
-        public synchronized long getTimePassedSinceLastUpdate_ms() {
+        public long getTimePassedSinceLastUpdate_ms() {
             return System.currentTimeMillis() - lastUpdateTime_ms;
         }
 
@@ -84,12 +214,12 @@ public class BackendConnection<MSG_TYPE extends Message> extends Thread {
          * negative value indicates the connection has been up for the magnitude 
          * of the value.
          */
-        public synchronized long getTimeDisconnected_ms() {
+        public long getTimeDisconnected_ms() {
             return -getTimeConnected_ms();
         }
 
-        public synchronized boolean isConnected() {
-            return timeConnected_ms > 0;
+        public boolean isConnected() {
+            return connected;
         }
 
         /**
@@ -109,23 +239,246 @@ public class BackendConnection<MSG_TYPE extends Message> extends Thread {
         }
 
         private void setConnected(boolean b) {
-            timeConnected_ms = System.currentTimeMillis();
+            long now = System.currentTimeMillis();
+            if(connected && !b)
+                timeLost_ms = now;
+            else if(!connected && b && timeLost_ms > 0) {
+                long t = now - timeLost_ms;
+                numReconnects += 1;
+                lastTimeToReconnect_ms = t;
+                maxTimeToReconnect_ms = Math.max(maxTimeToReconnect_ms, t);
+                totalTimeToReconnect_ms += t;
+                timeLost_ms = 0;
+            }
+            
+            timeConnected_ms = now;
             connected = b;
         }
+        
+        /** Returns the number of times a lost connection has been re-established. */
+        public long getNumReconnects() {
+            return numReconnects;
+        }
+        
+        /** 
+         * Returns how long it took to re-establish the connection (to any 
+         * replica) the last time it was lost.
+         */
+        public long getLastTimeToReconnect_ms() {
+            return lastTimeToReconnect_ms;
+        }
+        
+        /** Returns how long the slowest reconnect took. */
+        public long getMaxTimeToReconnect_ms() {
+            return maxTimeToReconnect_ms;
+        }
+        
+        /** Returns how long reconnects took on average (0 if there have been none). */
+        public synchronized long getMeanTimeToReconnect_ms() {
+            return (numReconnects == 0) ? 0 : totalTimeToReconnect_ms / numReconnects;
+        }
+        
+        /** Notes that the connection was declared dead for missing heartbeats. */
+        public void heartbeatFailed() {
+            numHeartbeatFailures.incrementAndGet();
+        }
+        
+        /** Returns the number of times the connection was declared dead for missing heartbeats. */
+        public long getNumHeartbeatFailures() {
+            return numHeartbeatFailures.get();
+        }
+        
+        /** Returns the histogram of heartbeat round-trip times. */
+        public LatencyHistogram getRtt() {
+            return rtt;
+        }
+        
+        /** Returns the histogram of how long messages took to decode. */
+        public LatencyHistogram getDecodeTime() {
+            return decodeTime;
+        }
+        
+        /** Returns the histogram of how long messages took to apply (process). */
+        public LatencyHistogram getApplyTime() {
+            return applyTime;
+        }
+        
+        /** Returns the number of messages of the specified type which have been received. */
+        public long getNumMessagesReceived(byte typeID) {
+            return messagesIn.get(typeID & 0xFF);
+        }
+        
+        /** Returns the number of bytes received in messages of the specified type. */
+        public long getNumBytesReceived(byte typeID) {
+            return bytesIn.get(typeID & 0xFF);
+        }
+        
+        /** Returns the number of messages of the specified type which have been sent. */
+        public long getNumMessagesSent(byte typeID) {
+            return messagesOut.get(typeID & 0xFF);
+        }
+        
+        /** Returns the number of bytes sent in messages of the specified type. */
+        public long getNumBytesSent(byte typeID) {
+            return bytesOut.get(typeID & 0xFF);
+        }
+        
+        /** returns the sum of every element of a */
+        private long sum(AtomicLongArray a) {
+            long n = 0;
+            for(int i=0; i<NUM_TYPES; i++)
+                n += a.get(i);
+            return n;
+        }
+        
+        // ----------------- NetStatsMBean ----------------- //
+        
+        public String getEndpoint() {
+            InetSocketAddress addr = connectedEndpoint;
+            return (addr == null) ? null : ReplicaConnector.describe(addr);
+        }
+        
+        public int getProtocolVersion() {
+            return BackendConnection.this.getProtocolVersion();
+        }
+        
+        public long getNumMessagesReceived() {
+            return sum(messagesIn);
+        }
+        
+        public long getNumBytesReceived() {
+            return sum(bytesIn);
+        }
+        
+        public long getNumMessagesSent() {
+            return sum(messagesOut);
+        }
+        
+        public long getNumBytesSent() {
+            return sum(bytesOut);
+        }
+        
+        public String[] getMessageTypeCounters() {
+            List<String> ret = new ArrayList<String>();
+            for(int i=0; i<NUM_TYPES; i++) {
+                long in = messagesIn.get(i), out = messagesOut.get(i);
+                if(in == 0 && out == 0)
+                    continue;
+                
+                OFGMessageType t = OFGMessageType.typeValToMessageType((byte)i);
+                String name = (t == null) ? "type " + i : t.toString();
+                ret.add(name + ": in=" + in + " (" + bytesIn.get(i) + "B) out=" + out + " (" + bytesOut.get(i) + "B)");
+            }
+            return ret.toArray(new String[ret.size()]);
+        }
+        
+        public long getDecodeTimeP50_ns() {
+            return decodeTime.getP50_ns();
+        }
+        
+        public long getDecodeTimeP99_ns() {
+            return decodeTime.getP99_ns();
+        }
+        
+        public long getDecodeTimeMax_ns() {
+            return decodeTime.getMax_ns();
+        }
+        
+        public long getApplyTimeP50_ns() {
+            return applyTime.getP50_ns();
+        }
+        
+        public long getApplyTimeP99_ns() {
+            return applyTime.getP99_ns();
+        }
+        
+        public long getApplyTimeMax_ns() {
+            return applyTime.getMax_ns();
+        }
+        
+        public long getRttP50_ns() {
+            return rtt.getP50_ns();
+        }
+        
+        public long getRttP99_ns() {
+            return rtt.getP99_ns();
+        }
+        
+        public long getRttMax_ns() {
+            return rtt.getMax_ns();
+        }
+        
+        public int getNumOutstandingRequests() {
+            return outstandingStatefulRequests.size();
+        }
+        
+        public int getNumOutstandingPollRequests() {
+            return outstandingStatefulPollRequests.size();
+        }
+        
+        public long getNumExpiredRequests() {
+            return outstandingStatefulRequests.getNumExpired();
+        }
+        
+        public void resetCounters() {
+            for(int i=0; i<NUM_TYPES; i++) {
+                messagesIn.set(i, 0);
+                bytesIn.set(i, 0);
+                messagesOut.set(i, 0);
+                bytesOut.set(i, 0);
+            }
+            rtt.reset();
+            decodeTime.reset();
+            applyTime.reset();
+        }
+        
+        public String toString() {
+            return "in=" + getNumMessagesReceived() + " (" + getNumBytesReceived() + "B)" +
+                   " out=" + getNumMessagesSent() + " (" + getNumBytesSent() + "B)" +
+                   " decode[" + decodeTime + "] apply[" + applyTime + "] rtt[" + rtt + "]" +
+                   " reconnects=" + getNumReconnects();
+        }
     }
     
     /** stats associated with this connection */
     private final NetStats stats = new NetStats();
     
+    /** distinguishes the MBeans of connections to the same server */
+    private static final AtomicInteger nextMBeanID = new AtomicInteger(1);
+    
+    /** the name stats are published under, or null if they are not published */
+    private ObjectName mbeanName = null;
+    
     /** connection to the server */
     private SocketConnection conn = null;
     
+    /** frames messages received from the server (reused across reconnects) */
+    private final FrameReader frames = new FrameReader(null, FrameReader.DEFAULT_CAPACITY, USE_DIRECT_RECV_BUFFER);
+    
     /** the IP the server server lives on */
     private final String serverIP;
     
     /** the port the server listens on */
     private final int serverPort;
     
+    /** 
+     * the server followed by its replicas, in order of preference (each 
+     * connection attempt races them; see ReplicaConnector) 
+     */
+    private final CopyOnWriteArrayList<InetSocketAddress> endpoints = new CopyOnWriteArrayList<InetSocketAddress>();
+    
+    /** the replica we are connected to, or null */
+    private volatile InetSocketAddress connectedEndpoint = null;
+    
+    /** 
+     * the replica which last stopped answering heartbeats; it is tried last 
+     * since it may still accept connections without serving them
+     */
+    private volatile InetSocketAddress demotedEndpoint = null;
+    
+    /** the attempt to connect which is under way (non-blocking mode only) */
+    private ReplicaConnector nioConnector = null;
+    
     /** if true, then the connection should be re-initiated */
     private boolean reconnect = false;
     
@@ -138,6 +491,91 @@ public class BackendConnection<MSG_TYPE extends Message> extends Thread {
     /** whether the connection has been turned off */
     private boolean shutdown = false;
     
+    /** 
+     * the selector which drives this connection, or null if the connection 
+     * runs on its own thread with blocking I/O
+     */
+    private final ConnectionSelector selector;
+    
+    /** channel to the server (non-blocking mode only) */
+    private volatile SocketChannel channel = null;
+    
+    /** the key channel is registered with selector under */
+    private SelectionKey selectionKey = null;
+    
+    /** messages waiting to be written to the server */
+    private final OutboundQueue outbound = new OutboundQueue();
+    
+    /** whether the selector has been asked to flush outbound (non-blocking mode only) */
+    private final AtomicBoolean nioFlushScheduled = new AtomicBoolean(false);
+    
+    /** bytes queued in outbound since it was last flushed (blocking mode only) */
+    private final AtomicInteger unflushedBytes = new AtomicInteger(0);
+    
+    /** 
+     * whether the flusher has been asked to flush outbound (blocking mode 
+     * only); the flusher waits on it
+     */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    
+    /** 
+     * flushes outbound once messages sent from other threads have had time to 
+     * batch up (blocking mode only); a write blocked on a stalled peer thus 
+     * holds up nothing but this connection
+     */
+    private Thread flusher = null;
+    
+    /** how long to wait before the next connection attempt (non-blocking mode only) */
+    private int nioRetry_ms = RETRY_WAIT_MSEC_MIN;
+    
+    /** number of connection attempts since we were last connected (non-blocking mode only) */
+    private int nioTries = 0;
+    
+    /** 
+     * decodes and applies received messages on their own threads, if 
+     * pipelining is enabled (it always is in non-blocking mode)
+     */
+    private ReceivePipeline<MSG_TYPE> pipeline = null;
+    
+    /** whether reading stopped until the pipeline has room (non-blocking mode only) */
+    private boolean nioReadPaused = false;
+    
+    /** whether to offer protocol version 2 when connecting */
+    private volatile boolean offerV2 = false;
+    
+    /** set once the backend has shown that it only speaks version 1 */
+    private volatile boolean peerIsV1 = false;
+    
+    /** 
+     * whether we are waiting for the backend's Hello (nothing else is sent 
+     * until it arrives or the handshake times out)
+     */
+    private final AtomicBoolean awaitingHello = new AtomicBoolean(false);
+    
+    /** the protocol version used on the current connection */
+    private volatile int protocolVersion = 1;
+    
+    /** counts connections made so that a handshake timeout can tell if it is stale */
+    private final AtomicInteger connectionCount = new AtomicInteger(0);
+    
+    /** records received frames, if capturing is enabled */
+    private volatile WireCapture capture = null;
+    
+    /** how often to send a heartbeat (0 if heartbeats are disabled) */
+    private volatile int heartbeatInterval_ms = 0;
+    
+    /** number of unanswered heartbeats after which the connection is declared dead */
+    private volatile int heartbeatMaxMisses = 0;
+    
+    /** the heartbeat task (it reschedules itself while heartbeats are enabled) */
+    private Runnable heartbeatTask = null;
+    
+    /** 
+     * when each unanswered heartbeat was sent (in ns), keyed by its 
+     * transaction ID; cleared whenever one is answered or we reconnect
+     */
+    private final ConcurrentHashMap<Integer, Long> pendingHeartbeats = new ConcurrentHashMap<Integer, Long>();
+    
     /**
      * Connect to the server at the specified address and port.
      * 
@@ -147,6 +585,22 @@ public class BackendConnection<MSG_TYPE extends Message> extends Thread {
      * @param port  the port the server listens on
      */
     public BackendConnection(MessageProcessor<MSG_TYPE> mp, String ip, int port) {
+        this(mp, ip, port, null);
+    }
+    
+    /**
+     * Connect to the server at the specified address and port.
+     * 
+     * @param mp        the processor for messages; if null, then "this" will 
+     *                  be used as mp if it implements the MessageProcesser 
+     *                  interface
+     * @param ip        the IP where the server lives
+     * @param port      the port the server listens on
+     * @param selector  if non-null, the connection will use non-blocking I/O 
+     *                  driven by selector instead of running its own thread; 
+     *                  mp will then be called from the selector's thread
+     */
+    public BackendConnection(MessageProcessor<MSG_TYPE> mp, String ip, int port, ConnectionSelector selector) {
         if(mp == null && this instanceof MessageProcessor)
             msgProcessor = (MessageProcessor<MSG_TYPE>)this;
         else
@@ -154,139 +608,558 @@ public class BackendConnection<MSG_TYPE extends Message> extends Thread {
         
         serverIP = ip;
         serverPort = port;  
+        endpoints.add(InetSocketAddress.createUnresolved(ip, port));
+        this.selector = selector;
+        
+        // the selector's thread is shared, so it only reads
+        if(selector != null)
+            pipeline = new ReceivePipeline<MSG_TYPE>(this, msgProcessor, ReceivePipeline.DEFAULT_CAPACITY);
     }
     
     /**
-     * The BackendConnection thread will connect to the server and then 
-     * continuously read from the socket and pass on received messages to the 
-     * protocol handler.  It will automatically try to reconnect if disconnected
-     * or if it fails to get connected.
+     * Adds a replica of the server to fail over to.  Replicas are preferred in 
+     * the order they are added (after the server itself).  Each time the 
+     * connection is (re-)established, attempts to connect to the replicas 
+     * are raced (see ReplicaConnector) and the first to succeed is used.
      */
-    public void run() {
-        // start a thread to scrub expired cached stateful requests
-        new Thread() {
-            public void run() {
-                scrubExpiredStatefulRequests();
-                try { Thread.sleep(REQUEST_LIFETIME_MSEC); }
-                catch(InterruptedException e) {}
-            }
-        };
-        
-        connect();
-
-        while(!done) {
-            try {
-                msgProcessor.process(recvMessage());
-            } catch(IOException e) {
-                if(done)
-                    break;
-                
-                System.err.println("Network Error: " + e);
-                reconnect = true;
-            }
-            if(reconnect) {
-                reconnect = false;
-                disconnect();
-                connect();
-            }
-        }
-
-        shutdown = true;
-    }
-
-    /** tells the connection to shut down as soon as possible */
-    public void shutdown() {
-        done = true;
-        disconnect();
+    public void addReplica(String ip, int port) {
+        endpoints.add(InetSocketAddress.createUnresolved(ip, port));
     }
-
-    /** gets whether the connection has been shutdown yet */
-    public boolean isShutdown() {
-        return shutdown;
+    
+    /** Returns the server followed by its replicas, in order of preference. */
+    public List<InetSocketAddress> getEndpoints() {
+        return new ArrayList<InetSocketAddress>(endpoints);
     }
     
-    /** returns true if the connection to the server is currently alive */
-    public boolean isConnected() {
-        return conn!=null && conn.s!=null;
+    /** returns the replicas in the order they should be tried */
+    private List<InetSocketAddress> getEndpointsToTry() {
+        List<InetSocketAddress> ret = getEndpoints();
+        InetSocketAddress demoted = demotedEndpoint;
+        if(demoted != null && ret.size() > 1 && ret.remove(demoted))
+            ret.add(demoted);
+        return ret;
     }
     
-    /** Continuously tries to connect to the server. */
-    private void connect() {
-        stats.disconnected();
-        int retry_ms = 250;
-        
-        int tries = 0;
-        do {
-            if(done) return;
-            
-            if(tries++ > 0) {
-                System.out.println("Retrying to establish connection to server (try #" + tries + ")...");
-                tryToClose(conn);
-            }
-            else
-                System.out.println("Trying to establish connection to server ...");
-
-            conn = new SocketConnection(serverIP, serverPort);
-
-            if(conn.s == null) {
-                System.out.println("Failed to establish connections to server! (will retry in " + retry_ms/1000.0f  + " seconds)");
-                try {
-                    Thread.sleep(retry_ms);
-                    retry_ms = Math.min(retry_ms*2, RETRY_WAIT_MSEC_MAX);
-                }
-                catch (InterruptedException e) {
-                    /* ignore */
-                }
-            }
-        }
-        while(conn==null || conn.s==null);
-        
-        System.out.println("Now connected to server");
-        stats.connected();
-        msgProcessor.connectionStateChange(true);
+    /** Returns the replica we are connected to, or null if we are not connected. */
+    public InetSocketAddress getConnectedEndpoint() {
+        return connectedEndpoint;
     }
     
-    /** tells the connection to disconnect and then connect again */
-    public void reconnect() {
-        this.reconnect = true;
+    /** Returns statistics about this connection. */
+    public NetStats getNetStats() {
+        return stats;
     }
     
-    /** returns the next message received on the connection */
-    private MSG_TYPE recvMessage() throws IOException {
-        final CountingDataInputStream in = conn.in;
-        if(in == null)
-            throw new IOException("connection is disconnected");
+    /**
+     * Publishes this connection's NetStats with the platform MBean server (so 
+     * they can be watched from JConsole) under 
+     * org.openflow.gui:type=BackendConnection,server="ip:port",id=N.  This 
+     * is done when the connection is started and undone when it is shut down.
+     */
+    private synchronized void registerMBean() {
+        if(mbeanName != null)
+            return;
         
-        long bytesReadBefore = in.getBytesRead();
-
-        // determine how long the message is
-        int len = in.readShort();
-
-        // decode the message
-        MSG_TYPE msg = msgProcessor.decode(len, in);
-
-        // make sure we consume exactly the specified number of bytes or problems have
-        long bytesRead = in.getBytesRead() - bytesReadBefore;
-        if(bytesRead < len) {
-            int bytesLeftover = (int)(len - bytesRead);
-            if(in.skipBytes(bytesLeftover) != bytesLeftover)
-                throw new IOException("unable to skip leftover bytes (" + bytesLeftover + "B)");
-            else
-                System.err.println("Warning: " + bytesLeftover + "B leftover for message type " + msg.getType().toString());
+        try {
+            ObjectName name = new ObjectName("org.openflow.gui:type=BackendConnection" +
+                                             ",server=" + ObjectName.quote(serverIP + ":" + serverPort) +
+                                             ",id=" + nextMBeanID.getAndIncrement());
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(new StandardMBean(stats, NetStatsMBean.class), name);
+            mbeanName = name;
         }
-        else if(bytesRead > len) {
-            long bytesOverread = bytesRead - len;
-            throw new IOException("read " + bytesOverread + "B over the specified length for message type " + msg.getType().toString());
+        catch(JMException e) {
+            System.err.println("Warning: unable to publish connection stats via JMX: " + e);
         }
-        
-        return msg;
     }
     
-    /** next transaction ID to use */
-    private int nextXID = 1;
+    /** Withdraws this connection's NetStats from the platform MBean server. */
+    private synchronized void unregisterMBean() {
+        if(mbeanName == null)
+            return;
+        
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+        }
+        catch(JMException e) {
+            /* already gone */
+        }
+        mbeanName = null;
+    }
     
-    /** messages which are expecting a stateful response */
-    protected ConcurrentHashMap<Integer, OFGMessage> outstandingStatefulRequests = new ConcurrentHashMap<Integer, OFGMessage>();
+    /** Returns the name this connection's NetStats are published under, or null. */
+    public synchronized ObjectName getMBeanName() {
+        return mbeanName;
+    }
+    
+    /**
+     * Enables or disables pipelined receiving (see ReceivePipeline): received 
+     * messages are then decoded and processed on two additional threads while 
+     * the connection's thread keeps reading.  The MessageProcessor is still 
+     * called from one thread at a time and in the order messages arrive.  This 
+     * must be set before the connection is started.  Connections in 
+     * non-blocking mode are always pipelined, so that a slow MessageProcessor 
+     * (or one waiting for the user) does not hold up the selector's thread.
+     */
+    public synchronized void setPipelined(boolean pipelined) {
+        if(isAlive())
+            throw new IllegalStateException("the connection has already been started");
+        
+        if(selector != null) {
+            if(!pipelined)
+                throw new IllegalStateException("connections in non-blocking mode are always pipelined");
+        }
+        else if(!pipelined)
+            pipeline = null;
+        else if(pipeline == null)
+            pipeline = new ReceivePipeline<MSG_TYPE>(this, msgProcessor, ReceivePipeline.DEFAULT_CAPACITY);
+    }
+    
+    /** Returns the receive pipeline, or null if pipelining is not enabled. */
+    public ReceivePipeline<MSG_TYPE> getPipeline() {
+        return pipeline;
+    }
+    
+    /**
+     * Sets whether to offer protocol version 2 (see Hello) when connecting.  
+     * If the backend does not answer the offer, version 1 is used from then 
+     * on.  This takes effect the next time the connection is established.  
+     * Only connections whose MessageProcessor decodes OFG messages may offer 
+     * version 2.
+     */
+    public void setOfferProtocolV2(boolean b) {
+        offerV2 = b;
+        if(b)
+            peerIsV1 = false;
+    }
+    
+    /**
+     * Sets where to record received frames (see WireCapture), or stops 
+     * recording if capture is null.  The capture is not closed when the 
+     * connection is shut down.
+     */
+    public void setCapture(WireCapture capture) {
+        this.capture = capture;
+    }
+    
+    /** Returns where received frames are recorded, or null if they are not. */
+    public WireCapture getCapture() {
+        return capture;
+    }
+    
+    /** Returns the protocol version used on the current connection. */
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+    
+    // ------------- Heartbeats ------------- //
+    
+    /**
+     * Enables heartbeats: an ECHO_REQUEST is sent every interval_ms while 
+     * the connection is up, and once maxMisses of them are unanswered the 
+     * connection is declared dead and reconnect() is called (the replica 
+     * which stopped answering is then tried last).  Replies must be 
+     * passed to echoReplyReceived().  Round-trip times are kept in NetStats.  
+     * Only connections whose messages are OFG messages may send heartbeats.
+     * 
+     * @param interval_ms  how often to send a heartbeat (0 disables them)
+     * @param maxMisses    how many may go unanswered before reconnecting
+     */
+    public synchronized void setHeartbeat(int interval_ms, int maxMisses) {
+        heartbeatInterval_ms = interval_ms;
+        heartbeatMaxMisses = Math.max(1, maxMisses);
+        pendingHeartbeats.clear();
+        if(interval_ms > 0 && heartbeatTask == null) {
+            heartbeatTask = new Runnable() {
+                public void run() {
+                    heartbeat(this);
+                }
+            };
+            scheduleHeartbeat(heartbeatTask);
+        }
+    }
+    
+    /** Returns how often heartbeats are sent (0 if they are disabled). */
+    public int getHeartbeatInterval() {
+        return heartbeatInterval_ms;
+    }
+    
+    /** runs task after the heartbeat interval (on the selector's thread in non-blocking mode) */
+    private void scheduleHeartbeat(final Runnable task) {
+        if(selector == null)
+            getTimer().schedule(toTimerTask(task), heartbeatInterval_ms);
+        else {
+            selector.invokeLater(new Runnable() {
+                public void run() {
+                    selector.schedule(task, heartbeatInterval_ms);
+                }
+            });
+        }
+    }
+    
+    /** 
+     * Declares the connection dead if too many heartbeats are unanswered, or 
+     * else sends the next one.  Then reschedules task (unless heartbeats 
+     * were disabled or replaced, or the connection was shut down).
+     */
+    private void heartbeat(Runnable task) {
+        synchronized(this) {
+            if(done || heartbeatTask != task || heartbeatInterval_ms <= 0) {
+                if(heartbeatTask == task)
+                    heartbeatTask = null;
+                return;
+            }
+        }
+        
+        if(!isConnected() || awaitingHello.get())
+            pendingHeartbeats.clear();
+        else if(pendingHeartbeats.size() >= heartbeatMaxMisses) {
+            System.err.println("Backend missed " + pendingHeartbeats.size() + " heartbeats; reconnecting");
+            pendingHeartbeats.clear();
+            stats.heartbeatFailed();
+            demotedEndpoint = connectedEndpoint;
+            reconnect();
+        }
+        else {
+            int xid = nextXID();
+            pendingHeartbeats.put(xid, System.nanoTime());
+            OFGMessage echo = new OFGMessage(OFGMessageType.ECHO_REQUEST, xid);
+            if(selector == null) {
+                // the timer's thread must not write: leave that to the flusher
+                enqueue(echo);
+                scheduleFlush();
+            }
+            else {
+                try {
+                    sendMessage((MSG_TYPE)echo);
+                }
+                catch(IOException e) {
+                    pendingHeartbeats.remove(xid);
+                }
+            }
+        }
+        
+        scheduleHeartbeat(task);
+    }
+    
+    /**
+     * Notes that an ECHO_REPLY was received.  If it answers a heartbeat, its 
+     * round-trip time is recorded and the connection is known to be alive 
+     * (so any older unanswered heartbeats no longer count as missed).
+     * 
+     * @return true if the reply answered a heartbeat
+     */
+    public boolean echoReplyReceived(int xid) {
+        Long sent_ns = pendingHeartbeats.remove(xid);
+        if(sent_ns == null)
+            return false;
+        
+        stats.getRtt().record(System.nanoTime() - sent_ns);
+        pendingHeartbeats.clear();
+        return true;
+    }
+    
+    /**
+     * Starts the connection.  In blocking mode this starts the thread which 
+     * runs the connection.  In non-blocking mode the connection is handed to 
+     * its ConnectionSelector instead and no new thread is started.
+     */
+    public synchronized void start() {
+        registerMBean();
+        scheduleScrub();
+        if(selector == null) {
+            flusher = new Thread(getName() + "-flush") {
+                public void run() {
+                    runFlusher();
+                }
+            };
+            flusher.setDaemon(true);
+            flusher.start();
+            super.start();
+        }
+        else {
+            pipeline.start();
+            selector.register(this);
+        }
+    }
+    
+    /**
+     * The BackendConnection thread will connect to the server and then 
+     * continuously read from the socket and pass on received messages to the 
+     * protocol handler.  It will automatically try to reconnect if disconnected
+     * or if it fails to get connected.
+     */
+    public void run() {
+        if(pipeline != null)
+            pipeline.start();
+        
+        connect();
+
+        while(!done) {
+            try {
+                if(pipeline == null)
+                    process(recvMessage());
+                else
+                    submitMessage();
+            } catch(IOException e) {
+                if(done)
+                    break;
+                
+                System.err.println("Network Error: " + e);
+                reconnect = true;
+            } catch(InterruptedException e) {
+                if(done)
+                    break;
+            }
+            if(reconnect) {
+                reconnect = false;
+                disconnect();
+                connect();
+            }
+        }
+
+        shutdown = true;
+    }
+
+    /** tells the connection to shut down as soon as possible */
+    public void shutdown() {
+        done = true;
+        unregisterMBean();
+        if(selector == null) {
+            if(pipeline != null)
+                pipeline.shutdown();
+            if(flusher != null)
+                flusher.interrupt();
+            disconnect();
+        }
+        else {
+            selector.invokeLater(new Runnable() {
+                public void run() {
+                    if(channel != null)
+                        disconnect();
+                    pipeline.shutdown();
+                    shutdown = true;
+                }
+            });
+        }
+    }
+
+    /** gets whether the connection has been shutdown yet */
+    public boolean isShutdown() {
+        return shutdown;
+    }
+    
+    /** returns true if the connection to the server is currently alive */
+    public boolean isConnected() {
+        if(selector != null) {
+            SocketChannel ch = channel;
+            return ch!=null && ch.isConnected();
+        }
+        return conn!=null && conn.s!=null;
+    }
+    
+    /** Continuously tries to connect to the server. */
+    private void connect() {
+        stats.disconnected();
+        int retry_ms = 250;
+        
+        // hold anything sent from other threads until the handshake is over
+        awaitingHello.set(offerV2 && !peerIsV1);
+        
+        int tries = 0;
+        do {
+            if(done) return;
+            
+            if(tries++ > 0) {
+                System.out.println("Retrying to establish connection to server (try #" + tries + ")...");
+                tryToClose(conn, false);
+            }
+            else
+                System.out.println("Trying to establish connection to server ...");
+
+            ReplicaConnector rc = new ReplicaConnector(getEndpointsToTry(), CONNECT_TIMEOUT_MSEC, CONNECT_STAGGER_MSEC);
+            try {
+                conn = new SocketConnection(rc.connect());
+                connectedEndpoint = rc.getConnectedEndpoint();
+            }
+            catch(IOException e) {
+                System.err.println(e.getMessage());
+                conn = null;
+            }
+
+            if(conn == null || conn.s == null) {
+                System.out.println("Failed to establish connections to server! (will retry in " + retry_ms/1000.0f  + " seconds)");
+                try {
+                    Thread.sleep(retry_ms);
+                    retry_ms = Math.min(retry_ms*2, RETRY_WAIT_MSEC_MAX);
+                }
+                catch (InterruptedException e) {
+                    /* ignore */
+                }
+            }
+        }
+        while(conn==null || conn.s==null);
+        
+        frames.reset(conn.channel);
+        System.out.println("Now connected to server " + ReplicaConnector.describe(connectedEndpoint));
+        queueRestoredMessages();
+        try {
+            if(!startHandshake(conn.channel))
+                flushOutbound(conn.channel);
+        }
+        catch(IOException e) {
+            // the next read will fail too and trigger a reconnect
+            System.err.println("Unable to restore the session: " + e.getMessage());
+        }
+        stats.connected();
+        notifyConnectionStateChange(true);
+    }
+    
+    /** tells the connection to disconnect and then connect again */
+    public void reconnect() {
+        if(selector == null) {
+            this.reconnect = true;
+            
+            // wake up the connection's thread if it is blocked reading from 
+            // a connection which has silently died
+            SocketConnection myConn = conn;
+            if(myConn != null && myConn.s != null) {
+                try {
+                    myConn.s.close();
+                }
+                catch(IOException e) { /* ignore */ }
+            }
+        }
+        else {
+            selector.invokeLater(new Runnable() {
+                public void run() {
+                    if(done || channel == null || !channel.isConnected())
+                        return;
+                    
+                    disconnect();
+                    nioConnect();
+                }
+            });
+        }
+    }
+    
+    /** returns the next message received on the connection */
+    private MSG_TYPE recvMessage() throws IOException {
+        if(conn == null)
+            throw new IOException("connection is disconnected");
+        
+        int len;
+        while(handleHello(len = frames.readFrame()))
+            frames.endFrame();
+        
+        return decodeFrame(len);
+    }
+    
+    /** decodes the frame of the specified length which frames is positioned on */
+    private MSG_TYPE decodeFrame(int len) throws IOException {
+        ByteBuffer body = frames.getView().getBuffer();
+        WireCapture wc = capture;
+        if(wc != null)
+            wc.record(len, body);
+        
+        stats.updateReceived(body.get(body.position()), len);
+        long start = System.nanoTime();
+        MSG_TYPE msg = msgProcessor.decode(len, frames.getView());
+        stats.getDecodeTime().record(System.nanoTime() - start);
+        
+        // the view ends where the frame ends, so we cannot overread; just skip 
+        // anything the decoder left behind
+        int bytesLeftover = frames.endFrame();
+        if(bytesLeftover > 0)
+            System.err.println("Warning: " + bytesLeftover + "B leftover for message type " + msg.getType().toString());
+        
+        return msg;
+    }
+    
+    /** hands msg to the MessageProcessor and notes how long it took */
+    private void process(MSG_TYPE msg) {
+        long start = System.nanoTime();
+        msgProcessor.process(msg);
+        stats.getApplyTime().record(System.nanoTime() - start);
+        messageProcessed();
+    }
+    
+    /** 
+     * Called after each received message (or connection state change) has 
+     * been processed.  Sends whatever was queued while processing it, so the 
+     * messages sent in response go out together (blocking mode only; the 
+     * selector batches them otherwise).
+     */
+    void messageProcessed() {
+        if(selector == null)
+            flushPending();
+    }
+    
+    /** returns true if the calling thread is the one which processes received messages */
+    private boolean isProcessingThread() {
+        Thread t = Thread.currentThread();
+        ReceivePipeline<MSG_TYPE> p = pipeline;
+        return (p == null) ? t == this : p.isApplier(t);
+    }
+    
+    /** reads the next frame and hands it to the receive pipeline */
+    private void submitMessage() throws IOException, InterruptedException {
+        if(conn == null)
+            throw new IOException("connection is disconnected");
+        
+        int len = frames.readFrame();
+        try {
+            if(!handleHello(len))
+                submitFrame(len);
+        }
+        finally {
+            frames.endFrame();
+        }
+    }
+    
+    /** hands the frame frames is positioned on to the receive pipeline */
+    private void submitFrame(int len) throws InterruptedException {
+        ByteBuffer body = frames.getView().getBuffer();
+        WireCapture wc = capture;
+        if(wc != null)
+            wc.record(len, body);
+        stats.updateReceived(body.get(body.position()), len);
+        pipeline.submit(len, frames);
+    }
+    
+    /** returns true if the calling thread is the one which reads from the connection */
+    private boolean isReadingThread() {
+        Thread t = Thread.currentThread();
+        return (selector == null) ? t == this : t == selector;
+    }
+    
+    /** 
+     * Tells the MessageProcessor that the connection went up or down.  When 
+     * pipelining, the change is queued behind the messages which were received 
+     * before it (unless the connection is being shut down from another thread).
+     */
+    private void notifyConnectionStateChange(boolean connected) {
+        if(pipeline != null && !done && isReadingThread()) {
+            try {
+                pipeline.submitStateChange(connected);
+                return;
+            }
+            catch(InterruptedException e) {
+                /* fall through and tell the processor directly */
+            }
+        }
+        msgProcessor.connectionStateChange(connected);
+        messageProcessed();
+    }
+    
+    /** next transaction ID to use */
+    private final AtomicInteger nextXID = new AtomicInteger(1);
+    
+    /** messages which are expecting a stateful response (they expire after REQUEST_LIFETIME_MSEC) */
+    protected final TimingWheel<OFGMessage> outstandingStatefulRequests = new TimingWheel<OFGMessage>(REQUEST_EXPIRY_TICK_MSEC, REQUEST_EXPIRY_SLOTS);
+    
+    /** told about stateful requests which expired without a reply, or null */
+    private volatile TimingWheel.ExpiryListener<OFGMessage> requestExpiryListener = null;
     
     /** stateful messages which are being polled by the backend for us */
     protected ConcurrentHashMap<Integer, OFGMessage> outstandingStatefulPollRequests = new ConcurrentHashMap<Integer, OFGMessage>();
@@ -294,48 +1167,411 @@ public class BackendConnection<MSG_TYPE extends Message> extends Thread {
     /** 
      * Tries to send a message and sets the transaction ID of the message
      * to the next available transaction ID.  If m is a POLL_REQUEST message, 
-     * then the internal message's transaction ID is also set.
+     * then the internal message's transaction ID is also set.  If the
+     * connection is down, then the message is sent once it is re-established
+     * (an IOException is only thrown if too many messages are already waiting).
      */
     public void sendMessage(MSG_TYPE m) throws IOException {
         // get the current connection
         SocketConnection myConn = this.conn;
-        java.io.DataOutput out = (myConn == null) ? null : myConn.out;
+        SocketChannel ch = (myConn == null) ? null : myConn.channel;
         
-        // bail out if we are not connected - TODO: could try to mask this and 
-        // buffer calls to this method and send them when we get reconnected
-        if(out == null)
+        // hold on to the message until we get reconnected if we are not connected
+        if(!isConnected() && holdUntilReconnected(m))
+            return;
+        
+        if(selector != null) {
+            nioSendMessage(m);
+            return;
+        }
+        
+        if(ch == null)
             throw new IOException("connection is down");
         
         if(m instanceof OFGMessage)
             sendOFGMessage((OFGMessage)m);
         
-        m.write(out);
+        // messages are written in batches: after the received message being 
+        // processed (or shortly, if sent from another thread), or as soon as 
+        // enough of them are queued to fill a write
+        enqueue(m);
+        if(unflushedBytes.get() >= outbound.getFlushThreshold())
+            flushOutbound(ch);
+        else if(!isProcessingThread())
+            scheduleFlush();
         
         if(PRINT_MESSAGES)
             System.out.println("sent: " + m.toString());
     }
     
+    /** adds m to the outbound queue and counts it */
+    private void enqueue(Message m) {
+        if(m instanceof OFGMessage) {
+            OFGMessage om = (OFGMessage)m;
+            stats.messageSent(om.type.getTypeID(), om.length());
+            unflushedBytes.addAndGet(om.length());
+        }
+        outbound.add(m);
+    }
+    
+    /** asks the flusher to flush outbound after OUTBOUND_FLUSH_DELAY_MSEC unless it already has been */
+    private void scheduleFlush() {
+        if(flushScheduled.compareAndSet(false, true)) {
+            synchronized(flushScheduled) {
+                flushScheduled.notify();
+            }
+        }
+    }
+    
+    /** runs the flusher: waits for a flush to be scheduled and then does it */
+    private void runFlusher() {
+        try {
+            while(!done) {
+                synchronized(flushScheduled) {
+                    while(!flushScheduled.get() && !done)
+                        flushScheduled.wait();
+                }
+                
+                // give other messages a moment to batch up with this one
+                Thread.sleep(OUTBOUND_FLUSH_DELAY_MSEC);
+                flushScheduled.set(false);
+                flushPending();
+            }
+        }
+        catch(InterruptedException e) {
+            // shut down
+        }
+    }
+    
+    /** writes anything queued in outbound to the current connection, if any (blocking mode only) */
+    private void flushPending() {
+        SocketConnection myConn = conn;
+        if(outbound.isEmpty() || myConn == null || myConn.channel == null)
+            return;
+        
+        try {
+            flushOutbound(myConn.channel);
+        }
+        catch(IOException e) {
+            // ignore: the next read will fail too and trigger a reconnect
+        }
+    }
+    
+    /** Writes everything in the outbound queue to ch (blocking mode only). */
+    private void flushOutbound(SocketChannel ch) throws IOException {
+        // nothing else may be sent until the handshake is over
+        if(awaitingHello.get())
+            return;
+        
+        // whichever thread gets to drain the queue also sends anything queued 
+        // by other threads in the meantime; check again after releasing it in 
+        // case a message was queued just as the drainer finished
+        while(!outbound.isEmpty() && outbound.tryAcquire()) {
+            try {
+                unflushedBytes.set(0);
+                outbound.drainTo(ch);
+            }
+            finally {
+                outbound.release();
+            }
+        }
+    }
+    
+    /** returns the next transaction ID to use (never 0) */
+    private int nextXID() {
+        int xid;
+        do {
+            xid = nextXID.getAndIncrement();
+        }
+        while(xid == 0);
+        return xid;
+    }
+    
     public void sendOFGMessage(OFGMessage m) throws IOException {
         if(m.xid == 0)
-            m.xid = nextXID++;
+            m.xid = nextXID();
         
         if(m.isStatefulRequest())
-            outstandingStatefulRequests.put(m.xid, m);
+            outstandingStatefulRequests.add(m.xid, m, REQUEST_LIFETIME_MSEC);
         else if(m.type == OFGMessageType.POLL_START) {
             // store stateful poll requests in a different map since they do 
             // not expire when a reply comes in
             PollStart pollMsg = (PollStart)m;
             if(pollMsg.msg.isStatefulRequest()) {
                 if(pollMsg.pollInterval != 0) {
-                    pollMsg.msg.xid = nextXID++;
+                    pollMsg.msg.xid = nextXID();
                     outstandingStatefulPollRequests.put(pollMsg.msg.xid, pollMsg.msg);
                 }
                 else
                     outstandingStatefulPollRequests.remove(pollMsg.msg.xid);
             }
+            
+            if(pollMsg.pollInterval != 0)
+                activePolls.put(pollMsg.msg.xid, pollMsg);
+            else
+                activePolls.remove(pollMsg.msg.xid);
+        }
+        else if(m.type == OFGMessageType.POLL_STOP) {
+            int xid = ((PollStop)m).xid_to_stop_polling;
+            activePolls.remove(xid);
+            outstandingStatefulPollRequests.remove(xid);
+        }
+        else if(m instanceof Request) {
+            Request r = (Request)m;
+            if(r.requestType == RequestType.SUBSCRIBE)
+                subscriptions.put(r.getSubscriptionKey(), r);
+            else if(r.requestType == RequestType.UNSUBSCRIBE)
+                subscriptions.remove(r.getSubscriptionKey());
+        }
+    }
+    
+    // ------------- Version Negotiation ------------- //
+    
+    /**
+     * Offers protocol version 2 to the backend over the newly established 
+     * channel ch, unless version 2 is disabled or the backend is known to only 
+     * speak version 1.  The outbound queue is held until the backend answers 
+     * or the offer times out.
+     * 
+     * @return true if the handshake was started
+     */
+    private boolean startHandshake(SocketChannel ch) throws IOException {
+        protocolVersion = 1;
+        outbound.setFrameWriter(null);
+        final int connID = connectionCount.incrementAndGet();
+        if(!offerV2 || peerIsV1) {
+            awaitingHello.set(false);
+            return false;
+        }
+        
+        awaitingHello.set(true);
+        ByteBuffer hello = serialize(new Hello(nextXID(), PROTOCOL_VERSION, LOCAL_CAPABILITIES));
+        while(hello.hasRemaining())
+            if(ch.write(hello) == 0)
+                throw new IOException("unable to send Hello");
+        
+        Runnable timeout = new Runnable() {
+            public void run() {
+                if(connectionCount.get() == connID && awaitingHello.compareAndSet(true, false)) {
+                    System.err.println("Backend did not answer Hello; using protocol version 1");
+                    peerIsV1 = true;
+                    releaseOutbound();
+                }
+            }
+        };
+        
+        if(selector != null)
+            selector.schedule(timeout, HELLO_TIMEOUT_MSEC);
+        else
+            getTimer().schedule(toTimerTask(timeout), HELLO_TIMEOUT_MSEC);
+        
+        return true;
+    }
+    
+    /** returns the timer which runs handshake timeouts and heartbeats in blocking mode */
+    private static synchronized Timer getTimer() {
+        if(timer == null)
+            timer = new Timer("BackendConnection Timers", true);
+        return timer;
+    }
+    
+    /** wraps r in a TimerTask */
+    private static TimerTask toTimerTask(final Runnable r) {
+        return new TimerTask() {
+            public void run() {
+                r.run();
+            }
+        };
+    }
+    
+    /** 
+     * Checks whether the frame frames is positioned on completes the 
+     * handshake.  A Hello finishes the handshake and switches both directions 
+     * to the negotiated version.  Anything else received while waiting for 
+     * the Hello means the backend only speaks version 1.
+     * 
+     * @param len  length of the frame (see FrameReader)
+     * 
+     * @return true if the frame was a Hello (the caller should skip it)
+     */
+    private boolean handleHello(int len) throws IOException {
+        if(!offerV2)
+            return false;
+        
+        ByteBufferDataInput in = frames.getView();
+        ByteBuffer body = in.getBuffer();
+        if(body.remaining() < 1 || body.get(body.position()) != OFGMessageType.HELLO.getTypeID()) {
+            if(awaitingHello.compareAndSet(true, false)) {
+                System.err.println("Backend did not answer Hello; using protocol version 1");
+                peerIsV1 = true;
+                releaseOutbound();
+            }
+            return false;
+        }
+        
+        Hello h = (Hello)OFGCodecRegistry.decode(len, in, false);
+        if(!awaitingHello.compareAndSet(true, false)) {
+            // the backend has switched framing without us; start over
+            peerIsV1 = true;
+            throw new IOException("unexpected Hello from the backend (the handshake may have timed out)");
+        }
+        
+        int version = Math.min(h.version, PROTOCOL_VERSION);
+        if(version >= 2) {
+            int caps = h.capabilities & LOCAL_CAPABILITIES;
+            frames.setVersion(2);
+            outbound.setFrameWriter(new FrameWriter(caps));
+            System.out.println("Using protocol version 2 (capabilities 0x" + Integer.toHexString(caps) + ")");
+        }
+        protocolVersion = Math.max(version, 1);
+        releaseOutbound();
+        return true;
+    }
+    
+    /** sends whatever was queued while the handshake was under way */
+    private void releaseOutbound() {
+        if(selector != null) {
+            if(nioFlushScheduled.compareAndSet(false, true))
+                selector.invokeLater(nioFlush);
+            return;
+        }
+        
+        // a handshake timeout runs on the timer's thread, which must not write
+        if(Thread.currentThread() != this) {
+            scheduleFlush();
+            return;
+        }
+        
+        SocketConnection myConn = conn;
+        if(myConn == null || myConn.channel == null)
+            return;
+        
+        try {
+            flushOutbound(myConn.channel);
+        }
+        catch(IOException e) {
+            // the next read will fail too and trigger a reconnect
+            System.err.println("Unable to send queued messages: " + e.getMessage());
         }
     }
     
+    // ------------- Reconnect Handling ------------- //
+    
+    /** 
+     * polls which are active on the backend, keyed by the transaction ID of 
+     * the polled message; these are re-issued after reconnecting
+     */
+    private final ConcurrentHashMap<Integer, PollStart> activePolls = new ConcurrentHashMap<Integer, PollStart>();
+    
+    /** active subscriptions, keyed by Request.getSubscriptionKey(); these are re-issued after reconnecting */
+    private final ConcurrentHashMap<String, Request> subscriptions = new ConcurrentHashMap<String, Request>();
+    
+    /** 
+     * Returns true if a subscription like r (see Request.getSubscriptionKey()) 
+     * is active.  Active subscriptions are restored automatically whenever the 
+     * connection is re-established.
+     */
+    public boolean isSubscribed(Request r) {
+        return subscriptions.containsKey(r.getSubscriptionKey());
+    }
+    
+    /** 
+     * messages sent while disconnected; its lock is held while messages are 
+     * held and while they are restored, so none are left behind by a 
+     * connection which comes up in between
+     */
+    private final ConcurrentLinkedQueue<MSG_TYPE> replayBuffer = new ConcurrentLinkedQueue<MSG_TYPE>();
+    
+    /** number of messages in replayBuffer */
+    private final AtomicInteger replayBufferSize = new AtomicInteger(0);
+    
+    /** 
+     * Returns true if m starts or stops a poll or subscription.  These are 
+     * tracked by the connection itself and need not be replayed.
+     */
+    private static boolean isSessionState(OFGMessage m) {
+        if(m.type == OFGMessageType.POLL_START || m.type == OFGMessageType.POLL_STOP)
+            return true;
+        
+        if(m instanceof Request) {
+            RequestType t = ((Request)m).requestType;
+            return t == RequestType.SUBSCRIBE || t == RequestType.UNSUBSCRIBE;
+        }
+        
+        return false;
+    }
+    
+    /** 
+     * Remembers a message sent while disconnected so that it can be sent once 
+     * the connection is re-established.  Polls and subscriptions just update 
+     * the set of polls and subscriptions which will be re-issued.  A held 
+     * stateful request gets its transaction ID now but is only remembered as 
+     * outstanding once it is replayed (so it cannot expire while we are down).
+     * 
+     * @return  false (and nothing is held) if the connection is up after all
+     * @throws IOException  if the replay buffer is full
+     */
+    private boolean holdUntilReconnected(MSG_TYPE m) throws IOException {
+        synchronized(replayBuffer) {
+            // the connection may have come up (and restored messages) since 
+            // the caller checked
+            if(isConnected())
+                return false;
+            
+            if(m instanceof OFGMessage) {
+                OFGMessage om = (OFGMessage)m;
+                if(isSessionState(om)) {
+                    sendOFGMessage(om);
+                    return true;
+                }
+                else if(om.xid == 0)
+                    om.xid = nextXID();
+            }
+            
+            if(replayBufferSize.incrementAndGet() > REPLAY_BUFFER_SIZE) {
+                replayBufferSize.decrementAndGet();
+                throw new IOException("connection is down (and the replay buffer is full)");
+            }
+            replayBuffer.add(m);
+            return true;
+        }
+    }
+    
+    /** 
+     * Queues the active subscriptions and polls (with their original 
+     * transaction IDs) followed by any messages sent while we were 
+     * disconnected.  Called right after the connection is established.
+     */
+    private void queueRestoredMessages() {
+        int numSubscriptions = 0, numPolls = 0, numReplayed = 0;
+        synchronized(replayBuffer) {
+            for(Request r : subscriptions.values()) {
+                enqueue(r);
+                numSubscriptions += 1;
+            }
+            
+            for(PollStart p : activePolls.values()) {
+                enqueue(p);
+                numPolls += 1;
+            }
+            
+            MSG_TYPE m;
+            while((m = replayBuffer.poll()) != null) {
+                replayBufferSize.decrementAndGet();
+                if(m instanceof OFGMessage && ((OFGMessage)m).isStatefulRequest()) {
+                    OFGMessage om = (OFGMessage)m;
+                    outstandingStatefulRequests.add(om.xid, om, REQUEST_LIFETIME_MSEC);
+                }
+                enqueue(m);
+                numReplayed += 1;
+            }
+        }
+        
+        if(numSubscriptions + numPolls + numReplayed > 0)
+            System.out.println("Restoring " + numSubscriptions + " subscriptions and " + 
+                               numPolls + " polls; replaying " + numReplayed + " messages");
+    }
+    
     /** 
      * Returns the request sent with the specified transaction ID, if any.  The 
      * stateful request returned will no longer be remembered. 
@@ -347,36 +1583,92 @@ public class BackendConnection<MSG_TYPE extends Message> extends Thread {
         return (m != null) ? m : outstandingStatefulRequests.remove(xid);
     }
     
-    /** Remove cached stateful requests which have been cached for longer than getRequestLifetime() */
+    /**
+     * Returns the request sent with the specified transaction ID, if any.  The
+     * request is still remembered (e.g., because more replies to it follow).
+     */
+    public OFGMessage getAssociatedStatefulRequest(int xid) {
+        OFGMessage m = outstandingStatefulPollRequests.get(xid);
+        return (m != null) ? m : outstandingStatefulRequests.get(xid);
+    }
+    
+    /** 
+     * Sets the object told about stateful requests which were not answered 
+     * within REQUEST_LIFETIME_MSEC (null if nobody should be told).  It is 
+     * called from a timer thread (the selector's thread in non-blocking mode).
+     */
+    public void setRequestExpiryListener(TimingWheel.ExpiryListener<OFGMessage> l) {
+        requestExpiryListener = l;
+    }
+    
+    /** Remove cached stateful requests which have been cached for longer than REQUEST_LIFETIME_MSEC */
     protected void scrubExpiredStatefulRequests() {
-        long now = System.currentTimeMillis();
+        outstandingStatefulRequests.advance(requestExpiryListener);
+    }
+    
+    /** scrubs expired requests every tick until the connection is shut down */
+    private void scheduleScrub() {
+        final Runnable task = new Runnable() {
+            public void run() {
+                if(done)
+                    return;
+                
+                scrubExpiredStatefulRequests();
+                scheduleScrub();
+            }
+        };
         
-        Iterator<OFGMessage> itr = outstandingStatefulRequests.values().iterator();
-        while(itr.hasNext())
-            if(now - itr.next().timeCreated() > REQUEST_LIFETIME_MSEC)
-                itr.remove();
+        if(selector == null)
+            getTimer().schedule(toTimerTask(task), REQUEST_EXPIRY_TICK_MSEC);
+        else {
+            selector.invokeLater(new Runnable() {
+                public void run() {
+                    selector.schedule(task, REQUEST_EXPIRY_TICK_MSEC);
+                }
+            });
+        }
     }
     
     /** closes the connection to the server */
     private void disconnect() {
         System.out.println("Disconnecting from the server");
-        tryToClose(conn);
-        conn = null;
+        if(awaitingHello.getAndSet(false)) {
+            // most likely a version 1 backend which did not like our Hello
+            System.err.println("Connection lost during the handshake; will use protocol version 1");
+            peerIsV1 = true;
+        }
+
+        if(selector == null) {
+            tryToClose(conn, protocolVersion >= 2);
+            conn = null;
+            outbound.clear();
+        }
+        else
+            nioClose(true);
+        connectedEndpoint = null;
+        pendingHeartbeats.clear();
         stats.disconnected();
+        
+        // polls and their outstanding requests are kept: they will be 
+        // re-issued once we are reconnected
         outstandingStatefulRequests.clear();
-        outstandingStatefulPollRequests.clear();
-        msgProcessor.connectionStateChange(false);
+        notifyConnectionStateChange(false);
     }
     
-    /** try to close the connection to the server */
-    private static void tryToClose(SocketConnection sc) {
+    /** 
+     * try to close the connection to the server (v2 says whether protocol 
+     * version 2 framing is in use) 
+     */
+    private static void tryToClose(SocketConnection sc, boolean v2) {
         if( sc != null ) {
             Socket s = sc.s;
             if(s != null && s.isConnected()) {
                 // tell the backend we're disconnecting
-                if(sc.out != null) {
+                if(sc.channel != null) {
                     try {
-                        new OFGMessage(OFGMessageType.DISCONNECT, 0).write(sc.out);
+                        ByteBuffer bye = serialize(new OFGMessage(OFGMessageType.DISCONNECT, 0), v2);
+                        while(bye.hasRemaining())
+                            sc.channel.write(bye);
                     }
                     catch(IOException e) { /* ignore */ }
                 }
@@ -388,6 +1680,366 @@ public class BackendConnection<MSG_TYPE extends Message> extends Thread {
         }
     }
     
+    // ----------------- Non-blocking Mode ----------------- //
+    // Everything in this section except nioSendMessage() and resumeReading() 
+    // runs on the selector's thread (those two hand their work to it).
+    
+    /** Starts a non-blocking attempt to connect to the server. */
+    void nioConnect() {
+        if(done) {
+            shutdown = true;
+            return;
+        }
+        
+        if(nioTries++ > 0)
+            System.out.println("Retrying to establish connection to server (try #" + nioTries + ")...");
+        else {
+            stats.disconnected();
+            System.out.println("Trying to establish connection to server ...");
+        }
+        
+        final ReplicaConnector rc = new ReplicaConnector(getEndpointsToTry(), CONNECT_TIMEOUT_MSEC, CONNECT_STAGGER_MSEC);
+        nioConnector = rc;
+        
+        // host name lookups may block, so they are done on a thread of their 
+        // own and the race is started back on the selector's thread
+        Thread resolver = new Thread(getName() + "-resolve") {
+            public void run() {
+                rc.resolve();
+                selector.invokeLater(new Runnable() {
+                    public void run() {
+                        nioStartConnector(rc);
+                    }
+                });
+            }
+        };
+        resolver.setDaemon(true);
+        resolver.start();
+    }
+    
+    /** Starts the race rc once its replicas are resolved (unless it was abandoned). */
+    private void nioStartConnector(ReplicaConnector rc) {
+        if(nioConnector != rc)
+            return;
+        
+        rc.start(selector.getSelector(), this);
+        nioPollConnector(rc);
+    }
+    
+    /** 
+     * Checks on the connection attempt rc (timing out and staggering its 
+     * attempts) and schedules the next check while it is under way.
+     */
+    private void nioPollConnector(final ReplicaConnector rc) {
+        if(nioConnector != rc)
+            return;
+        
+        rc.poll();
+        if(nioConnectorProgress(rc))
+            return;
+        
+        selector.schedule(new Runnable() {
+            public void run() {
+                nioPollConnector(rc);
+            }
+        }, Math.max(1, rc.getNextDelay_ms()));
+    }
+    
+    /** 
+     * Completes the connection if rc has won a race or schedules a retry if it 
+     * has lost.
+     * 
+     * @return true if the attempt is over
+     */
+    private boolean nioConnectorProgress(ReplicaConnector rc) {
+        if(rc.getConnected() != null) {
+            nioConnector = null;
+            channel = rc.getConnected();
+            selectionKey = rc.getConnectedKey();
+            connectedEndpoint = rc.getConnectedEndpoint();
+            try {
+                nioConnected();
+            }
+            catch(IOException e) {
+                nioConnectFailed(e);
+            }
+            return true;
+        }
+        else if(rc.isOver()) {
+            nioConnector = null;
+            nioConnectFailed(new IOException("unable to connect to any replica (" + rc.getFailures() + ")"));
+            return true;
+        }
+        return false;
+    }
+    
+    /** Cleans up after a failed connection attempt and schedules another one. */
+    private void nioConnectFailed(IOException e) {
+        System.err.println("Failed to connect: " + e.getMessage());
+        nioClose(false);
+        
+        System.out.println("Failed to establish connections to server! (will retry in " + nioRetry_ms/1000.0f  + " seconds)");
+        selector.schedule(new Runnable() {
+            public void run() {
+                nioConnect();
+            }
+        }, nioRetry_ms);
+        nioRetry_ms = Math.min(nioRetry_ms*2, RETRY_WAIT_MSEC_MAX);
+    }
+    
+    /** Called once channel is connected to the server. */
+    private void nioConnected() throws IOException {
+        nioTries = 0;
+        nioRetry_ms = RETRY_WAIT_MSEC_MIN;
+        nioReadPaused = false;
+        
+        // outbound was emptied when the last channel was closed; anything in 
+        // it now was sent since channel was published and is written after 
+        // the Hello (flushes run on this thread)
+        frames.reset(channel);
+        queueRestoredMessages();
+        
+        if(selectionKey == null)
+            selectionKey = channel.register(selector.getSelector(), SelectionKey.OP_READ, this);
+        else
+            nioSetInterest(false);
+        
+        System.out.println("Now connected to server " + ReplicaConnector.describe(connectedEndpoint));
+        if(!startHandshake(channel))
+            nioWrite();
+        stats.connected();
+        notifyConnectionStateChange(true);
+    }
+    
+    /** Handles whatever operations channel is ready for. */
+    void nioProcess(SelectionKey key) {
+        ReplicaConnector rc = nioConnector;
+        if(rc != null && rc.owns(key)) {
+            rc.finish(key);
+            nioConnectorProgress(rc);
+            return;
+        }
+        
+        SocketChannel ch = channel;
+        if(ch == null || key != selectionKey)
+            return;
+        
+        try {
+            
+            if(key.isReadable())
+                nioRead();
+            
+            if(key.isValid() && key.isWritable() && channel == ch)
+                nioWrite();
+        }
+        catch(IOException e) {
+            nioError(ch, e);
+        }
+    }
+    
+    /** Handles an error which occurred on ch. */
+    private void nioError(SocketChannel ch, IOException e) {
+        if(!ch.isConnected()) {
+            nioConnectFailed(e);
+            return;
+        }
+        
+        if(done || channel != ch)
+            return;
+        
+        System.err.println("Network Error: " + e);
+        disconnect();
+        nioConnect();
+    }
+    
+    /** Reads from channel and hands each complete message received to the pipeline. */
+    private void nioRead() throws IOException {
+        if(frames.fill() < 0)
+            throw new EOFException("connection closed by the server");
+        
+        nioSubmitFrames();
+    }
+    
+    /** 
+     * Hands the complete frames which have been read to the pipeline.  If it 
+     * fills up, reading stops until the pipeline has room again (see 
+     * resumeReading()); the selector's thread never waits for it.
+     */
+    private void nioSubmitFrames() throws IOException {
+        SocketChannel ch = channel;
+        while(!done && channel == ch) {
+            if(!pipeline.hasRoom() && pipeline.pauseReader()) {
+                nioReadPaused = true;
+                nioSetInterest((selectionKey.interestOps() & SelectionKey.OP_WRITE) != 0);
+                return;
+            }
+            
+            int len = frames.nextFrame();
+            if(len < 0)
+                return;
+            
+            try {
+                if(!handleHello(len))
+                    submitFrame(len);
+            }
+            catch(InterruptedException e) {
+                throw new InterruptedIOException("interrupted while handing off a frame");
+            }
+            finally {
+                frames.endFrame();
+            }
+        }
+    }
+    
+    /** 
+     * Called by the pipeline once it has room after reading was stopped 
+     * because it was full (non-blocking mode only).
+     */
+    void resumeReading() {
+        selector.invokeLater(new Runnable() {
+            public void run() {
+                SocketChannel ch = channel;
+                if(!nioReadPaused || ch == null || !selectionKey.isValid())
+                    return;
+                
+                nioReadPaused = false;
+                nioSetInterest((selectionKey.interestOps() & SelectionKey.OP_WRITE) != 0);
+                try {
+                    // frames which were already read come first
+                    nioSubmitFrames();
+                }
+                catch(IOException e) {
+                    nioError(ch, e);
+                }
+            }
+        });
+    }
+    
+    /** 
+     * sets which operations the selector watches channel for: reads (unless 
+     * they are paused) and writes if write is true
+     */
+    private void nioSetInterest(boolean write) {
+        int ops = nioReadPaused ? 0 : SelectionKey.OP_READ;
+        if(write)
+            ops |= SelectionKey.OP_WRITE;
+        selectionKey.interestOps(ops);
+    }
+    
+    /** 
+     * Writes as many queued messages to channel as it will accept and then 
+     * asks the selector to tell us when channel is writable again if some 
+     * are left.
+     */
+    private void nioWrite() throws IOException {
+        // nothing else may be sent until the handshake is over
+        if(awaitingHello.get())
+            return;
+        
+        // only the selector's thread drains the queue in non-blocking mode
+        if(!outbound.tryAcquire())
+            throw new Error("outbound queue is being drained by another thread");
+        
+        boolean allWritten;
+        try {
+            allWritten = outbound.drainTo(channel);
+        }
+        finally {
+            outbound.release();
+        }
+        nioSetInterest(!allWritten);
+    }
+    
+    /** Flushes the outbound queue (this runs on the selector's thread). */
+    private final Runnable nioFlush = new Runnable() {
+        public void run() {
+            nioFlushScheduled.set(false);
+            SocketChannel ch = channel;
+            if(ch == null || !ch.isConnected() || selectionKey == null)
+                return;
+            
+            try {
+                nioWrite();
+            }
+            catch(IOException e) {
+                nioError(ch, e);
+            }
+        }
+    };
+    
+    /** 
+     * Queues m to be written by the selector's thread.  This may be called 
+     * from any thread.  Only the first message queued since the last flush 
+     * wakes up the selector; the rest are written along with it.
+     */
+    private void nioSendMessage(MSG_TYPE m) throws IOException {
+        if(!isConnected())
+            throw new IOException("connection is down");
+        
+        if(m instanceof OFGMessage)
+            sendOFGMessage((OFGMessage)m);
+        
+        enqueue(m);
+        if(nioFlushScheduled.compareAndSet(false, true))
+            selector.invokeLater(nioFlush);
+        
+        if(PRINT_MESSAGES)
+            System.out.println("sent: " + m.toString());
+    }
+    
+    /** returns a buffer containing m as it would be written to the wire */
+    private static ByteBuffer serialize(Message m) throws IOException {
+        return serialize(m, false);
+    }
+    
+    /** 
+     * returns a buffer containing m as it would be written to the wire with 
+     * version 2 framing if v2 is true (or version 1 framing otherwise) 
+     */
+    private static ByteBuffer serialize(Message m, boolean v2) throws IOException {
+        ByteBufferDataOutput out = new ByteBufferDataOutput(64);
+        if(v2)
+            new FrameWriter(0).write(m, out);
+        else
+            m.write(out);
+        
+        ByteBuffer buf = out.getBuffer();
+        buf.flip();
+        return buf;
+    }
+    
+    /** 
+     * Closes channel (if any).  If tellServer is true and the channel is 
+     * connected, then a best-effort attempt is made to tell the server we 
+     * are disconnecting first.
+     */
+    private void nioClose(boolean tellServer) {
+        if(nioConnector != null) {
+            nioConnector.cancel();
+            nioConnector = null;
+        }
+        
+        SocketChannel ch = channel;
+        channel = null;
+        selectionKey = null;
+        boolean v2 = protocolVersion >= 2;
+        outbound.clear();
+        if(ch == null)
+            return;
+        
+        if(tellServer && ch.isConnected()) {
+            try {
+                ch.write(serialize(new OFGMessage(OFGMessageType.DISCONNECT, 0), v2));
+            }
+            catch(IOException e) { /* ignore */ }
+        }
+        
+        try {
+            ch.close();
+        }
+        catch(IOException e) { /* ignore */ }
+    }
+    
     /** returns the server address which this object connects to */
     public String getServerAddr() {
         return serverIP;
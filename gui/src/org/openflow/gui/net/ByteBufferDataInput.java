@@ -0,0 +1,189 @@
+package org.openflow.gui.net;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A DataInput which reads from a ByteBuffer.  Reads past the end of the
+ * buffer's limit result in an EOFException (rather than the unchecked
+ * BufferUnderflowException the buffer itself would throw) so that decoders
+ * written against DataInput behave the same as they do on a stream.
+ */
+public class ByteBufferDataInput implements DataInput {
+    /** the buffer being read */
+    private ByteBuffer buf;
+
+    /**
+     * Creates a DataInput which reads from buf's position up to its limit.
+     *
+     * @param buf  the buffer to read from (must be big-endian)
+     */
+    public ByteBufferDataInput(ByteBuffer buf) {
+        this.buf = buf;
+    }
+
+    /** Returns the buffer being read from */
+    public ByteBuffer getBuffer() {
+        return buf;
+    }
+
+    /** Sets the buffer to read from */
+    public void setBuffer(ByteBuffer buf) {
+        this.buf = buf;
+    }
+
+    /** Returns the number of bytes which remain to be read */
+    public int remaining() {
+        return buf.remaining();
+    }
+
+    /** throws an EOFException if fewer than n bytes remain */
+    private void need(int n) throws EOFException {
+        if(buf.remaining() < n)
+            throw new EOFException("tried to read " + n + "B but only " + buf.remaining() + "B remain");
+    }
+
+    public void readFully(byte b[]) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    public void readFully(byte b[], int off, int len) throws IOException {
+        need(len);
+        buf.get(b, off, len);
+    }
+
+    public int skipBytes(int n) {
+        int skip = Math.max(0, Math.min(n, buf.remaining()));
+        buf.position(buf.position() + skip);
+        return skip;
+    }
+
+    public boolean readBoolean() throws IOException {
+        need(1);
+        return buf.get() != 0;
+    }
+
+    public byte readByte() throws IOException {
+        need(1);
+        return buf.get();
+    }
+
+    public int readUnsignedByte() throws IOException {
+        need(1);
+        return buf.get() & 0xFF;
+    }
+
+    public short readShort() throws IOException {
+        need(2);
+        return buf.getShort();
+    }
+
+    public int readUnsignedShort() throws IOException {
+        need(2);
+        return buf.getShort() & 0xFFFF;
+    }
+
+    public char readChar() throws IOException {
+        need(2);
+        return buf.getChar();
+    }
+
+    public int readInt() throws IOException {
+        need(4);
+        return buf.getInt();
+    }
+
+    public long readLong() throws IOException {
+        need(8);
+        return buf.getLong();
+    }
+
+    public float readFloat() throws IOException {
+        need(4);
+        return buf.getFloat();
+    }
+
+    public double readDouble() throws IOException {
+        need(8);
+        return buf.getDouble();
+    }
+
+    /**
+     * Reads a string from the next bytesToRead bytes.  A zero byte ends the
+     * string; the bytes after it are skipped.
+     */
+    public String readString(int bytesToRead) throws IOException {
+        need(bytesToRead);
+        int start = buf.position();
+        int len = 0;
+        while(len < bytesToRead && buf.get(start + len) != 0)
+            len += 1;
+
+        String ret = decodeString(start, len);
+        buf.position(start + bytesToRead);
+        return ret;
+    }
+
+    /** Reads a string which is terminated by a zero byte. */
+    public String readNullTerminatedString() throws IOException {
+        int start = buf.position();
+        int end = start;
+        int limit = buf.limit();
+        while(end < limit && buf.get(end) != 0)
+            end += 1;
+
+        if(end == limit)
+            throw new EOFException("string is not null-terminated");
+
+        String ret = decodeString(start, end - start);
+        buf.position(end + 1);
+        return ret;
+    }
+
+    /** returns the string formed by len bytes starting at offset start */
+    private String decodeString(int start, int len) {
+        if(len == 0)
+            return new String();
+
+        if(buf.hasArray())
+            return new String(buf.array(), buf.arrayOffset() + start, len);
+
+        byte[] strBuf = new byte[len];
+        ByteBuffer dup = buf.duplicate();
+        dup.position(start);
+        dup.get(strBuf);
+        return new String(strBuf);
+    }
+
+    /**
+     * Reads a line the way DataInputStream.readLine() does: each byte becomes
+     * one character, and the line ends at "\n", "\r", "\r\n" or the limit.
+     * Returns null if no bytes remain.
+     */
+    public String readLine() throws IOException {
+        if(!buf.hasRemaining())
+            return null;
+
+        StringBuilder line = new StringBuilder();
+        while(buf.hasRemaining()) {
+            int c = buf.get() & 0xFF;
+            if(c == '\n')
+                break;
+
+            if(c == '\r') {
+                if(buf.hasRemaining() && buf.get(buf.position()) == '\n')
+                    buf.get();
+                break;
+            }
+            line.append((char)c);
+        }
+        return line.toString();
+    }
+
+    public String readUTF() throws IOException {
+        return DataInputStream.readUTF(this);
+    }
+}
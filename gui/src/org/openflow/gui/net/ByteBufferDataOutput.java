@@ -0,0 +1,112 @@
+package org.openflow.gui.net;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A DataOutput which writes into a ByteBuffer.  The buffer is replaced by a
+ * larger one whenever a write would overflow it.
+ */
+public class ByteBufferDataOutput implements DataOutput {
+    /** the buffer being written (bytes written so far lie before its position) */
+    private ByteBuffer buf;
+
+    /**
+     * Creates a DataOutput which writes into a new heap buffer.
+     *
+     * @param capacity  initial size of the buffer
+     */
+    public ByteBufferDataOutput(int capacity) {
+        buf = ByteBuffer.allocate(capacity);
+    }
+
+    /** Returns the buffer being written to (it may change after any write) */
+    public ByteBuffer getBuffer() {
+        return buf;
+    }
+
+    /** makes sure there is room for n more bytes */
+    private void need(int n) {
+        if(buf.remaining() < n) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + n));
+            buf.flip();
+            bigger.put(buf);
+            buf = bigger;
+        }
+    }
+
+    public void write(int b) {
+        need(1);
+        buf.put((byte)b);
+    }
+
+    public void write(byte b[]) {
+        write(b, 0, b.length);
+    }
+
+    public void write(byte b[], int off, int len) {
+        need(len);
+        buf.put(b, off, len);
+    }
+
+    public void writeBoolean(boolean v) {
+        write(v ? 1 : 0);
+    }
+
+    public void writeByte(int v) {
+        write(v);
+    }
+
+    public void writeShort(int v) {
+        need(2);
+        buf.putShort((short)v);
+    }
+
+    public void writeChar(int v) {
+        need(2);
+        buf.putChar((char)v);
+    }
+
+    public void writeInt(int v) {
+        need(4);
+        buf.putInt(v);
+    }
+
+    public void writeLong(long v) {
+        need(8);
+        buf.putLong(v);
+    }
+
+    public void writeFloat(float v) {
+        need(4);
+        buf.putFloat(v);
+    }
+
+    public void writeDouble(double v) {
+        need(8);
+        buf.putDouble(v);
+    }
+
+    public void writeBytes(String s) {
+        int len = s.length();
+        need(len);
+        for(int i=0; i<len; i++)
+            buf.put((byte)s.charAt(i));
+    }
+
+    public void writeChars(String s) {
+        int len = s.length();
+        need(len * 2);
+        for(int i=0; i<len; i++)
+            buf.putChar(s.charAt(i));
+    }
+
+    public void writeUTF(String s) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(s.length() + 2);
+        new DataOutputStream(baos).writeUTF(s);
+        write(baos.toByteArray());
+    }
+}
@@ -0,0 +1,198 @@
+package org.openflow.gui.net;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Drives any number of non-blocking BackendConnections from a single thread.
+ * Each connection registered with a ConnectionSelector is connected, read
+ * from, and written to by the selector's thread.  Received messages are
+ * decoded and processed on each connection's own ReceivePipeline threads, so
+ * a slow MessageProcessor (e.g., one waiting for the user to log in) only
+ * delays its own connection.
+ */
+public class ConnectionSelector extends Thread {
+    /** number of selectors in the pool handed out by getShared() */
+    public static final int SHARED_POOL_SIZE = 1;
+
+    /** selectors which may be shared by many connections */
+    private static final ConnectionSelector[] sharedPool = new ConnectionSelector[SHARED_POOL_SIZE];
+
+    /** index of the shared selector to hand out next */
+    private static int nextShared = 0;
+
+    /**
+     * Returns a selector from the shared pool.  Selectors are handed out
+     * round-robin and are created and started the first time they are needed.
+     */
+    public static synchronized ConnectionSelector getShared() {
+        int i = nextShared;
+        nextShared = (nextShared + 1) % SHARED_POOL_SIZE;
+        if(sharedPool[i] == null) {
+            try {
+                sharedPool[i] = new ConnectionSelector("ConnectionSelector-" + i);
+            }
+            catch(IOException e) {
+                throw new Error("Unable to open a selector: " + e.getMessage());
+            }
+            sharedPool[i].start();
+        }
+        return sharedPool[i];
+    }
+
+    /** a task to run at a particular time */
+    private static class Timer implements Comparable<Timer> {
+        /** when to run the task (in ms since the epoch) */
+        public final long when;
+
+        /** what to run */
+        public final Runnable task;
+
+        public Timer(long when, Runnable task) {
+            this.when = when;
+            this.task = task;
+        }
+
+        public int compareTo(Timer o) {
+            return when < o.when ? -1 : (when == o.when ? 0 : 1);
+        }
+    }
+
+    /** the selector which multiplexes the connections' channels */
+    private final Selector selector;
+
+    /** tasks submitted by other threads to run on the selector's thread */
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+    /** delayed tasks (only touched by the selector's thread) */
+    private final PriorityQueue<Timer> timers = new PriorityQueue<Timer>();
+
+    /** whether the selector should stop running */
+    private volatile boolean done = false;
+
+    /**
+     * Creates a new selector.  It will not service any connections until it
+     * has been started.
+     *
+     * @param name  name of the selector's thread
+     */
+    public ConnectionSelector(String name) throws IOException {
+        super(name);
+        selector = Selector.open();
+    }
+
+    /**
+     * Starts connecting c to its server.  The selector takes responsibility for
+     * reconnecting c whenever its connection is lost.
+     */
+    public void register(final BackendConnection c) {
+        invokeLater(new Runnable() {
+            public void run() {
+                c.nioConnect();
+            }
+        });
+    }
+
+    /** Runs r on the selector's thread as soon as possible. */
+    public void invokeLater(Runnable r) {
+        tasks.add(r);
+        selector.wakeup();
+    }
+
+    /**
+     * Runs r on the selector's thread after delay_ms has elapsed.  This may
+     * only be called from the selector's thread.
+     */
+    void schedule(Runnable r, long delay_ms) {
+        timers.add(new Timer(System.currentTimeMillis() + delay_ms, r));
+    }
+
+    /** returns the underlying selector */
+    Selector getSelector() {
+        return selector;
+    }
+
+    /**
+     * Tells the selector to stop servicing its connections.  The connections
+     * themselves are not closed (call BackendConnection.shutdown() first).
+     */
+    public void shutdown() {
+        done = true;
+        selector.wakeup();
+    }
+
+    /**
+     * Waits for channels to become ready and lets the connection which owns
+     * each ready channel handle it.  Tasks and timers are run in between.
+     */
+    public void run() {
+        while(!done) {
+            long timeout = runExpiredTimers();
+            try {
+                selector.select(timeout);
+            }
+            catch(IOException e) {
+                System.err.println("Selector error: " + e.getMessage());
+            }
+
+            Runnable r;
+            while((r = tasks.poll()) != null)
+                runSafely(r);
+
+            Iterator<SelectionKey> itr = selector.selectedKeys().iterator();
+            while(itr.hasNext()) {
+                SelectionKey key = itr.next();
+                itr.remove();
+                if(!key.isValid())
+                    continue;
+
+                try {
+                    ((BackendConnection)key.attachment()).nioProcess(key);
+                }
+                catch(RuntimeException e) {
+                    System.err.println("Unexpected error while servicing a connection: " + e);
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        try {
+            selector.close();
+        }
+        catch(IOException e) { /* ignore */ }
+    }
+
+    /**
+     * Runs any timers which have expired and returns how long until the next
+     * one expires (0 if there are no timers left).
+     */
+    private long runExpiredTimers() {
+        while(true) {
+            Timer t = timers.peek();
+            if(t == null)
+                return 0;
+
+            long wait = t.when - System.currentTimeMillis();
+            if(wait > 0)
+                return wait;
+
+            timers.poll();
+            runSafely(t.task);
+        }
+    }
+
+    /** runs r and reports (but otherwise ignores) any unchecked exception */
+    private static void runSafely(Runnable r) {
+        try {
+            r.run();
+        }
+        catch(RuntimeException e) {
+            System.err.println("Unexpected error in selector task: " + e);
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package org.openflow.gui.net;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads length-prefixed frames from a channel into a reusable buffer.  Each
+ * frame starts with a 2-byte length field which includes the length field
+ * itself.  Once a frame has been completely received, decoders read its body
+ * through a view which is bounded to the end of the frame, so a decoder can
+ * neither read into the next frame nor leave the stream misaligned.
+ *
+ * Once protocol version 2 has been negotiated (see setVersion()), each frame
+ * instead starts with a 4-byte length field followed by a flags byte.  A
+ * message may then be split across several frames (FLAG_MORE_FRAGMENTS is
+ * set on all but the last) and its body may be deflated (FLAG_DEFLATED).  The
+ * reader reassembles and inflates such messages before handing them out, so
+ * decoders see the same bytes either way.
+ *
+ * The reader works with blocking channels (see readFrame()) and with
+ * non-blocking channels (see fill() and nextFrame()).
+ */
+public class FrameReader {
+    /** default size of the receive buffer */
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    /** number of bytes in the length field which starts each frame */
+    public static final int LENGTH_FIELD_SIZE = 2;
+
+    /** number of bytes in the header (length and flags) which starts each version 2 frame */
+    public static final int V2_HEADER_SIZE = 5;
+
+    /** version 2 frame flag: more fragments of the same message follow this frame */
+    public static final byte FLAG_MORE_FRAGMENTS = 0x01;
+
+    /** version 2 frame flag: the message (all of its fragments together) is deflated */
+    public static final byte FLAG_DEFLATED = 0x02;
+
+    /** largest message accepted in version 2 (after reassembly and inflation) */
+    public static final int V2_MAX_MESSAGE_SIZE = 64 * 1024 * 1024;
+
+    /** the channel frames are read from */
+    private ReadableByteChannel ch;
+
+    /** whether the receive buffer is a direct buffer */
+    private final boolean direct;
+
+    /** received bytes; those which are unread lie between position and limit */
+    private ByteBuffer buf;
+
+    /** reads the body of the current frame */
+    private final ByteBufferDataInput view;
+
+    /** offset of the end of the current frame, or -1 if there is no current frame */
+    private int frameEnd = -1;
+
+    /** the buffer's limit before it was bounded to the current frame */
+    private int savedLimit;
+
+    /** the protocol version whose framing is being read */
+    private int version = 1;
+
+    /** fragments of the message being reassembled (version 2 only) */
+    private ByteBuffer assembly = null;
+
+    /** whether the message being reassembled is deflated */
+    private boolean assemblyDeflated;
+
+    /** the inflated body of the current message (version 2 only) */
+    private ByteBuffer inflated = null;
+
+    /** inflates deflated messages (version 2 only) */
+    private Inflater inflater = null;
+
+    /** whether the current frame was reassembled or inflated (so the view is not over buf) */
+    private boolean frameAssembled = false;
+
+    /**
+     * Creates a reader with the default capacity which uses a heap buffer.
+     *
+     * @param ch  the channel to read from (may be null if reset() will be
+     *            called before the first read)
+     */
+    public FrameReader(ReadableByteChannel ch) {
+        this(ch, DEFAULT_CAPACITY, false);
+    }
+
+    /**
+     * Creates a reader.
+     *
+     * @param ch        the channel to read from (may be null if reset() will be
+     *                  called before the first read)
+     * @param capacity  initial size of the receive buffer (it grows if a
+     *                  larger frame arrives)
+     * @param direct    whether to use a direct buffer
+     */
+    public FrameReader(ReadableByteChannel ch, int capacity, boolean direct) {
+        this.ch = ch;
+        this.direct = direct;
+        buf = allocate(capacity);
+        buf.flip();
+        view = new ByteBufferDataInput(buf);
+    }
+
+    /** allocates an empty buffer of the specified size */
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /**
+     * Discards any buffered bytes and starts reading from ch.  The receive
+     * buffer is kept so it can be reused for the new channel.
+     */
+    public void reset(ReadableByteChannel ch) {
+        this.ch = ch;
+        buf.clear();
+        buf.flip();
+        frameEnd = -1;
+        version = 1;
+        frameAssembled = false;
+        view.setBuffer(buf);
+        if(assembly != null)
+            assembly.clear();
+    }
+
+    /**
+     * Sets the protocol version whose framing is used for the frames after
+     * the current one (or the next one if there is no current frame).
+     *
+     * @param version  1 or 2
+     */
+    public void setVersion(int version) {
+        if(version != 1 && version != 2)
+            throw new IllegalArgumentException("unsupported protocol version: " + version);
+
+        this.version = version;
+    }
+
+    /** Returns the protocol version whose framing is being read. */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Reads whatever the channel has available into the receive buffer.  This
+     * blocks if the channel is in blocking mode.
+     *
+     * @return the number of bytes read, or -1 if the end of the stream has
+     *         been reached
+     */
+    public int fill() throws IOException {
+        if(frameEnd >= 0)
+            throw new IllegalStateException("fill() called before endFrame()");
+
+        buf.compact();
+        try {
+            return ch.read(buf);
+        }
+        finally {
+            buf.flip();
+        }
+    }
+
+    /**
+     * If the next frame has been completely received, then the view is bounded
+     * to it and positioned at the start of its body.  endFrame() must be
+     * called once the frame has been decoded.
+     *
+     * @return the length of the frame (including its length field), or -1 if
+     *         the frame has not been completely received yet
+     */
+    public int nextFrame() throws IOException {
+        if(frameEnd >= 0)
+            throw new IllegalStateException("nextFrame() called before endFrame()");
+
+        if(version == 2)
+            return nextFrameV2();
+
+        if(buf.remaining() < LENGTH_FIELD_SIZE)
+            return -1;
+
+        int start = buf.position();
+        int len = buf.getShort(start) & 0xFFFF; // the length field is unsigned
+        if(len < LENGTH_FIELD_SIZE)
+            throw new IOException("invalid frame length: " + len + "B");
+
+        if(buf.remaining() < len) {
+            if(len > buf.capacity())
+                grow(len);
+            return -1;
+        }
+
+        savedLimit = buf.limit();
+        frameEnd = start + len;
+        buf.position(start + LENGTH_FIELD_SIZE);
+        buf.limit(frameEnd);
+        return len;
+    }
+
+    /**
+     * Like nextFrame() but for version 2 framing.  Fragments are consumed and
+     * set aside until the last one arrives.
+     *
+     * @return the length the message would have in version 1 framing (so
+     *         decoders can rely on it), or -1 if the message has not been
+     *         completely received yet
+     */
+    private int nextFrameV2() throws IOException {
+        while(true) {
+            if(buf.remaining() < V2_HEADER_SIZE)
+                return -1;
+
+            int start = buf.position();
+            int len = buf.getInt(start);
+            if(len < V2_HEADER_SIZE || len > V2_MAX_MESSAGE_SIZE + V2_HEADER_SIZE)
+                throw new IOException("invalid frame length: " + len + "B");
+
+            if(buf.remaining() < len) {
+                if(len > buf.capacity())
+                    grow(len);
+                return -1;
+            }
+
+            byte flags = buf.get(start + 4);
+            if((flags & ~(FLAG_MORE_FRAGMENTS | FLAG_DEFLATED)) != 0)
+                throw new IOException("unknown frame flags: 0x" + Integer.toHexString(flags & 0xFF));
+
+            int bodyStart = start + V2_HEADER_SIZE;
+            int bodyLen = len - V2_HEADER_SIZE;
+            boolean assembling = (assembly != null && assembly.position() > 0);
+            if(flags == 0 && !assembling) {
+                // the common case: a whole, uncompressed message
+                savedLimit = buf.limit();
+                frameEnd = start + len;
+                buf.position(bodyStart);
+                buf.limit(frameEnd);
+                return bodyLen + LENGTH_FIELD_SIZE;
+            }
+
+            // set this fragment aside
+            if(!assembling)
+                assemblyDeflated = (flags & FLAG_DEFLATED) != 0;
+            appendToAssembly(bodyStart, bodyLen);
+            buf.position(start + len);
+            if((flags & FLAG_MORE_FRAGMENTS) != 0)
+                continue;
+
+            ByteBuffer msg;
+            if(assemblyDeflated)
+                msg = inflateAssembly();
+            else {
+                assembly.flip();
+                msg = assembly;
+            }
+
+            savedLimit = buf.limit();
+            frameEnd = buf.position();
+            frameAssembled = true;
+            view.setBuffer(msg);
+            return msg.remaining() + LENGTH_FIELD_SIZE;
+        }
+    }
+
+    /** copies len bytes of buf starting at offset start to the end of the assembly */
+    private void appendToAssembly(int start, int len) throws IOException {
+        if(assembly == null)
+            assembly = ByteBuffer.allocate(Math.max(len, DEFAULT_CAPACITY));
+
+        if(assembly.position() + len > V2_MAX_MESSAGE_SIZE)
+            throw new IOException("reassembled message is too large (over " + V2_MAX_MESSAGE_SIZE + "B)");
+
+        if(assembly.remaining() < len) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(assembly.capacity() * 2, assembly.position() + len));
+            assembly.flip();
+            bigger.put(assembly);
+            assembly = bigger;
+        }
+
+        ByteBuffer src = buf.duplicate();
+        src.limit(start + len);
+        src.position(start);
+        assembly.put(src);
+    }
+
+    /** inflates the reassembled message and returns a buffer containing the result */
+    private ByteBuffer inflateAssembly() throws IOException {
+        if(inflater == null) {
+            inflater = new Inflater();
+            inflated = ByteBuffer.allocate(DEFAULT_CAPACITY);
+        }
+
+        inflater.reset();
+        inflater.setInput(assembly.array(), assembly.arrayOffset(), assembly.position());
+        inflated.clear();
+        try {
+            while(!inflater.finished()) {
+                if(!inflated.hasRemaining()) {
+                    if(inflated.capacity() >= V2_MAX_MESSAGE_SIZE)
+                        throw new IOException("inflated message is too large (over " + V2_MAX_MESSAGE_SIZE + "B)");
+
+                    ByteBuffer bigger = ByteBuffer.allocate(Math.min(inflated.capacity() * 2, V2_MAX_MESSAGE_SIZE));
+                    inflated.flip();
+                    bigger.put(inflated);
+                    inflated = bigger;
+                }
+
+                int n = inflater.inflate(inflated.array(), inflated.arrayOffset() + inflated.position(), inflated.remaining());
+                if(n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IOException("deflated message is truncated");
+                inflated.position(inflated.position() + n);
+            }
+        }
+        catch(DataFormatException e) {
+            throw new IOException("unable to inflate message: " + e.getMessage());
+        }
+
+        inflated.flip();
+        return inflated;
+    }
+
+    /**
+     * Blocks until the next frame has been completely received and then bounds
+     * the view to it (see nextFrame()).
+     *
+     * @return the length of the frame (including its length field)
+     */
+    public int readFrame() throws IOException {
+        int len;
+        while((len = nextFrame()) < 0)
+            if(fill() < 0)
+                throw new EOFException("connection closed by the server");
+
+        return len;
+    }
+
+    /** Returns the view which reads the body of the current frame. */
+    public ByteBufferDataInput getView() {
+        return view;
+    }
+
+    /**
+     * Finishes with the current frame.  Any part of it which was not read is
+     * skipped.
+     *
+     * @return the number of bytes in the frame which were not read
+     */
+    public int endFrame() {
+        int leftover;
+        if(frameAssembled) {
+            leftover = view.getBuffer().remaining();
+            view.setBuffer(buf);
+            assembly.clear();
+            frameAssembled = false;
+        }
+        else
+            leftover = frameEnd - buf.position();
+
+        buf.limit(savedLimit);
+        buf.position(frameEnd);
+        frameEnd = -1;
+        return leftover;
+    }
+
+    /** replaces the receive buffer with one which can hold at least minCapacity bytes */
+    private void grow(int minCapacity) {
+        ByteBuffer bigger = allocate(Math.max(minCapacity, buf.capacity() * 2));
+        bigger.put(buf);
+        bigger.flip();
+        buf = bigger;
+        if(!frameAssembled)
+            view.setBuffer(buf);
+    }
+}
@@ -0,0 +1,165 @@
+package org.openflow.gui.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+import org.openflow.gui.net.protocol.Hello;
+import org.openflow.gui.net.protocol.OFGMessage;
+import org.openflow.gui.net.protocol.OFGMessageType;
+
+/**
+ * Writes messages using protocol version 2 framing (see FrameReader): a
+ * 4-byte length and a flags byte followed by the message without its version
+ * 1 length field.  Messages which do not fit in one fragment are split across
+ * several frames if the peer supports fragmentation, and bulk snapshot
+ * messages are deflated if the peer supports it and it actually saves space.
+ *
+ * A FrameWriter keeps scratch buffers and so must only be used by one thread
+ * at a time (OutboundQueue only lets one thread drain it at a time).
+ */
+public class FrameWriter {
+    /** largest body carried by a single frame */
+    public static final int MAX_FRAGMENT_SIZE = 60 * 1024;
+
+    /** smallest message which is worth trying to deflate */
+    public static final int DEFLATE_THRESHOLD = 1024;
+
+    /** capabilities (see Hello) the peer agreed to */
+    private final int capabilities;
+
+    /** whether messages of each type (indexed by type ID) may be deflated */
+    private final boolean[] deflatable = new boolean[256];
+
+    /** each message is serialized here before it is framed */
+    private final ByteBufferDataOutput scratch = new ByteBufferDataOutput(4096);
+
+    /** deflated messages go here */
+    private ByteBuffer deflated = null;
+
+    /** deflates messages (created the first time it is needed) */
+    private Deflater deflater = null;
+
+    /** number of messages deflated */
+    private long numDeflated = 0;
+
+    /** number of bytes saved by deflating messages */
+    private long numBytesSaved = 0;
+
+    /**
+     * Creates a writer for a connection which negotiated version 2 with the
+     * specified capabilities.  Only bulk snapshots (nodes, links and flows
+     * being added) are deflated.
+     */
+    public FrameWriter(int capabilities) {
+        this.capabilities = capabilities;
+        setDeflatable(OFGMessageType.NODES_ADD, true);
+        setDeflatable(OFGMessageType.LINKS_ADD, true);
+        setDeflatable(OFGMessageType.FLOWS_ADD, true);
+    }
+
+    /** Sets whether messages of type t may be deflated. */
+    public void setDeflatable(OFGMessageType t, boolean b) {
+        deflatable[t.getTypeID() & 0xFF] = b;
+    }
+
+    /** Returns the capabilities this writer uses. */
+    public int getCapabilities() {
+        return capabilities;
+    }
+
+    /** Writes m to out as one or more version 2 frames. */
+    public void write(Message m, ByteBufferDataOutput out) throws IOException {
+        ByteBuffer buf = scratch.getBuffer();
+        buf.clear();
+        m.write(scratch);
+
+        // drop the version 1 length field (which may have overflowed anyway)
+        buf = scratch.getBuffer();
+        buf.flip();
+        buf.position(FrameReader.LENGTH_FIELD_SIZE);
+
+        byte flags = 0;
+        if(shouldDeflate(m, buf.remaining())) {
+            ByteBuffer d = deflate(buf);
+            if(d.remaining() < buf.remaining()) {
+                numDeflated += 1;
+                numBytesSaved += buf.remaining() - d.remaining();
+                flags |= FrameReader.FLAG_DEFLATED;
+                buf = d;
+            }
+        }
+
+        if(buf.remaining() > MAX_FRAGMENT_SIZE && (capabilities & Hello.CAP_FRAGMENTATION) == 0) {
+            // the peer can still take it in one frame; it just cannot be split
+            writeFrame(out, flags, buf, buf.remaining());
+            return;
+        }
+
+        do {
+            int n = Math.min(buf.remaining(), MAX_FRAGMENT_SIZE);
+            byte f = flags;
+            if(n < buf.remaining())
+                f |= FrameReader.FLAG_MORE_FRAGMENTS;
+            writeFrame(out, f, buf, n);
+        }
+        while(buf.hasRemaining());
+    }
+
+    /** writes the next n bytes of body to out as one frame */
+    private static void writeFrame(ByteBufferDataOutput out, byte flags, ByteBuffer body, int n) throws IOException {
+        out.writeInt(n + FrameReader.V2_HEADER_SIZE);
+        out.writeByte(flags);
+
+        out.write(body.array(), body.arrayOffset() + body.position(), n);
+        body.position(body.position() + n);
+    }
+
+    /** returns true if m (whose body is len bytes long) should be deflated */
+    private boolean shouldDeflate(Message m, int len) {
+        if((capabilities & Hello.CAP_DEFLATE) == 0 || len < DEFLATE_THRESHOLD)
+            return false;
+
+        if(!(m instanceof OFGMessage))
+            return false;
+
+        return deflatable[((OFGMessage)m).type.getTypeID() & 0xFF];
+    }
+
+    /** deflates the remaining bytes in src (without consuming them) */
+    private ByteBuffer deflate(ByteBuffer src) {
+        if(deflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED);
+            deflated = ByteBuffer.allocate(4096);
+        }
+
+        deflater.reset();
+        deflater.setInput(src.array(), src.arrayOffset() + src.position(), src.remaining());
+        deflater.finish();
+        deflated.clear();
+        while(!deflater.finished()) {
+            if(!deflated.hasRemaining()) {
+                ByteBuffer bigger = ByteBuffer.allocate(deflated.capacity() * 2);
+                deflated.flip();
+                bigger.put(deflated);
+                deflated = bigger;
+            }
+
+            int n = deflater.deflate(deflated.array(), deflated.arrayOffset() + deflated.position(), deflated.remaining());
+            deflated.position(deflated.position() + n);
+        }
+
+        deflated.flip();
+        return deflated;
+    }
+
+    /** Returns the number of messages which were deflated. */
+    public long getNumDeflated() {
+        return numDeflated;
+    }
+
+    /** Returns the number of bytes deflating messages has saved. */
+    public long getNumBytesSaved() {
+        return numBytesSaved;
+    }
+}
@@ -0,0 +1,137 @@
+package org.openflow.gui.net;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies (round-trip times, decode times, and the
+ * like).  Samples are counted in log-linear buckets: each power of two (in
+ * nanoseconds) is split into
+ * SUB_BUCKETS equal buckets, so any percentile is reported within 1/SUB_BUCKETS
+ * (12.5%) of the true value while the whole range of longs fits in a few
+ * hundred counters.  Recording is a couple of atomic increments, so it is
+ * safe (and cheap) from any thread; readers see a consistent-enough snapshot
+ * for reporting.
+ */
+public class LatencyHistogram {
+    /** log2 of the number of buckets each power of two is split into */
+    public static final int SUB_BUCKET_BITS = 3;
+
+    /** number of buckets each power of two is split into */
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** number of buckets needed to cover every non-negative long */
+    private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+    /** number of samples in each bucket */
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+    /** number of samples recorded */
+    private final AtomicLong numSamples = new AtomicLong(0);
+
+    /** sum of the samples recorded (in nanoseconds) */
+    private final AtomicLong total_ns = new AtomicLong(0);
+
+    /** largest sample recorded (in nanoseconds) */
+    private final AtomicLong max_ns = new AtomicLong(0);
+
+    /** returns the bucket v (in nanoseconds) is counted in */
+    private static int bucket(long v) {
+        if(v < SUB_BUCKETS)
+            return (int)v;
+
+        int e = 63 - Long.numberOfLeadingZeros(v);
+        return ((e - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + (int)((v >>> (e - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    /** returns the smallest value counted in bucket i */
+    private static long lowerBound(int i) {
+        if(i < SUB_BUCKETS)
+            return i;
+
+        int e = (i >> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+        long sub = i & (SUB_BUCKETS - 1);
+        return (SUB_BUCKETS + sub) << (e - SUB_BUCKET_BITS);
+    }
+
+    /** Records a sample of t_ns nanoseconds. */
+    public void record(long t_ns) {
+        long v = Math.max(0, t_ns);
+        counts.incrementAndGet(bucket(v));
+        numSamples.incrementAndGet();
+        total_ns.addAndGet(v);
+
+        long m;
+        while(v > (m = max_ns.get()))
+            if(max_ns.compareAndSet(m, v))
+                break;
+    }
+
+    /** Returns the number of samples recorded. */
+    public long getCount() {
+        return numSamples.get();
+    }
+
+    /** Returns the largest sample recorded (in nanoseconds). */
+    public long getMax_ns() {
+        return max_ns.get();
+    }
+
+    /** Returns the mean sample (in nanoseconds), or 0 if none were recorded. */
+    public long getMean_ns() {
+        long n = numSamples.get();
+        return (n == 0) ? 0 : total_ns.get() / n;
+    }
+
+    /**
+     * Returns the value (in nanoseconds) which p percent of the samples
+     * did not exceed, or 0 if none were recorded.  The value returned is the
+     * top of the bucket the percentile falls in (but never more than the
+     * largest sample).
+     */
+    public long getPercentile_ns(double p) {
+        long n = 0;
+        for(int i=0; i<NUM_BUCKETS; i++)
+            n += counts.get(i);
+        if(n == 0)
+            return 0;
+
+        long target = Math.max(1, (long)Math.ceil(p / 100.0 * n));
+        long seen = 0;
+        for(int i=0; i<NUM_BUCKETS; i++) {
+            seen += counts.get(i);
+            if(seen >= target) {
+                long top = (i + 1 < NUM_BUCKETS) ? lowerBound(i + 1) - 1 : Long.MAX_VALUE;
+                return Math.min(top, max_ns.get());
+            }
+        }
+        return max_ns.get();
+    }
+
+    /** Returns the median sample (in nanoseconds). */
+    public long getP50_ns() {
+        return getPercentile_ns(50);
+    }
+
+    /** Returns the 99th percentile sample (in nanoseconds). */
+    public long getP99_ns() {
+        return getPercentile_ns(99);
+    }
+
+    /**
+     * Forgets every sample.  Samples recorded while the histogram is being
+     * reset may or may not be kept.
+     */
+    public void reset() {
+        for(int i=0; i<NUM_BUCKETS; i++)
+            counts.set(i, 0);
+        numSamples.set(0);
+        total_ns.set(0);
+        max_ns.set(0);
+    }
+
+    public String toString() {
+        return String.format("p50=%.1fus p99=%.1fus max=%.1fus (%d samples)",
+                             getP50_ns() / 1000.0, getP99_ns() / 1000.0, getMax_ns() / 1000.0, getCount());
+    }
+}
@@ -0,0 +1,97 @@
+package org.openflow.gui.net;
+
+/**
+ * The management interface through which a BackendConnection's NetStats are
+ * published over JMX (one MBean per connection; see
+ * BackendConnection.registerMBean()).  Counters only ever grow (until they
+ * are reset) so monitoring tools can derive rates from them.  Times are in
+ * nanoseconds unless the name says otherwise.
+ */
+public interface NetStatsMBean {
+    /** Returns the replica the connection is connected to (host:port), or null. */
+    public String getEndpoint();
+
+    /** Returns the protocol version in use (0 if the handshake is not over). */
+    public int getProtocolVersion();
+
+    /** Returns true if the connection is up. */
+    public boolean isConnected();
+
+    /** Returns how long the connection has been up (negative if it has been down). */
+    public long getTimeConnected_ms();
+
+    /** Returns how long it has been since the last message was received. */
+    public long getTimePassedSinceLastUpdate_ms();
+
+    /** Returns the number of messages received. */
+    public long getNumMessagesReceived();
+
+    /** Returns the number of bytes received (message lengths, before any framing). */
+    public long getNumBytesReceived();
+
+    /** Returns the number of messages sent. */
+    public long getNumMessagesSent();
+
+    /** Returns the number of bytes sent (message lengths, before any framing). */
+    public long getNumBytesSent();
+
+    /**
+     * Returns one line for each message type which has been sent or received:
+     * its name followed by its message and byte counts in each direction.
+     */
+    public String[] getMessageTypeCounters();
+
+    /** Returns the median time it took to decode a message. */
+    public long getDecodeTimeP50_ns();
+
+    /** Returns the 99th percentile time it took to decode a message. */
+    public long getDecodeTimeP99_ns();
+
+    /** Returns the longest time it took to decode a message. */
+    public long getDecodeTimeMax_ns();
+
+    /** Returns the median time it took to apply (process) a message. */
+    public long getApplyTimeP50_ns();
+
+    /** Returns the 99th percentile time it took to apply (process) a message. */
+    public long getApplyTimeP99_ns();
+
+    /** Returns the longest time it took to apply (process) a message. */
+    public long getApplyTimeMax_ns();
+
+    /** Returns the median heartbeat round-trip time. */
+    public long getRttP50_ns();
+
+    /** Returns the 99th percentile heartbeat round-trip time. */
+    public long getRttP99_ns();
+
+    /** Returns the longest heartbeat round-trip time. */
+    public long getRttMax_ns();
+
+    /** Returns the number of times a lost connection has been re-established. */
+    public long getNumReconnects();
+
+    /** Returns how long the most recent reconnect took. */
+    public long getLastTimeToReconnect_ms();
+
+    /** Returns how long the slowest reconnect took. */
+    public long getMaxTimeToReconnect_ms();
+
+    /** Returns how long reconnects took on average. */
+    public long getMeanTimeToReconnect_ms();
+
+    /** Returns the number of times the connection was declared dead for missing heartbeats. */
+    public long getNumHeartbeatFailures();
+
+    /** Returns the number of stateful requests still waiting for a reply. */
+    public int getNumOutstandingRequests();
+
+    /** Returns the number of stateful requests which expired without a reply. */
+    public long getNumExpiredRequests();
+
+    /** Returns the number of stateful requests the backend is polling for us. */
+    public int getNumOutstandingPollRequests();
+
+    /** Zeroes the message counters and histograms (connection state is kept). */
+    public void resetCounters();
+}
@@ -0,0 +1,178 @@
+package org.openflow.gui.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Queues outgoing messages from any number of threads and packs them into a
+ * single buffer so that many small messages go out in a few large writes.
+ * Adding a message never blocks.  Only one thread at a time may drain the
+ * queue; callers coordinate this with tryAcquire() and release().
+ *
+ * The buffer is written out whenever it holds at least the flush threshold
+ * or the queue has been emptied (i.e., as soon as there is nothing else
+ * immediately available to send).
+ */
+public class OutboundQueue {
+    /** default size of the send buffer */
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    /** default number of buffered bytes which triggers a write */
+    public static final int DEFAULT_FLUSH_THRESHOLD = 16 * 1024;
+
+    /** messages waiting to be serialized */
+    private final ConcurrentLinkedQueue<Message> queue = new ConcurrentLinkedQueue<Message>();
+
+    /** whether some thread is currently draining the queue */
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+
+    /** serialized messages which have not been written yet */
+    private final ByteBufferDataOutput out;
+
+    /** number of buffered bytes which triggers a write */
+    private final int flushThreshold;
+
+    /** frames messages for protocol version 2, or null to write them as is (version 1) */
+    private volatile FrameWriter frameWriter = null;
+
+    /** number of messages serialized */
+    private volatile long numMessagesSent = 0;
+
+    /** number of writes made to the channel */
+    private volatile long numWrites = 0;
+
+    /** Creates a queue with the default capacity and flush threshold. */
+    public OutboundQueue() {
+        this(DEFAULT_CAPACITY, DEFAULT_FLUSH_THRESHOLD);
+    }
+
+    /**
+     * Creates a queue.
+     *
+     * @param capacity        initial size of the send buffer
+     * @param flushThreshold  number of buffered bytes which triggers a write
+     */
+    public OutboundQueue(int capacity, int flushThreshold) {
+        out = new ByteBufferDataOutput(capacity);
+        this.flushThreshold = flushThreshold;
+    }
+
+    /** Queues m to be sent.  This may be called from any thread. */
+    public void add(Message m) {
+        queue.add(m);
+    }
+
+    /**
+     * Sets how messages serialized from now on are framed: by w (protocol
+     * version 2), or as is if w is null (version 1).
+     */
+    public void setFrameWriter(FrameWriter w) {
+        frameWriter = w;
+    }
+
+    /** Returns the writer used to frame messages, or null if version 1 framing is used. */
+    public FrameWriter getFrameWriter() {
+        return frameWriter;
+    }
+
+    /** Returns the number of buffered bytes which triggers a write. */
+    public int getFlushThreshold() {
+        return flushThreshold;
+    }
+
+    /** Returns true if no messages are waiting to be serialized. */
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    /**
+     * Tries to become the thread which drains the queue.
+     *
+     * @return true if the caller may now call drainTo() (and must then call
+     *         release() when done)
+     */
+    public boolean tryAcquire() {
+        return draining.compareAndSet(false, true);
+    }
+
+    /** Allows another thread to drain the queue. */
+    public void release() {
+        draining.set(false);
+    }
+
+    /**
+     * Serializes queued messages and writes them to ch.  The caller must hold
+     * the right to drain the queue (see tryAcquire()).  If the write fails,
+     * any buffered bytes are discarded.
+     *
+     * @return true if everything was written, or false if ch is non-blocking
+     *         and would not accept all of the buffered bytes (the rest will be
+     *         written by the next call)
+     */
+    public boolean drainTo(WritableByteChannel ch) throws IOException {
+        try {
+            Message m;
+            while((m = queue.poll()) != null) {
+                FrameWriter w = frameWriter;
+                if(w == null)
+                    m.write(out);
+                else
+                    w.write(m, out);
+                numMessagesSent += 1;
+                if(out.getBuffer().position() >= flushThreshold && !writeBuffered(ch))
+                    return false;
+            }
+            return writeBuffered(ch);
+        }
+        catch(IOException e) {
+            out.getBuffer().clear();
+            throw e;
+        }
+    }
+
+    /** writes the buffered bytes to ch; returns false if they were not all written */
+    private boolean writeBuffered(WritableByteChannel ch) throws IOException {
+        ByteBuffer buf = out.getBuffer();
+        if(buf.position() == 0)
+            return true;
+
+        buf.flip();
+        try {
+            while(buf.hasRemaining()) {
+                numWrites += 1;
+                if(ch.write(buf) == 0)
+                    return false;
+            }
+        }
+        finally {
+            buf.compact();
+        }
+        return true;
+    }
+
+    /**
+     * Discards all queued messages.  Buffered bytes are discarded too unless
+     * another thread is draining the queue at the moment (in which case its
+     * write to the old, closed channel will fail and discard them).
+     */
+    public void clear() {
+        queue.clear();
+        if(tryAcquire()) {
+            out.getBuffer().clear();
+            release();
+        }
+    }
+
+    /** Returns the number of messages which have been serialized. */
+    public long getNumMessagesSent() {
+        return numMessagesSent;
+    }
+
+    /** Returns the number of writes which have been made to the channel. */
+    public long getNumWrites() {
+        return numWrites;
+    }
+}
@@ -0,0 +1,386 @@
+package org.openflow.gui.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.openflow.util.SpscRingBuffer;
+
+/**
+ * Splits the handling of received messages across three threads: the
+ * connection's own thread (or its ConnectionSelector's, in non-blocking
+ * mode) reads frames off the socket, a decode thread turns them into
+ * messages, and an apply thread hands the messages to the MessageProcessor.
+ * The stages are connected by bounded single-producer single-consumer ring
+ * buffers, so a slow stage makes the stage before it wait (and ultimately
+ * stops the reader from reading) rather than letting work pile up without
+ * bound.  How often and how long that happens is visible through the
+ * per-stage counters.  A selector's thread never waits: it stops reading the
+ * connection (see pauseReader()) until the decode stage has room again.
+ *
+ * Frames are copied out of the connection's receive buffer into slots which
+ * are recycled once the apply stage is done with them, so decoders may
+ * return views over the frame (see OFGMessageView) just as they do without
+ * the pipeline.
+ */
+public class ReceivePipeline<MSG_TYPE extends Message> {
+    /** default number of messages each ring buffer can hold */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /** a received frame on its way through the pipeline */
+    private static class Slot<M> {
+        /** body of the frame (or null for a connection state change) */
+        ByteBuffer buf = null;
+
+        /** length of the frame including its length field */
+        int len;
+
+        /** the decoded message */
+        M msg;
+
+        /** whether this slot reports a connection state change instead of carrying a frame */
+        boolean isStateChange;
+
+        /** the new connection state, if isStateChange */
+        boolean connected;
+
+        /** when the slot was last handed to the next stage */
+        long handoffTime_ns;
+    }
+
+    /**
+     * Counters for one stage of the pipeline.  Each is only updated by the
+     * stage's own thread.
+     */
+    public static class Stage {
+        /** number of items the stage has handled */
+        private volatile long count = 0;
+
+        /** total time items waited in the buffer before this stage took them */
+        private volatile long totalQueueTime_ns = 0;
+
+        /** longest time an item waited in the buffer before this stage took it */
+        private volatile long maxQueueTime_ns = 0;
+
+        /** total time the stage spent handling items */
+        private volatile long totalServiceTime_ns = 0;
+
+        /** longest time the stage spent handling one item */
+        private volatile long maxServiceTime_ns = 0;
+
+        /** the buffer this stage takes its items from */
+        private final SpscRingBuffer<?> input;
+
+        Stage(SpscRingBuffer<?> input) {
+            this.input = input;
+        }
+
+        /** records an item which waited queue_ns and then took service_ns to handle */
+        void record(long queue_ns, long service_ns) {
+            count += 1;
+            totalQueueTime_ns += queue_ns;
+            if(queue_ns > maxQueueTime_ns)
+                maxQueueTime_ns = queue_ns;
+            totalServiceTime_ns += service_ns;
+            if(service_ns > maxServiceTime_ns)
+                maxServiceTime_ns = service_ns;
+        }
+
+        /** Returns the number of items this stage has handled. */
+        public long getCount() {
+            return count;
+        }
+
+        /** Returns the average time an item waited before this stage took it. */
+        public long getAvgQueueTime_ns() {
+            long n = count;
+            return n == 0 ? 0 : totalQueueTime_ns / n;
+        }
+
+        /** Returns the longest time an item waited before this stage took it. */
+        public long getMaxQueueTime_ns() {
+            return maxQueueTime_ns;
+        }
+
+        /** Returns the average time this stage spent on an item. */
+        public long getAvgServiceTime_ns() {
+            long n = count;
+            return n == 0 ? 0 : totalServiceTime_ns / n;
+        }
+
+        /** Returns the longest time this stage spent on an item. */
+        public long getMaxServiceTime_ns() {
+            return maxServiceTime_ns;
+        }
+
+        /** Returns the number of items waiting for this stage. */
+        public int getOccupancy() {
+            return input.size();
+        }
+
+        /** Returns the largest number of items which have waited for this stage at once. */
+        public int getMaxOccupancy() {
+            return input.getMaxOccupancy();
+        }
+
+        /** Returns the number of items which can wait for this stage. */
+        public int getCapacity() {
+            return input.capacity();
+        }
+
+        /**
+         * Returns the number of times the previous stage had to wait because
+         * this stage had fallen behind.
+         */
+        public long getNumBackpressureWaits() {
+            return input.getNumFullWaits();
+        }
+
+        public String toString() {
+            return "count=" + count +
+                   " queued=" + getOccupancy() + "/" + getCapacity() +
+                   " (max " + getMaxOccupancy() + ", " + getNumBackpressureWaits() + " full)" +
+                   " wait_avg=" + getAvgQueueTime_ns() + "ns wait_max=" + maxQueueTime_ns + "ns" +
+                   " svc_avg=" + getAvgServiceTime_ns() + "ns svc_max=" + maxServiceTime_ns + "ns";
+        }
+    }
+
+    /** the connection whose messages are handled */
+    private final BackendConnection<MSG_TYPE> connection;
+
+    /** the object responsible for decoding and processing messages */
+    private final MessageProcessor<MSG_TYPE> msgProcessor;
+
+    /** frames waiting to be decoded */
+    private final SpscRingBuffer<Slot<MSG_TYPE>> toDecode;
+
+    /** messages waiting to be applied */
+    private final SpscRingBuffer<Slot<MSG_TYPE>> toApply;
+
+    /** slots which the apply stage is done with (returned to the reader) */
+    private final SpscRingBuffer<Slot<MSG_TYPE>> free;
+
+    /** counters for the decode stage */
+    private final Stage decodeStage;
+
+    /** counters for the apply stage */
+    private final Stage applyStage;
+
+    /** the decode thread */
+    private final Thread decoder;
+
+    /** the apply thread */
+    private final Thread applier;
+
+    /** number of slots in toDecode kept free for connection state changes */
+    private static final int STATE_CHANGE_RESERVE = 2;
+
+    /** whether the reader has stopped reading until toDecode has room */
+    private final AtomicBoolean readerPaused = new AtomicBoolean(false);
+
+    /** whether the pipeline has been shut down */
+    private volatile boolean done = false;
+
+    /**
+     * Creates a pipeline.  Its threads are not started until start() is called.
+     *
+     * @param connection  the connection whose messages will be handled
+     * @param mp          decodes and processes the messages
+     * @param capacity    number of messages each ring buffer can hold
+     */
+    public ReceivePipeline(BackendConnection<MSG_TYPE> connection, MessageProcessor<MSG_TYPE> mp, int capacity) {
+        this.connection = connection;
+        msgProcessor = mp;
+        toDecode = new SpscRingBuffer<Slot<MSG_TYPE>>(capacity);
+        toApply = new SpscRingBuffer<Slot<MSG_TYPE>>(capacity);
+        free = new SpscRingBuffer<Slot<MSG_TYPE>>(capacity * 2 + 2);
+        decodeStage = new Stage(toDecode);
+        applyStage = new Stage(toApply);
+
+        decoder = new Thread(connection.getName() + "-decode") {
+            public void run() {
+                runDecoder();
+            }
+        };
+        applier = new Thread(connection.getName() + "-apply") {
+            public void run() {
+                runApplier();
+            }
+        };
+    }
+
+    /** Starts the decode and apply threads. */
+    public void start() {
+        decoder.start();
+        applier.start();
+    }
+
+    /** Stops the decode and apply threads; anything still in the pipeline is dropped. */
+    public void shutdown() {
+        done = true;
+        decoder.interrupt();
+        applier.interrupt();
+    }
+
+    /** Returns true if t is the thread which hands messages to the MessageProcessor. */
+    public boolean isApplier(Thread t) {
+        return t == applier;
+    }
+
+    /**
+     * Returns true if another frame can be submitted without waiting (some
+     * room is always kept for connection state changes).
+     */
+    public boolean hasRoom() {
+        return toDecode.size() < toDecode.capacity() - STATE_CHANGE_RESERVE;
+    }
+
+    /**
+     * Called by a reader which must not wait when there is no room.  Returns
+     * true if the reader should stop reading until the connection's
+     * resumeReading() is called, or false if room was made in the meantime.
+     */
+    public boolean pauseReader() {
+        readerPaused.set(true);
+        return !(hasRoom() && readerPaused.compareAndSet(true, false));
+    }
+
+    /** returns a free slot (called by the reader only) */
+    private Slot<MSG_TYPE> acquireSlot() {
+        Slot<MSG_TYPE> s = free.poll();
+        return (s != null) ? s : new Slot<MSG_TYPE>();
+    }
+
+    /**
+     * Copies the frame which frames is currently positioned on into the
+     * pipeline, waiting for room if the decode stage has fallen behind.  This
+     * must only be called from the thread which reads the connection.  The
+     * caller remains responsible for calling frames.endFrame().
+     *
+     * @param len     length of the frame including its length field
+     * @param frames  the reader positioned on the frame
+     */
+    public void submit(int len, FrameReader frames) throws InterruptedException {
+        ByteBuffer body = frames.getView().getBuffer();
+        int bodyLen = body.remaining();
+
+        Slot<MSG_TYPE> s = acquireSlot();
+        if(s.buf == null || s.buf.capacity() < bodyLen)
+            s.buf = ByteBuffer.allocate(Math.max(bodyLen, 256));
+        else
+            s.buf.clear();
+
+        // copy without disturbing the frame reader's position
+        int pos = body.position();
+        s.buf.put(body);
+        body.position(pos);
+        s.buf.flip();
+
+        s.len = len;
+        s.isStateChange = false;
+        s.handoffTime_ns = System.nanoTime();
+        toDecode.put(s);
+    }
+
+    /**
+     * Queues a connection state change behind the messages already in the
+     * pipeline so that the MessageProcessor hears about it in order.  This
+     * must only be called from the thread which reads the connection.
+     */
+    public void submitStateChange(boolean connected) throws InterruptedException {
+        Slot<MSG_TYPE> s = acquireSlot();
+        s.isStateChange = true;
+        s.connected = connected;
+        s.handoffTime_ns = System.nanoTime();
+        toDecode.put(s);
+    }
+
+    /** decodes frames and passes them on to the apply stage */
+    private void runDecoder() {
+        ByteBufferDataInput in = new ByteBufferDataInput(null);
+        try {
+            while(!done) {
+                Slot<MSG_TYPE> s = toDecode.take();
+                if(readerPaused.get() && hasRoom() && readerPaused.compareAndSet(true, false))
+                    connection.resumeReading();
+
+                long start = System.nanoTime();
+                if(!s.isStateChange) {
+                    in.setBuffer(s.buf);
+                    try {
+                        s.msg = msgProcessor.decode(s.len, in);
+                        if(in.remaining() > 0)
+                            System.err.println("Warning: " + in.remaining() + "B leftover for message type " + s.msg.getType().toString());
+                    }
+                    catch(IOException e) {
+                        // the stream is no longer trustworthy; start over
+                        System.err.println("Network Error: " + e);
+                        connection.reconnect();
+                        s.msg = null;
+                    }
+                    catch(RuntimeException e) {
+                        // the frame boundaries still hold, so only this message is lost
+                        System.err.println("Error while decoding a message: " + e);
+                        e.printStackTrace();
+                        s.msg = null;
+                    }
+                }
+
+                long end = System.nanoTime();
+                decodeStage.record(start - s.handoffTime_ns, end - start);
+                if(!s.isStateChange)
+                    connection.getNetStats().getDecodeTime().record(end - start);
+                s.handoffTime_ns = end;
+                toApply.put(s);
+            }
+        }
+        catch(InterruptedException e) {
+            /* shutting down */
+        }
+    }
+
+    /** hands decoded messages to the MessageProcessor */
+    private void runApplier() {
+        try {
+            while(!done) {
+                Slot<MSG_TYPE> s = toApply.take();
+                long start = System.nanoTime();
+                try {
+                    if(s.isStateChange)
+                        msgProcessor.connectionStateChange(s.connected);
+                    else if(s.msg != null)
+                        msgProcessor.process(s.msg);
+                    connection.messageProcessed();
+                }
+                catch(RuntimeException e) {
+                    System.err.println("Error while processing a message: " + e);
+                    e.printStackTrace();
+                }
+
+                long end = System.nanoTime();
+                applyStage.record(start - s.handoffTime_ns, end - start);
+                if(!s.isStateChange)
+                    connection.getNetStats().getApplyTime().record(end - start);
+                s.msg = null;
+                free.offer(s);
+            }
+        }
+        catch(InterruptedException e) {
+            /* shutting down */
+        }
+    }
+
+    /** Returns the counters for the decode stage. */
+    public Stage getDecodeStage() {
+        return decodeStage;
+    }
+
+    /** Returns the counters for the apply stage. */
+    public Stage getApplyStage() {
+        return applyStage;
+    }
+
+    public String toString() {
+        return "decode[" + decodeStage + "] apply[" + applyStage + "]";
+    }
+}
@@ -0,0 +1,328 @@
+package org.openflow.gui.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.util.List;
+
+/**
+ * Races connection attempts to an ordered list of backend replicas.  The
+ * first replica is tried right away; each later replica is tried once the
+ * previous attempt has had stagger_ms to succeed (or as soon as it fails), so
+ * a preferred replica which answers quickly always wins but a black-holed one
+ * only costs stagger_ms.  Every attempt is abandoned after
+ * timeout_ms.  The first attempt to succeed wins and the rest are closed.
+ *
+ * Attempts are non-blocking channels registered with a Selector.  In
+ * non-blocking mode the connection's ConnectionSelector drives the race by
+ * handing connectable keys to finish() and calling poll() when
+ * getNextDelay_ms() has passed; connect() runs a whole race on a private
+ * selector for connections in blocking mode.
+ *
+ * Host names are looked up by resolve() before the race starts, since a
+ * lookup may block for seconds; a selector's thread must not call it.
+ */
+public class ReplicaConnector {
+    /** the replicas in order of preference (as given, i.e., usually unresolved) */
+    private final InetSocketAddress[] endpoints;
+
+    /** the address each replica's host name resolved to (null until resolve() is called) */
+    private final InetSocketAddress[] resolved;
+
+    /** how long each attempt may take */
+    private final int timeout_ms;
+
+    /** how long to give earlier attempts before starting the next one */
+    private final int stagger_ms;
+
+    /** the channel of each attempt which is in progress (null otherwise) */
+    private final SocketChannel[] attempts;
+
+    /** the key each attempt in progress is registered under */
+    private final SelectionKey[] keys;
+
+    /** when each attempt in progress will be abandoned */
+    private final long[] deadlines_ms;
+
+    /** the selector attempts are registered with */
+    private Selector selector;
+
+    /** object attached to the attempts' keys */
+    private Object attachment;
+
+    /** when the next attempt is due to start */
+    private long nextStart_ms;
+
+    /** number of attempts started so far */
+    private int numStarted = 0;
+
+    /** index of the replica which was connected to, or -1 */
+    private int winner = -1;
+
+    /** why attempts failed */
+    private final StringBuilder failures = new StringBuilder();
+
+    /**
+     * Creates a race between the specified replicas.  Nothing happens until
+     * it is started.
+     *
+     * @param endpoints   the replicas in order of preference
+     * @param timeout_ms  how long each attempt may take
+     * @param stagger_ms  how long to give earlier attempts before starting the next one
+     */
+    public ReplicaConnector(List<InetSocketAddress> endpoints, int timeout_ms, int stagger_ms) {
+        if(endpoints.isEmpty())
+            throw new IllegalArgumentException("no endpoints to connect to");
+
+        this.endpoints = endpoints.toArray(new InetSocketAddress[endpoints.size()]);
+        this.timeout_ms = timeout_ms;
+        this.stagger_ms = stagger_ms;
+        resolved = new InetSocketAddress[this.endpoints.length];
+        attempts = new SocketChannel[this.endpoints.length];
+        keys = new SelectionKey[this.endpoints.length];
+        deadlines_ms = new long[this.endpoints.length];
+    }
+
+    /**
+     * Looks up the current address of each replica's host name.  This blocks
+     * until every lookup is done (or fails), so it must be called before the
+     * race is started and not from a selector's thread.
+     */
+    public void resolve() {
+        for(int i=0; i<endpoints.length; i++)
+            resolved[i] = new InetSocketAddress(endpoints[i].getHostName(), endpoints[i].getPort());
+    }
+
+    /**
+     * Starts the race by trying the first replica (replicas which have not
+     * been resolved are tried as given).  Check getConnected()
+     * afterward: the connection may have been made immediately.
+     *
+     * @param sel  the selector to register attempts with
+     * @param att  the object to attach to their keys
+     */
+    public void start(Selector sel, Object att) {
+        selector = sel;
+        attachment = att;
+        startNext(System.currentTimeMillis());
+    }
+
+    /** starts an attempt to connect to the next replica */
+    private void startNext(long now) {
+        int i = numStarted++;
+        nextStart_ms = now + stagger_ms;
+        InetSocketAddress addr = (resolved[i] != null) ? resolved[i] : endpoints[i];
+        SocketChannel ch = null;
+        try {
+            if(addr.isUnresolved())
+                throw new IOException("unknown host");
+
+            ch = SocketChannel.open();
+            ch.configureBlocking(false);
+            attempts[i] = ch;
+            if(ch.connect(addr))
+                won(i);
+            else {
+                keys[i] = ch.register(selector, SelectionKey.OP_CONNECT, attachment);
+                deadlines_ms[i] = now + timeout_ms;
+            }
+        }
+        catch(IOException e) {
+            failed(i, e.getMessage());
+        }
+        catch(UnresolvedAddressException e) {
+            failed(i, "unknown host");
+        }
+    }
+
+    /** notes that attempt i failed (the next attempt is then due right away) */
+    private void failed(int i, String why) {
+        close(i);
+        if(i == numStarted - 1)
+            nextStart_ms = 0;
+        if(failures.length() > 0)
+            failures.append("; ");
+        failures.append(describe(endpoints[i])).append(": ").append(why);
+    }
+
+    /** notes that attempt i succeeded and abandons the others */
+    private void won(int i) {
+        winner = i;
+        for(int j=0; j<attempts.length; j++)
+            if(j != i)
+                close(j);
+    }
+
+    /** abandons attempt i */
+    private void close(int i) {
+        SocketChannel ch = attempts[i];
+        attempts[i] = null;
+        if(keys[i] != null) {
+            keys[i].cancel();
+            keys[i] = null;
+        }
+        if(ch != null) {
+            try {
+                ch.close();
+            }
+            catch(IOException e) { /* ignore */ }
+        }
+    }
+
+    /** returns true if any attempt is in progress */
+    private boolean inProgress() {
+        for(SocketChannel ch : attempts)
+            if(ch != null)
+                return true;
+        return false;
+    }
+
+    /** Returns true if the race was started by this selection key. */
+    public boolean owns(SelectionKey key) {
+        for(SelectionKey k : keys)
+            if(k == key)
+                return true;
+        return false;
+    }
+
+    /**
+     * Finishes the attempt whose key is connectable.
+     *
+     * @return the connected channel if this attempt won, else null
+     */
+    public SocketChannel finish(SelectionKey key) {
+        for(int i=0; i<keys.length; i++) {
+            if(keys[i] != key)
+                continue;
+
+            try {
+                if(attempts[i].finishConnect())
+                    won(i);
+            }
+            catch(IOException e) {
+                failed(i, e.getMessage());
+                poll();
+            }
+            break;
+        }
+        return getConnected();
+    }
+
+    /**
+     * Abandons attempts which have timed out and starts the next attempt if
+     * it is due.
+     *
+     * @return the connected channel if an attempt has won, else null
+     */
+    public SocketChannel poll() {
+        long now = System.currentTimeMillis();
+        for(int i=0; i<numStarted && winner<0; i++)
+            if(attempts[i] != null && now >= deadlines_ms[i])
+                failed(i, "timed out after " + timeout_ms + "ms");
+
+        while(winner < 0 && numStarted < endpoints.length &&
+              (!inProgress() || now >= nextStart_ms))
+            startNext(now);
+
+        return getConnected();
+    }
+
+    /**
+     * Returns how long until poll() should next be called (the next deadline
+     * or staggered start), or -1 if the race is over.
+     */
+    public long getNextDelay_ms() {
+        if(isOver())
+            return -1;
+
+        long next = Long.MAX_VALUE;
+        for(int i=0; i<numStarted; i++)
+            if(attempts[i] != null)
+                next = Math.min(next, deadlines_ms[i]);
+        if(numStarted < endpoints.length)
+            next = Math.min(next, nextStart_ms);
+        return Math.max(0, next - System.currentTimeMillis());
+    }
+
+    /** Returns true if an attempt has won or every attempt has failed. */
+    public boolean isOver() {
+        return winner >= 0 || (numStarted == endpoints.length && !inProgress());
+    }
+
+    /** Returns the connected channel if an attempt has won, else null. */
+    public SocketChannel getConnected() {
+        return (winner < 0) ? null : attempts[winner];
+    }
+
+    /** Returns the key the winning channel is registered under, or null. */
+    public SelectionKey getConnectedKey() {
+        return (winner < 0) ? null : keys[winner];
+    }
+
+    /** Returns the replica which was connected to, or null. */
+    public InetSocketAddress getConnectedEndpoint() {
+        return (winner < 0) ? null : endpoints[winner];
+    }
+
+    /** Returns the index of the replica which was connected to, or -1. */
+    public int getWinner() {
+        return winner;
+    }
+
+    /** Returns why attempts failed. */
+    public String getFailures() {
+        return failures.toString();
+    }
+
+    /** Abandons every attempt in progress (the winner, if any, is kept). */
+    public void cancel() {
+        for(int i=0; i<attempts.length; i++)
+            if(i != winner)
+                close(i);
+    }
+
+    /**
+     * Runs a whole race on a private selector (for connections in blocking
+     * mode).
+     *
+     * @return the connected channel, in blocking mode
+     * @throws IOException  if every attempt failed
+     */
+    public SocketChannel connect() throws IOException {
+        resolve();
+        Selector sel = Selector.open();
+        try {
+            start(sel, null);
+            while(getConnected() == null && !isOver()) {
+                sel.select(Math.max(1, getNextDelay_ms()));
+                for(SelectionKey key : sel.selectedKeys())
+                    if(key.isValid() && finish(key) != null)
+                        break;
+                sel.selectedKeys().clear();
+                poll();
+            }
+        }
+        finally {
+            if(getConnected() == null)
+                cancel();
+            else
+                keys[winner] = null;
+            sel.close(); // deregisters the winner so it may block again
+        }
+
+        SocketChannel ch = getConnected();
+        if(ch == null)
+            throw new IOException("unable to connect to any replica (" + getFailures() + ")");
+
+        ch.configureBlocking(true);
+        return ch;
+    }
+
+    /** returns host:port */
+    public static String describe(InetSocketAddress addr) {
+        return addr.getHostName() + ":" + addr.getPort();
+    }
+}
@@ -4,8 +4,10 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.ArrayList;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
 
 /**
  * Provides helper functions for setting up and sending and receiving binary 
@@ -20,9 +22,15 @@ public class SocketConnection implements DataInput, DataOutput {
     /** output stream to write to the socket */
     public final DataOutputStream out;
 
-    /** input stream to read from the socket */
+    /** 
+     * input stream to read from the socket (unbuffered; do not mix reads from 
+     * this stream with reads from channel)
+     */
     public final CountingDataInputStream in;
     
+    /** the (blocking) channel underlying s */
+    public final SocketChannel channel;
+    
     /** 
      * Connect to the client on the specified port.
      * 
@@ -30,19 +38,39 @@ public class SocketConnection implements DataInput, DataOutput {
      * @param port  the TCP port to connect on
      */
     public SocketConnection(String ip, int port) {
-        // setup socket for listening for new clients connection requests
-        Socket stmp;
+        this(open(ip, port));
+    }
+    
+    /** returns a channel connected to ip:port, or null if it could not be connected */
+    private static SocketChannel open(String ip, int port) {
         try {
-            stmp = new Socket(ip, port);
+            return SocketChannel.open(new InetSocketAddress(ip, port));
         }
         catch(IOException e) {
             System.err.println(Integer.toString(port) + ": " + e.getMessage());
+        }
+        catch(UnresolvedAddressException e) {
+            System.err.println(Integer.toString(port) + ": unknown host " + ip);
+        }
+        return null;
+    }
+    
+    /** 
+     * Wraps a channel which is already connected (in blocking mode).
+     * 
+     * @param chtmp  the connected channel, or null for a connection which 
+     *               could not be established
+     */
+    public SocketConnection(SocketChannel chtmp) {
+        if(chtmp == null) {
             s = null;
+            channel = null;
             out = null;
             in = null;
             return;
         }
-        s = stmp;
+        channel = chtmp;
+        s = channel.socket();
         
         //try to establish the I/O streams: if we can't establish either, then close the socket
         DataOutputStream tmp;
@@ -75,23 +103,22 @@ public class SocketConnection implements DataInput, DataOutput {
      * @return the string formed from the read bytes
      */
     public static String readString(DataInput in, int bytesToRead) throws IOException {
+        if(in instanceof ByteBufferDataInput)
+            return ((ByteBufferDataInput)in).readString(bytesToRead);
+        
         // read the bytes which make up the string
         byte[] buf = new byte[bytesToRead];
-        int len = bytesToRead;
-        for(int i=0; i<bytesToRead; i++) {
-            buf[i] = in.readByte();
-            if(len==bytesToRead && buf[i]==0)
-                len = i;
-        }
+        in.readFully(buf);
+        
+        int len = 0;
+        while(len < bytesToRead && buf[len] != 0)
+            len += 1;
         
         // handle the empty string case
         if(len == 0)
             return new String();
         
-        // copy it into an array with no extra space so the string can be constructed
-        byte[] strBuf = new byte[len];
-        System.arraycopy(buf, 0, strBuf, 0, len);
-        return new String(strBuf);
+        return new String(buf, 0, len);
     }
     
     /**
@@ -116,25 +143,30 @@ public class SocketConnection implements DataInput, DataOutput {
      * @return the string formed from the read bytes
      */
     public static String readNullTerminatedString(DataInput in) throws IOException {
+        if(in instanceof ByteBufferDataInput)
+            return ((ByteBufferDataInput)in).readNullTerminatedString();
+        
         // read the bytes which make up the string
-        ArrayList<Byte> buf = new ArrayList<Byte>();
+        byte[] buf = new byte[32];
+        int len = 0;
         while(true) {
             byte b = in.readByte();
             if(b == 0)
                 break;
-            else
-                buf.add(b);
+            
+            if(len == buf.length) {
+                byte[] bigger = new byte[buf.length * 2];
+                System.arraycopy(buf, 0, bigger, 0, len);
+                buf = bigger;
+            }
+            buf[len++] = b;
         }
         
         // handle the empty string case
-        if(buf.size() == 0)
+        if(len == 0)
             return new String();
         
-        // copy it into an array with no extra space so the string can be constructed
-        byte[] strBuf = new byte[buf.size()];
-        for(int i=0; i<buf.size(); i++)
-            strBuf[i] = buf.get(i);
-        return new String(strBuf);
+        return new String(buf, 0, len);
     }
     
     /**
@@ -0,0 +1,184 @@
+package org.openflow.gui.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Interns strings decoded from bytes.  Strings which recur across messages
+ * (e.g., the manufacturer and software version of thousands of identical
+ * switches) can be looked up straight from the received bytes, so a repeated
+ * value costs neither a String nor a scratch buffer and every message shares
+ * one canonical instance.  Bytes are decoded with the platform's default
+ * charset, like SocketConnection.readString().
+ *
+ * The pool holds at most a fixed number of strings; once it is full, new
+ * values are decoded but not pooled (so unique values like serial numbers
+ * cannot grow it without bound).  All methods are synchronized.
+ */
+public class StringPool {
+    /** bytes of each pooled string (slots are empty if null) */
+    private byte[][] keys;
+
+    /** the pooled strings */
+    private String[] strings;
+
+    /** hash of each pooled string's bytes */
+    private int[] hashes;
+
+    /** number of strings pooled */
+    private int size = 0;
+
+    /** most strings the pool will hold */
+    private final int maxSize;
+
+    /** number of lookups answered from the pool */
+    private long numHits = 0;
+
+    /** number of lookups which were not */
+    private long numMisses = 0;
+
+    /**
+     * Creates an empty pool.
+     *
+     * @param maxSize  most strings the pool will hold
+     */
+    public StringPool(int maxSize) {
+        this.maxSize = maxSize;
+        allocate(16);
+    }
+
+    /** replaces the table with an empty one with the specified number of slots */
+    private void allocate(int capacity) {
+        keys = new byte[capacity][];
+        strings = new String[capacity];
+        hashes = new int[capacity];
+    }
+
+    /** returns the hash of len bytes of b starting at off */
+    private static int hash(byte[] b, int off, int len) {
+        int h = 0x811C9DC5;
+        for(int i=0; i<len; i++)
+            h = (h ^ b[off + i]) * 0x01000193;
+        return h;
+    }
+
+    /** returns the hash of len bytes of buf starting at off */
+    private static int hash(ByteBuffer buf, int off, int len) {
+        int h = 0x811C9DC5;
+        for(int i=0; i<len; i++)
+            h = (h ^ buf.get(off + i)) * 0x01000193;
+        return h;
+    }
+
+    /** returns the first slot to probe for hash h */
+    private int slot(int h) {
+        return (h ^ (h >>> 16)) & (keys.length - 1);
+    }
+
+    /**
+     * Returns the pooled string whose bytes are the len bytes of buf starting
+     * at offset off, or null if there is none.  Nothing is allocated and buf's
+     * position is not changed.
+     */
+    public synchronized String lookup(ByteBuffer buf, int off, int len) {
+        int h = hash(buf, off, len);
+        for(int i=slot(h); keys[i]!=null; i=(i+1) & (keys.length - 1)) {
+            if(hashes[i] == h && equals(keys[i], buf, off, len)) {
+                numHits += 1;
+                return strings[i];
+            }
+        }
+        numMisses += 1;
+        return null;
+    }
+
+    /** returns true if key holds the same bytes as len bytes of buf starting at off */
+    private static boolean equals(byte[] key, ByteBuffer buf, int off, int len) {
+        if(key.length != len)
+            return false;
+
+        for(int i=0; i<len; i++)
+            if(key[i] != buf.get(off + i))
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns the canonical string whose bytes are len bytes of b starting at
+     * off, pooling it if it is new (and the pool has room).
+     */
+    public synchronized String intern(byte[] b, int off, int len) {
+        int h = hash(b, off, len);
+        int i = slot(h);
+        for(; keys[i]!=null; i=(i+1) & (keys.length - 1)) {
+            if(hashes[i] == h && equals(keys[i], b, off, len)) {
+                numHits += 1;
+                return strings[i];
+            }
+        }
+
+        numMisses += 1;
+        String s = (len == 0) ? "" : new String(b, off, len);
+        if(size >= maxSize)
+            return s;
+
+        byte[] key = new byte[len];
+        System.arraycopy(b, off, key, 0, len);
+        keys[i] = key;
+        strings[i] = s;
+        hashes[i] = h;
+        if(++size * 2 > keys.length)
+            grow();
+        return s;
+    }
+
+    /** returns true if key holds the same bytes as len bytes of b starting at off */
+    private static boolean equals(byte[] key, byte[] b, int off, int len) {
+        if(key.length != len)
+            return false;
+
+        for(int i=0; i<len; i++)
+            if(key[i] != b[off + i])
+                return false;
+        return true;
+    }
+
+    /** doubles the number of slots */
+    private void grow() {
+        byte[][] oldKeys = keys;
+        String[] oldStrings = strings;
+        int[] oldHashes = hashes;
+        allocate(oldKeys.length * 2);
+        for(int j=0; j<oldKeys.length; j++) {
+            if(oldKeys[j] == null)
+                continue;
+
+            int i = slot(oldHashes[j]);
+            while(keys[i] != null)
+                i = (i + 1) & (keys.length - 1);
+            keys[i] = oldKeys[j];
+            strings[i] = oldStrings[j];
+            hashes[i] = oldHashes[j];
+        }
+    }
+
+    /** Returns the number of strings pooled. */
+    public synchronized int size() {
+        return size;
+    }
+
+    /** Returns the number of lookups answered from the pool. */
+    public synchronized long getNumHits() {
+        return numHits;
+    }
+
+    /** Returns the number of lookups which were not answered from the pool. */
+    public synchronized long getNumMisses() {
+        return numMisses;
+    }
+
+    /** Empties the pool. */
+    public synchronized void clear() {
+        allocate(16);
+        size = 0;
+    }
+}
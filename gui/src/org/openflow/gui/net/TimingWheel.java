@@ -0,0 +1,205 @@
+package org.openflow.gui.net;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A hashed timing wheel which expires values keyed by an int (e.g., requests
+ * keyed by transaction ID).  Time is divided into ticks of tick_ms; the wheel
+ * has a power-of-two number of slots and a value due in t ticks is linked
+ * into slot (now + t) mod slots with the number of whole turns it must wait.
+ * Adding, removing (e.g., when a reply arrives), and expiring a value are
+ * all O(1); advancing the wheel by one tick only touches the values in one
+ * slot.  Deadlines are rounded up to the next tick.
+ *
+ * All methods are synchronized.  Listeners are told about expired values
+ * after the lock is released.
+ */
+public class TimingWheel<V> {
+    /** Is told about values which expired. */
+    public interface ExpiryListener<V> {
+        /** Called after value (added under key) expired. */
+        public void expired(int key, V value);
+    }
+
+    /** a value in the wheel */
+    private static final class Entry<V> {
+        final int key;
+        final V value;
+
+        /** number of turns of the wheel left before the value is due */
+        int rounds;
+
+        /** the slot the entry is linked into */
+        int slot;
+
+        Entry<V> prev, next;
+
+        Entry(int key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /** length of a tick */
+    private final int tick_ms;
+
+    /** number of slots minus one (used to wrap tick counts to slots) */
+    private final int mask;
+
+    /** head of the list of entries in each slot */
+    private final Entry<V>[] slots;
+
+    /** the entry for each key */
+    private final HashMap<Integer, Entry<V>> entries = new HashMap<Integer, Entry<V>>();
+
+    /** when tick 0 began */
+    private final long start_ms;
+
+    /** the last tick whose slot has been processed */
+    private long currentTick = 0;
+
+    /** number of values which have expired */
+    private long numExpired = 0;
+
+    /**
+     * Creates an empty wheel.
+     *
+     * @param tick_ms   length of a tick (the precision of deadlines)
+     * @param numSlots  number of slots (rounded up to a power of two); values
+     *                  due within numSlots ticks never wait a whole turn
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(int tick_ms, int numSlots) {
+        if(tick_ms <= 0 || numSlots <= 0)
+            throw new IllegalArgumentException("tick and number of slots must be positive");
+
+        int n = Integer.highestOneBit(numSlots);
+        if(n < numSlots)
+            n <<= 1;
+
+        this.tick_ms = tick_ms;
+        mask = n - 1;
+        slots = (Entry<V>[])new Entry[n];
+        start_ms = System.currentTimeMillis();
+    }
+
+    /** Returns the length of a tick. */
+    public int getTickLength_ms() {
+        return tick_ms;
+    }
+
+    /**
+     * Adds value under key, to expire timeout_ms from now.  Any value already
+     * added under key is replaced (and will not expire).
+     */
+    public synchronized void add(int key, V value, long timeout_ms) {
+        Entry<V> old = entries.remove(key);
+        if(old != null)
+            unlink(old);
+
+        long now = System.currentTimeMillis();
+        long dueTick = (now - start_ms + timeout_ms + tick_ms - 1) / tick_ms;
+        long ticks = Math.max(1, dueTick - currentTick);
+
+        Entry<V> e = new Entry<V>(key, value);
+        e.rounds = (int)((ticks - 1) / slots.length);
+        e.slot = (int)((currentTick + ticks) & mask);
+        e.next = slots[e.slot];
+        if(e.next != null)
+            e.next.prev = e;
+        slots[e.slot] = e;
+        entries.put(key, e);
+    }
+
+    /** Returns the value added under key, or null if there is none. */
+    public synchronized V get(int key) {
+        Entry<V> e = entries.get(key);
+        return (e == null) ? null : e.value;
+    }
+
+    /** Removes and returns the value added under key, or null if there is none. */
+    public synchronized V remove(int key) {
+        Entry<V> e = entries.remove(key);
+        if(e == null)
+            return null;
+
+        unlink(e);
+        return e.value;
+    }
+
+    /** unlinks e from its slot */
+    private void unlink(Entry<V> e) {
+        if(e.prev != null)
+            e.prev.next = e.next;
+        else
+            slots[e.slot] = e.next;
+
+        if(e.next != null)
+            e.next.prev = e.prev;
+
+        e.prev = e.next = null;
+    }
+
+    /** Returns the number of values in the wheel. */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** Removes every value (none of them expire). */
+    public synchronized void clear() {
+        entries.clear();
+        for(int i=0; i<slots.length; i++)
+            slots[i] = null;
+    }
+
+    /** Returns the number of values which have expired. */
+    public synchronized long getNumExpired() {
+        return numExpired;
+    }
+
+    /**
+     * Expires the values which are due by now: advances the wheel over every
+     * tick which has passed since the last call (so late calls catch up).
+     *
+     * @param l  told about each value which expired (may be null)
+     * @return   the number of values which expired
+     */
+    public int advance(ExpiryListener<V> l) {
+        List<Entry<V>> expired = null;
+        synchronized(this) {
+            long lastTick = (System.currentTimeMillis() - start_ms) / tick_ms;
+            while(currentTick < lastTick && !entries.isEmpty()) {
+                currentTick += 1;
+                Entry<V> e = slots[(int)(currentTick & mask)];
+                while(e != null) {
+                    Entry<V> next = e.next;
+                    if(e.rounds > 0)
+                        e.rounds -= 1;
+                    else {
+                        unlink(e);
+                        entries.remove(e.key);
+                        if(expired == null)
+                            expired = new ArrayList<Entry<V>>();
+                        expired.add(e);
+                    }
+                    e = next;
+                }
+            }
+
+            // nothing is left to expire, so skip the empty ticks
+            if(entries.isEmpty())
+                currentTick = Math.max(currentTick, lastTick);
+
+            if(expired == null)
+                return 0;
+            numExpired += expired.size();
+        }
+
+        if(l != null)
+            for(Entry<V> e : expired)
+                l.expired(e.key, e.value);
+        return expired.size();
+    }
+}
@@ -0,0 +1,178 @@
+package org.openflow.gui.net;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends received frames, each stamped with the time (System.nanoTime()) it
+ * was received, to a series of memory-mapped segment files so that the
+ * traffic can be replayed later (see WireReplay).  Recording a frame is just
+ * a copy into the mapping, so capturing barely slows the connection down.
+ *
+ * Segments are named BASE.00000, BASE.00001, and so on.  Each starts with a
+ * header (MAGIC followed by the segment's index and 4 reserved bytes) which is
+ * followed by records: the timestamp (8 bytes), the length of the frame as it
+ * would be in protocol version 1 framing (4 bytes), and the frame without its
+ * length field.  A segment ends where there is no room for another record or
+ * where a record's length is 0 (the unused end of a segment is all zeroes).
+ */
+public class WireCapture {
+    /** identifies capture segments ("OFGWIRE1") */
+    public static final long MAGIC = 0x4F46475749524531L;
+
+    /** size of the header at the start of each segment */
+    public static final int HEADER_SIZE = 16;
+
+    /** size of the fields which precede each frame in a record */
+    public static final int RECORD_HEADER_SIZE = 12;
+
+    /** default size of each segment */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /** the path segment numbers are appended to */
+    private final String basePath;
+
+    /** size of each segment */
+    private final int segmentSize;
+
+    /** index of the current segment */
+    private int segmentIndex = -1;
+
+    /** the file the current segment lives in */
+    private RandomAccessFile file = null;
+
+    /** the current segment */
+    private MappedByteBuffer segment = null;
+
+    /** number of frames recorded */
+    private long numFrames = 0;
+
+    /** number of frame bytes recorded */
+    private long numBytes = 0;
+
+    /** whether capturing has stopped (closed or failed) */
+    private boolean closed = false;
+
+    /** Captures to segments of the default size. */
+    public WireCapture(String basePath) throws IOException {
+        this(basePath, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Captures to segments named after basePath.  The first segment is
+     * created right away.
+     *
+     * @param basePath     the path segment numbers are appended to
+     * @param segmentSize  size of each segment (larger frames get a segment
+     *                     of their own which is just big enough)
+     */
+    public WireCapture(String basePath, int segmentSize) throws IOException {
+        if(segmentSize < HEADER_SIZE + RECORD_HEADER_SIZE)
+            throw new IllegalArgumentException("segment size is too small: " + segmentSize);
+
+        this.basePath = basePath;
+        this.segmentSize = segmentSize;
+        nextSegment(0);
+    }
+
+    /** Returns the name of the segment with the specified index. */
+    public static String segmentName(String basePath, int index) {
+        return basePath + "." + String.format("%05d", index);
+    }
+
+    /** finishes the current segment and starts a new one with room for at least minRecordSize */
+    private void nextSegment(int minRecordSize) throws IOException {
+        closeSegment();
+
+        segmentIndex += 1;
+        int size = Math.max(segmentSize, HEADER_SIZE + minRecordSize);
+        File f = new File(segmentName(basePath, segmentIndex));
+        file = new RandomAccessFile(f, "rw");
+        file.setLength(0);
+        segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        segment.putLong(MAGIC);
+        segment.putInt(segmentIndex);
+        segment.putInt(0);
+    }
+
+    /** ends the current segment (if any) and releases its file */
+    private void closeSegment() throws IOException {
+        if(segment == null)
+            return;
+
+        // the unused part of the mapping is all zeroes, which ends the segment
+        segment.force();
+        segment = null;
+        file.close();
+        file = null;
+    }
+
+    /**
+     * Records a received frame.  Capturing stops (with a warning) if a new
+     * segment cannot be created.
+     *
+     * @param len   length of the frame (see FrameReader)
+     * @param body  the frame after its length field (from its position to its
+     *              limit); its position is not changed
+     */
+    public synchronized void record(int len, ByteBuffer body) {
+        if(closed)
+            return;
+
+        int bodyLen = body.remaining();
+        int recordSize = RECORD_HEADER_SIZE + bodyLen;
+        try {
+            if(segment.remaining() < recordSize)
+                nextSegment(recordSize);
+        }
+        catch(IOException e) {
+            System.err.println("Wire capture stopped: unable to create a new segment: " + e.getMessage());
+            close();
+            return;
+        }
+
+        segment.putLong(System.nanoTime());
+        segment.putInt(len);
+        segment.put(body.duplicate());
+        numFrames += 1;
+        numBytes += bodyLen;
+    }
+
+    /** Stops capturing and flushes the current segment to disk. */
+    public synchronized void close() {
+        if(closed)
+            return;
+
+        closed = true;
+        try {
+            closeSegment();
+        }
+        catch(IOException e) {
+            System.err.println("Unable to close wire capture segment: " + e.getMessage());
+        }
+    }
+
+    /** Returns the path segment numbers are appended to. */
+    public String getBasePath() {
+        return basePath;
+    }
+
+    /** Returns the number of frames recorded. */
+    public synchronized long getNumFrames() {
+        return numFrames;
+    }
+
+    /** Returns the number of frame bytes recorded. */
+    public synchronized long getNumBytes() {
+        return numBytes;
+    }
+
+    /** Returns the number of segments created. */
+    public synchronized int getNumSegments() {
+        return segmentIndex + 1;
+    }
+}
@@ -0,0 +1,140 @@
+package org.openflow.gui.net;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds frames recorded by a WireCapture back through a MessageProcessor,
+ * either with the same spacing they were received with (optionally sped up)
+ * or as fast as the processor can take them.  Each frame is decoded and
+ * processed on the calling thread, just as a BackendConnection would do it.
+ */
+public class WireReplay {
+    /** What a replay did and how long it took. */
+    public static class Result {
+        /** number of messages replayed */
+        public final long numMessages;
+
+        /** number of frame bytes replayed */
+        public final long numBytes;
+
+        /** time the replay took */
+        public final long elapsed_ns;
+
+        /** time spent decoding and processing messages (i.e., not waiting) */
+        public final long busy_ns;
+
+        Result(long numMessages, long numBytes, long elapsed_ns, long busy_ns) {
+            this.numMessages = numMessages;
+            this.numBytes = numBytes;
+            this.elapsed_ns = elapsed_ns;
+            this.busy_ns = busy_ns;
+        }
+
+        /** Returns the number of messages processed per second of busy time. */
+        public double getMessagesPerSecond() {
+            return busy_ns == 0 ? 0 : numMessages * 1e9 / busy_ns;
+        }
+
+        public String toString() {
+            return numMessages + " messages (" + numBytes + "B) in " + elapsed_ns / 1000000 + "ms" +
+                   " (busy " + busy_ns / 1000000 + "ms, " + (long)getMessagesPerSecond() + " msgs/sec)";
+        }
+    }
+
+    /** the path the capture's segment numbers are appended to */
+    private final String basePath;
+
+    /**
+     * Prepares to replay the capture whose segments are named after basePath
+     * (see WireCapture).
+     */
+    public WireReplay(String basePath) {
+        this.basePath = basePath;
+    }
+
+    /**
+     * Replays the capture through mp.  Messages are decoded with mp.decode()
+     * and handed to mp.process(); the connection state is not changed.
+     *
+     * @param mp     the processor to feed
+     * @param speed  how much faster than real time to replay (1 replays with
+     *               the original spacing); 0 or less replays as fast as
+     *               possible
+     *
+     * @throws IOException  if the capture cannot be read or a frame cannot be
+     *                      decoded
+     */
+    public <MSG_TYPE extends Message> Result replay(MessageProcessor<MSG_TYPE> mp, double speed) throws IOException {
+        ByteBufferDataInput in = new ByteBufferDataInput(null);
+        long numMessages = 0, numBytes = 0, busy_ns = 0;
+        long firstStamp = 0, start = System.nanoTime();
+
+        for(int i=0; ; i++) {
+            File f = new File(WireCapture.segmentName(basePath, i));
+            if(!f.exists()) {
+                if(i == 0)
+                    throw new IOException("no capture found at " + f.getPath());
+                break;
+            }
+
+            ByteBuffer segment = map(f);
+            if(segment.remaining() < WireCapture.HEADER_SIZE || segment.getLong() != WireCapture.MAGIC)
+                throw new IOException(f.getPath() + " is not a wire capture segment");
+            segment.getInt(); // segment index
+            segment.getInt(); // reserved
+
+            while(segment.remaining() >= WireCapture.RECORD_HEADER_SIZE) {
+                long stamp = segment.getLong();
+                int len = segment.getInt();
+                if(len == 0)
+                    break;
+
+                int bodyLen = len - FrameReader.LENGTH_FIELD_SIZE;
+                if(bodyLen < 0 || bodyLen > segment.remaining())
+                    throw new IOException("corrupt record in " + f.getPath() + " at offset " + (segment.position() - WireCapture.RECORD_HEADER_SIZE));
+
+                if(numMessages == 0)
+                    firstStamp = stamp;
+                else if(speed > 0)
+                    waitUntil(start + (long)((stamp - firstStamp) / speed));
+
+                ByteBuffer body = segment.duplicate();
+                body.limit(body.position() + bodyLen);
+                segment.position(segment.position() + bodyLen);
+
+                long t = System.nanoTime();
+                in.setBuffer(body);
+                mp.process(mp.decode(len, in));
+                busy_ns += System.nanoTime() - t;
+
+                numMessages += 1;
+                numBytes += bodyLen;
+            }
+        }
+
+        return new Result(numMessages, numBytes, System.nanoTime() - start, busy_ns);
+    }
+
+    /** maps f into memory (read-only) */
+    private static ByteBuffer map(File f) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    /** waits until System.nanoTime() reaches deadline_ns */
+    private static void waitUntil(long deadline_ns) {
+        long wait_ns;
+        while((wait_ns = deadline_ns - System.nanoTime()) > 0)
+            LockSupport.parkNanos(wait_ns);
+    }
+}
@@ -10,6 +10,9 @@ import java.util.Collection;
  * @author David Underhill
  */
 public class Flow {
+    /** size of a flow without its path */
+    public static final int HEADER_SIZEOF = 2 + 4 + 2 * (Node.SIZEOF + 2) + 2;
+    
     /** type of flow */
     public final FlowType type;
     
@@ -52,7 +55,7 @@ public class Flow {
     
     /** This returns the length of Flow */
     public int length() {
-        return 10 + path.length * FlowHop.SIZEOF;
+        return HEADER_SIZEOF + path.length * FlowHop.SIZEOF;
     }
     
     public void write(DataOutput out) throws IOException {
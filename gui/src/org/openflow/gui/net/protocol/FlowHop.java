@@ -9,7 +9,7 @@ import java.io.IOException;
  * @author David Underhill
  */
 public class FlowHop {
-    public static final int SIZEOF = Node.SIZEOF + 2;
+    public static final int SIZEOF = 2 + Node.SIZEOF + 2;
     
     /** the incoming port */
     public final short inport;
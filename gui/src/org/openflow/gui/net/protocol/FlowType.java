@@ -23,14 +23,29 @@ public enum FlowType {
         return typeID;
     }
 
+    /** constants indexed by type ID */
+    private static final FlowType[] BY_TYPE_ID;
+    static {
+        int max = -1;
+        for(FlowType t : values())
+            max = Math.max(max, t.typeID);
+        
+        BY_TYPE_ID = new FlowType[max + 1];
+        for(FlowType t : values())
+            if(t.typeID >= 0)
+                BY_TYPE_ID[t.typeID] = t;
+    }
+
     /** 
      * Returns the FlowType constant associated with typeID, if any or
      * UNKOWN if no type is matched.
      */
     public static FlowType typeValToMessageType(short typeID) {
-        for(FlowType t : FlowType.values())
-            if(t.getTypeID() == typeID)
+        if(typeID >= 0 && typeID < BY_TYPE_ID.length) {
+            FlowType t = BY_TYPE_ID[typeID];
+            if(t != null)
                 return t;
+        }
 
         return UNKNOWN;
     }
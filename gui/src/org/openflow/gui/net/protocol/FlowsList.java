@@ -28,10 +28,15 @@ public abstract class FlowsList extends OFGMessage {
             throw new IOException("Body of flows has a bad length (not enough bytes for # of flows field): " + left + "B left, need >=4B");
         
         // read in the flows
-        flows = new Flow[in.readInt()];
+        int numFlows = in.readInt();
+        if(numFlows < 0)
+            throw new IOException("Body of flows has a bad # of flows: " + numFlows);
+        
+        flows = new Flow[numFlows];
+        left -= 4;
         for(int flowOn=0; flowOn<flows.length; flowOn++) { 
-            if(left < 32)
-                throw new IOException("Body of flows has a bad length (not enough for a flow length): " + left + "B left, need >=32B");
+            if(left < Flow.HEADER_SIZEOF)
+                throw new IOException("Body of flows has a bad length (not enough for a flow length): " + left + "B left, need >=" + Flow.HEADER_SIZEOF + "B");
             
             short type = in.readShort();
             int id = in.readInt();
@@ -39,8 +44,8 @@ public abstract class FlowsList extends OFGMessage {
             short srcPort = in.readShort();
             Node dstNode = new Node(in);
             short dstPort = in.readShort();
-            short pathLen = in.readShort();
-            if(left < pathLen * (2 + Node.SIZEOF + 2))
+            int pathLen = in.readUnsignedShort();
+            if(left < Flow.HEADER_SIZEOF + pathLen * FlowHop.SIZEOF)
                 throw new IOException("Body of flows has a bad length (not enough for a flow)");
             
             FlowHop[] path = new FlowHop[pathLen];
@@ -54,7 +59,7 @@ public abstract class FlowsList extends OFGMessage {
     }
     
     public int length() {
-        int len = super.length();
+        int len = super.length() + 4;
         for(Flow f : flows)
             len += f.length();
         return len;
@@ -62,6 +67,7 @@ public abstract class FlowsList extends OFGMessage {
     
     public void write(DataOutput out) throws IOException {
         super.write(out); 
+        out.writeInt(flows.length);
         for(Flow f : flows)
             f.write(out);
     }
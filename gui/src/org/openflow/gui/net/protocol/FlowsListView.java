@@ -0,0 +1,183 @@
+package org.openflow.gui.net.protocol;
+
+import java.io.IOException;
+
+import org.openflow.gui.net.ByteBufferDataInput;
+
+/**
+ * A list of flows which is read directly from the buffer it was received into
+ * (see OFGMessageView).  It has the same wire format as FlowsList.  Since 
+ * flows vary in length, they are accessed sequentially with a FlowCursor.
+ */
+public class FlowsListView extends OFGMessageView {
+    /** offsets of each field within a flow */
+    private static final int OFFSET_TYPE     = 0;
+    private static final int OFFSET_ID       = 2;
+    private static final int OFFSET_SRC_TYPE = 6;
+    private static final int OFFSET_SRC_ID   = 8;
+    private static final int OFFSET_SRC_PORT = 16;
+    private static final int OFFSET_DST_TYPE = 18;
+    private static final int OFFSET_DST_ID   = 20;
+    private static final int OFFSET_DST_PORT = 28;
+    private static final int OFFSET_PATH_LEN = 30;
+    
+    /** offsets of each field within a hop */
+    private static final int OFFSET_HOP_INPORT  = 0;
+    private static final int OFFSET_HOP_TYPE    = 2;
+    private static final int OFFSET_HOP_ID      = 4;
+    private static final int OFFSET_HOP_OUTPORT = 12;
+    
+    /** number of flows in the list */
+    private final int numFlows;
+    
+    public FlowsListView(final int len, final OFGMessageType t, final int xid, final ByteBufferDataInput in) throws IOException {
+        super(len, t, xid, in);
+        int left = bodyLen;
+        if(left < 4)
+            throw new IOException("Body of flows has a bad length (not enough bytes for # of flows field): " + left + "B left, need >=4B");
+        
+        // make sure the flows fit in the body
+        numFlows = buf.getInt(base);
+        if(numFlows < 0)
+            throw new IOException("Body of flows has a bad # of flows: " + numFlows);
+        
+        left -= 4;
+        int pos = base + 4;
+        for(int flowOn=0; flowOn<numFlows; flowOn++) {
+            if(left < Flow.HEADER_SIZEOF)
+                throw new IOException("Body of flows has a bad length (not enough for a flow length): " + left + "B left, need >=" + Flow.HEADER_SIZEOF + "B");
+            
+            // the path length is unsigned, so every flow takes at least its header
+            int flowLen = Flow.HEADER_SIZEOF + (buf.getShort(pos + OFFSET_PATH_LEN) & 0xFFFF) * FlowHop.SIZEOF;
+            if(left < flowLen)
+                throw new IOException("Body of flows has a bad length (not enough for a flow)");
+            
+            left -= flowLen;
+            pos += flowLen;
+        }
+    }
+    
+    /** Returns the number of flows in the list */
+    public int getNumFlows() {
+        return numFlows;
+    }
+    
+    /** Returns a new cursor which is positioned before the first flow */
+    public FlowCursor cursor() {
+        return new FlowCursor();
+    }
+    
+    /** 
+     * Iterates over the flows in the list.  The accessors describe the flow 
+     * the cursor is currently on.
+     */
+    public class FlowCursor {
+        /** index of the current flow */
+        private int flowOn = -1;
+        
+        /** offset of the current flow in buf */
+        private int pos = -1;
+        
+        /** offset of the next flow in buf */
+        private int nextPos = base + 4;
+        
+        /** 
+         * Moves to the next flow.  Returns false if there are no more flows.
+         */
+        public boolean next() {
+            if(flowOn + 1 >= numFlows)
+                return false;
+            
+            flowOn += 1;
+            pos = nextPos;
+            nextPos = pos + Flow.HEADER_SIZEOF + getPathLength() * FlowHop.SIZEOF;
+            return true;
+        }
+        
+        /** Returns the type of the current flow */
+        public FlowType getType() {
+            return FlowType.typeValToMessageType(buf.getShort(pos + OFFSET_TYPE));
+        }
+        
+        /** Returns the ID of the current flow */
+        public int getID() {
+            return buf.getInt(pos + OFFSET_ID);
+        }
+        
+        /** Returns the type of the current flow's source node */
+        public NodeType getSrcType() {
+            return NodeType.typeValToMessageType(buf.getShort(pos + OFFSET_SRC_TYPE));
+        }
+        
+        /** Returns the ID of the current flow's source node */
+        public long getSrcID() {
+            return buf.getLong(pos + OFFSET_SRC_ID);
+        }
+        
+        /** Returns the current flow's port on its source node */
+        public short getSrcPort() {
+            return buf.getShort(pos + OFFSET_SRC_PORT);
+        }
+        
+        /** Returns the type of the current flow's destination node */
+        public NodeType getDstType() {
+            return NodeType.typeValToMessageType(buf.getShort(pos + OFFSET_DST_TYPE));
+        }
+        
+        /** Returns the ID of the current flow's destination node */
+        public long getDstID() {
+            return buf.getLong(pos + OFFSET_DST_ID);
+        }
+        
+        /** Returns the current flow's port on its destination node */
+        public short getDstPort() {
+            return buf.getShort(pos + OFFSET_DST_PORT);
+        }
+        
+        /** Returns the number of hops in the current flow's path */
+        public int getPathLength() {
+            return buf.getShort(pos + OFFSET_PATH_LEN) & 0xFFFF;
+        }
+        
+        /** returns the offset of the i'th hop of the current flow in buf */
+        private int hop(int i) {
+            return pos + Flow.HEADER_SIZEOF + i * FlowHop.SIZEOF;
+        }
+        
+        /** Returns the incoming port of the i'th hop of the current flow */
+        public short getHopInport(int i) {
+            return buf.getShort(hop(i) + OFFSET_HOP_INPORT);
+        }
+        
+        /** Returns the type of the node at the i'th hop of the current flow */
+        public NodeType getHopType(int i) {
+            return NodeType.typeValToMessageType(buf.getShort(hop(i) + OFFSET_HOP_TYPE));
+        }
+        
+        /** Returns the ID of the node at the i'th hop of the current flow */
+        public long getHopID(int i) {
+            return buf.getLong(hop(i) + OFFSET_HOP_ID);
+        }
+        
+        /** Returns the outgoing port of the i'th hop of the current flow */
+        public short getHopOutport(int i) {
+            return buf.getShort(hop(i) + OFFSET_HOP_OUTPORT);
+        }
+        
+        /** Returns a new Flow object representing the current flow */
+        public Flow toFlow() {
+            FlowHop[] path = new FlowHop[getPathLength()];
+            for(int i=0; i<path.length; i++)
+                path[i] = new FlowHop(getHopInport(i), new Node(getHopType(i), getHopID(i)), getHopOutport(i));
+            
+            return new Flow(getType(), getID(), 
+                            new Node(getSrcType(), getSrcID()), getSrcPort(), 
+                            new Node(getDstType(), getDstID()), getDstPort(), 
+                            path);
+        }
+    }
+    
+    public String toString() {
+        return super.toString() + TSSEP + numFlows + " flows";
+    }
+}
@@ -0,0 +1,57 @@
+package org.openflow.gui.net.protocol;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Negotiates the protocol version and optional features of a connection.  The
+ * GUI sends a Hello right after connecting (using version 1 framing) and then 
+ * waits for the backend's Hello before sending anything else.  Both sides use
+ * the lower of the two versions, and only the capabilities both support, for 
+ * everything after the backend's Hello.  A backend which does not answer 
+ * (i.e., one which only speaks version 1) is talked to with version 1.
+ */
+public class Hello extends OFGMessage {
+    /** capability: messages may be split across several version 2 frames */
+    public static final int CAP_FRAGMENTATION = 0x01;
+    
+    /** capability: the bodies of bulk snapshots may be deflated */
+    public static final int CAP_DEFLATE = 0x02;
+    
+    /** highest protocol version the sender speaks */
+    public final byte version;
+    
+    /** bitmask of CAP_* constants the sender supports */
+    public final int capabilities;
+    
+    public Hello(byte version, int capabilities) {
+        this(0, version, capabilities);
+    }
+    
+    public Hello(int xid, byte version, int capabilities) {
+        super(OFGMessageType.HELLO, xid);
+        this.version = version;
+        this.capabilities = capabilities;
+    }
+    
+    public Hello(final int len, final int xid, final DataInput in) throws IOException {
+        super(OFGMessageType.HELLO, xid);
+        version = in.readByte();
+        capabilities = in.readInt();
+    }
+    
+    public int length() {
+        return super.length() + 5;
+    }
+    
+    public void write(DataOutput out) throws IOException {
+        super.write(out);
+        out.writeByte(version);
+        out.writeInt(capabilities);
+    }
+    
+    public String toString() {
+        return super.toString() + TSSEP + "version=" + version + " capabilities=0x" + Integer.toHexString(capabilities);
+    }
+}
@@ -4,6 +4,8 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
+import org.openflow.util.Hashing;
+
 /**
  * Structure to specify a link.
  * 
@@ -56,14 +58,16 @@ public class Link {
     }
 
     public int hashCode() {
-        int ret = 7*srcNode.hashCode() + 15*srcPort;
-        ret += 31*dstNode.hashCode() + 31*dstPort;
-        return ret + 15*linkType.getTypeID();
+        long h = Hashing.combine(srcNode.id, srcPort);
+        h = Hashing.combine(h, dstNode.id);
+        h = Hashing.combine(h, dstPort);
+        h = Hashing.combine(h, linkType.getTypeID());
+        return Hashing.mix(h);
     }
     
     public boolean equals(Object o) {
         if(o == null) return false;
-        if(!(o instanceof Node)) return false;
+        if(!(o instanceof Link)) return false;
         Link l = (Link)o;
         return linkType.getTypeID()==l.linkType.getTypeID() && 
                srcPort==l.srcPort &&
@@ -14,6 +14,11 @@ public class LinkSpec extends Link {
     
     public final long capacity_bps;
     
+    public LinkSpec(LinkType linkType, Node srcNode, short srcPort, Node dstNode, short dstPort, long capacity_bps) {
+        super(linkType, srcNode, srcPort, dstNode, dstPort);
+        this.capacity_bps = capacity_bps;
+    }
+    
     public LinkSpec(DataInput in) throws IOException {
         super(in);
         this.capacity_bps = in.readLong();
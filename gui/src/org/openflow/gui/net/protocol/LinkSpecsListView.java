@@ -0,0 +1,76 @@
+package org.openflow.gui.net.protocol;
+
+import java.io.IOException;
+
+import org.openflow.gui.net.ByteBufferDataInput;
+
+/**
+ * A list of link specs which is read directly from the buffer it was received 
+ * into (see OFGMessageView).  It has the same wire format as LinkSpecsList.
+ */
+public class LinkSpecsListView extends OFGMessageView {
+    /** offsets of each field within a link spec */
+    private static final int OFFSET_TYPE     = 0;
+    private static final int OFFSET_SRC_ID   = 4;
+    private static final int OFFSET_SRC_PORT = 12;
+    private static final int OFFSET_DST_ID   = 16;
+    private static final int OFFSET_DST_PORT = 24;
+    private static final int OFFSET_CAPACITY = 26;
+    
+    /** number of links in the list */
+    private final int numLinks;
+    
+    public LinkSpecsListView(final int len, final OFGMessageType t, final int xid, final ByteBufferDataInput in) throws IOException {
+        super(len, t, xid, in);
+        
+        // make sure the number of bytes leftover makes sense
+        if(bodyLen % LinkSpec.SIZEOF != 0) {
+            throw new IOException("Body of link specs list is not a multiple of " + LinkSpec.SIZEOF + " (length of body is " + bodyLen + " bytes)");
+        }
+        numLinks = bodyLen / LinkSpec.SIZEOF;
+    }
+    
+    /** returns the offset of the i'th link spec in buf */
+    private int offset(int i) {
+        return base + i * LinkSpec.SIZEOF;
+    }
+    
+    /** Returns the number of links in the list */
+    public int getNumLinks() {
+        return numLinks;
+    }
+    
+    /** Returns the type of the i'th link */
+    public LinkType getLinkType(int i) {
+        return LinkType.typeValToMessageType(buf.getShort(offset(i) + OFFSET_TYPE));
+    }
+    
+    /** Returns the ID of the i'th link's source node */
+    public long getSrcID(int i) {
+        return buf.getLong(offset(i) + OFFSET_SRC_ID);
+    }
+    
+    /** Returns the i'th link's port on its source node */
+    public short getSrcPort(int i) {
+        return buf.getShort(offset(i) + OFFSET_SRC_PORT);
+    }
+    
+    /** Returns the ID of the i'th link's destination node */
+    public long getDstID(int i) {
+        return buf.getLong(offset(i) + OFFSET_DST_ID);
+    }
+    
+    /** Returns the i'th link's port on its destination node */
+    public short getDstPort(int i) {
+        return buf.getShort(offset(i) + OFFSET_DST_PORT);
+    }
+    
+    /** Returns the capacity of the i'th link in bits per second */
+    public long getCapacity(int i) {
+        return buf.getLong(offset(i) + OFFSET_CAPACITY);
+    }
+    
+    public String toString() {
+        return super.toString() + TSSEP + numLinks + " links";
+    }
+}
@@ -32,14 +32,29 @@ public enum LinkType {
         return typeID;
     }
 
+    /** constants indexed by type ID */
+    private static final LinkType[] BY_TYPE_ID;
+    static {
+        int max = -1;
+        for(LinkType t : values())
+            max = Math.max(max, t.typeID);
+        
+        BY_TYPE_ID = new LinkType[max + 1];
+        for(LinkType t : values())
+            if(t.typeID >= 0)
+                BY_TYPE_ID[t.typeID] = t;
+    }
+
     /** 
      * Returns the LinkType constant associated with typeID, if any or
      * UNKOWN if no type is matched.
      */
     public static LinkType typeValToMessageType(short typeID) {
-        for(LinkType t : LinkType.values())
-            if(t.getTypeID() == typeID)
+        if(typeID >= 0 && typeID < BY_TYPE_ID.length) {
+            LinkType t = BY_TYPE_ID[typeID];
+            if(t != null)
                 return t;
+        }
 
         return UNKNOWN;
     }
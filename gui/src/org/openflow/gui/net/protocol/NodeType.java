@@ -35,14 +35,29 @@ public enum NodeType {
         return typeID;
     }
 
+    /** constants indexed by type ID */
+    private static final NodeType[] BY_TYPE_ID;
+    static {
+        int max = -1;
+        for(NodeType t : values())
+            max = Math.max(max, t.typeID);
+        
+        BY_TYPE_ID = new NodeType[max + 1];
+        for(NodeType t : values())
+            if(t.typeID >= 0)
+                BY_TYPE_ID[t.typeID] = t;
+    }
+
     /** 
      * Returns the NodeType constant associated with typeID, if any or
      * UNKOWN if no type is matched.
      */
     public static NodeType typeValToMessageType(short typeID) {
-        for(NodeType t : NodeType.values())
-            if(t.getTypeID() == typeID)
+        if(typeID >= 0 && typeID < BY_TYPE_ID.length) {
+            NodeType t = BY_TYPE_ID[typeID];
+            if(t != null)
                 return t;
+        }
 
         return UNKNOWN;
     }
@@ -0,0 +1,50 @@
+package org.openflow.gui.net.protocol;
+
+import java.io.IOException;
+
+import org.openflow.gui.net.ByteBufferDataInput;
+
+/**
+ * A list of nodes which is read directly from the buffer it was received into
+ * (see OFGMessageView).  It has the same wire format as NodesList.
+ */
+public class NodesListView extends OFGMessageView {
+    /** number of nodes in the list */
+    private final int numNodes;
+    
+    public NodesListView(final int len, final OFGMessageType t, final int xid, final ByteBufferDataInput in) throws IOException {
+        super(len, t, xid, in);
+        
+        // make sure the number of bytes leftover makes sense
+        if(bodyLen % Node.SIZEOF != 0) {
+            throw new IOException("Body of switch list is not a multiple of " + 
+                                  Node.SIZEOF + 
+                                  " (length of body is " + bodyLen + " bytes)");
+        }
+        numNodes = bodyLen / Node.SIZEOF;
+    }
+    
+    /** Returns the number of nodes in the list */
+    public int getNumNodes() {
+        return numNodes;
+    }
+    
+    /** Returns the type of the i'th node */
+    public NodeType getNodeType(int i) {
+        return NodeType.typeValToMessageType(buf.getShort(base + i * Node.SIZEOF));
+    }
+    
+    /** Returns the ID of the i'th node */
+    public long getNodeID(int i) {
+        return buf.getLong(base + i * Node.SIZEOF + 2);
+    }
+    
+    /** Returns a new Node object representing the i'th node */
+    public Node getNode(int i) {
+        return new Node(getNodeType(i), getNodeID(i));
+    }
+    
+    public String toString() {
+        return super.toString() + TSSEP + numNodes + " nodes";
+    }
+}
@@ -0,0 +1,406 @@
+package org.openflow.gui.net.protocol;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.openflow.gui.net.ByteBufferDataInput;
+import org.openflow.gui.net.protocol.auth.AuthRequest;
+import org.openflow.gui.net.protocol.auth.AuthStatus;
+import org.openflow.protocol.AggregateStatsReply;
+import org.openflow.protocol.FlowStatsReply;
+import org.openflow.protocol.PortStatsReply;
+import org.openflow.protocol.StatsFlag;
+import org.openflow.protocol.StatsType;
+import org.openflow.protocol.SwitchDescriptionStats;
+
+/**
+ * Maps message type IDs (and stats type IDs) to the decoders which construct
+ * received messages of that type.  Lookups are a single array index (the
+ * tables are atomic arrays, so decoders registered by one thread are seen by
+ * the threads decoding messages without any locking).  The
+ * built-in types are registered automatically; extensions may register
+ * decoders for additional type IDs (the messages they return may have any
+ * OFGMessageType, so a MessageProcessor which handles them should check for
+ * their class before switching on OFGMessage.type).
+ *
+ * The registry also counts the messages, bytes, and time spent decoding for
+ * each message type and stats type.
+ */
+public final class OFGCodecRegistry {
+    /** Constructs received messages of one type. */
+    public interface Decoder {
+        /**
+         * Constructs the object representing a received message.  The header
+         * (length, type, and transaction ID) has already been read.
+         *
+         * @param len     length of the message including its header
+         * @param typeID  the message's type ID
+         * @param xid     the message's transaction ID
+         * @param in      where to read the rest of the message from
+         */
+        public OFGMessage decode(int len, byte typeID, int xid, DataInput in) throws IOException;
+    }
+
+    /** Constructs received stats replies of one stats type. */
+    public interface StatsDecoder {
+        /**
+         * Constructs the object representing a received stats reply.  The
+         * stats header (datapath ID, stats type, and flags) has already been
+         * read.
+         *
+         * @param len    length of the message including its header
+         * @param dpid   the datapath ID the stats are about
+         * @param flags  the stats flags
+         * @param in     where to read the rest of the reply from
+         */
+        public StatsHeader decode(int len, long dpid, StatsFlag flags, DataInput in) throws IOException;
+    }
+
+    /** a stats decoder and the full stats type ID it was registered for */
+    private static final class StatsEntry {
+        final short statsTypeID;
+        final StatsDecoder decoder;
+
+        StatsEntry(short statsTypeID, StatsDecoder decoder) {
+            this.statsTypeID = statsTypeID;
+            this.decoder = decoder;
+        }
+    }
+
+    /** decoders indexed by message type ID */
+    private static final AtomicReferenceArray<Decoder> decoders = new AtomicReferenceArray<Decoder>(256);
+
+    /**
+     * decoders which read straight from the receive buffer (see
+     * OFGMessageView) indexed by message type ID
+     */
+    private static final AtomicReferenceArray<Decoder> flyweightDecoders = new AtomicReferenceArray<Decoder>(256);
+
+    /** stats decoders indexed by the low byte of their stats type ID */
+    private static final AtomicReferenceArray<StatsEntry> statsDecoders = new AtomicReferenceArray<StatsEntry>(256);
+
+    /** number of messages received of each message type */
+    private static final AtomicLongArray numMessages = new AtomicLongArray(256);
+
+    /** number of bytes received of each message type */
+    private static final AtomicLongArray numBytes = new AtomicLongArray(256);
+
+    /** time spent decoding messages of each message type */
+    private static final AtomicLongArray decodeTime_ns = new AtomicLongArray(256);
+
+    /** number of stats replies received of each stats type (by the low byte of its ID) */
+    private static final AtomicLongArray numStatsMessages = new AtomicLongArray(256);
+
+    /** number of bytes received of each stats type (by the low byte of its ID) */
+    private static final AtomicLongArray numStatsBytes = new AtomicLongArray(256);
+
+    /** time spent decoding stats replies of each stats type (by the low byte of its ID) */
+    private static final AtomicLongArray statsDecodeTime_ns = new AtomicLongArray(256);
+
+    /** prevents this class from being instantiated */
+    private OFGCodecRegistry() {}
+
+    /**
+     * Registers the decoder for messages with the specified type ID (replacing
+     * any decoder previously registered for it).
+     */
+    public static synchronized void register(byte typeID, Decoder d) {
+        decoders.set(typeID & 0xFF, d);
+    }
+
+    /**
+     * Registers a decoder for messages with the specified type ID which is
+     * used instead of the regular one when decoding straight from a buffer.
+     * The messages it returns may refer to the receive buffer (see
+     * OFGMessageView).
+     */
+    public static synchronized void registerFlyweight(byte typeID, Decoder d) {
+        flyweightDecoders.set(typeID & 0xFF, d);
+    }
+
+    /**
+     * Registers the decoder for stats replies with the specified stats type
+     * ID (replacing any decoder previously registered for it).  Stats types
+     * are indexed by the low byte of their ID, so two registered stats types
+     * may not share a low byte.
+     *
+     * @throws IllegalArgumentException  if a different stats type with the
+     *                                   same low byte is already registered
+     */
+    public static synchronized void registerStats(short statsTypeID, StatsDecoder d) {
+        int i = statsTypeID & 0xFF;
+        StatsEntry e = statsDecoders.get(i);
+        if(e != null && e.statsTypeID != statsTypeID)
+            throw new IllegalArgumentException("stats type " + statsTypeID + " conflicts with stats type " + e.statsTypeID);
+
+        statsDecoders.set(i, new StatsEntry(statsTypeID, d));
+    }
+
+    /**
+     * Constructs the object representing the received message.  The message is
+     * known to be of length len and the rest of it (everything after the
+     * length field) should be extracted from in.
+     *
+     * @param flyweight  whether to use the flyweight decoder for the message's
+     *                   type, if any (in must be a ByteBufferDataInput)
+     */
+    public static OFGMessage decode(int len, DataInput in, boolean flyweight) throws IOException {
+        long start = System.nanoTime();
+
+        // parse the message header (except length which was already done)
+        byte typeID = in.readByte();
+        int i = typeID & 0xFF;
+        int xid = in.readInt();
+
+        Decoder d = flyweight ? flyweightDecoders.get(i) : null;
+        if(d == null)
+            d = decoders.get(i);
+
+        numMessages.incrementAndGet(i);
+        numBytes.addAndGet(i, len);
+        try {
+            if(d == null)
+                throw new IOException("Unknown type ID: " + typeID);
+
+            OFGMessage msg = d.decode(len, typeID, xid, in);
+            msg.xid = xid;
+            return msg;
+        }
+        finally {
+            decodeTime_ns.addAndGet(i, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Constructs the stats reply whose OFGMessage header has been read from
+     * in.  The time spent is attributed to the stats type as well as to
+     * STAT_REPLY.
+     */
+    public static StatsHeader decodeStats(int len, DataInput in) throws IOException {
+        long start = System.nanoTime();
+
+        // parse the stats header
+        long dpid = in.readLong();
+        short statsTypeID = in.readShort();
+        StatsFlag flags = StatsFlag.typeValToStatsFlag(in.readShort());
+
+        int i = statsTypeID & 0xFF;
+        StatsEntry e = statsDecoders.get(i);
+        if(e == null || e.statsTypeID != statsTypeID) {
+            StatsType t = StatsType.typeValToStatsType(statsTypeID);
+            if(t == null)
+                throw new IOException("Unknown stats type ID: " + statsTypeID);
+            else
+                throw new IOException("Unhandled stats type received: " + t.toString());
+        }
+
+        numStatsMessages.incrementAndGet(i);
+        numStatsBytes.addAndGet(i, len);
+        try {
+            return e.decoder.decode(len, dpid, flags, in);
+        }
+        finally {
+            statsDecodeTime_ns.addAndGet(i, System.nanoTime() - start);
+        }
+    }
+
+    // ------------------- Counters ------------------- //
+
+    /** Returns the number of messages received with the specified type ID. */
+    public static long getNumMessages(byte typeID) {
+        return numMessages.get(typeID & 0xFF);
+    }
+
+    /** Returns the number of bytes received in messages with the specified type ID. */
+    public static long getNumBytes(byte typeID) {
+        return numBytes.get(typeID & 0xFF);
+    }
+
+    /** Returns the time spent decoding messages with the specified type ID. */
+    public static long getDecodeTime_ns(byte typeID) {
+        return decodeTime_ns.get(typeID & 0xFF);
+    }
+
+    /** Returns the number of stats replies received with the specified stats type ID. */
+    public static long getNumStatsMessages(short statsTypeID) {
+        return numStatsMessages.get(statsTypeID & 0xFF);
+    }
+
+    /** Returns the number of bytes received in stats replies with the specified stats type ID. */
+    public static long getNumStatsBytes(short statsTypeID) {
+        return numStatsBytes.get(statsTypeID & 0xFF);
+    }
+
+    /** Returns the time spent decoding stats replies with the specified stats type ID. */
+    public static long getStatsDecodeTime_ns(short statsTypeID) {
+        return statsDecodeTime_ns.get(statsTypeID & 0xFF);
+    }
+
+    /** Resets all of the counters to zero. */
+    public static void resetCounters() {
+        for(int i=0; i<256; i++) {
+            numMessages.set(i, 0);
+            numBytes.set(i, 0);
+            decodeTime_ns.set(i, 0);
+            numStatsMessages.set(i, 0);
+            numStatsBytes.set(i, 0);
+            statsDecodeTime_ns.set(i, 0);
+        }
+    }
+
+    /**
+     * Returns a summary of the counters for each message type and stats type
+     * which has been received (one type per line).
+     */
+    public static String countersToString() {
+        StringBuilder sb = new StringBuilder();
+        for(int i=0; i<256; i++) {
+            long n = numMessages.get(i);
+            if(n == 0)
+                continue;
+
+            OFGMessageType t = OFGMessageType.typeValToMessageType((byte)i);
+            appendCounters(sb, (t != null) ? t.toString() : "type " + i, n, numBytes.get(i), decodeTime_ns.get(i));
+        }
+
+        for(int i=0; i<256; i++) {
+            long n = numStatsMessages.get(i);
+            if(n == 0)
+                continue;
+
+            // only registered stats types are counted
+            short statsTypeID = statsDecoders.get(i).statsTypeID;
+            StatsType t = StatsType.typeValToStatsType(statsTypeID);
+            appendCounters(sb, "  stats " + ((t != null) ? t.toString() : "type " + statsTypeID),
+                           n, numStatsBytes.get(i), statsDecodeTime_ns.get(i));
+        }
+        return sb.toString();
+    }
+
+    /** appends one line of counters to sb */
+    private static void appendCounters(StringBuilder sb, String name, long n, long bytes, long ns) {
+        sb.append(name).append(": ").append(n).append(" msgs, ")
+          .append(bytes).append("B, ")
+          .append(ns / n).append("ns/msg decode\n");
+    }
+
+    // ------------------- Built-in Types ------------------- //
+
+    /** decodes messages which consist only of a header */
+    private static final Decoder HEADER_ONLY = new Decoder() {
+        public OFGMessage decode(int len, byte typeID, int xid, DataInput in) {
+            return new OFGMessage(OFGMessageType.typeValToMessageType(typeID), xid);
+        }
+    };
+
+    /** rejects messages which only the GUI sends */
+    private static final Decoder UNEXPECTED = new Decoder() {
+        public OFGMessage decode(int len, byte typeID, int xid, DataInput in) throws IOException {
+            throw new IOException("Received unexpected message type: " + OFGMessageType.typeValToMessageType(typeID).toString() + " (len=" + len + "B)");
+        }
+    };
+
+    static {
+        register(OFGMessageType.AUTH_REQUEST.getTypeID(), new Decoder() {
+            public OFGMessage decode(int len, byte typeID, int xid, DataInput in) throws IOException {
+                return new AuthRequest(len, xid, in);
+            }
+        });
+        register(OFGMessageType.AUTH_STATUS.getTypeID(), new Decoder() {
+            public OFGMessage decode(int len, byte typeID, int xid, DataInput in) throws IOException {
+                return new AuthStatus(len, xid, in);
+            }
+        });
+        register(OFGMessageType.NODES_ADD.getTypeID(), new Decoder() {
+            public OFGMessage decode(int len, byte typeID, int xid, DataInput in) throws IOException {
+                return new NodesAdd(len, xid, in);
+            }
+        });
+        register(OFGMessageType.NODES_DELETE.getTypeID(), new Decoder() {
+            public OFGMessage decode(int len, byte typeID, int xid, DataInput in) throws IOException {
+                return new NodesDel(len, xid, in);
+            }
+        });
+        register(OFGMessageType.LINKS_ADD.getTypeID(), new Decoder() {
+            public OFGMessage decode(int len, byte typeID, int xid, DataInput in) throws IOException {
+                return new LinksAdd(len, xid, in);
+            }
+        });
+        register(OFGMessageType.LINKS_DELETE.getTypeID(), new Decoder() {
+            public OFGMessage decode(int len, byte typeID, int xid, DataInput in) throws IOException {
+                return new LinksDel(len, xid, in);
+            }
+        });
+        register(OFGMessageType.FLOWS_ADD.getTypeID(), new Decoder() {
+            public OFGMessage decode(int len, byte typeID, int xid, DataInput in) throws IOException {
+                return new FlowsAdd(len, xid, in);
+            }
+        });
+        register(OFGMessageType.FLOWS_DELETE.getTypeID(), new Decoder() {
+            public OFGMessage decode(int len, byte typeID, int xid, DataInput in) throws IOException {
+                return new FlowsDel(len, xid, in);
+            }
+        });
+        register(OFGMessageType.HELLO.getTypeID(), new Decoder() {
+            public OFGMessage decode(int len, byte typeID, int xid, DataInput in) throws IOException {
+                return new Hello(len, xid, in);
+            }
+        });
+        register(OFGMessageType.STAT_REPLY.getTypeID(), new Decoder() {
+            public OFGMessage decode(int len, byte typeID, int xid, DataInput in) throws IOException {
+                return decodeStats(len, in);
+            }
+        });
+
+        register(OFGMessageType.ECHO_REQUEST.getTypeID(), HEADER_ONLY);
+        register(OFGMessageType.ECHO_REPLY.getTypeID(), HEADER_ONLY);
+
+        OFGMessageType[] sentOnly = new OFGMessageType[] {
+            OFGMessageType.DISCONNECT, OFGMessageType.AUTH_REPLY,
+            OFGMessageType.POLL_START, OFGMessageType.POLL_STOP,
+            OFGMessageType.NODES_REQUEST, OFGMessageType.LINKS_REQUEST,
+            OFGMessageType.FLOWS_REQUEST, OFGMessageType.STAT_REQUEST
+        };
+        for(OFGMessageType t : sentOnly)
+            register(t.getTypeID(), UNEXPECTED);
+
+        registerFlyweight(OFGMessageType.NODES_ADD.getTypeID(), new Decoder() {
+            public OFGMessage decode(int len, byte typeID, int xid, DataInput in) throws IOException {
+                return new NodesListView(len, OFGMessageType.NODES_ADD, xid, (ByteBufferDataInput)in);
+            }
+        });
+        registerFlyweight(OFGMessageType.LINKS_ADD.getTypeID(), new Decoder() {
+            public OFGMessage decode(int len, byte typeID, int xid, DataInput in) throws IOException {
+                return new LinkSpecsListView(len, OFGMessageType.LINKS_ADD, xid, (ByteBufferDataInput)in);
+            }
+        });
+        registerFlyweight(OFGMessageType.FLOWS_ADD.getTypeID(), new Decoder() {
+            public OFGMessage decode(int len, byte typeID, int xid, DataInput in) throws IOException {
+                return new FlowsListView(len, OFGMessageType.FLOWS_ADD, xid, (ByteBufferDataInput)in);
+            }
+        });
+
+        registerStats(StatsType.DESC.getTypeID(), new StatsDecoder() {
+            public StatsHeader decode(int len, long dpid, StatsFlag flags, DataInput in) throws IOException {
+                return new SwitchDescriptionStats(dpid, flags, in);
+            }
+        });
+        registerStats(StatsType.AGGREGATE.getTypeID(), new StatsDecoder() {
+            public StatsHeader decode(int len, long dpid, StatsFlag flags, DataInput in) throws IOException {
+                return new AggregateStatsReply(dpid, flags, in);
+            }
+        });
+        registerStats(StatsType.FLOW.getTypeID(), new StatsDecoder() {
+            public StatsHeader decode(int len, long dpid, StatsFlag flags, DataInput in) throws IOException {
+                return new FlowStatsReply(len, dpid, flags, in);
+            }
+        });
+        registerStats(StatsType.PORT.getTypeID(), new StatsDecoder() {
+            public StatsHeader decode(int len, long dpid, StatsFlag flags, DataInput in) throws IOException {
+                return new PortStatsReply(len, dpid, flags, in);
+            }
+        });
+    }
+}
@@ -3,8 +3,7 @@ package org.openflow.gui.net.protocol;
 import java.io.DataInput;
 import java.io.IOException;
 
-import org.openflow.gui.net.protocol.auth.*;
-import org.openflow.protocol.StatsType;
+import org.openflow.gui.net.ByteBufferDataInput;
 
 /**
  * Enumerates what types of messages are in the OpenFlow GUI protocol.
@@ -29,6 +28,9 @@ public enum OFGMessageType {
     
     /** Information about whether a user has been authenticated */
     AUTH_STATUS((byte)0x05),
+
+    /** Protocol version and capability negotiation (see Hello) */
+    HELLO((byte)0x06),
     
     /** Tell the backend to start polling a message */
     POLL_START((byte)0x0E),
@@ -90,85 +92,35 @@ public enum OFGMessageType {
         return typeID;
     }
 
+    /** constants indexed by type ID */
+    private static final OFGMessageType[] BY_TYPE_ID = new OFGMessageType[256];
+    static {
+        for(OFGMessageType t : values())
+            BY_TYPE_ID[t.typeID & 0xFF] = t;
+    }
+
     /** Returns the OFGMessageType constant associated with typeID, if any */
     public static OFGMessageType typeValToMessageType(byte typeID) {
-        for(OFGMessageType t : OFGMessageType.values())
-            if(t.getTypeID() == typeID)
-                return t;
-
-        return null;
+        return BY_TYPE_ID[typeID & 0xFF];
     }
     
     /** 
      * Constructs the object representing the received message.  The message is 
      * known to be of length len and len - 4 bytes representing the rest of the 
-     * message should be extracted from buf.
+     * message should be extracted from buf.  Decoders are looked up in the 
+     * OFGCodecRegistry.
      */
     public static OFGMessage decode(int len, DataInput in) throws IOException {
-        // parse the message header (except length which was already done)
-        byte typeByte = in.readByte();
-        OFGMessageType t = OFGMessageType.typeValToMessageType(typeByte);
-        if(t == null)
-            throw new IOException("Unknown type ID: " + typeByte);
-        
-        int xid = in.readInt();
-        OFGMessage msg = decode(len, t, xid, in);
-        msg.xid = xid;
-        return msg;
+        return OFGCodecRegistry.decode(len, in, false);
     }
      
     /** 
-     * Constructs the object representing the received message.  The message is 
-     * known to be of length len.  The header of the message (length, type,
-     * and transaction ID) have been read, but the remainder is still on the 
-     * input stream.
+     * Like decode(int, DataInput) except that NODES_ADD, LINKS_ADD, and 
+     * FLOWS_ADD messages are decoded as views over the buffer in reads from 
+     * (if in is a ByteBufferDataInput).  Views are only valid until the next 
+     * message is read unless they are detached (see OFGMessageView).
      */
-    private static OFGMessage decode(int len, OFGMessageType t, int xid, DataInput in) throws IOException {
-        // parse the rest of the message
-        switch(t) {
-            case AUTH_REQUEST:
-                return new AuthRequest(len, xid, in);
-            
-            case AUTH_STATUS:
-                return new AuthStatus(len, xid, in);
-            
-            case NODES_ADD:
-                return new NodesAdd(len, xid, in);
-                
-            case NODES_DELETE:
-                return new NodesDel(len, xid, in);
-                
-            case LINKS_ADD:
-                return new LinksAdd(len, xid, in);
-                
-            case LINKS_DELETE:
-                return new LinksDel(len, xid, in);
-                
-            case FLOWS_ADD:
-                return new FlowsAdd(len, xid, in);
-                
-            case FLOWS_DELETE:
-                return new FlowsDel(len, xid, in);
-            
-            case STAT_REPLY:
-                return StatsType.decode(len, t, xid, in);
-
-            case ECHO_REQUEST:
-            case ECHO_REPLY:
-                return new OFGMessage(t, xid);
-                
-            case DISCONNECT:
-            case AUTH_REPLY:
-            case POLL_START:
-            case POLL_STOP:
-            case NODES_REQUEST:
-            case LINKS_REQUEST:
-            case FLOWS_REQUEST:
-            case STAT_REQUEST:
-                throw new IOException("Received unexpected message type: " + t.toString() + " (len=" + len + "B)");
-                
-            default:
-                throw new IOException("Unhandled type received: " + t.toString() + " (len=" + len + "B)");
-        }
+    public static OFGMessage decodeFlyweight(int len, DataInput in) throws IOException {
+        return OFGCodecRegistry.decode(len, in, in instanceof ByteBufferDataInput);
     }
 }
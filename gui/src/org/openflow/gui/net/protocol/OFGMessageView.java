@@ -0,0 +1,75 @@
+package org.openflow.gui.net.protocol;
+
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.openflow.gui.net.ByteBufferDataInput;
+
+/**
+ * Base class for messages which are decoded as views over the buffer they 
+ * were received into rather than as objects.  Fields are read from the buffer
+ * on demand, so decoding allocates almost nothing no matter how many elements
+ * the message holds.
+ * 
+ * A view is only valid until the next message is read from its connection
+ * (the receive buffer is reused).  Call detach() to keep a view longer.
+ */
+public abstract class OFGMessageView extends OFGMessage {
+    /** the buffer holding the body of the message */
+    protected ByteBuffer buf;
+    
+    /** offset in buf where the body of the message starts */
+    protected int base;
+    
+    /** number of bytes in the body of the message */
+    protected final int bodyLen;
+    
+    /**
+     * Creates a view of the body of a message whose header has already been 
+     * read from in.  in is advanced past the end of the body.
+     * 
+     * @param len  length of the whole message (including its header)
+     * @param t    type of the message
+     * @param xid  transaction ID of the message
+     * @param in   input positioned at the start of the body
+     */
+    protected OFGMessageView(final int len, final OFGMessageType t, final int xid, final ByteBufferDataInput in) throws IOException {
+        super(t, xid);
+        bodyLen = len - super.length();
+        
+        ByteBuffer src = in.getBuffer();
+        if(bodyLen < 0 || src.remaining() < bodyLen)
+            throw new EOFException("message body is " + bodyLen + "B but only " + src.remaining() + "B remain");
+        
+        buf = src.duplicate();
+        base = src.position();
+        src.position(base + bodyLen);
+    }
+    
+    /** 
+     * Copies the bytes this view refers to so that it remains valid after the
+     * buffer it was received into is reused.
+     */
+    public void detach() {
+        ByteBuffer copy = ByteBuffer.allocate(bodyLen);
+        ByteBuffer src = buf.duplicate();
+        src.limit(base + bodyLen);
+        src.position(base);
+        copy.put(src);
+        buf = copy;
+        base = 0;
+    }
+    
+    public int length() {
+        return super.length() + bodyLen;
+    }
+    
+    /** Writes the header (via super.write()) and the viewed body as is */
+    public void write(DataOutput out) throws IOException {
+        super.write(out);
+        for(int i=0; i<bodyLen; i++)
+            out.writeByte(buf.get(base + i));
+    }
+}
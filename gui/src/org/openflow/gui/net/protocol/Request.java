@@ -29,6 +29,15 @@ public class Request extends OFGMessage {
             throw(new Error("use RequestLinks for LINKS_REQUEST messages"));
     }
     
+    /** 
+     * Returns a key which identifies what this request is about.  Requests 
+     * which differ only in their request type (e.g., SUBSCRIBE vs. UNSUBSCRIBE)
+     * and transaction ID have the same key.
+     */
+    public String getSubscriptionKey() {
+        return super.type + "/" + type;
+    }
+    
     /** This returns the message length */
     public int length() {
         return super.length() + 3;
@@ -27,6 +27,11 @@ public class RequestLinks extends Request {
         this.srcNode = srcNode;
     }
     
+    /** Adds the source node to the key (see Request.getSubscriptionKey()) */
+    public String getSubscriptionKey() {
+        return super.getSubscriptionKey() + "/" + srcNode.nodeType.getTypeID() + "/" + srcNode.id;
+    }
+    
     /** This returns the message length */
     public int length() {
         return super.length() + Node.SIZEOF;
@@ -28,15 +28,19 @@ public enum RequestType {
         return typeID;
     }
 
+    /** constants indexed by type ID */
+    private static final RequestType[] BY_TYPE_ID = new RequestType[256];
+    static {
+        for(RequestType t : values())
+            BY_TYPE_ID[t.typeID & 0xFF] = t;
+    }
+
     /** 
      * Returns the RequestType constant associated with typeID, if any or
      * UNKOWN if no type is matched.
      */
     public static RequestType typeValToMessageType(byte typeID) {
-        for(RequestType t : RequestType.values())
-            if(t.getTypeID() == typeID)
-                return t;
-
-        return UNKNOWN;
+        RequestType t = BY_TYPE_ID[typeID & 0xFF];
+        return (t != null) ? t : UNKNOWN;
     }
 }
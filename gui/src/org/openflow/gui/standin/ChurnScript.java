@@ -0,0 +1,138 @@
+package org.openflow.gui.standin;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openflow.gui.net.protocol.Flow;
+import org.openflow.gui.net.protocol.LinkSpec;
+
+/**
+ * Changes a StandInBackend's topology over time the way a busy network
+ * would: cables flap (go down and come back up a little later) and storms of
+ * short-lived flows come and go.  Each kind of churn runs on the script's own
+ * timer once it is scheduled, until stop() is called.
+ */
+public class ChurnScript {
+    /** the stand-in whose topology is changed */
+    private final StandInBackend backend;
+
+    /** the topology being served (flaps pick from its cables, storms route over it) */
+    private final SyntheticTopology topo;
+
+    /** picks what to change (guarded by itself) */
+    private final Random random;
+
+    /** runs the churn */
+    private final Timer timer = new Timer("ChurnScript", true);
+
+    /** indices (into topo's links) of the first link of each cable which is down (guarded by itself) */
+    private final HashSet<Integer> downCables = new HashSet<Integer>();
+
+    /** number of cables which have flapped */
+    private final AtomicLong numFlaps = new AtomicLong(0);
+
+    /** number of flows added by storms */
+    private final AtomicLong numStormFlows = new AtomicLong(0);
+
+    /**
+     * Creates a script which will churn b's topology (which should have been
+     * populated from topo).
+     */
+    public ChurnScript(StandInBackend b, SyntheticTopology topo, long seed) {
+        backend = b;
+        this.topo = topo;
+        random = new Random(seed);
+    }
+
+    /** returns a random int in [0, n) */
+    private int nextInt(int n) {
+        synchronized(random) {
+            return random.nextInt(n);
+        }
+    }
+
+    /**
+     * Flaps random cables: each flap takes both links of a cable down and
+     * brings them back up downtime_ms later.
+     *
+     * @param flapsPerSecond  how often a cable goes down
+     * @param downtime_ms     how long each cable stays down
+     */
+    public void linkFlaps(double flapsPerSecond, final int downtime_ms) {
+        final List<LinkSpec> links = topo.getLinks();
+        if(links.isEmpty() || flapsPerSecond <= 0)
+            return;
+
+        long period_ms = Math.max(1, (long)(1000 / flapsPerSecond));
+        timer.scheduleAtFixedRate(new TimerTask() {
+            public void run() {
+                final int i = nextInt(links.size() / 2) * 2;
+                synchronized(downCables) {
+                    if(!downCables.add(i))
+                        return;
+                }
+
+                final List<LinkSpec> cable = Arrays.asList(links.get(i), links.get(i + 1));
+                backend.removeLinks(cable);
+                numFlaps.incrementAndGet();
+                timer.schedule(new TimerTask() {
+                    public void run() {
+                        backend.addLinks(cable);
+                        synchronized(downCables) {
+                            downCables.remove(i);
+                        }
+                    }
+                }, downtime_ms);
+            }
+        }, period_ms, period_ms);
+    }
+
+    /**
+     * Adds bursts of flows between random endpoints which are removed again
+     * after a while.
+     *
+     * @param flowsPerBurst  number of flows added at once
+     * @param period_ms      time between bursts
+     * @param lifetime_ms    how long each burst's flows last
+     */
+    public void flowStorm(final int flowsPerBurst, long period_ms, final int lifetime_ms) {
+        timer.scheduleAtFixedRate(new TimerTask() {
+            public void run() {
+                final List<Flow> flows;
+                synchronized(random) {
+                    synchronized(topo) {
+                        flows = topo.randomFlows(flowsPerBurst, random);
+                    }
+                }
+
+                backend.addFlows(flows);
+                numStormFlows.addAndGet(flows.size());
+                timer.schedule(new TimerTask() {
+                    public void run() {
+                        backend.removeFlows(flows);
+                    }
+                }, lifetime_ms);
+            }
+        }, period_ms, period_ms);
+    }
+
+    /** Stops all churn (cables which are down stay down). */
+    public void stop() {
+        timer.cancel();
+    }
+
+    /** Returns the number of cables which have flapped. */
+    public long getNumFlaps() {
+        return numFlaps.get();
+    }
+
+    /** Returns the number of flows which storms have added. */
+    public long getNumStormFlows() {
+        return numStormFlows.get();
+    }
+}
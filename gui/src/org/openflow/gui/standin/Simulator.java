@@ -0,0 +1,105 @@
+package org.openflow.gui.standin;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.openflow.gui.Options;
+
+/**
+ * Runs a StandInBackend which serves a synthetic topology (see
+ * SyntheticTopology), optionally with flows and churn (see ChurnScript), so
+ * the GUI can be pushed to large networks without a controller.
+ */
+public final class Simulator {
+    private Simulator() { /* this class may not be instantiated */ }
+
+    /** prints how to run the simulator and exits */
+    private static void usage() {
+        System.err.println("usage: Simulator [-port PORT] [-v1] [-seed SEED]\n" +
+                           "                 [-ring N | -fattree K | -leafspine SPINES LEAVES HOSTS_PER_LEAF |\n" +
+                           "                  -random SWITCHES AVG_DEGREE HOSTS_PER_SWITCH]\n" +
+                           "                 [-flows N] [-flaps PER_SECOND DOWNTIME_MS]\n" +
+                           "                 [-storm FLOWS_PER_BURST PERIOD_MS LIFETIME_MS]");
+        System.exit(1);
+    }
+
+    public static void main(String args[]) throws IOException {
+        int port = Options.DEFAULT_PORT;
+        boolean v2 = true;
+        long seed = 1;
+        SyntheticTopology topo = null;
+        int numFlows = 0;
+        double flapsPerSecond = 0;
+        int flapDowntime_ms = 0;
+        int stormFlows = 0, stormPeriod_ms = 0, stormLifetime_ms = 0;
+
+        try {
+            for(int i=0; i<args.length; i++) {
+                String a = args[i];
+                if(a.equals("-port"))
+                    port = Integer.parseInt(args[++i]);
+                else if(a.equals("-v1"))
+                    v2 = false;
+                else if(a.equals("-seed"))
+                    seed = Long.parseLong(args[++i]);
+                else if(a.equals("-ring"))
+                    topo = SyntheticTopology.ring(Integer.parseInt(args[++i]));
+                else if(a.equals("-fattree"))
+                    topo = SyntheticTopology.fatTree(Integer.parseInt(args[++i]));
+                else if(a.equals("-leafspine")) {
+                    topo = SyntheticTopology.leafSpine(Integer.parseInt(args[i+1]),
+                                                       Integer.parseInt(args[i+2]),
+                                                       Integer.parseInt(args[i+3]));
+                    i += 3;
+                }
+                else if(a.equals("-random")) {
+                    topo = SyntheticTopology.random(Integer.parseInt(args[i+1]),
+                                                    Integer.parseInt(args[i+2]),
+                                                    Integer.parseInt(args[i+3]),
+                                                    seed);
+                    i += 3;
+                }
+                else if(a.equals("-flows"))
+                    numFlows = Integer.parseInt(args[++i]);
+                else if(a.equals("-flaps")) {
+                    flapsPerSecond = Double.parseDouble(args[i+1]);
+                    flapDowntime_ms = Integer.parseInt(args[i+2]);
+                    i += 2;
+                }
+                else if(a.equals("-storm")) {
+                    stormFlows = Integer.parseInt(args[i+1]);
+                    stormPeriod_ms = Integer.parseInt(args[i+2]);
+                    stormLifetime_ms = Integer.parseInt(args[i+3]);
+                    i += 3;
+                }
+                else
+                    usage();
+            }
+        }
+        catch(ArrayIndexOutOfBoundsException e) {
+            usage();
+        }
+        catch(NumberFormatException e) {
+            usage();
+        }
+
+        if(topo == null)
+            topo = SyntheticTopology.ring(16);
+
+        StandInBackend b = new StandInBackend(port);
+        b.setSupportsV2(v2);
+        b.setTrafficModel(new TrafficModel(100 * 1000 * 1000, 60 * 1000, seed));
+        topo.addTo(b);
+        if(numFlows > 0)
+            b.addFlows(topo.randomFlows(numFlows, new Random(seed)));
+
+        ChurnScript churn = new ChurnScript(b, topo, seed);
+        churn.linkFlaps(flapsPerSecond, flapDowntime_ms);
+        if(stormFlows > 0)
+            churn.flowStorm(stormFlows, stormPeriod_ms, stormLifetime_ms);
+
+        System.out.println("Simulator: serving " + topo + ", " + b.getNumFlows() + " flows on port " +
+                           b.getPort() + (v2 ? "" : " (protocol version 1 only)"));
+        b.start();
+    }
+}
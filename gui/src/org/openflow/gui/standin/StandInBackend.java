@@ -0,0 +1,369 @@
+package org.openflow.gui.standin;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.openflow.gui.LinkEndpoints;
+import org.openflow.gui.net.protocol.Flow;
+import org.openflow.gui.net.protocol.FlowHop;
+import org.openflow.gui.net.protocol.Hello;
+import org.openflow.gui.net.protocol.Link;
+import org.openflow.gui.net.protocol.LinkSpec;
+import org.openflow.gui.net.protocol.Node;
+import org.openflow.gui.net.protocol.NodeType;
+import org.openflow.protocol.SwitchDescriptionStats;
+import org.openflow.util.string.DPIDUtil;
+
+/**
+ * A stand-in for the backend which the GUI can connect to for local testing.
+ * It serves a topology which is set up (and changed) through its API (see
+ * SyntheticTopology and ChurnScript): nodes, links, and flows are sent to
+ * clients which ask for them, and changes are pushed to clients which
+ * subscribed to them.  Echo and stats requests are answered (with counters
+ * made up by a TrafficModel), and polled requests are answered as often as
+ * the client asked.  Clients may negotiate protocol version 2 (see Hello)
+ * unless that is disabled with setSupportsV2().
+ */
+public class StandInBackend extends Thread {
+    /** how often polls are checked (polls are requested in units of 100ms) */
+    public static final int POLL_TICK_MSEC = 100;
+
+    /** the socket clients connect to */
+    private final ServerSocketChannel server;
+
+    /** connected clients */
+    private final CopyOnWriteArrayList<StandInSession> sessions = new CopyOnWriteArrayList<StandInSession>();
+
+    /** nodes in the topology, keyed by ID (guarded by this) */
+    private final LinkedHashMap<Long, Node> nodes = new LinkedHashMap<Long, Node>();
+
+    /** links in the topology, keyed by their endpoints (guarded by this) */
+    private final LinkedHashMap<LinkEndpoints, LinkSpec> links = new LinkedHashMap<LinkEndpoints, LinkSpec>();
+
+    /** flows in the topology, keyed by ID (guarded by this) */
+    private final LinkedHashMap<Integer, Flow> flows = new LinkedHashMap<Integer, Flow>();
+
+    /** makes up the counters in stats replies */
+    private volatile TrafficModel traffic = new TrafficModel();
+
+    /** sends polled messages when they are due */
+    private final Timer pollTimer = new Timer("StandInBackend-polls", true);
+
+    /** whether clients may negotiate protocol version 2 */
+    private volatile boolean supportsV2 = true;
+
+    /** the capabilities offered to clients which negotiate version 2 */
+    private volatile int capabilities = Hello.CAP_FRAGMENTATION | Hello.CAP_DEFLATE;
+
+    /** whether the server has been shut down */
+    private volatile boolean done = false;
+
+    /**
+     * Creates a stand-in which listens on the specified port.  Clients are not
+     * accepted until the thread is started.
+     *
+     * @param port  the port to listen on (0 picks any free port)
+     */
+    public StandInBackend(int port) throws IOException {
+        super("StandInBackend");
+        server = ServerSocketChannel.open();
+        server.socket().setReuseAddress(true);
+        server.socket().bind(new InetSocketAddress(port));
+
+        pollTimer.scheduleAtFixedRate(new TimerTask() {
+            public void run() {
+                long now = System.currentTimeMillis();
+                for(StandInSession s : sessions)
+                    s.firePolls(now);
+            }
+        }, POLL_TICK_MSEC, POLL_TICK_MSEC);
+    }
+
+    /** Returns the port the stand-in listens on. */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Sets whether clients may negotiate protocol version 2.  If not, their
+     * Hello is ignored just as a version 1 backend would ignore it.
+     */
+    public void setSupportsV2(boolean b) {
+        supportsV2 = b;
+    }
+
+    /** Returns whether clients may negotiate protocol version 2. */
+    public boolean supportsV2() {
+        return supportsV2;
+    }
+
+    /** Sets the capabilities (see Hello) offered to clients which negotiate version 2. */
+    public void setCapabilities(int caps) {
+        capabilities = caps;
+    }
+
+    /** Returns the capabilities offered to clients which negotiate version 2. */
+    public int getCapabilities() {
+        return capabilities;
+    }
+
+    /** Sets the model which makes up the counters in stats replies. */
+    public void setTrafficModel(TrafficModel m) {
+        traffic = m;
+    }
+
+    /** Returns the model which makes up the counters in stats replies. */
+    public TrafficModel getTrafficModel() {
+        return traffic;
+    }
+
+    /** Returns the description to send for the switch with the specified ID. */
+    public SwitchDescriptionStats describe(long dpid) {
+        return new SwitchDescriptionStats(dpid, "Stand-In Networks", "Synthetic Switch",
+                                          "StandInBackend", Long.toHexString(dpid),
+                                          "switch " + DPIDUtil.toString(dpid));
+    }
+
+    /** Accepts clients until the stand-in is shut down. */
+    public void run() {
+        while(!done) {
+            try {
+                SocketChannel ch = server.accept();
+                StandInSession s = new StandInSession(this, ch);
+                sessions.add(s);
+                s.start();
+            }
+            catch(IOException e) {
+                if(!done)
+                    System.err.println("StandInBackend: unable to accept a client: " + e.getMessage());
+            }
+        }
+    }
+
+    /** Stops accepting clients and disconnects the connected ones. */
+    public void shutdown() {
+        done = true;
+        pollTimer.cancel();
+        try {
+            server.close();
+        }
+        catch(IOException e) { /* ignore */ }
+
+        for(StandInSession s : sessions)
+            s.close();
+    }
+
+    /** called by a session once its client is gone */
+    void sessionClosed(StandInSession s) {
+        sessions.remove(s);
+    }
+
+    /** Returns the clients which are currently connected. */
+    public List<StandInSession> getSessions() {
+        return new ArrayList<StandInSession>(sessions);
+    }
+
+    // ------------- Topology ------------- //
+
+    /** Adds nodes to the topology and tells subscribed clients about them. */
+    public void addNodes(Collection<Node> add) {
+        Node[] added;
+        synchronized(this) {
+            for(Node n : add)
+                nodes.put(n.id, n);
+            added = add.toArray(new Node[add.size()]);
+        }
+
+        for(StandInSession s : sessions)
+            s.nodesAdded(added);
+    }
+
+    /**
+     * Removes nodes (and any links attached to them) from the topology and
+     * tells subscribed clients about it.
+     */
+    public void removeNodes(Collection<Long> ids) {
+        List<Node> removed = new ArrayList<Node>();
+        List<Link> removedLinks = new ArrayList<Link>();
+        synchronized(this) {
+            for(Long id : ids) {
+                Node n = nodes.remove(id);
+                if(n != null)
+                    removed.add(n);
+            }
+
+            Iterator<LinkSpec> itr = links.values().iterator();
+            while(itr.hasNext()) {
+                LinkSpec l = itr.next();
+                if(ids.contains(l.srcNode.id) || ids.contains(l.dstNode.id)) {
+                    removedLinks.add(asLink(l));
+                    itr.remove();
+                }
+            }
+        }
+
+        Link[] linksGone = removedLinks.toArray(new Link[removedLinks.size()]);
+        Node[] nodesGone = removed.toArray(new Node[removed.size()]);
+        for(StandInSession s : sessions) {
+            s.linksRemoved(linksGone);
+            s.nodesRemoved(nodesGone);
+        }
+    }
+
+    /** Adds links to the topology and tells subscribed clients about them. */
+    public void addLinks(Collection<LinkSpec> add) {
+        LinkSpec[] added;
+        synchronized(this) {
+            for(LinkSpec l : add)
+                links.put(endpoints(l), l);
+            added = add.toArray(new LinkSpec[add.size()]);
+        }
+
+        for(StandInSession s : sessions)
+            s.linksAdded(added);
+    }
+
+    /** Removes links from the topology and tells subscribed clients about it. */
+    public void removeLinks(Collection<? extends Link> remove) {
+        List<Link> removed = new ArrayList<Link>();
+        synchronized(this) {
+            for(Link l : remove) {
+                LinkSpec old = links.remove(endpoints(l));
+                if(old != null)
+                    removed.add(asLink(old));
+            }
+        }
+
+        Link[] gone = removed.toArray(new Link[removed.size()]);
+        for(StandInSession s : sessions)
+            s.linksRemoved(gone);
+    }
+
+    /** Adds flows to the topology and tells subscribed clients about them. */
+    public void addFlows(Collection<Flow> add) {
+        Flow[] added;
+        synchronized(this) {
+            for(Flow f : add)
+                flows.put(f.id, f);
+            added = add.toArray(new Flow[add.size()]);
+        }
+
+        for(StandInSession s : sessions)
+            s.flowsAdded(added);
+    }
+
+    /** Removes flows from the topology and tells subscribed clients about it. */
+    public void removeFlows(Collection<Flow> remove) {
+        List<Flow> removed = new ArrayList<Flow>();
+        synchronized(this) {
+            for(Flow f : remove)
+                if(flows.remove(f.id) != null)
+                    removed.add(f);
+        }
+
+        Flow[] gone = removed.toArray(new Flow[removed.size()]);
+        for(StandInSession s : sessions)
+            s.flowsRemoved(gone);
+    }
+
+    /** returns the key links are stored under */
+    private static LinkEndpoints endpoints(Link l) {
+        return new LinkEndpoints(l.linkType, l.dstNode.id, l.dstPort, l.srcNode.id, l.srcPort, 0);
+    }
+
+    /**
+     * returns l as a plain Link (a LinkSpec would write its capacity too,
+     * which does not belong in a LinksDel)
+     */
+    private static Link asLink(LinkSpec l) {
+        return new Link(l.linkType, l.srcNode, l.srcPort, l.dstNode, l.dstPort);
+    }
+
+    /** Returns a copy of the nodes in the topology. */
+    public synchronized Node[] getNodes() {
+        return nodes.values().toArray(new Node[nodes.size()]);
+    }
+
+    /** Returns a copy of the flows in the topology. */
+    public synchronized Flow[] getFlows() {
+        return flows.values().toArray(new Flow[flows.size()]);
+    }
+
+    /** Returns the number of flows in the topology. */
+    public synchronized int getNumFlows() {
+        return flows.size();
+    }
+
+    /** 
+     * Returns the IDs of the flows which enter the network at the specified 
+     * switch (i.e., whose first non-host node it is), in ascending order.
+     */
+    public synchronized int[] getFlowIDs(long dpid) {
+        Set<Integer> ids = new TreeSet<Integer>();
+        for(Flow f : flows.values())
+            if(getIngressID(f) == dpid)
+                ids.add(f.id);
+        
+        int[] ret = new int[ids.size()];
+        int i = 0;
+        for(Integer id : ids)
+            ret[i++] = id;
+        return ret;
+    }
+    
+    /** returns the ID of the first non-host node of f (or of its destination if all are hosts) */
+    private static long getIngressID(Flow f) {
+        if(f.srcNode.nodeType != NodeType.HOST)
+            return f.srcNode.id;
+        for(FlowHop h : f.path)
+            if(h.node.nodeType != NodeType.HOST)
+                return h.node.id;
+        return f.dstNode.id;
+    }
+
+    /** Returns the ports of the specified node which links are attached to. */
+    public synchronized short[] getPorts(long id) {
+        Set<Short> ports = new TreeSet<Short>();
+        for(LinkSpec l : links.values()) {
+            if(l.srcNode.id == id)
+                ports.add(l.srcPort);
+            if(l.dstNode.id == id)
+                ports.add(l.dstPort);
+        }
+        
+        short[] ret = new short[ports.size()];
+        int i = 0;
+        for(Short p : ports)
+            ret[i++] = p;
+        return ret;
+    }
+
+    /**
+     * Returns a copy of the links in the topology.
+     *
+     * @param srcID  only return links from the node with this ID, or any
+     *               links if this is 0
+     */
+    public synchronized LinkSpec[] getLinks(long srcID) {
+        if(srcID == 0)
+            return links.values().toArray(new LinkSpec[links.size()]);
+
+        List<LinkSpec> ret = new ArrayList<LinkSpec>();
+        for(LinkSpec l : links.values())
+            if(l.srcNode.id == srcID)
+                ret.add(l);
+        return ret.toArray(new LinkSpec[ret.size()]);
+    }
+}
@@ -0,0 +1,456 @@
+package org.openflow.gui.standin;
+
+import java.io.DataInput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openflow.gui.net.ByteBufferDataInput;
+import org.openflow.gui.net.FrameReader;
+import org.openflow.gui.net.FrameWriter;
+import org.openflow.gui.net.Message;
+import org.openflow.gui.net.OutboundQueue;
+import org.openflow.gui.net.protocol.Flow;
+import org.openflow.gui.net.protocol.FlowsAdd;
+import org.openflow.gui.net.protocol.FlowsDel;
+import org.openflow.gui.net.protocol.Hello;
+import org.openflow.gui.net.protocol.Link;
+import org.openflow.gui.net.protocol.LinkSpec;
+import org.openflow.gui.net.protocol.LinksAdd;
+import org.openflow.gui.net.protocol.LinksDel;
+import org.openflow.gui.net.protocol.Node;
+import org.openflow.gui.net.protocol.NodesAdd;
+import org.openflow.gui.net.protocol.NodesDel;
+import org.openflow.gui.net.protocol.OFGMessage;
+import org.openflow.gui.net.protocol.OFGMessageType;
+import org.openflow.gui.net.protocol.RequestType;
+import org.openflow.gui.net.protocol.StatsHeader;
+import org.openflow.protocol.AggregateStatsRequest;
+import org.openflow.protocol.FlowStatsReply;
+import org.openflow.protocol.FlowStatsRequest;
+import org.openflow.protocol.PortStatsRequest;
+import org.openflow.protocol.StatsFlag;
+import org.openflow.protocol.StatsType;
+
+/**
+ * One client's connection to a StandInBackend.  Messages from the client are
+ * parsed by hand (the GUI's protocol classes only decode what the backend
+ * sends), and replies go out through an OutboundQueue using whichever
+ * protocol version was negotiated.  Polled messages are answered just as if
+ * the client had sent them each time they come due.
+ */
+public class StandInSession extends Thread {
+    /** a poll requested by the client */
+    public static final class Poll {
+        /** how often to send the polled message (in units of 100ms) */
+        public final short interval;
+
+        /** type of the polled message */
+        public final OFGMessageType type;
+
+        /** transaction ID of the polled message */
+        public final int xid;
+
+        /** body of the polled message (everything after its header) */
+        public final byte[] body;
+
+        /** when the polled message is next due to be answered */
+        long nextDue_ms;
+
+        Poll(short interval, OFGMessageType type, int xid, byte[] body) {
+            this.interval = interval;
+            this.type = type;
+            this.xid = xid;
+            this.body = body;
+            nextDue_ms = System.currentTimeMillis();
+        }
+    }
+
+    /** the stand-in this session belongs to */
+    private final StandInBackend backend;
+
+    /** the connection to the client */
+    private final SocketChannel ch;
+
+    /** frames messages from the client */
+    private final FrameReader frames;
+
+    /** messages waiting to be written to the client */
+    private final OutboundQueue outbound = new OutboundQueue();
+
+    /** whether the client subscribed to node changes */
+    private volatile boolean nodesSubscribed = false;
+
+    /** whether the client subscribed to link changes */
+    private volatile boolean linksSubscribed = false;
+
+    /** whether the client subscribed to flow changes */
+    private volatile boolean flowsSubscribed = false;
+
+    /** the protocol version negotiated with the client */
+    private volatile int version = 1;
+
+    /** polls the client has started, keyed by the polled message's transaction ID */
+    private final ConcurrentHashMap<Integer, Poll> polls = new ConcurrentHashMap<Integer, Poll>();
+
+    /** whether the session has been closed */
+    private volatile boolean closed = false;
+
+    StandInSession(StandInBackend backend, SocketChannel ch) {
+        super("StandInSession-" + ch.socket().getRemoteSocketAddress());
+        this.backend = backend;
+        this.ch = ch;
+        frames = new FrameReader(ch);
+        setDaemon(true);
+    }
+
+    /** Handles messages from the client until it disconnects. */
+    public void run() {
+        try {
+            while(!closed) {
+                int len = frames.readFrame();
+                try {
+                    handle(len, frames.getView());
+                }
+                finally {
+                    frames.endFrame();
+                }
+            }
+        }
+        catch(EOFException e) {
+            /* client went away */
+        }
+        catch(IOException e) {
+            if(!closed)
+                System.err.println(getName() + ": " + e.getMessage());
+        }
+        close();
+    }
+
+    /** Disconnects the client. */
+    public void close() {
+        closed = true;
+        try {
+            ch.close();
+        }
+        catch(IOException e) { /* ignore */ }
+        backend.sessionClosed(this);
+    }
+
+    /** handles a message of length len from the client */
+    private void handle(int len, DataInput in) throws IOException {
+        OFGMessageType t = OFGMessageType.typeValToMessageType(in.readByte());
+        int xid = in.readInt();
+        if(t != null)
+            handle(len, t, xid, in);
+    }
+
+    /** handles a message from the client whose header has already been read from in */
+    private void handle(int len, OFGMessageType t, int xid, DataInput in) throws IOException {
+        switch(t) {
+        case DISCONNECT:
+            closed = true;
+            break;
+
+        case HELLO:
+            handleHello(new Hello(len, xid, in));
+            break;
+
+        case ECHO_REQUEST:
+            send(new OFGMessage(OFGMessageType.ECHO_REPLY, xid));
+            break;
+
+        case NODES_REQUEST: {
+            RequestType rt = RequestType.typeValToMessageType(in.readByte());
+            in.readShort(); // node type (all types are served)
+            if(rt == RequestType.ONETIME)
+                sendNodes(xid, backend.getNodes());
+            else if(rt == RequestType.SUBSCRIBE)
+                nodesSubscribed = true;
+            else if(rt == RequestType.UNSUBSCRIBE)
+                nodesSubscribed = false;
+            break;
+        }
+
+        case LINKS_REQUEST: {
+            RequestType rt = RequestType.typeValToMessageType(in.readByte());
+            in.readShort(); // link type (all types are served)
+            Node src = new Node(in);
+            if(rt == RequestType.ONETIME)
+                sendLinks(xid, backend.getLinks(src.id));
+            else if(rt == RequestType.SUBSCRIBE)
+                linksSubscribed = true;
+            else if(rt == RequestType.UNSUBSCRIBE)
+                linksSubscribed = false;
+            break;
+        }
+
+        case FLOWS_REQUEST: {
+            RequestType rt = RequestType.typeValToMessageType(in.readByte());
+            in.readShort(); // flow type (all types are served)
+            if(rt == RequestType.ONETIME)
+                sendFlows(xid, backend.getFlows());
+            else if(rt == RequestType.SUBSCRIBE)
+                flowsSubscribed = true;
+            else if(rt == RequestType.UNSUBSCRIBE)
+                flowsSubscribed = false;
+            break;
+        }
+
+        case STAT_REQUEST: {
+            long dpid = in.readLong();
+            StatsType st = StatsType.typeValToStatsType(in.readShort());
+            StatsFlag flags = StatsFlag.typeValToStatsFlag(in.readShort());
+            StatsHeader reply = null;
+            if(st == StatsType.DESC)
+                reply = backend.describe(dpid);
+            else if(st == StatsType.AGGREGATE) {
+                AggregateStatsRequest req = new AggregateStatsRequest(dpid, flags, in);
+                reply = backend.getTrafficModel().aggregate(dpid, req.outPort);
+            }
+            else if(st == StatsType.PORT) {
+                PortStatsRequest req = new PortStatsRequest(dpid, flags, in);
+                short[] ports = backend.getPorts(dpid);
+                if(req.port != PortStatsRequest.OFPP_NONE)
+                    ports = new short[] {req.port};
+                reply = backend.getTrafficModel().ports(dpid, ports);
+            }
+            else if(st == StatsType.FLOW) {
+                // every flow entering at the switch is reported, whatever the match
+                new FlowStatsRequest(dpid, flags, in);
+                int max = maxElements(FlowStatsReply.ENTRY_SIZEOF);
+                for(FlowStatsReply part : backend.getTrafficModel().flows(dpid, backend.getFlowIDs(dpid), max)) {
+                    part.xid = xid;
+                    send(part);
+                }
+            }
+
+            if(reply != null) {
+                reply.xid = xid;
+                send(reply);
+            }
+            break;
+        }
+
+        case POLL_START: {
+            short interval = in.readShort();
+            int innerLen = in.readUnsignedShort();
+            OFGMessageType innerType = OFGMessageType.typeValToMessageType(in.readByte());
+            int innerXID = in.readInt();
+            byte[] body = new byte[Math.max(0, innerLen - OFGMessage.SIZEOF)];
+            in.readFully(body);
+            if(interval == 0)
+                polls.remove(innerXID);
+            else
+                polls.put(innerXID, new Poll(interval, innerType, innerXID, body));
+            break;
+        }
+
+        case POLL_STOP:
+            polls.remove(in.readInt());
+            break;
+
+        default:
+            // not something the stand-in handles; the rest of the frame is skipped
+            break;
+        }
+    }
+
+    /**
+     * Answers each poll which has come due.  This is called periodically by
+     * the StandInBackend.
+     */
+    void firePolls(long now) {
+        if(closed)
+            return;
+
+        for(Poll p : polls.values()) {
+            if(p.nextDue_ms > now)
+                continue;
+
+            p.nextDue_ms = now + p.interval * 100L;
+            ByteBufferDataInput in = new ByteBufferDataInput(ByteBuffer.wrap(p.body));
+            try {
+                handle(OFGMessage.SIZEOF + p.body.length, p.type, p.xid, in);
+            }
+            catch(IOException e) {
+                System.err.println(getName() + ": unable to answer poll of " + p.type + ": " + e.getMessage());
+                polls.remove(p.xid);
+            }
+        }
+    }
+
+    /**
+     * Answers the client's Hello (unless the stand-in is pretending to only
+     * speak version 1) and switches both directions to the agreed version.
+     * The client sends nothing between its Hello and our reply, so switching
+     * right after the reply is written is safe.
+     */
+    private synchronized void handleHello(Hello h) throws IOException {
+        if(!backend.supportsV2())
+            return;
+
+        int v = Math.min(h.version, 2);
+        int caps = h.capabilities & backend.getCapabilities();
+        send(new Hello(h.xid, (byte)v, caps));
+        if(v >= 2) {
+            outbound.setFrameWriter(new FrameWriter(caps));
+            frames.setVersion(2);
+            version = 2;
+        }
+    }
+
+    /**
+     * Sends m to the client.  Callers on other threads are serialized so that
+     * a framing change never lands in the middle of another sender's message.
+     */
+    public synchronized void send(Message m) throws IOException {
+        outbound.add(m);
+        if(outbound.tryAcquire()) {
+            try {
+                outbound.drainTo(ch);
+            }
+            finally {
+                outbound.release();
+            }
+        }
+    }
+
+    /**
+     * Sends nodes to the client.  Version 1 messages cannot be longer than
+     * 32KB, so large lists are split up unless version 2 is in use.
+     */
+    private void sendNodes(int xid, Node[] nodes) throws IOException {
+        int max = maxElements(Node.SIZEOF);
+        for(int i=0; i<nodes.length || i==0; i+=max)
+            send(new NodesAdd(xid, Arrays.copyOfRange(nodes, i, Math.min(nodes.length, i + max))));
+    }
+
+    /** Sends links to the client (split up like sendNodes() does). */
+    private void sendLinks(int xid, LinkSpec[] links) throws IOException {
+        int max = maxElements(LinkSpec.SIZEOF);
+        for(int i=0; i<links.length || i==0; i+=max)
+            send(new LinksAdd(xid, Arrays.copyOfRange(links, i, Math.min(links.length, i + max))));
+    }
+
+    /** Sends flows to the client (split up like sendNodes() does). */
+    private void sendFlows(int xid, Flow[] flows) throws IOException {
+        int start = 0;
+        do {
+            int end = endOfChunk(flows, start);
+            send(new FlowsAdd(xid, Arrays.copyOfRange(flows, start, end)));
+            start = end;
+        }
+        while(start < flows.length);
+    }
+
+    /** returns the end of the longest run of flows from start which fits in one message */
+    private int endOfChunk(Flow[] flows, int start) {
+        if(version >= 2)
+            return flows.length;
+
+        int len = OFGMessage.SIZEOF + 4, end = start;
+        while(end < flows.length && (end == start || len + flows[end].length() <= Short.MAX_VALUE))
+            len += flows[end++].length();
+        return end;
+    }
+
+    /** returns how many elements of the specified size fit in one message */
+    private int maxElements(int sizeof) {
+        if(version >= 2)
+            return Integer.MAX_VALUE;
+        else
+            return (Short.MAX_VALUE - OFGMessage.SIZEOF) / sizeof;
+    }
+
+    /** tells the client about new nodes if it subscribed to them */
+    void nodesAdded(Node[] nodes) {
+        if(!nodesSubscribed || nodes.length == 0)
+            return;
+
+        int max = maxElements(Node.SIZEOF);
+        for(int i=0; i<nodes.length; i+=max)
+            sendQuietly(new NodesAdd(Arrays.copyOfRange(nodes, i, Math.min(nodes.length, i + max))));
+    }
+
+    /** tells the client about removed nodes if it subscribed to them */
+    void nodesRemoved(Node[] nodes) {
+        if(!nodesSubscribed || nodes.length == 0)
+            return;
+
+        int max = maxElements(Node.SIZEOF);
+        for(int i=0; i<nodes.length; i+=max)
+            sendQuietly(new NodesDel(Arrays.copyOfRange(nodes, i, Math.min(nodes.length, i + max))));
+    }
+
+    /** tells the client about new links if it subscribed to them */
+    void linksAdded(LinkSpec[] links) {
+        if(!linksSubscribed || links.length == 0)
+            return;
+
+        int max = maxElements(LinkSpec.SIZEOF);
+        for(int i=0; i<links.length; i+=max)
+            sendQuietly(new LinksAdd(Arrays.copyOfRange(links, i, Math.min(links.length, i + max))));
+    }
+
+    /** tells the client about removed links if it subscribed to them */
+    void linksRemoved(Link[] links) {
+        if(!linksSubscribed || links.length == 0)
+            return;
+
+        int max = maxElements(Link.SIZEOF);
+        for(int i=0; i<links.length; i+=max)
+            sendQuietly(new LinksDel(Arrays.copyOfRange(links, i, Math.min(links.length, i + max))));
+    }
+
+    /** tells the client about new flows if it subscribed to them */
+    void flowsAdded(Flow[] flows) {
+        if(!flowsSubscribed || flows.length == 0)
+            return;
+
+        for(int start=0, end; start<flows.length; start=end) {
+            end = endOfChunk(flows, start);
+            sendQuietly(new FlowsAdd(Arrays.copyOfRange(flows, start, end)));
+        }
+    }
+
+    /** tells the client about removed flows if it subscribed to them */
+    void flowsRemoved(Flow[] flows) {
+        if(!flowsSubscribed || flows.length == 0)
+            return;
+
+        for(int start=0, end; start<flows.length; start=end) {
+            end = endOfChunk(flows, start);
+            sendQuietly(new FlowsDel(Arrays.copyOfRange(flows, start, end)));
+        }
+    }
+
+    /** sends m, closing the session if that fails */
+    private void sendQuietly(Message m) {
+        try {
+            send(m);
+        }
+        catch(IOException e) {
+            System.err.println(getName() + ": " + e.getMessage());
+            close();
+        }
+    }
+
+    /** Returns the protocol version negotiated with the client. */
+    public int getVersion() {
+        return version;
+    }
+
+    /** Returns the polls the client has started, keyed by the polled message's transaction ID. */
+    public ConcurrentHashMap<Integer, Poll> getPolls() {
+        return polls;
+    }
+
+    /** Returns the number of messages sent to the client. */
+    public long getNumMessagesSent() {
+        return outbound.getNumMessagesSent();
+    }
+}
@@ -0,0 +1,321 @@
+package org.openflow.gui.standin;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.openflow.gui.net.protocol.Flow;
+import org.openflow.gui.net.protocol.FlowHop;
+import org.openflow.gui.net.protocol.FlowType;
+import org.openflow.gui.net.protocol.LinkSpec;
+import org.openflow.gui.net.protocol.LinkType;
+import org.openflow.gui.net.protocol.Node;
+import org.openflow.gui.net.protocol.NodeType;
+
+/**
+ * Generates topologies for a StandInBackend to serve: switches, hosts, the
+ * links between them, and flows routed over them.  Every cable becomes a pair
+ * of links (one in each direction), as a backend would report it.  Ports are
+ * numbered from 1 on each node in the order cables are attached.
+ */
+public class SyntheticTopology {
+    /** IDs of hosts start here (switch IDs start at 1) */
+    public static final long HOST_ID_BASE = 0x0100000000000000L;
+
+    /** capacity of links between switches */
+    public static final long SWITCH_LINK_BPS = 10L * 1000L * 1000L * 1000L;
+
+    /** capacity of links to hosts */
+    public static final long HOST_LINK_BPS = 1000L * 1000L * 1000L;
+
+    /** one end of a cable */
+    private static final class Attachment {
+        /** port on this end */
+        final short port;
+
+        /** the node on the other end */
+        final Node peer;
+
+        /** port on the other end */
+        final short peerPort;
+
+        Attachment(short port, Node peer, short peerPort) {
+            this.port = port;
+            this.peer = peer;
+            this.peerPort = peerPort;
+        }
+    }
+
+    /** switches in the order they were created */
+    private final List<Node> switches = new ArrayList<Node>();
+
+    /** hosts in the order they were created */
+    private final List<Node> hosts = new ArrayList<Node>();
+
+    /** links (two per cable) */
+    private final List<LinkSpec> links = new ArrayList<LinkSpec>();
+
+    /** cables attached to each node, keyed by node ID */
+    private final HashMap<Long, List<Attachment>> attachments = new HashMap<Long, List<Attachment>>();
+
+    /** ID to give the next flow */
+    private int nextFlowID = 1;
+
+    private SyntheticTopology() { /* use the static factories */ }
+
+    // ------------- Factories ------------- //
+
+    /**
+     * Creates a k-ary fat-tree: (k/2)^2 core switches and k pods of k/2
+     * aggregation and k/2 edge switches each, with k/2 hosts on each edge
+     * switch (5k^2/4 switches and k^3/4 hosts in all).
+     *
+     * @param k  the number of ports per switch (must be even)
+     */
+    public static SyntheticTopology fatTree(int k) {
+        if(k < 2 || k % 2 != 0)
+            throw new IllegalArgumentException("k must be even and at least 2: " + k);
+
+        SyntheticTopology t = new SyntheticTopology();
+        int half = k / 2;
+        Node[] core = new Node[half * half];
+        for(int i=0; i<core.length; i++)
+            core[i] = t.newSwitch();
+
+        for(int pod=0; pod<k; pod++) {
+            Node[] agg = new Node[half];
+            for(int a=0; a<half; a++) {
+                agg[a] = t.newSwitch();
+                for(int c=0; c<half; c++)
+                    t.connect(agg[a], core[a * half + c], SWITCH_LINK_BPS);
+            }
+
+            for(int e=0; e<half; e++) {
+                Node edge = t.newSwitch();
+                for(int a=0; a<half; a++)
+                    t.connect(edge, agg[a], SWITCH_LINK_BPS);
+                t.addHosts(edge, half);
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Creates a leaf-spine fabric in which every leaf is connected to every
+     * spine.
+     *
+     * @param spines        number of spine switches
+     * @param leaves        number of leaf switches
+     * @param hostsPerLeaf  number of hosts attached to each leaf
+     */
+    public static SyntheticTopology leafSpine(int spines, int leaves, int hostsPerLeaf) {
+        SyntheticTopology t = new SyntheticTopology();
+        Node[] spine = new Node[spines];
+        for(int i=0; i<spines; i++)
+            spine[i] = t.newSwitch();
+
+        for(int i=0; i<leaves; i++) {
+            Node leaf = t.newSwitch();
+            for(Node s : spine)
+                t.connect(leaf, s, SWITCH_LINK_BPS);
+            t.addHosts(leaf, hostsPerLeaf);
+        }
+        return t;
+    }
+
+    /**
+     * Creates a random connected topology: the switches are first joined by a
+     * random spanning tree and then extra cables are added between random
+     * pairs until the average degree is reached.
+     *
+     * @param numSwitches     number of switches
+     * @param avgDegree       average number of switches each switch is connected to
+     * @param hostsPerSwitch  number of hosts attached to each switch
+     * @param seed            seed for the random number generator
+     */
+    public static SyntheticTopology random(int numSwitches, int avgDegree, int hostsPerSwitch, long seed) {
+        SyntheticTopology t = new SyntheticTopology();
+        Random r = new Random(seed);
+        for(int i=0; i<numSwitches; i++) {
+            Node s = t.newSwitch();
+            if(i > 0)
+                t.connect(s, t.switches.get(r.nextInt(i)), SWITCH_LINK_BPS);
+        }
+
+        HashSet<Long> cables = new HashSet<Long>();
+        for(int i=1; i<numSwitches; i++)
+            for(Attachment a : t.attachments.get(t.switches.get(i).id))
+                cables.add(cableKey(i + 1, a.peer.id));
+
+        long target = (long)numSwitches * avgDegree / 2;
+        long maxTries = target * 10;
+        for(long tries=0; cables.size() < target && tries < maxTries; tries++) {
+            int a = r.nextInt(numSwitches), b = r.nextInt(numSwitches);
+            if(a == b || !cables.add(cableKey(a + 1, b + 1)))
+                continue;
+            t.connect(t.switches.get(a), t.switches.get(b), SWITCH_LINK_BPS);
+        }
+
+        for(Node s : new ArrayList<Node>(t.switches))
+            t.addHosts(s, hostsPerSwitch);
+        return t;
+    }
+
+    /** Creates a ring of switches with no hosts. */
+    public static SyntheticTopology ring(int numSwitches) {
+        SyntheticTopology t = new SyntheticTopology();
+        for(int i=0; i<numSwitches; i++)
+            t.newSwitch();
+        for(int i=0; i<numSwitches && numSwitches>1; i++)
+            if(numSwitches > 2 || i == 0)
+                t.connect(t.switches.get(i), t.switches.get((i + 1) % numSwitches), SWITCH_LINK_BPS);
+        return t;
+    }
+
+    /** returns an order-independent key for the cable between switches with IDs a and b */
+    private static long cableKey(long a, long b) {
+        return (Math.min(a, b) << 32) | Math.max(a, b);
+    }
+
+    /** creates a new switch */
+    private Node newSwitch() {
+        Node n = new Node(NodeType.OPENFLOW_SWITCH, switches.size() + 1);
+        switches.add(n);
+        attachments.put(n.id, new ArrayList<Attachment>());
+        return n;
+    }
+
+    /** creates count hosts attached to sw */
+    private void addHosts(Node sw, int count) {
+        for(int i=0; i<count; i++) {
+            Node h = new Node(NodeType.HOST, HOST_ID_BASE + hosts.size() + 1);
+            hosts.add(h);
+            attachments.put(h.id, new ArrayList<Attachment>());
+            connect(h, sw, HOST_LINK_BPS);
+        }
+    }
+
+    /** connects a and b with a cable on the next free port of each */
+    private void connect(Node a, Node b, long capacity_bps) {
+        List<Attachment> aa = attachments.get(a.id);
+        List<Attachment> ba = attachments.get(b.id);
+        short aPort = (short)(aa.size() + 1);
+        short bPort = (short)(ba.size() + 1);
+        aa.add(new Attachment(aPort, b, bPort));
+        ba.add(new Attachment(bPort, a, aPort));
+        links.add(new LinkSpec(LinkType.WIRE, a, aPort, b, bPort, capacity_bps));
+        links.add(new LinkSpec(LinkType.WIRE, b, bPort, a, aPort, capacity_bps));
+    }
+
+    // ------------- Flows ------------- //
+
+    /**
+     * Routes a flow between two random hosts (or two random switches if
+     * there are no hosts) along a shortest path.
+     *
+     * @return the flow, or null if the topology is too small or the chosen
+     *         endpoints are not connected
+     */
+    public Flow randomFlow(Random r) {
+        List<Node> ends = hosts.size() >= 2 ? hosts : switches;
+        if(ends.size() < 2)
+            return null;
+
+        Node src = ends.get(r.nextInt(ends.size()));
+        Node dst;
+        do {
+            dst = ends.get(r.nextInt(ends.size()));
+        }
+        while(dst == src);
+
+        return route(src, dst);
+    }
+
+    /** Returns count flows between random endpoints (see randomFlow()). */
+    public List<Flow> randomFlows(int count, Random r) {
+        List<Flow> ret = new ArrayList<Flow>(count);
+        for(int i=0; i<count; i++) {
+            Flow f = randomFlow(r);
+            if(f != null)
+                ret.add(f);
+        }
+        return ret;
+    }
+
+    /** routes a flow from src to dst along a shortest path (breadth-first search) */
+    private Flow route(Node src, Node dst) {
+        HashMap<Long, Attachment> cameFrom = new HashMap<Long, Attachment>();
+        LinkedList<Node> frontier = new LinkedList<Node>();
+        frontier.add(src);
+        cameFrom.put(src.id, null);
+        while(!frontier.isEmpty() && !cameFrom.containsKey(dst.id)) {
+            Node n = frontier.removeFirst();
+            for(Attachment a : attachments.get(n.id)) {
+                if(cameFrom.containsKey(a.peer.id))
+                    continue;
+
+                // the attachment as seen from the peer (so we can walk back)
+                cameFrom.put(a.peer.id, new Attachment(a.peerPort, n, a.port));
+                frontier.add(a.peer);
+            }
+        }
+
+        if(!cameFrom.containsKey(dst.id))
+            return null;
+
+        // walk back from dst: each hop enters on the port it was reached by
+        // and leaves on the port the next hop was reached from
+        LinkedList<FlowHop> path = new LinkedList<FlowHop>();
+        Node n = dst;
+        short outport = 0;
+        while(true) {
+            Attachment back = cameFrom.get(n.id);
+            short inport = (back == null) ? 0 : back.port;
+            path.addFirst(new FlowHop(inport, n, outport));
+            if(back == null)
+                break;
+            outport = back.peerPort;
+            n = back.peer;
+        }
+
+        return new Flow(FlowType.UNKNOWN, nextFlowID++, src, (short)0, dst, (short)0, path);
+    }
+
+    // ------------- Accessors ------------- //
+
+    /** Returns the switches. */
+    public List<Node> getSwitches() {
+        return switches;
+    }
+
+    /** Returns the hosts. */
+    public List<Node> getHosts() {
+        return hosts;
+    }
+
+    /** Returns the switches followed by the hosts. */
+    public List<Node> getNodes() {
+        List<Node> ret = new ArrayList<Node>(switches.size() + hosts.size());
+        ret.addAll(switches);
+        ret.addAll(hosts);
+        return ret;
+    }
+
+    /** Returns the links (two per cable). */
+    public List<LinkSpec> getLinks() {
+        return links;
+    }
+
+    /** Adds the topology's nodes and links to b. */
+    public void addTo(StandInBackend b) {
+        b.addNodes(getNodes());
+        b.addLinks(links);
+    }
+
+    public String toString() {
+        return switches.size() + " switches, " + hosts.size() + " hosts, " + links.size() / 2 + " cables";
+    }
+}
@@ -0,0 +1,192 @@
+package org.openflow.gui.standin;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.openflow.protocol.AggregateStatsReply;
+import org.openflow.protocol.FlowStatsReply;
+import org.openflow.protocol.PortStatsReply;
+import org.openflow.protocol.StatsFlag;
+
+/**
+ * Makes up traffic counters for a StandInBackend's stats replies.  Each
+ * (switch, port) pair gets its own base rate and phase, and its rate swings
+ * around the base rate over time.  Counters only ever go up, so the rates the
+ * GUI derives from successive replies look like real, varying traffic.
+ */
+public class TrafficModel {
+    /** average size of a synthetic packet */
+    public static final int AVG_PACKET_SIZE = 800;
+
+    /** the counters for one (switch, port) pair */
+    private static final class Counter {
+        /** the rate this counter swings around */
+        final double base_bps;
+
+        /** where in its swing this counter starts */
+        final double phase;
+
+        /** bytes counted so far */
+        long bytes = 0;
+
+        /** packets counted so far */
+        long packets = 0;
+
+        /** when the counters were last brought up to date */
+        long last_ns = System.nanoTime();
+
+        Counter(double base_bps, double phase) {
+            this.base_bps = base_bps;
+            this.phase = phase;
+        }
+    }
+
+    /** counters keyed by switch ID and port */
+    private final ConcurrentHashMap<Long, Counter> counters = new ConcurrentHashMap<Long, Counter>();
+
+    /** counters of individual flows keyed by switch ID and flow ID */
+    private final ConcurrentHashMap<Long, Counter> flowCounters = new ConcurrentHashMap<Long, Counter>();
+
+    /** each flow's rate relative to that of a port */
+    private static final double FLOW_RATE_FRACTION = 0.01;
+
+    /** average rate of each counter */
+    private final double mean_bps;
+
+    /** how long one swing of a counter's rate takes */
+    private final long period_ns;
+
+    /** seed from which each counter's parameters are derived */
+    private final long seed;
+
+    /** Creates a model whose counters average 100Mbps and swing once a minute. */
+    public TrafficModel() {
+        this(100 * 1000 * 1000, 60 * 1000, 0);
+    }
+
+    /**
+     * Creates a model.
+     *
+     * @param mean_bps       average rate of each counter
+     * @param period_ms      how long one swing of a counter's rate takes
+     * @param seed           seed from which each counter's parameters are derived
+     */
+    public TrafficModel(double mean_bps, long period_ms, long seed) {
+        this.mean_bps = mean_bps;
+        this.period_ns = period_ms * 1000L * 1000L;
+        this.seed = seed;
+    }
+
+    /** returns the counter for the specified switch and port */
+    private Counter getCounter(long dpid, short port) {
+        return getCounter(counters, (dpid << 16) ^ (port & 0xFFFF), mean_bps);
+    }
+
+    /** returns the counter in map for key, creating one which averages avg_bps if there is none */
+    private Counter getCounter(ConcurrentHashMap<Long, Counter> map, long key, double avg_bps) {
+        Counter c = map.get(key);
+        if(c == null) {
+            Random r = new Random(seed ^ key);
+            c = new Counter(avg_bps * (0.2 + 1.6 * r.nextDouble()), 2 * Math.PI * r.nextDouble());
+            Counter prev = map.putIfAbsent(key, c);
+            if(prev != null)
+                c = prev;
+        }
+        return c;
+    }
+
+    /**
+     * Returns an aggregate stats reply with the current counters for the
+     * specified switch and port.
+     *
+     * @param dpid  the switch
+     * @param port  the port traffic is counted on (any value is accepted)
+     */
+    public AggregateStatsReply aggregate(long dpid, short port) {
+        Counter c = getCounter(dpid, port);
+        AggregateStatsReply r = new AggregateStatsReply(dpid);
+        synchronized(c) {
+            double rate_bps = advance(c);
+            r.byte_count = c.bytes;
+            r.packet_count = c.packets;
+            r.flow_count = 1 + (int)(rate_bps / (10 * 1000 * 1000));
+        }
+        return r;
+    }
+
+    /**
+     * Returns a port stats reply with the current counters for each of the
+     * specified ports of a switch.  Traffic is symmetric: each port receives
+     * as much as it transmits.
+     *
+     * @param dpid   the switch
+     * @param ports  the ports to report on
+     */
+    public PortStatsReply ports(long dpid, short[] ports) {
+        PortStatsReply.Port[] ret = new PortStatsReply.Port[ports.length];
+        for(int i=0; i<ports.length; i++) {
+            Counter c = getCounter(dpid, ports[i]);
+            PortStatsReply.Port p = new PortStatsReply.Port(ports[i]);
+            synchronized(c) {
+                advance(c);
+                p.tx_bytes = p.rx_bytes = c.bytes;
+                p.tx_packets = p.rx_packets = c.packets;
+            }
+            ret[i] = p;
+        }
+        return new PortStatsReply(dpid, ret);
+    }
+
+    /**
+     * Returns flow stats replies with the current counters of each of the
+     * specified flows of a switch (each flow's cookie is its ID).  The flows
+     * are split across as many replies as needed; all but the last are
+     * flagged StatsFlag.REPLY_MORE.
+     *
+     * @param dpid          the switch
+     * @param flowIDs       the flows to report on
+     * @param maxPerReply   most flows to put in one reply
+     */
+    public FlowStatsReply[] flows(long dpid, int[] flowIDs, int maxPerReply) {
+        int numReplies = Math.max(1, (flowIDs.length + maxPerReply - 1) / maxPerReply);
+        FlowStatsReply[] ret = new FlowStatsReply[numReplies];
+        for(int r=0; r<numReplies; r++) {
+            int start = r * maxPerReply;
+            int n = Math.min(maxPerReply, flowIDs.length - start);
+            long[] cookies = new long[n], packets = new long[n], bytes = new long[n];
+            for(int i=0; i<n; i++) {
+                int id = flowIDs[start + i];
+                Counter c = getCounter(flowCounters, (dpid << 32) ^ (id & 0xFFFFFFFFL), mean_bps * FLOW_RATE_FRACTION);
+                synchronized(c) {
+                    advance(c);
+                    cookies[i] = id & 0xFFFFFFFFL;
+                    packets[i] = c.packets;
+                    bytes[i] = c.bytes;
+                }
+            }
+            StatsFlag flags = (r + 1 < numReplies) ? StatsFlag.REPLY_MORE : StatsFlag.NONE;
+            ret[r] = new FlowStatsReply(dpid, flags, cookies, packets, bytes);
+        }
+        return ret;
+    }
+
+    /**
+     * brings c's counters up to date and returns its current rate (the caller
+     * must hold c's lock)
+     */
+    private double advance(Counter c) {
+        long now = System.nanoTime();
+        double t = (double)now / period_ns * 2 * Math.PI + c.phase;
+        double rate_bps = c.base_bps * (1 + 0.5 * Math.sin(t));
+        long newBytes = (long)(rate_bps / 8 * (now - c.last_ns) / 1e9);
+        c.bytes += newBytes;
+        c.packets += newBytes / AVG_PACKET_SIZE;
+        c.last_ns = now;
+        return rate_bps;
+    }
+
+    /** Returns the number of (switch, port) and (switch, flow) pairs which have been asked about. */
+    public int getNumCounters() {
+        return counters.size() + flowCounters.size();
+    }
+}
@@ -0,0 +1,283 @@
+package org.openflow.gui.stats;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decides which of several connections polls each stats target.  When more
+ * than one backend reports the same link or switch, each connection claims
+ * the target, but only one of them (its owner) is told to poll it; the others
+ * wait in the order in which they claimed it.
+ *
+ * Ownership moves to the next waiting connection which is up when the owner
+ * releases its claim or goes down.  A connection which comes back up takes
+ * over the targets whose owners are down.  If no other connection can take a
+ * target over, the owner keeps it (its polls are restored when it reconnects).
+ *
+ * Pollers are started and stopped after the registry's lock is released (in
+ * the order the registry decided to), since they may block on a connection;
+ * a slow connection thus does not hold up claims made by other connections.
+ */
+public class PollOwnership {
+    /** One connection's means of polling one target. */
+    public interface Poller {
+        /** Called when the connection becomes the target's owner: starts polling it. */
+        public void start();
+
+        /** Called when the connection stops being the target's owner: stops polling it. */
+        public void stop();
+    }
+
+    /** a connection's claim on a target */
+    private static final class Claim {
+        final Object owner;
+        final Poller poller;
+
+        Claim(Object owner, Poller poller) {
+            this.owner = owner;
+            this.poller = poller;
+        }
+    }
+
+    /** the claims on one target */
+    private static final class Entry {
+        /** claims in the order they were made */
+        final ArrayList<Claim> claims = new ArrayList<Claim>(2);
+
+        /** the claim whose connection is polling the target */
+        Claim owner = null;
+
+        /** returns the index of owner's claim, or -1 if it has none */
+        int indexOf(Object owner) {
+            for(int i=0; i<claims.size(); i++)
+                if(claims.get(i).owner == owner)
+                    return i;
+            return -1;
+        }
+    }
+
+    /** the claims on each target, keyed by the target's key */
+    private final HashMap<Object, Entry> entries = new HashMap<Object, Entry>();
+
+    /** keys of the targets each connection has claimed */
+    private final HashMap<Object, HashSet<Object>> keysByOwner = new HashMap<Object, HashSet<Object>>();
+
+    /** connections which are down (they are not given targets while others are up) */
+    private final HashSet<Object> down = new HashSet<Object>();
+
+    /** a poller to start or stop once the registry's lock is released */
+    private static final class Action {
+        final Poller poller;
+        final boolean start;
+
+        Action(Poller poller, boolean start) {
+            this.poller = poller;
+            this.start = start;
+        }
+    }
+
+    /** pollers to start or stop, in the order they were queued (under the registry's lock) */
+    private final ConcurrentLinkedQueue<Action> actions = new ConcurrentLinkedQueue<Action>();
+
+    /** whether some thread is currently running actions */
+    private final AtomicBoolean runningActions = new AtomicBoolean(false);
+
+    /**
+     * Claims the target identified by key for owner.  If nobody is polling
+     * the target (or its owner is down while owner is up), then owner becomes
+     * its owner and poller is started.  Claiming a target twice has no effect.
+     *
+     * @param key     identifies the target
+     * @param owner   the connection which wants the target polled
+     * @param poller  polls the target over owner's connection
+     * @return  true if owner is now the target's owner
+     */
+    public boolean claim(Object key, Object owner, Poller poller) {
+        boolean ret;
+        synchronized(this) {
+            ret = addClaim(key, owner, poller);
+        }
+        runActions();
+        return ret;
+    }
+
+    /** adds owner's claim on key; the caller holds the lock (see claim()) */
+    private boolean addClaim(Object key, Object owner, Poller poller) {
+        Entry e = entries.get(key);
+        if(e == null) {
+            e = new Entry();
+            entries.put(key, e);
+        }
+        else if(e.indexOf(owner) >= 0)
+            return e.owner.owner == owner;
+
+        Claim c = new Claim(owner, poller);
+        e.claims.add(c);
+        HashSet<Object> keys = keysByOwner.get(owner);
+        if(keys == null) {
+            keys = new HashSet<Object>();
+            keysByOwner.put(owner, keys);
+        }
+        keys.add(key);
+
+        if(e.owner == null || (down.contains(e.owner.owner) && !down.contains(owner))) {
+            transfer(e, c);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Withdraws owner's claim on the target identified by key.  If owner was
+     * polling it, then it stops and the next connection in line takes over.
+     */
+    public void release(Object key, Object owner) {
+        synchronized(this) {
+            HashSet<Object> keys = keysByOwner.get(owner);
+            if(keys != null) {
+                keys.remove(key);
+                if(keys.isEmpty())
+                    keysByOwner.remove(owner);
+            }
+            releaseClaim(key, owner);
+        }
+        runActions();
+    }
+
+    /** Withdraws all of owner's claims (e.g., because it is shutting down). */
+    public void releaseAll(Object owner) {
+        synchronized(this) {
+            HashSet<Object> keys = keysByOwner.remove(owner);
+            if(keys != null)
+                for(Object key : keys)
+                    releaseClaim(key, owner);
+            down.remove(owner);
+        }
+        runActions();
+    }
+
+    /** withdraws owner's claim on key (keysByOwner is left to the caller) */
+    private void releaseClaim(Object key, Object owner) {
+        Entry e = entries.get(key);
+        if(e == null)
+            return;
+
+        int i = e.indexOf(owner);
+        if(i < 0)
+            return;
+
+        Claim c = e.claims.remove(i);
+        if(e.claims.isEmpty()) {
+            entries.remove(key);
+            if(e.owner == c)
+                actions.add(new Action(c.poller, false));
+            return;
+        }
+
+        if(e.owner == c) {
+            // prefer a connection which is up, but anyone beats nobody
+            Claim next = nextUp(e, null);
+            transfer(e, next != null ? next : e.claims.get(0));
+        }
+    }
+
+    /**
+     * Notes whether owner's connection is up.  When it goes down, the targets
+     * it polls move to other connections which are up; when it comes back,
+     * it takes over the targets it claimed whose owners are down.
+     */
+    public void setConnected(Object owner, boolean connected) {
+        synchronized(this) {
+            updateConnected(owner, connected);
+        }
+        runActions();
+    }
+
+    /** notes whether owner is up; the caller holds the lock (see setConnected()) */
+    private void updateConnected(Object owner, boolean connected) {
+        if(connected ? !down.remove(owner) : !down.add(owner))
+            return;
+
+        HashSet<Object> keys = keysByOwner.get(owner);
+        if(keys == null)
+            return;
+
+        for(Object key : keys) {
+            Entry e = entries.get(key);
+            if(e == null)
+                continue;
+
+            if(!connected) {
+                if(e.owner.owner == owner) {
+                    Claim next = nextUp(e, owner);
+                    if(next != null)
+                        transfer(e, next);
+                }
+            }
+            else if(e.owner.owner != owner && down.contains(e.owner.owner))
+                transfer(e, e.claims.get(e.indexOf(owner)));
+        }
+    }
+
+    /** returns the first claim on e whose connection is up and is not except's, if any */
+    private Claim nextUp(Entry e, Object except) {
+        for(Claim c : e.claims)
+            if(c.owner != except && !down.contains(c.owner))
+                return c;
+        return null;
+    }
+
+    /** makes c the owner of e (its poller is queued to start after the current owner's stops) */
+    private void transfer(Entry e, Claim c) {
+        if(e.owner == c)
+            return;
+
+        if(e.owner != null)
+            actions.add(new Action(e.owner.poller, false));
+        e.owner = c;
+        actions.add(new Action(c.poller, true));
+    }
+
+    /**
+     * Starts and stops pollers as queued.  Whichever thread gets to run them
+     * also runs those queued by other threads in the meantime (so they stay in
+     * order); check again after releasing it in case one was queued just as
+     * the runner finished.  The caller must not hold the registry's lock.
+     */
+    private void runActions() {
+        while(!actions.isEmpty() && runningActions.compareAndSet(false, true)) {
+            try {
+                Action a;
+                while((a = actions.poll()) != null) {
+                    if(a.start)
+                        a.poller.start();
+                    else
+                        a.poller.stop();
+                }
+            }
+            finally {
+                runningActions.set(false);
+            }
+        }
+    }
+
+    /** Returns true if owner is the connection polling the target identified by key. */
+    public synchronized boolean isOwner(Object key, Object owner) {
+        Entry e = entries.get(key);
+        return e != null && e.owner.owner == owner;
+    }
+
+    /** Returns the connection polling the target identified by key, or null if it is not claimed. */
+    public synchronized Object getOwner(Object key) {
+        Entry e = entries.get(key);
+        return (e == null) ? null : e.owner.owner;
+    }
+
+    /** Returns the number of targets which have been claimed. */
+    public synchronized int getNumTargets() {
+        return entries.size();
+    }
+}
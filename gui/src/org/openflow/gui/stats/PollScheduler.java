@@ -0,0 +1,374 @@
+package org.openflow.gui.stats;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+import org.openflow.gui.Options;
+import org.openflow.gui.net.BackendConnection;
+
+/**
+ * Decides when stats are requested from a backend.  Instead of asking the
+ * backend to poll everything at one fixed interval (so that every reply
+ * arrives in the same burst), each target is requested by the GUI itself on
+ * its own schedule:
+ *
+ * <ul>
+ * <li>Intervals adapt: a target whose rate barely changed (or which is idle)
+ * is polled less often, up to Options.POLL_INTERVAL_MAX_MSEC; one whose rate
+ * swings is polled more often, down to Options.POLL_INTERVAL_MIN_MSEC.
+ * Selected targets are always polled at the minimum interval.</li>
+ * <li>Phases are spread: the first poll of each target is offset into its
+ * interval by a low-discrepancy (golden ratio) sequence, so targets added
+ * together are evenly staggered however many there are.</li>
+ * <li>A budget caps how many requests are sent per second over the
+ * connection; polls which would exceed it are deferred.</li>
+ * </ul>
+ *
+ * Nothing is requested while the connection is down or for targets which
+ * are not visible (see Target.isVisible() and expedite()).  Targets which
+ * become invalid (e.g., their link was removed) are dropped when they come
+ * due.
+ */
+public class PollScheduler {
+    /** relative change in rate at or below which a target is considered stable */
+    public static final double STABLE_CHANGE = 0.05;
+
+    /** relative change in rate at or above which a target is considered volatile */
+    public static final double VOLATILE_CHANGE = 0.25;
+
+    /** rate (in bps) below which a target is considered idle */
+    public static final double IDLE_RATE_BPS = 1000;
+
+    /** how much the interval of a stable or idle target grows each poll */
+    public static final double INTERVAL_GROWTH = 1.5;
+
+    /** how much the interval of a volatile target shrinks each poll */
+    public static final double INTERVAL_SHRINK = 0.5;
+
+    /** fraction of the golden ratio used to spread phases */
+    private static final double PHASE_STEP = 0.6180339887498949;
+
+    /** Something whose stats are polled. */
+    public static abstract class Target {
+        /** Returns what identifies this target (targets with equal keys are the same target). */
+        public abstract Object getKey();
+
+        /** Returns false once the target should no longer be polled. */
+        public abstract boolean isValid();
+
+        /** Returns true if the user is looking at this target (it is polled as often as allowed). */
+        public abstract boolean isSelected();
+
+        /** 
+         * Returns false if nobody can see this target (e.g., it is off-screen), 
+         * in which case it is not polled until it is visible again.
+         */
+        public boolean isVisible() {
+            return true;
+        }
+
+        /** Returns the latest rate measured for this target (in bps), or a negative value if unknown. */
+        public abstract double getRate();
+
+        /** Sends a request for this target's stats over conn. */
+        public abstract void poll(BackendConnection conn) throws IOException;
+    }
+
+    /** a target and its schedule */
+    private static final class Entry implements Comparable<Entry> {
+        final Target target;
+
+        /** current interval between polls */
+        int interval_ms;
+
+        /** when the next poll is due */
+        long nextDue_ms;
+
+        /** the rate seen when the target was last polled (negative if unknown) */
+        double lastRate = -1;
+
+        /** whether the target has been removed (it is dropped from the queue lazily) */
+        boolean removed = false;
+
+        Entry(Target target, int interval_ms, long nextDue_ms) {
+            this.target = target;
+            this.interval_ms = interval_ms;
+            this.nextDue_ms = nextDue_ms;
+        }
+
+        /** returns a copy of this entry which is due at the specified time */
+        Entry reschedule(long nextDue_ms) {
+            Entry e = new Entry(target, interval_ms, nextDue_ms);
+            e.lastRate = lastRate;
+            return e;
+        }
+
+        public int compareTo(Entry o) {
+            return (nextDue_ms < o.nextDue_ms) ? -1 : ((nextDue_ms == o.nextDue_ms) ? 0 : 1);
+        }
+    }
+
+    /** the connection requests are sent over */
+    private final BackendConnection conn;
+
+    /** the targets being polled, keyed by their keys */
+    private final HashMap<Object, Entry> entries = new HashMap<Object, Entry>();
+
+    /** targets in order of when they are due */
+    private final PriorityQueue<Entry> queue = new PriorityQueue<Entry>();
+
+    /** most requests sent per second (0 means unlimited) */
+    private double budget;
+
+    /** requests which may be sent right now without exceeding the budget */
+    private double tokens;
+
+    /** when tokens was last replenished */
+    private long lastRefill_ms = System.currentTimeMillis();
+
+    /** number of targets added so far (positions each one in the phase sequence) */
+    private long numAdded = 0;
+
+    /** number of requests sent */
+    private long numPolls = 0;
+
+    /** number of times a due poll waited for a token to stay within the budget */
+    private long numDeferred = 0;
+
+    /** whether the scheduler has been shut down */
+    private boolean done = false;
+
+    /** sends the requests */
+    private final Thread thread;
+
+    /**
+     * Creates a scheduler and starts its thread.
+     *
+     * @param conn    the connection to send requests over
+     * @param budget  most requests to send per second (0 means unlimited)
+     */
+    public PollScheduler(BackendConnection conn, double budget) {
+        this.conn = conn;
+        setBudget(budget);
+        thread = new Thread("PollScheduler") {
+            public void run() {
+                runScheduler();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Sets the most requests to send per second (0 means unlimited). */
+    public synchronized void setBudget(double budget) {
+        this.budget = Math.max(0, budget);
+        tokens = Math.min(tokens, getBurst());
+        notifyAll();
+    }
+
+    /** Returns the most requests sent per second (0 means unlimited). */
+    public synchronized double getBudget() {
+        return budget;
+    }
+
+    /** returns how many requests may be sent back to back (a tenth of a second's worth) */
+    private double getBurst() {
+        return Math.max(1, budget / 10);
+    }
+
+    /**
+     * Starts polling t (unless a target with the same key is already being
+     * polled).  Its first poll is staggered into its initial interval
+     * (Options.STATS_REFRESH_RATE_MSEC).
+     *
+     * @return true if t was added
+     */
+    public synchronized boolean add(Target t) {
+        if(entries.containsKey(t.getKey()))
+            return false;
+
+        int interval = Options.STATS_REFRESH_RATE_MSEC;
+        double phase = (numAdded++ * PHASE_STEP) % 1.0;
+        Entry e = new Entry(t, interval, System.currentTimeMillis() + (long)(phase * interval));
+        entries.put(t.getKey(), e);
+        queue.add(e);
+        notifyAll();
+        return true;
+    }
+
+    /** Stops polling the target with the specified key. */
+    public synchronized void remove(Object key) {
+        Entry e = entries.remove(key);
+        if(e != null)
+            e.removed = true;
+    }
+
+    /** 
+     * Polls the target with the specified key as soon as the budget allows 
+     * (e.g., because it just became visible).
+     *
+     * @return false if there is no such target
+     */
+    public synchronized boolean expedite(Object key) {
+        Entry e = entries.get(key);
+        if(e == null)
+            return false;
+
+        // the old entry is dropped from the queue lazily
+        long now = System.currentTimeMillis();
+        if(e.nextDue_ms > now) {
+            e.removed = true;
+            e = e.reschedule(now);
+            entries.put(key, e);
+            queue.add(e);
+            notifyAll();
+        }
+        return true;
+    }
+
+    /** Returns true if the target with the specified key is being polled. */
+    public synchronized boolean contains(Object key) {
+        return entries.containsKey(key);
+    }
+
+    /** Returns the current interval of the target with the specified key, or -1 if there is no such target. */
+    public synchronized int getInterval(Object key) {
+        Entry e = entries.get(key);
+        return (e == null) ? -1 : e.interval_ms;
+    }
+
+    /** Returns the number of targets being polled. */
+    public synchronized int getNumTargets() {
+        return entries.size();
+    }
+
+    /** Returns the number of requests sent. */
+    public synchronized long getNumPolls() {
+        return numPolls;
+    }
+
+    /** Returns the number of times a due poll waited for a token to stay within the budget. */
+    public synchronized long getNumDeferred() {
+        return numDeferred;
+    }
+
+    /** Stops the scheduler's thread. */
+    public synchronized void shutdown() {
+        done = true;
+        notifyAll();
+    }
+
+    /** polls each target as it comes due */
+    private void runScheduler() {
+        while(true) {
+            Entry e;
+            synchronized(this) {
+                e = nextDue();
+                if(e == null)
+                    return;
+            }
+
+            try {
+                e.target.poll(conn);
+            }
+            catch(IOException ex) {
+                // the connection went down; the target is requested again next time
+            }
+        }
+    }
+
+    /**
+     * waits until a target is due and may be polled within the budget, then
+     * reschedules it and returns it (or null if the scheduler was shut down)
+     */
+    private Entry nextDue() {
+        while(!done) {
+            long now = System.currentTimeMillis();
+            Entry e = queue.peek();
+            if(e == null || e.nextDue_ms > now) {
+                try {
+                    wait((e == null) ? 0 : e.nextDue_ms - now);
+                }
+                catch(InterruptedException ex) {
+                    return null;
+                }
+                continue;
+            }
+
+            // drop or skip targets which are not polled now (no token is needed)
+            if(e.removed) {
+                queue.poll();
+                continue;
+            }
+
+            if(!e.target.isValid()) {
+                queue.poll();
+                entries.remove(e.target.getKey());
+                continue;
+            }
+
+            // nothing is sent while the connection is down or nobody is looking
+            if(!conn.isConnected() || !e.target.isVisible()) {
+                queue.poll();
+                e.nextDue_ms = now + e.interval_ms;
+                queue.add(e);
+                continue;
+            }
+
+            // if the budget is spent, leave the queue alone (so targets keep 
+            // their phases) and wait until a token is available
+            long wait = refillTokens(now);
+            if(wait > 0) {
+                numDeferred += 1;
+                try {
+                    wait(wait);
+                }
+                catch(InterruptedException ex) {
+                    return null;
+                }
+                continue;
+            }
+
+            queue.poll();
+            if(budget > 0)
+                tokens -= 1;
+            adapt(e);
+            e.nextDue_ms = now + e.interval_ms;
+            queue.add(e);
+            numPolls += 1;
+            return e;
+        }
+        return null;
+    }
+
+    /**
+     * replenishes the budget's tokens; returns 0 if one is available or else
+     * how long until one will be
+     */
+    private long refillTokens(long now) {
+        if(budget <= 0)
+            return 0;
+
+        tokens = Math.min(getBurst(), tokens + (now - lastRefill_ms) * budget / 1000.0);
+        lastRefill_ms = now;
+        if(tokens >= 1)
+            return 0;
+        return Math.max(1, (long)Math.ceil((1 - tokens) * 1000.0 / budget));
+    }
+
+    /** adjusts e's interval based on how much its rate changed since it was last polled */
+    private void adapt(Entry e) {
+        double rate = e.target.getRate();
+        if(e.target.isSelected())
+            e.interval_ms = Options.POLL_INTERVAL_MIN_MSEC;
+        else if(rate >= 0 && e.lastRate >= 0) {
+            double change = Math.abs(rate - e.lastRate) / Math.max(IDLE_RATE_BPS, Math.max(rate, e.lastRate));
+            if(change <= STABLE_CHANGE)
+                e.interval_ms = (int)Math.min(Options.POLL_INTERVAL_MAX_MSEC, e.interval_ms * INTERVAL_GROWTH);
+            else if(change >= VOLATILE_CHANGE)
+                e.interval_ms = (int)Math.max(Options.POLL_INTERVAL_MIN_MSEC, e.interval_ms * INTERVAL_SHRINK);
+        }
+        e.lastRate = rate;
+    }
+}
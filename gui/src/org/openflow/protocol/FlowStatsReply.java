@@ -0,0 +1,177 @@
+package org.openflow.protocol;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.openflow.gui.net.ByteBufferDataInput;
+import org.openflow.gui.net.protocol.StatsHeader;
+
+/**
+ * A reply with the counters of individual flows (the body of an OFPST_FLOW
+ * reply: one variable-length ofp_flow_stats per flow).  A switch with many
+ * flows answers with several replies, all but the last of which are flagged
+ * StatsFlag.REPLY_MORE.
+ *
+ * Only the cookie and the packet and byte counts of each flow are kept, in
+ * parallel arrays, so decoding a reply allocates the same few objects however
+ * many flows it holds.  The rest of each entry (match, timeouts, actions) is
+ * skipped and is written back as wildcards and zeros.
+ */
+public class FlowStatsReply extends StatsHeader {
+    /** number of bytes in a flow's stats on the wire, not counting its actions */
+    public static final int ENTRY_SIZEOF = 88;
+
+    /** offsets of the fields we keep within an entry */
+    private static final int OFFSET_COOKIE       = 64;
+    private static final int OFFSET_PACKET_COUNT = 72;
+    private static final int OFFSET_BYTE_COUNT   = 80;
+
+    /** number of flows in the reply */
+    private final int numFlows;
+
+    /** opaque controller-issued identifier of each flow */
+    private final long[] cookies;
+
+    /** number of packets in each flow */
+    private final long[] packetCounts;
+
+    /** number of bytes in each flow */
+    private final long[] byteCounts;
+
+    /**
+     * Create a flow stats reply from the switch with the specified DPID.  The
+     * arrays must have the same length.
+     */
+    public FlowStatsReply(long dpid, StatsFlag flags, long[] cookies, long[] packetCounts, long[] byteCounts) {
+        super(StatsHeader.REPLY,
+              dpid,
+              StatsType.FLOW,
+              flags);
+
+        this.numFlows = cookies.length;
+        this.cookies = cookies;
+        this.packetCounts = packetCounts;
+        this.byteCounts = byteCounts;
+    }
+
+    /**
+     * Create a flow stats reply from the switch with the specified DPID and
+     * flags and read the reply from the receive buffer.
+     *
+     * @param len  length of the whole message (the number of flows is derived from it)
+     */
+    public FlowStatsReply(int len, long dpid, StatsFlag flags, DataInput in) throws IOException {
+        super(StatsHeader.REPLY,
+              dpid,
+              StatsType.FLOW,
+              flags);
+
+        int bodyLen = len - super.length();
+        if(bodyLen < 0)
+            throw new IOException("Body of flow stats reply has a bad length: " + bodyLen);
+
+        // every entry is at least ENTRY_SIZEOF bytes long
+        int maxFlows = bodyLen / ENTRY_SIZEOF;
+        cookies = new long[maxFlows];
+        packetCounts = new long[maxFlows];
+        byteCounts = new long[maxFlows];
+
+        int n = 0;
+        if(in instanceof ByteBufferDataInput) {
+            // read the fields we keep straight from the buffer
+            ByteBuffer buf = ((ByteBufferDataInput)in).getBuffer();
+            if(buf.remaining() < bodyLen)
+                throw new EOFException("tried to read " + bodyLen + "B but only " + buf.remaining() + "B remain");
+
+            int pos = buf.position();
+            int end = pos + bodyLen;
+            while(pos < end) {
+                int entryLen = checkEntryLength(buf.getShort(pos) & 0xFFFF, end - pos);
+                cookies[n]      = buf.getLong(pos + OFFSET_COOKIE);
+                packetCounts[n] = buf.getLong(pos + OFFSET_PACKET_COUNT);
+                byteCounts[n]   = buf.getLong(pos + OFFSET_BYTE_COUNT);
+                n += 1;
+                pos += entryLen;
+            }
+            buf.position(end);
+        }
+        else {
+            int left = bodyLen;
+            while(left > 0) {
+                int entryLen = checkEntryLength(left < 2 ? 0 : in.readUnsignedShort(), left);
+                in.skipBytes(OFFSET_COOKIE - 2); /* table, pad, match, durations, priority, timeouts, pad */
+                cookies[n]      = in.readLong();
+                packetCounts[n] = in.readLong();
+                byteCounts[n]   = in.readLong();
+                in.skipBytes(entryLen - ENTRY_SIZEOF); /* actions */
+                n += 1;
+                left -= entryLen;
+            }
+        }
+        numFlows = n;
+    }
+
+    /** returns entryLen if an entry of that length fits in the left bytes of the body */
+    private static int checkEntryLength(int entryLen, int left) throws IOException {
+        if(entryLen < ENTRY_SIZEOF || entryLen > left)
+            throw new IOException("Flow stats entry has a bad length: " + entryLen + "B (" + left + "B left in body, need >=" + ENTRY_SIZEOF + "B)");
+        return entryLen;
+    }
+
+    /** Returns the number of flows in the reply */
+    public int getNumFlows() {
+        return numFlows;
+    }
+
+    /** Returns the cookie of the i'th flow */
+    public long getCookie(int i) {
+        return cookies[i];
+    }
+
+    /** Returns the number of packets in the i'th flow */
+    public long getPacketCount(int i) {
+        return packetCounts[i];
+    }
+
+    /** Returns the number of bytes in the i'th flow */
+    public long getByteCount(int i) {
+        return byteCounts[i];
+    }
+
+    /** Returns true if more replies to the same request follow this one */
+    public boolean hasMore() {
+        return flags == StatsFlag.REPLY_MORE;
+    }
+
+    /** returns true because this message is part of a stateful exchange */
+    public boolean isStatefulReply() {
+        return true;
+    }
+
+    /** total length of this message in bytes */
+    public int length() {
+        return super.length() + numFlows * ENTRY_SIZEOF;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        super.write(out);
+        for(int i=0; i<numFlows; i++) {
+            out.writeShort(ENTRY_SIZEOF);
+            out.writeShort(0);           // table, pad
+            Match.MATCH_ALL.write(out);
+            out.writeLong(0);            // durations
+            out.writeLong(0);            // priority, timeouts, 2B of pad
+            out.writeInt(0);             // pad
+            out.writeLong(cookies[i]);
+            out.writeLong(packetCounts[i]);
+            out.writeLong(byteCounts[i]);
+        }
+    }
+
+    public String toString() {
+        return super.toString() + TSSEP + "flows=" + numFlows;
+    }
+}
@@ -0,0 +1,138 @@
+package org.openflow.protocol;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.openflow.gui.net.protocol.StatsHeader;
+
+/**
+ * A reply with the counters of one or more of a switch's ports (the body of
+ * an OFPST_PORT reply: one ofp_port_stats per port).
+ */
+public class PortStatsReply extends StatsHeader {
+    /** The counters of one port. */
+    public static final class Port {
+        /** number of bytes in each port's counters on the wire */
+        public static final int SIZEOF = 104;
+        
+        /** the port these counters are for */
+        public short port_no;
+        
+        public long rx_packets, tx_packets;
+        public long rx_bytes, tx_bytes;
+        public long rx_dropped, tx_dropped;
+        public long rx_errors, tx_errors;
+        public long rx_frame_err, rx_over_err, rx_crc_err;
+        public long collisions;
+        
+        public Port(short port_no) {
+            this.port_no = port_no;
+        }
+        
+        /** reads one port's counters */
+        public Port(DataInput in) throws IOException {
+            port_no = in.readShort();
+            in.skipBytes(6); /* 6B pad */
+            rx_packets   = in.readLong();
+            tx_packets   = in.readLong();
+            rx_bytes     = in.readLong();
+            tx_bytes     = in.readLong();
+            rx_dropped   = in.readLong();
+            tx_dropped   = in.readLong();
+            rx_errors    = in.readLong();
+            tx_errors    = in.readLong();
+            rx_frame_err = in.readLong();
+            rx_over_err  = in.readLong();
+            rx_crc_err   = in.readLong();
+            collisions   = in.readLong();
+        }
+        
+        public void write(DataOutput out) throws IOException {
+            out.writeShort(port_no);
+            out.writeShort(0); // pad
+            out.writeInt(0);   // pad
+            out.writeLong(rx_packets);
+            out.writeLong(tx_packets);
+            out.writeLong(rx_bytes);
+            out.writeLong(tx_bytes);
+            out.writeLong(rx_dropped);
+            out.writeLong(tx_dropped);
+            out.writeLong(rx_errors);
+            out.writeLong(tx_errors);
+            out.writeLong(rx_frame_err);
+            out.writeLong(rx_over_err);
+            out.writeLong(rx_crc_err);
+            out.writeLong(collisions);
+        }
+        
+        public String toString() {
+            return "port=" + port_no + " rx=" + rx_packets + "pkts/" + rx_bytes + "B" 
+                                     + " tx=" + tx_packets + "pkts/" + tx_bytes + "B";
+        }
+    }
+    
+    /** the counters of each port in the reply */
+    public final Port[] ports;
+    
+    /** Create a port stats reply from the switch with the specified DPID. */
+    public PortStatsReply(long dpid, Port[] ports) {
+        super(StatsHeader.REPLY,
+              dpid,
+              StatsType.PORT,
+              StatsFlag.NONE);
+        
+        this.ports = ports;
+    }
+    
+    /** 
+     * Create a port stats reply from the switch with the specified DPID and 
+     * flags and read the reply from the receive buffer.
+     * 
+     * @param len  length of the whole message (the number of ports is derived from it)
+     */
+    public PortStatsReply(int len, long dpid, StatsFlag flags, DataInput in) throws IOException {
+        super(StatsHeader.REPLY,
+              dpid,
+              StatsType.PORT,
+              flags);
+        
+        int bodyLen = len - super.length();
+        if(bodyLen < 0 || bodyLen % Port.SIZEOF != 0)
+            throw new IOException("Body of port stats reply is not a multiple of " + Port.SIZEOF + " (length of body is " + bodyLen + " bytes)");
+        
+        ports = new Port[bodyLen / Port.SIZEOF];
+        for(int i=0; i<ports.length; i++)
+            ports[i] = new Port(in);
+    }
+    
+    /** returns true because this message is part of a stateful exchange */
+    public boolean isStatefulReply() {
+        return true;
+    }
+    
+    /** total length of this message in bytes */
+    public int length() {
+        return super.length() + ports.length * Port.SIZEOF;
+    }
+    
+    public void write(DataOutput out) throws IOException {
+        super.write(out);
+        for(Port p : ports)
+            p.write(out);
+    }
+    
+    public String toString() {
+        String strPorts;
+        if(ports.length > 0) {
+            StringBuilder sb = new StringBuilder(ports[0].toString());
+            for(int i=1; i<ports.length; i++)
+                sb.append(", ").append(ports[i].toString());
+            strPorts = sb.toString();
+        }
+        else
+            strPorts = "none";
+        
+        return super.toString() + TSSEP + strPorts;
+    }
+}
@@ -0,0 +1,69 @@
+package org.openflow.protocol;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.openflow.gui.net.protocol.StatsHeader;
+
+/**
+ * A request for the counters of one or all of a switch's ports.  A single 
+ * request for all ports replaces one AggregateStatsRequest per link.
+ */
+public class PortStatsRequest extends StatsHeader {
+    /** port number which requests the counters of every port */
+    public static final short OFPP_NONE = (short)0xFFFF;
+    
+    /** the port to get counters for, or OFPP_NONE for all ports */
+    public short port;
+    
+    /** Create a request for the counters of every port on the switch with this DPID. */
+    public PortStatsRequest(long dpid) {
+        this(dpid, OFPP_NONE);
+    }
+    
+    /** Create a request for the counters of one port on the switch with this DPID. */
+    public PortStatsRequest(long dpid, short port) {
+        super(StatsHeader.REQUEST,
+              dpid,
+              StatsType.PORT,
+              StatsFlag.NONE);
+        
+        this.port = port;
+    }
+    
+    /** 
+     * Create a request for port stats from the switch with the specified 
+     * DPID and flags and read the request from the receive buffer.
+     */
+    public PortStatsRequest(long dpid, StatsFlag flags, DataInput in) throws IOException {
+        super(StatsHeader.REQUEST,
+              dpid,
+              StatsType.PORT,
+              flags);
+        
+        port = in.readShort();
+        in.skipBytes(6); /* 6B of pad */
+    }
+    
+    /** returns true because this message is part of a stateful exchange */
+    public boolean isStatefulRequest() {
+        return true;
+    }
+    
+    /** total length of this message in bytes */
+    public int length() {
+        return super.length() + 8;
+    }
+    
+    public void write(DataOutput out) throws IOException {
+        super.write(out);
+        out.writeShort(port);
+        out.writeShort(0); // pad
+        out.writeInt(0);   // pad
+    }
+    
+    public String toString() {
+        return super.toString() + TSSEP + "port=" + (port == OFPP_NONE ? "all" : Short.toString(port));
+    }
+}
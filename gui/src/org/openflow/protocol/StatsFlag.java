@@ -2,13 +2,16 @@ package org.openflow.protocol;
 
 /**
  * Enumerates what stats flags are in the OpenFlow protocol.  Equivalent 
- * to the OFPSF_REQ_* constants.
+ * to the OFPSF_REQ_* and OFPSF_REPLY_* constants.
  * 
  * @author David Underhill
  */
 public enum StatsFlag {
-    /* none exist yet */
-    NONE((short)0);
+    /** no flags */
+    NONE((short)0),
+    
+    /** more replies to the same request follow this one (OFPSF_REPLY_MORE) */
+    REPLY_MORE((short)1);
     
     /** the special value used to identify stats flags */
     private final short typeID;
@@ -22,11 +25,26 @@ public enum StatsFlag {
         return typeID;
     }
 
+    /** constants indexed by type ID */
+    private static final StatsFlag[] BY_TYPE_ID;
+    static {
+        int max = -1;
+        for(StatsFlag t : values())
+            max = Math.max(max, t.typeID);
+        
+        BY_TYPE_ID = new StatsFlag[max + 1];
+        for(StatsFlag t : values())
+            if(t.typeID >= 0)
+                BY_TYPE_ID[t.typeID] = t;
+    }
+
     /** Returns the OFGMessageType constant associated with typeID, if any */
     public static StatsFlag typeValToStatsFlag(short typeID) {
-        for(StatsFlag t : StatsFlag.values())
-            if(t.getTypeID() == typeID)
+        if(typeID >= 0 && typeID < BY_TYPE_ID.length) {
+            StatsFlag t = BY_TYPE_ID[typeID];
+            if(t != null)
                 return t;
+        }
 
         return null;
     }
@@ -3,6 +3,7 @@ package org.openflow.protocol;
 import java.io.DataInput;
 import java.io.IOException;
 
+import org.openflow.gui.net.protocol.OFGCodecRegistry;
 import org.openflow.gui.net.protocol.OFGMessageType;
 import org.openflow.gui.net.protocol.StatsHeader;
 
@@ -43,11 +44,28 @@ public enum StatsType {
         return typeID;
     }
 
+    /** constants indexed by type ID (except VENDOR) */
+    private static final StatsType[] BY_TYPE_ID;
+    static {
+        int max = -1;
+        for(StatsType t : values())
+            max = Math.max(max, t.typeID);
+        
+        BY_TYPE_ID = new StatsType[max + 1];
+        for(StatsType t : values())
+            if(t.typeID >= 0)
+                BY_TYPE_ID[t.typeID] = t;
+    }
+
     /** Returns the OFGMessageType constant associated with typeID, if any */
     public static StatsType typeValToStatsType(short typeID) {
-        for(StatsType t : StatsType.values())
-            if(t.getTypeID() == typeID)
+        if(typeID >= 0 && typeID < BY_TYPE_ID.length) {
+            StatsType t = BY_TYPE_ID[typeID];
+            if(t != null)
                 return t;
+        }
+        else if(typeID == VENDOR.typeID)
+            return VENDOR;
 
         return null;
     }
@@ -55,32 +73,13 @@ public enum StatsType {
     /**
      * Constructs the object representing the received message.  The message is 
      * known to be of length len and len - OFGMessage.SIZEOF bytes representing
-     * the rest of the message should be extracted from buf.
+     * the rest of the message should be extracted from buf.  Decoders are 
+     * looked up in the OFGCodecRegistry.
      */
     public static StatsHeader decode(int len, OFGMessageType t, int xid, DataInput in) throws IOException {
         if(t != OFGMessageType.STAT_REPLY)
             throw new IOException("StatsType.decode was unexpectedly asked to decode type " + t.toString());
         
-        // parse the stats header
-        long dpid = in.readLong();
-        
-        short statsTypeVal = in.readShort();
-        StatsType type = StatsType.typeValToStatsType(statsTypeVal);
-        if(type == null)
-            throw new IOException("Unknown stats type ID: " + statsTypeVal);
-        
-        StatsFlag flags = StatsFlag.typeValToStatsFlag(in.readShort());
-        
-        // parse the rest of the message
-        switch(type) {
-            case DESC:
-                return new SwitchDescriptionStats(dpid, flags, in);
-
-            case AGGREGATE:
-                return new AggregateStatsReply(dpid, flags, in);
-            
-            default:
-                throw new IOException("Unhandled stats type received: " + type.toString());
-        }
+        return OFGCodecRegistry.decodeStats(len, in);
     }
 }
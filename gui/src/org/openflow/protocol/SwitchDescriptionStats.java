@@ -1,15 +1,26 @@
 package org.openflow.protocol;
 
 import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
+import org.openflow.gui.net.ByteBufferDataInput;
 import org.openflow.gui.net.SocketConnection;
+import org.openflow.gui.net.StringPool;
 import org.openflow.gui.net.protocol.StatsHeader;
 
 /**
  * OFGMessage containing information about a switch.  It is the response to
  * OFPST_DESC statistics request.
  * 
+ * Received descriptions are decoded lazily: only the bytes of each string 
+ * (up to its terminating zero) are kept until it is first asked for.  The 
+ * manufacturer, hardware, and software descriptions are usually identical 
+ * across a fabric, so they are interned in a shared pool (and looked up 
+ * straight from the receive buffer when possible).
+ * 
  * @author David Underhill
  */
 public class SwitchDescriptionStats extends StatsHeader {
@@ -17,7 +28,42 @@ public class SwitchDescriptionStats extends StatsHeader {
     public static final int MAX_DSEC_STR_LEN = 256;
     public static final int SERIAL_NUM_LEN = 32;
     
-    public final String manufacturer, hw_desc, sw_desc, serial_num, desc;
+    /** most distinct strings interned across all switches */
+    public static final int MAX_POOLED_STRINGS = 4096;
+    
+    /** canonical instances of the strings which are shared across switches */
+    private static final StringPool POOL = new StringPool(MAX_POOLED_STRINGS);
+    
+    /** scratch space for reading a field when it cannot be scanned in place */
+    private static final ThreadLocal<byte[]> SCRATCH = new ThreadLocal<byte[]>() {
+        protected byte[] initialValue() {
+            return new byte[MAX_DSEC_STR_LEN];
+        }
+    };
+    
+    /** indices of each string in fields */
+    private static final int MANUFACTURER=0, HW_DESC=1, SW_DESC=2, SERIAL_NUM=3, DESC=4;
+    
+    /** 
+     * each string, either decoded (a String) or not yet (a byte[] holding 
+     * its bytes) 
+     */
+    private final Object[] fields = new Object[5];
+    
+    /** Create a description of the switch with the specified DPID. */
+    public SwitchDescriptionStats(long dpid, String manufacturer, String hw_desc, 
+                                  String sw_desc, String serial_num, String desc) {
+        super(StatsHeader.REPLY,
+              dpid,
+              StatsType.DESC,
+              StatsFlag.NONE);
+        
+        fields[MANUFACTURER] = manufacturer;
+        fields[HW_DESC]      = hw_desc;
+        fields[SW_DESC]      = sw_desc;
+        fields[SERIAL_NUM]   = serial_num;
+        fields[DESC]         = desc;
+    }
     
     /** 
      * Extract the descriptions from the specified input stream.
@@ -28,22 +74,117 @@ public class SwitchDescriptionStats extends StatsHeader {
               StatsType.DESC,
               flags);
         
-        this.manufacturer = SocketConnection.readString(in, MAX_DSEC_STR_LEN);
-        this.hw_desc      = SocketConnection.readString(in, MAX_DSEC_STR_LEN);
-        this.sw_desc      = SocketConnection.readString(in, MAX_DSEC_STR_LEN);
-        this.serial_num   = SocketConnection.readString(in, SERIAL_NUM_LEN);
-        this.desc      = SocketConnection.readString(in, MAX_DSEC_STR_LEN);
+        fields[MANUFACTURER] = readField(in, MAX_DSEC_STR_LEN, true);
+        fields[HW_DESC]      = readField(in, MAX_DSEC_STR_LEN, true);
+        fields[SW_DESC]      = readField(in, MAX_DSEC_STR_LEN, true);
+        fields[SERIAL_NUM]   = readField(in, SERIAL_NUM_LEN, false);
+        fields[DESC]         = readField(in, MAX_DSEC_STR_LEN, false);
+    }
+    
+    /**
+     * Reads a zero-padded string of bytesToRead bytes.  If pooled is true and 
+     * the string is already in the pool, the pooled String is returned.  
+     * Otherwise the string's bytes are returned to be decoded on first use.
+     */
+    private static Object readField(DataInput in, int bytesToRead, boolean pooled) throws IOException {
+        if(in instanceof ByteBufferDataInput) {
+            ByteBuffer buf = ((ByteBufferDataInput)in).getBuffer();
+            if(buf.remaining() < bytesToRead)
+                throw new EOFException("tried to read " + bytesToRead + "B but only " + buf.remaining() + "B remain");
+            
+            int start = buf.position();
+            int len = 0;
+            while(len < bytesToRead && buf.get(start + len) != 0)
+                len += 1;
+            
+            String s = pooled ? POOL.lookup(buf, start, len) : null;
+            Object ret = s;
+            if(s == null) {
+                byte[] b = new byte[len];
+                buf.get(b);
+                ret = b;
+            }
+            buf.position(start + bytesToRead);
+            return ret;
+        }
+        
+        byte[] b = SCRATCH.get();
+        in.readFully(b, 0, bytesToRead);
+        int len = 0;
+        while(len < bytesToRead && b[len] != 0)
+            len += 1;
+        
+        byte[] ret = new byte[len];
+        System.arraycopy(b, 0, ret, 0, len);
+        return ret;
+    }
+    
+    /** returns the string at index i of fields, decoding it if need be */
+    private String field(int i) {
+        Object o = fields[i];
+        if(o instanceof String || o == null)
+            return (String)o;
+        
+        byte[] b = (byte[])o;
+        String s;
+        if(i <= SW_DESC)
+            s = POOL.intern(b, 0, b.length);
+        else
+            s = (b.length == 0) ? new String() : new String(b);
+        
+        // a racing thread decodes the same value; either result may be kept
+        fields[i] = s;
+        return s;
+    }
+    
+    /** Returns the name of the switch's manufacturer. */
+    public String getManufacturer() {
+        return field(MANUFACTURER);
+    }
+    
+    /** Returns the description of the switch's hardware. */
+    public String getHWDescription() {
+        return field(HW_DESC);
+    }
+    
+    /** Returns the description of the switch's software. */
+    public String getSWDescription() {
+        return field(SW_DESC);
+    }
+    
+    /** Returns the switch's serial number. */
+    public String getSerialNumber() {
+        return field(SERIAL_NUM);
+    }
+    
+    /** Returns a human readable description of the switch. */
+    public String getDescription() {
+        return field(DESC);
+    }
+    
+    /** Returns the pool which the strings shared across switches are interned in. */
+    public static StringPool getPool() {
+        return POOL;
     }
     
     public int length() {
         return super.length() + 4*MAX_DSEC_STR_LEN + SERIAL_NUM_LEN;
     }
     
+    public void write(DataOutput out) throws IOException {
+        super.write(out);
+        SocketConnection.writeString(out, getManufacturer(),  MAX_DSEC_STR_LEN);
+        SocketConnection.writeString(out, getHWDescription(), MAX_DSEC_STR_LEN);
+        SocketConnection.writeString(out, getSWDescription(), MAX_DSEC_STR_LEN);
+        SocketConnection.writeString(out, getSerialNumber(),  SERIAL_NUM_LEN);
+        SocketConnection.writeString(out, getDescription(),   MAX_DSEC_STR_LEN);
+    }
+    
     public String toString() {
-        return super.toString() + TSSEP + "manf=" + manufacturer
-                                        + " hw=" + hw_desc
-                                        + " sw=" + sw_desc
-                                        + " sid=" + serial_num
-                                        + " desc=" + desc;
+        return super.toString() + TSSEP + "manf=" + getManufacturer()
+                                        + " hw=" + getHWDescription()
+                                        + " sw=" + getSWDescription()
+                                        + " sid=" + getSerialNumber()
+                                        + " desc=" + getDescription();
     }
 }
@@ -0,0 +1,121 @@
+package org.openflow.util;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * A map from primitive int keys to values.  It is a ConcurrentLongMap whose
+ * keys are widened ints, so it has the same lock-free reads and weakly
+ * consistent iteration.
+ */
+public class ConcurrentIntMap<V> {
+    /** holds the values keyed by the widened keys */
+    private final ConcurrentLongMap<V> map;
+
+    /** Creates an empty map. */
+    public ConcurrentIntMap() {
+        map = new ConcurrentLongMap<V>();
+    }
+
+    /** Creates an empty map which can hold expectedSize keys without resizing. */
+    public ConcurrentIntMap(int expectedSize) {
+        map = new ConcurrentLongMap<V>(expectedSize);
+    }
+
+    /** Returns the value associated with key, or null if there is none. */
+    public V get(int key) {
+        return map.get(key);
+    }
+
+    /** Returns true if the map has a value for key. */
+    public boolean containsKey(int key) {
+        return map.containsKey(key);
+    }
+
+    /** Associates value with key.  Returns the value previously associated with key, if any. */
+    public V put(int key, V value) {
+        return map.put(key, value);
+    }
+
+    /**
+     * Associates value with key unless key already has a value.  Returns the
+     * existing value, or null if value was added.
+     */
+    public V putIfAbsent(int key, V value) {
+        return map.putIfAbsent(key, value);
+    }
+
+    /** Removes key from the map.  Returns the value it was associated with, if any. */
+    public V remove(int key) {
+        return map.remove(key);
+    }
+
+    /** Removes every key from the map. */
+    public void clear() {
+        map.clear();
+    }
+
+    /** Returns the number of keys in the map. */
+    public int size() {
+        return map.size();
+    }
+
+    /** Returns true if the map has no keys. */
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    /** Returns the keys in the map (a snapshot which may miss concurrent updates). */
+    public int[] keys() {
+        long[] keys = map.keys();
+        int[] ret = new int[keys.length];
+        for(int i=0; i<keys.length; i++)
+            ret[i] = (int)keys[i];
+        return ret;
+    }
+
+    /** Returns the values in the map (a snapshot which may miss concurrent updates). */
+    public ArrayList<V> values() {
+        return map.values();
+    }
+
+    /**
+     * Returns a view of the keys in the map.  Its iterator is weakly
+     * consistent and supports remove(); the set cannot be added to.
+     */
+    public Set<Integer> keySet() {
+        final Set<Long> keys = map.keySet();
+        return new AbstractSet<Integer>() {
+            public Iterator<Integer> iterator() {
+                final Iterator<Long> itr = keys.iterator();
+                return new Iterator<Integer>() {
+                    public boolean hasNext() {
+                        return itr.hasNext();
+                    }
+
+                    public Integer next() {
+                        return (int)(long)itr.next();
+                    }
+
+                    public void remove() {
+                        itr.remove();
+                    }
+                };
+            }
+
+            public int size() {
+                return map.size();
+            }
+
+            public boolean contains(Object o) {
+                return (o instanceof Integer) && map.containsKey((Integer)o);
+            }
+
+            public boolean remove(Object o) {
+                return (o instanceof Integer) && map.remove((Integer)o) != null;
+            }
+        };
+    }
+}
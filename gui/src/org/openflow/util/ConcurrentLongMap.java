@@ -0,0 +1,310 @@
+package org.openflow.util;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A map from primitive long keys to values, so looking something up by ID
+ * neither boxes the key nor chases a chain of entry objects.  Keys and values
+ * live in parallel arrays addressed by open addressing (linear probing).
+ *
+ * Reads never lock: a slot's key is written once, before its value is
+ * published with a volatile write, and a table which outgrows its capacity is
+ * copied and then swapped in whole.  Updates are serialized by the map's
+ * lock.  Like ConcurrentHashMap, iteration is weakly consistent and null
+ * values are not allowed.
+ */
+public class ConcurrentLongMap<V> {
+    /** marks a slot whose key was removed (its key stays put until the next resize) */
+    private static final Object REMOVED = new Object();
+
+    /** smallest number of slots in a table */
+    private static final int MIN_CAPACITY = 16;
+
+    /** slots and the keys and values in them */
+    private static final class Table {
+        final long[] keys;
+        final AtomicReferenceArray<Object> vals;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            vals = new AtomicReferenceArray<Object>(capacity);
+            mask = capacity - 1;
+        }
+    }
+
+    /** the current table (replaced when it is resized) */
+    private volatile Table table;
+
+    /** number of keys in the map */
+    private volatile int size = 0;
+
+    /** number of slots in table which have ever held a key */
+    private int used = 0;
+
+    /** Creates an empty map. */
+    public ConcurrentLongMap() {
+        this(MIN_CAPACITY / 2);
+    }
+
+    /** Creates an empty map which can hold expectedSize keys without resizing. */
+    public ConcurrentLongMap(int expectedSize) {
+        table = new Table(capacityFor(expectedSize));
+    }
+
+    /** returns the number of slots needed to hold n keys (tables are at most half full) */
+    private static int capacityFor(int n) {
+        int c = MIN_CAPACITY;
+        while(c < 2 * n)
+            c <<= 1;
+        return c;
+    }
+
+    /** Returns the value associated with key, or null if there is none. */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        Table t = table;
+        int i = Hashing.mix(key) & t.mask;
+        while(true) {
+            Object v = t.vals.get(i);
+            if(v == null)
+                return null;
+            if(t.keys[i] == key)
+                return (v == REMOVED) ? null : (V)v;
+            i = (i + 1) & t.mask;
+        }
+    }
+
+    /** Returns true if the map has a value for key. */
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /** Associates value with key.  Returns the value previously associated with key, if any. */
+    public synchronized V put(long key, V value) {
+        return put(key, value, false);
+    }
+
+    /**
+     * Associates value with key unless key already has a value.  Returns the
+     * existing value, or null if value was added.
+     */
+    public synchronized V putIfAbsent(long key, V value) {
+        return put(key, value, true);
+    }
+
+    /** puts value at key (unless onlyIfAbsent and key has a value); the caller holds the lock */
+    @SuppressWarnings("unchecked")
+    private V put(long key, V value, boolean onlyIfAbsent) {
+        if(value == null)
+            throw new NullPointerException();
+
+        Table t = table;
+        int i = Hashing.mix(key) & t.mask;
+        while(true) {
+            Object v = t.vals.get(i);
+            if(v == null)
+                break;
+
+            if(t.keys[i] == key) {
+                if(v != REMOVED) {
+                    if(!onlyIfAbsent)
+                        t.vals.set(i, value);
+                    return (V)v;
+                }
+
+                // reuse the slot this key was removed from
+                t.vals.set(i, value);
+                size += 1;
+                return null;
+            }
+            i = (i + 1) & t.mask;
+        }
+
+        if(2 * (used + 1) > t.keys.length) {
+            resize(size + 1);
+            return put(key, value, onlyIfAbsent);
+        }
+
+        t.keys[i] = key;
+        t.vals.set(i, value);
+        used += 1;
+        size += 1;
+        return null;
+    }
+
+    /** copies the keys into a table big enough for n keys (dropping removed slots); the caller holds the lock */
+    private void resize(int n) {
+        Table old = table;
+        Table t = new Table(capacityFor(Math.max(n, size) * 2));
+        for(int j=0; j<old.keys.length; j++) {
+            Object v = old.vals.get(j);
+            if(v == null || v == REMOVED)
+                continue;
+
+            int i = Hashing.mix(old.keys[j]) & t.mask;
+            while(t.vals.get(i) != null)
+                i = (i + 1) & t.mask;
+            t.keys[i] = old.keys[j];
+            t.vals.set(i, v);
+        }
+        used = size;
+        table = t;
+    }
+
+    /** Removes key from the map.  Returns the value it was associated with, if any. */
+    public synchronized V remove(long key) {
+        return remove(key, null);
+    }
+
+    /**
+     * Removes key from the map if expected is null or is the value key is
+     * associated with.  Returns the value it was associated with, if any (it
+     * is not removed unless the value is expected).
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized V remove(long key, Object expected) {
+        Table t = table;
+        int i = Hashing.mix(key) & t.mask;
+        while(true) {
+            Object v = t.vals.get(i);
+            if(v == null)
+                return null;
+
+            if(t.keys[i] == key) {
+                if(v == REMOVED)
+                    return null;
+                if(expected == null || expected == v) {
+                    t.vals.set(i, REMOVED);
+                    size -= 1;
+                }
+                return (V)v;
+            }
+            i = (i + 1) & t.mask;
+        }
+    }
+
+    /** Removes every key from the map. */
+    public synchronized void clear() {
+        table = new Table(MIN_CAPACITY);
+        size = 0;
+        used = 0;
+    }
+
+    /** Returns the number of keys in the map. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns true if the map has no keys. */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Returns the keys in the map (a snapshot which may miss concurrent updates). */
+    public long[] keys() {
+        Table t = table;
+        long[] ret = new long[t.keys.length];
+        int n = 0;
+        for(int i=0; i<ret.length; i++) {
+            Object v = t.vals.get(i);
+            if(v != null && v != REMOVED)
+                ret[n++] = t.keys[i];
+        }
+
+        long[] exact = new long[n];
+        System.arraycopy(ret, 0, exact, 0, n);
+        return exact;
+    }
+
+    /** Returns the values in the map (a snapshot which may miss concurrent updates). */
+    @SuppressWarnings("unchecked")
+    public ArrayList<V> values() {
+        Table t = table;
+        ArrayList<V> ret = new ArrayList<V>(size);
+        for(int i=0; i<t.keys.length; i++) {
+            Object v = t.vals.get(i);
+            if(v != null && v != REMOVED)
+                ret.add((V)v);
+        }
+        return ret;
+    }
+
+    /**
+     * Returns a view of the keys in the map.  Its iterator is weakly
+     * consistent and supports remove(); the set cannot be added to.
+     */
+    public Set<Long> keySet() {
+        return new AbstractSet<Long>() {
+            public Iterator<Long> iterator() {
+                return new KeyIterator(table);
+            }
+
+            public int size() {
+                return size;
+            }
+
+            public boolean contains(Object o) {
+                return (o instanceof Long) && containsKey((Long)o);
+            }
+
+            public boolean remove(Object o) {
+                return (o instanceof Long) && ConcurrentLongMap.this.remove((Long)o) != null;
+            }
+        };
+    }
+
+    /** iterates over the keys in one table */
+    private final class KeyIterator implements Iterator<Long> {
+        private final Table t;
+
+        /** index of the next slot to look at */
+        private int next = 0;
+
+        /** the key returned last (valid if hasLast) */
+        private long last;
+        private boolean hasLast = false;
+
+        KeyIterator(Table t) {
+            this.t = t;
+            advance();
+        }
+
+        /** moves next to the next slot which holds a key */
+        private void advance() {
+            while(next < t.keys.length) {
+                Object v = t.vals.get(next);
+                if(v != null && v != REMOVED)
+                    return;
+                next += 1;
+            }
+        }
+
+        public boolean hasNext() {
+            return next < t.keys.length;
+        }
+
+        public Long next() {
+            if(!hasNext())
+                throw new NoSuchElementException();
+
+            last = t.keys[next++];
+            hasLast = true;
+            advance();
+            return last;
+        }
+
+        public void remove() {
+            if(!hasLast)
+                throw new IllegalStateException();
+
+            ConcurrentLongMap.this.remove(last);
+            hasLast = false;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.openflow.util;
+
+/**
+ * Hash functions for keys made of IDs and port numbers.  Datapath IDs often
+ * differ only in a few (high or low) bits, so adding or multiplying them by
+ * small constants leaves most hash bits identical; these functions spread
+ * every input bit over the whole result.
+ */
+public final class Hashing {
+    /* prevents this class from being instantiated */
+    private Hashing() {}
+
+    /** multiplier used to fold each value into a combined hash (2^64 / golden ratio) */
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    /** Returns a well-mixed 32-bit hash of v (the finalizer of MurmurHash3). */
+    public static int mix(long v) {
+        v ^= (v >>> 33);
+        v *= 0xff51afd7ed558ccdL;
+        v ^= (v >>> 33);
+        v *= 0xc4ceb9fe1a85ec53L;
+        v ^= (v >>> 33);
+        return (int)v;
+    }
+
+    /** Returns a 64-bit hash state with v folded into h (pass the result to mix() when done). */
+    public static long combine(long h, long v) {
+        return (h ^ v) * GOLDEN + (h >>> 29);
+    }
+}
@@ -0,0 +1,60 @@
+package org.openflow.util;
+
+/**
+ * A small cache of boxed longs.  Looking up the same value repeatedly returns 
+ * the same Long object rather than allocating a new one each time (e.g., when
+ * a long ID from a message is used to look something up in a map keyed by 
+ * Long).  The cache is direct-mapped, so a value may be evicted by another 
+ * value which hashes to the same slot; this only costs an allocation.
+ * 
+ * It is safe to share an interner between threads: at worst two threads 
+ * both allocate a Long for the same value.
+ */
+public class LongInterner {
+    /** default number of slots in the cache */
+    public static final int DEFAULT_SIZE = 4096;
+    
+    /** cached values */
+    private final Long[] cache;
+    
+    /** mask which maps a hash to a slot */
+    private final int mask;
+    
+    /** Creates an interner with the default number of slots. */
+    public LongInterner() {
+        this(DEFAULT_SIZE);
+    }
+    
+    /**
+     * Creates an interner.
+     * 
+     * @param size  number of slots (rounded up to a power of two)
+     */
+    public LongInterner(int size) {
+        int n = 1;
+        while(n < size)
+            n <<= 1;
+        
+        cache = new Long[n];
+        mask = n - 1;
+    }
+    
+    /** Returns a Long equal to v, reusing a cached one if possible. */
+    public Long intern(long v) {
+        int slot = hash(v) & mask;
+        Long l = cache[slot];
+        if(l == null || l.longValue() != v) {
+            l = Long.valueOf(v);
+            cache[slot] = l;
+        }
+        return l;
+    }
+    
+    /** spreads the bits of v so that IDs which differ only in their high bits land in different slots */
+    private static int hash(long v) {
+        v ^= (v >>> 33);
+        v *= 0xff51afd7ed558ccdL;
+        v ^= (v >>> 33);
+        return (int)v;
+    }
+}
@@ -2,39 +2,61 @@ package org.openflow.util;
 
 import java.util.ArrayList;
 
-/** 
- * Tracks which objects refer to some object.
- */ 
+/**
+ * Tracks which objects refer to some object.  Once the last reference is
+ * removed the tracker is released: no more references may be added to it, so
+ * whoever keeps it in a map can safely replace it with a new tracker.
+ */
 public class RefTrack<REF_TO, REF_FROM> {
     /** the object being tracked */
     public final REF_TO obj;
     
-    /** references to obj */
-    private final ArrayList<REF_FROM> refs = new ArrayList<REF_FROM>();
+    /** references to obj (guarded by this) */
+    private final ArrayList<REF_FROM> refs = new ArrayList<REF_FROM>(2);
+    
+    /** whether the last reference to obj has been removed (guarded by this) */
+    private boolean released = false;
     
     /**
      * Construct a RefTrack with one object referring to another.
-     * 
+     *
      * @param objToTrack  the object whose referants are being tracked
      * @param ref         an object which refers to objToTrack
      */
     public RefTrack(REF_TO objToTrack, REF_FROM ref) {
         obj = objToTrack;
-        refs.add(ref); 
+        refs.add(ref);
     }
     
-    /** Adds a reference to obj */
-    public void addRef(REF_FROM o) {
+    /**
+     * Adds a reference to obj.  Returns false (and does not add it) if this
+     * tracker has already been released.
+     */
+    public synchronized boolean addRef(REF_FROM o) {
+        if(released)
+            return false;
+        
         if(!refs.contains(o))
             refs.add(o);
+        return true;
     }
     
-    /** 
+    /**
      * Removes the reference o and returns true if obj no longer has any
-     * references to it.
+     * references to it (only the call which removes the last reference
+     * returns true; this tracker is released by it).
      */
-    public boolean removeRef(REF_FROM o) {
+    public synchronized boolean removeRef(REF_FROM o) {
+        if(released)
+            return false;
+        
         refs.remove(o);
-        return refs.size() == 0;
+        released = refs.isEmpty();
+        return released;
+    }
+    
+    /** Returns true if the last reference to obj has been removed. */
+    public synchronized boolean isReleased() {
+        return released;
     }
 }
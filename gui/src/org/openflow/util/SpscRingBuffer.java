@@ -0,0 +1,185 @@
+package org.openflow.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock-free queue for exactly one producer thread and one consumer
+ * thread.  offer() and poll() never block; put() and take() wait (spinning
+ * briefly and then parking) until there is room or an element is available.
+ *
+ * The buffer keeps a few counters which are useful for spotting backpressure:
+ * the highest occupancy seen and how many times each side had to wait.
+ */
+public class SpscRingBuffer<E> {
+    /** how long a waiting thread parks before checking again (in case a wakeup is missed) */
+    private static final long PARK_NANOS = 1000 * 1000;
+
+    /** how many times a waiting thread checks again before parking */
+    private static final int SPINS = 100;
+
+    /** the elements (slot i holds the element with sequence number i mod capacity) */
+    private final Object[] slots;
+
+    /** maps a sequence number to a slot */
+    private final int mask;
+
+    /** sequence number of the next element to take (only the consumer updates it) */
+    private final AtomicLong head = new AtomicLong(0);
+
+    /** sequence number of the next element to add (only the producer updates it) */
+    private final AtomicLong tail = new AtomicLong(0);
+
+    /** the producer, if it is parked waiting for room */
+    private volatile Thread waitingProducer = null;
+
+    /** the consumer, if it is parked waiting for an element */
+    private volatile Thread waitingConsumer = null;
+
+    /** largest number of elements which have been in the buffer at once */
+    private volatile int maxOccupancy = 0;
+
+    /** number of times the producer had to wait for room */
+    private volatile long numFullWaits = 0;
+
+    /** number of times the consumer had to wait for an element */
+    private volatile long numEmptyWaits = 0;
+
+    /**
+     * Creates a ring buffer.
+     *
+     * @param capacity  maximum number of elements (rounded up to a power of two)
+     */
+    public SpscRingBuffer(int capacity) {
+        int n = 1;
+        while(n < capacity)
+            n <<= 1;
+
+        slots = new Object[n];
+        mask = n - 1;
+    }
+
+    /** Returns the maximum number of elements the buffer can hold. */
+    public int capacity() {
+        return slots.length;
+    }
+
+    /** Returns the number of elements currently in the buffer. */
+    public int size() {
+        return (int)(tail.get() - head.get());
+    }
+
+    /**
+     * Adds e if there is room (producer only).
+     *
+     * @return true if e was added
+     */
+    public boolean offer(E e) {
+        long t = tail.get();
+        int occupancy = (int)(t - head.get());
+        if(occupancy >= slots.length)
+            return false;
+
+        slots[(int)t & mask] = e;
+        tail.lazySet(t + 1);
+        if(occupancy + 1 > maxOccupancy)
+            maxOccupancy = occupancy + 1;
+
+        Thread w = waitingConsumer;
+        if(w != null)
+            LockSupport.unpark(w);
+        return true;
+    }
+
+    /**
+     * Removes and returns the oldest element, if any (consumer only).
+     *
+     * @return the oldest element, or null if the buffer is empty
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long h = head.get();
+        if(h >= tail.get())
+            return null;
+
+        int slot = (int)h & mask;
+        E e = (E)slots[slot];
+        slots[slot] = null;
+        head.lazySet(h + 1);
+
+        Thread w = waitingProducer;
+        if(w != null)
+            LockSupport.unpark(w);
+        return e;
+    }
+
+    /** Adds e, waiting for room if necessary (producer only). */
+    public void put(E e) throws InterruptedException {
+        if(offer(e))
+            return;
+
+        numFullWaits += 1;
+        for(int i=0; ; i++) {
+            if(Thread.interrupted())
+                throw new InterruptedException();
+
+            if(i < SPINS) {
+                if(offer(e))
+                    return;
+                continue;
+            }
+
+            // announce that we are waiting and then check once more so that a
+            // consumer which polled in between is not missed
+            waitingProducer = Thread.currentThread();
+            if(offer(e)) {
+                waitingProducer = null;
+                return;
+            }
+            LockSupport.parkNanos(this, PARK_NANOS);
+            waitingProducer = null;
+        }
+    }
+
+    /** Removes and returns the oldest element, waiting for one if necessary (consumer only). */
+    public E take() throws InterruptedException {
+        E e = poll();
+        if(e != null)
+            return e;
+
+        numEmptyWaits += 1;
+        for(int i=0; ; i++) {
+            if(Thread.interrupted())
+                throw new InterruptedException();
+
+            if(i < SPINS) {
+                if((e = poll()) != null)
+                    return e;
+                continue;
+            }
+
+            waitingConsumer = Thread.currentThread();
+            if((e = poll()) != null) {
+                waitingConsumer = null;
+                return e;
+            }
+            LockSupport.parkNanos(this, PARK_NANOS);
+            waitingConsumer = null;
+        }
+    }
+
+    /** Returns the largest number of elements which have been in the buffer at once. */
+    public int getMaxOccupancy() {
+        return maxOccupancy;
+    }
+
+    /** Returns the number of times the producer had to wait because the buffer was full. */
+    public long getNumFullWaits() {
+        return numFullWaits;
+    }
+
+    /** Returns the number of times the consumer had to wait because the buffer was empty. */
+    public long getNumEmptyWaits() {
+        return numEmptyWaits;
+    }
+}
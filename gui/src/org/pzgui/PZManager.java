@@ -2,11 +2,13 @@ package org.pzgui;
 
 import java.awt.AWTEvent;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.ListIterator;
 import java.util.Set;
@@ -114,6 +116,19 @@ public class PZManager extends Thread {
         }
     }
 
+    /** 
+     * Returns the part of the scene visible in each window (see 
+     * PZWindow.getVisibleArea()).
+     */
+    public ArrayList<Rectangle> getVisibleAreas() {
+        synchronized(windows) {
+            ArrayList<Rectangle> areas = new ArrayList<Rectangle>(windows.size());
+            for(PZWindow w : windows)
+                areas.add(w.getVisibleArea());
+            return areas;
+        }
+    }
+
     /**
      * Terminates the application if no GUI windows are left.
      */
@@ -163,6 +178,9 @@ public class PZManager extends Thread {
     /** Entities to draw on the GUIs */
     private Vector<Drawable> drawables = new Vector<Drawable>();
 
+    /** the same entities as drawables (for fast membership tests) */
+    private final HashSet<Drawable> drawableSet = new HashSet<Drawable>();
+
     /** the order in which certain types of objects should be drawn (last=front) */
     private LinkedList<Class> classDrawOrder = new LinkedList<Class>();
     
@@ -172,11 +190,33 @@ public class PZManager extends Thread {
      */
     public synchronized void addDrawable(Drawable d) {
         // only draw each entity once
-        if(drawables.contains(d))
+        if(drawableSet.contains(d))
             return;
         
         setLayoutableInfo(d);
-
+        insertDrawable(d);
+    }
+    
+    /**
+     * Add many new entities to draw on the GUI at once.  This is equivalent to 
+     * calling addDrawable() on each but much cheaper for large batches.
+     * @param ds  the entities to start drawing
+     */
+    public synchronized void addDrawables(Collection<? extends Drawable> ds) {
+        // only draw each entity once
+        for(Drawable d : ds) {
+            if(drawableSet.contains(d))
+                continue;
+            
+            setLayoutableInfo(d);
+            insertDrawable(d);
+        }
+    }
+    
+    /** inserts d into drawables at the spot its class belongs in the z-order */
+    private void insertDrawable(Drawable d) {
+        drawableSet.add(d);
+        
         // determine which objects e should be drawn on top of
         boolean found = false;
         LinkedList<Class> mustDrawOnTopOf = new LinkedList<Class>();
@@ -217,7 +257,8 @@ public class PZManager extends Thread {
      * @param d  the entity to stop drawing
      */
     public synchronized void removeDrawable(Drawable d) {
-        drawables.remove(d);
+        if(drawableSet.remove(d))
+            drawables.remove(d);
     }
 
     /**
@@ -237,6 +278,7 @@ public class PZManager extends Thread {
         // re-sort drawables based on the new ordering
         Vector<Drawable> oldDrawables = drawables;
         drawables = new Vector<Drawable>();
+        drawableSet.clear();
         for(Drawable d : oldDrawables)
             addDrawable(d);
     }
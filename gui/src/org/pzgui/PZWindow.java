@@ -435,6 +435,18 @@ public class PZWindow extends javax.swing.JFrame implements ComponentListener {
         setZoom(zoom / (1.0f + DEFAULT_ZOOM_PERCENT_CHANGE));
     }
 
+    /** 
+     * Returns the part of the scene which is visible in this window (in scene
+     * coordinates, i.e., after accounting for the pan and zoom). 
+     */
+    public Rectangle getVisibleArea() {
+        float z = getZoom();
+        int w = getWidth() - getReservedWidthRight();
+        int h = getHeight() - getReservedHeightBottom();
+        return new Rectangle((int)Math.floor(-getDrawOffsetX() / z), (int)Math.floor(-getDrawOffsetY() / z),
+                             (int)Math.ceil(w / z), (int)Math.ceil(h / z));
+    }
+
     /** reset the pan to the origin and zoom to 1.0 */
     public void resetView() {
         drawOffset.set(0, 0);
@@ -2,6 +2,8 @@ package org.pzgui.layout;
 
 import java.awt.Dimension;
 import java.awt.geom.Point2D;
+import java.util.Collection;
+
 import org.pzgui.Drawable;
 import org.pzgui.PZWindow;
 
@@ -37,7 +39,17 @@ public class PZLayoutManager extends org.pzgui.PZManager {
     
     public synchronized void addDrawable(Drawable d) {
         super.addDrawable(d);
-        
+        addToLayout(d);
+    }
+    
+    public synchronized void addDrawables(Collection<? extends Drawable> ds) {
+        super.addDrawables(ds);
+        for(Drawable d : ds)
+            addToLayout(d);
+    }
+    
+    /** positions d and adds it (and its edges) to the graph if it is a Vertex */
+    private void addToLayout(Drawable d) {
         // initially position the node randomly
         if(d instanceof AbstractLayoutable) {
             AbstractLayoutable al = (AbstractLayoutable)d;